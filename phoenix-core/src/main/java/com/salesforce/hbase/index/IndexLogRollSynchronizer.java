@@ -27,6 +27,7 @@
  ******************************************************************************/
 package com.salesforce.hbase.index;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
@@ -73,15 +74,29 @@ import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
  * </ol>
  * </li> </ol>
  * <p>
+ * If the index updates are written asynchronously, the postXXX hook only queues them, so we also
+ * flush the queued updates once we hold the write lock, before the WAL is archived.
+ * <p>
  * <tt>this</tt> should be added as a {@link WALActionsListener} by updating
  */
 public class IndexLogRollSynchronizer implements WALActionsListener {
 
   private static final Log LOG = LogFactory.getLog(IndexLogRollSynchronizer.class);
   private WriteLock logArchiveLock;
+  private Flushable pendingIndexWrites;
 
   public IndexLogRollSynchronizer(WriteLock logWriteLock){
+    this(logWriteLock, null);
+  }
+
+  /**
+   * @param logWriteLock lock to take before the WAL is archived
+   * @param pendingIndexWrites index updates to flush before the WAL is archived, or <tt>null</tt>
+   *          if they are written synchronously
+   */
+  public IndexLogRollSynchronizer(WriteLock logWriteLock, Flushable pendingIndexWrites) {
     this.logArchiveLock = logWriteLock;
+    this.pendingIndexWrites = pendingIndexWrites;
   }
 
 
@@ -91,6 +106,15 @@ public class IndexLogRollSynchronizer implements WALActionsListener {
     LOG.debug("Taking INDEX_UPDATE writelock");
     logArchiveLock.lock();
     LOG.debug("Got the INDEX_UPDATE writelock");
+    if (pendingIndexWrites != null) {
+      try {
+        pendingIndexWrites.flush();
+      } catch (IOException e) {
+        // we won't get the postLogArchive call to release the lock
+        logArchiveLock.unlock();
+        throw e;
+      }
+    }
   }
   
   @Override
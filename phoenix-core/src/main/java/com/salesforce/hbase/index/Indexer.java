@@ -77,6 +77,8 @@ import com.salesforce.hbase.index.util.IndexManagementUtil;
 import com.salesforce.hbase.index.wal.IndexedKeyValue;
 import com.salesforce.hbase.index.write.IndexFailurePolicy;
 import com.salesforce.hbase.index.write.IndexWriter;
+import com.salesforce.hbase.index.write.ParallelWriterIndexCommitter;
+import com.salesforce.hbase.index.write.PipelinedIndexCommitter;
 import com.salesforce.hbase.index.write.recovery.PerRegionIndexWriteCache;
 import com.salesforce.hbase.index.write.recovery.StoreFailuresInCachePolicy;
 import com.salesforce.hbase.index.write.recovery.TrackingParallelWriterIndexCommitter;
@@ -97,6 +99,12 @@ import com.salesforce.phoenix.util.MetaDataUtil;
  * nothing does. Currently, we do not support mixed-durability updates within a single batch. If you
  * want to have different durability levels, you only need to split the updates into two different
  * batches.
+ * <p>
+ * With a {@link PipelinedIndexCommitter}, the updates in the WAL are only queued to be written to the
+ * index tables in the postXXX hooks, so the write to the primary table doesn't wait on the index
+ * tables. Any failure is still handled by killing the server, and the queued updates are flushed
+ * before the WAL is archived and before the region's memstore is flushed. Updates that skip the WAL
+ * can't be replayed, so those are always written before returning.
  */
 public class Indexer extends BaseRegionObserver {
 
@@ -104,7 +112,11 @@ public class Indexer extends BaseRegionObserver {
 
   /** WAL on this server */
   private HLog log;
+  /** Keeps the WAL from being archived while it holds index updates we haven't written */
+  private IndexLogRollSynchronizer logRollSynchronizer;
   protected IndexWriter writer;
+  /** Writes the index updates that skip the WAL, which can't just be queued */
+  private IndexWriter syncWriter;
   protected IndexBuildManager builder;
 
   /** Configuration key for the {@link IndexBuilder} to use */
@@ -115,6 +127,11 @@ public class Indexer extends BaseRegionObserver {
   private static final ReentrantReadWriteLock INDEX_READ_WRITE_LOCK = new ReentrantReadWriteLock(
       true);
   public static final ReadLock INDEX_UPDATE_LOCK = INDEX_READ_WRITE_LOCK.readLock();
+  /**
+   * Held by this region's batches from queuing their index updates until they are written, so a
+   * flush of this region can wait for them without blocking the batches of the other regions
+   */
+  private final ReentrantReadWriteLock regionUpdateLock = new ReentrantReadWriteLock(true);
 
   /**
    * Configuration key for if the indexer should check the version of HBase is running. Generally,
@@ -174,13 +191,22 @@ public class Indexer extends BaseRegionObserver {
     
         this.builder = new IndexBuildManager(env);
     
+        // setup the actual index writer
+        this.writer = new IndexWriter(env, serverName + "-index-writer");
+        if (this.writer.isAsynchronous()) {
+          this.syncWriter =
+              new IndexWriter(new ParallelWriterIndexCommitter(),
+                  IndexWriter.getFailurePolicy(env), env, serverName + "-sync-index-writer");
+        } else {
+          this.syncWriter = this.writer;
+        }
+
         // get a reference to the WAL
         log = env.getRegionServerServices().getWAL();
         // add a synchronizer so we don't archive a WAL that we need
-        log.registerWALActionsListener(new IndexLogRollSynchronizer(INDEX_READ_WRITE_LOCK.writeLock()));
-    
-        // setup the actual index writer
-        this.writer = new IndexWriter(env, serverName + "-index-writer");
+        logRollSynchronizer =
+            new IndexLogRollSynchronizer(INDEX_READ_WRITE_LOCK.writeLock(), this.writer);
+        log.registerWALActionsListener(logRollSynchronizer);
     
         // setup the recovery writer that does retries on the failed edits
         TrackingParallelWriterIndexCommitter recoveryCommmiter =
@@ -218,12 +244,68 @@ public class Indexer extends BaseRegionObserver {
         return;
       }
     this.stopped = true;
+    // write out any queued index updates while we still can
+    flushIndexUpdates();
+    // the WAL outlives this region, so don't leave it calling back into our stopped writer
+    log.unregisterWALActionsListener(logRollSynchronizer);
     String msg = "Indexer is being stopped";
     this.builder.stop(msg);
     this.writer.stop(msg);
+    this.syncWriter.stop(msg);
     this.recoveryWriter.stop(msg);
   }
 
+  @Override
+  public void preClose(ObserverContext<RegionCoprocessorEnvironment> c, boolean abortRequested)
+      throws IOException {
+    if (this.disabled) {
+      super.preClose(c, abortRequested);
+      return;
+    }
+    // when aborting, the updates are replayed from the WAL, so there's no point in waiting for them
+    if (!abortRequested) {
+      flushIndexUpdates();
+    }
+  }
+
+  /**
+   * Write this region's queued index updates before the memstore snapshot of the store is
+   * persisted. Once the flush completes, WAL replay skips the edits in the snapshot, so it can no
+   * longer recover their index updates. The snapshot may also hold edits whose batches haven't
+   * queued their index updates yet, so we first wait for this region's in-progress batches by
+   * taking its update lock. The {@link IndexWriter} belongs to this region, so we don't wait on the
+   * updates of any other region either.
+   * <p>
+   * Splits flush the region when they close it, so they come through here too. Compactions don't
+   * change which edits are flushed, so they don't need to wait for the index updates.
+   */
+  @Override
+  public InternalScanner preFlush(ObserverContext<RegionCoprocessorEnvironment> c, Store store,
+      InternalScanner scanner) throws IOException {
+    if (this.disabled) {
+      return super.preFlush(c, store, scanner);
+    }
+    LOG.debug("Taking region update writelock to flush " + store);
+    regionUpdateLock.writeLock().lock();
+    try {
+      // a failure fails the flush, so the edits stay in the WAL
+      this.writer.flush();
+    } finally {
+      LOG.debug("Releasing region update writelock");
+      regionUpdateLock.writeLock().unlock();
+    }
+    return scanner;
+  }
+
+  private void flushIndexUpdates() {
+    try {
+      this.writer.flush();
+    } catch (IOException e) {
+      // the failure policy has already been told, and the updates are still in the WAL
+      LOG.warn("Could not write all queued index updates", e);
+    }
+  }
+
   @Override
   public void prePut(final ObserverContext<RegionCoprocessorEnvironment> c, final Put put,
       final WALEdit edit, final boolean writeToWAL) throws IOException {
@@ -365,6 +447,8 @@ public class Indexer extends BaseRegionObserver {
           throw new IndexBuildingFailureException(
               "Found server stop after obtaining the update lock, killing update attempt");
         }
+        // only ever waits on a flush of this region, which doesn't need the log lock
+        regionUpdateLock.readLock().lock();
         break;
       } catch (InterruptedException e) {
         LOG.info("Interrupted while waiting for update lock. Ignoring unless stopped");
@@ -456,10 +540,10 @@ public class Indexer extends BaseRegionObserver {
     }
 
     // if writing to wal is disabled, we never see the WALEdit updates down the way, so do the index
-    // update right away
+    // update right away. Nothing could replay queued updates, so don't return until they are written
     if (!writeToWAL) {
       try {
-        this.writer.write(indexUpdates);
+        this.syncWriter.write(indexUpdates);
         return false;
       } catch (Throwable e) {
         LOG.error("Failed to update index with entries:" + indexUpdates, e);
@@ -564,6 +648,7 @@ public class Indexer extends BaseRegionObserver {
         // batch cases only take the lock once, so we need to make sure we don't over-release the
         // lock.
         LOG.debug("Releasing INDEX_UPDATE readlock");
+        regionUpdateLock.readLock().unlock();
         INDEX_UPDATE_LOCK.unlock();
       }
     }
@@ -126,8 +126,18 @@ public class IndexBuildManager implements Stoppable {
   public Collection<Pair<Mutation, byte[]>> getIndexUpdate(
       MiniBatchOperationInProgress<Pair<Mutation, Integer>> miniBatchOp,
       Collection<? extends Mutation> mutations) throws Throwable {
-    // notify the delegate that we have started processing a batch
-    this.delegate.batchStarted(miniBatchOp);
+    try {
+      // notify the delegate that we have started processing a batch. This is inside the try, so
+      // that anything the delegate cached for the batch is released even if it fails part way
+      this.delegate.batchStarted(miniBatchOp);
+      return getIndexUpdate(mutations);
+    } finally {
+      this.delegate.batchIndexUpdatesBuilt(miniBatchOp);
+    }
+  }
+
+  private Collection<Pair<Mutation, byte[]>> getIndexUpdate(Collection<? extends Mutation> mutations)
+      throws Throwable {
 
     // parallelize each mutation into its own task
     // each task is cancelable via two mechanisms: (1) underlying HRegion is closing (which would
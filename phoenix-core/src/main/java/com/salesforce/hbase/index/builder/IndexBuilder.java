@@ -117,6 +117,14 @@ public interface IndexBuilder extends Stoppable {
    */
   public void batchCompleted(MiniBatchOperationInProgress<Pair<Mutation, Integer>> miniBatchOp);
 
+  /**
+   * Notification that the index updates for all the mutations of a batch have been built, or that
+   * building them failed. Unlike {@link #batchCompleted}, this is always called once
+   * {@link #batchStarted} has been, while the rows of the batch are still locked.
+   * @param miniBatchOp the full batch operation to be written
+   */
+  public void batchIndexUpdatesBuilt(MiniBatchOperationInProgress<Pair<Mutation, Integer>> miniBatchOp);
+
   /**
    * Notification that a batch has been started.
    * <p>
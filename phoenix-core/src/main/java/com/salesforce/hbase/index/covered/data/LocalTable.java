@@ -32,6 +32,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Mutation;
@@ -42,6 +44,7 @@ import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 
 import com.salesforce.hbase.index.covered.update.ColumnReference;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.hbase.index.util.IndexManagementUtil;
 
 /**
@@ -52,10 +55,17 @@ import com.salesforce.hbase.index.util.IndexManagementUtil;
  * row accessed multiple times will likely be in HBase's block cache, invalidating any extra caching
  * we are doing here. In the end, its simpler and about as efficient to just get the current state
  * of the row from HBase and let HBase manage caching the row from disk on its own.
+ * <p>
+ * The one exception is the state of the rows of a batch, which may be read with a single scan when
+ * the batch starts and cached via {@link #cacheRowState(byte[], List)} until the index updates of
+ * the batch have been built. Those rows are locked by the batch until then, so their state cannot
+ * change while cached.
  */
 public class LocalTable implements LocalHBaseState {
 
   private RegionCoprocessorEnvironment env;
+  private final ConcurrentMap<ImmutableBytesPtr, CachedRowState> rowStateCache =
+      new ConcurrentHashMap<ImmutableBytesPtr, CachedRowState>();
 
   public LocalTable(RegionCoprocessorEnvironment env) {
     this.env = env;
@@ -65,6 +75,10 @@ public class LocalTable implements LocalHBaseState {
   public Result getCurrentRowState(Mutation m, Collection<? extends ColumnReference> columns)
       throws IOException {
     byte[] row = m.getRow();
+    CachedRowState cached = rowStateCache.get(new ImmutableBytesPtr(row));
+    if (cached != null) {
+      return new Result(cached.getKeyValues(columns));
+    }
     // need to use a scan here so we can get raw state, which Get doesn't provide.
     Scan s = IndexManagementUtil.newLocalStateScan(Collections.singletonList(columns));
     s.setStartRow(row);
@@ -79,4 +93,48 @@ public class LocalTable implements LocalHBaseState {
     scanner.close();
     return r;
   }
-}
\ No newline at end of file
+
+  /**
+   * Cache the current state of a row locked by the batch in progress
+   * @param row the row
+   * @param kvs the raw state of the row, with all versions of at least the column families the
+   *          mutations of the batch need to cover
+   */
+  public void cacheRowState(byte[] row, List<KeyValue> kvs) {
+    rowStateCache.put(new ImmutableBytesPtr(row), new CachedRowState(kvs));
+  }
+
+  /**
+   * Remove the cached state of a row, once the index updates of the batch that cached it have
+   * been built
+   * @param row the row
+   */
+  public void uncacheRowState(byte[] row) {
+    rowStateCache.remove(new ImmutableBytesPtr(row));
+  }
+
+  private static class CachedRowState {
+    private final List<KeyValue> kvs;
+
+    private CachedRowState(List<KeyValue> kvs) {
+      this.kvs = kvs;
+    }
+
+    /**
+     * @return the cached key values in the column families of the given columns, the same as
+     *         would be returned by scanning the row for them
+     */
+    private List<KeyValue> getKeyValues(Collection<? extends ColumnReference> columns) {
+      List<KeyValue> filtered = new ArrayList<KeyValue>(kvs.size());
+      for (KeyValue kv : kvs) {
+        for (ColumnReference column : columns) {
+          if (column.matchesFamily(kv.getBuffer(), kv.getFamilyOffset(), kv.getFamilyLength())) {
+            filtered.add(kv);
+            break;
+          }
+        }
+      }
+      return filtered;
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Mutation;
+
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+
+/**
+ * Coalesce the index updates that concurrent batches write to the same index table into fewer,
+ * larger {@link HTableInterface#batch(List)} calls, which the client then splits up by region
+ * server.
+ * <p>
+ * Writes to an index table are group committed: while one thread is writing to the table, the
+ * updates of any other threads writing to it are queued, and the first of those threads then
+ * writes all of the queued updates at once. If there was already contention for the table when its
+ * updates were queued, that thread also waits up to the latency budget for more updates to be
+ * queued (or until there are enough for a full batch) before writing. Uncontended writes are never
+ * delayed.
+ * <p>
+ * The size of the batches and the time updates spend queued are tracked, so the benefit can be
+ * checked against the latency added.
+ */
+public class IndexWriteCoalescer {
+
+  private final ConcurrentMap<HTableInterfaceReference, TableWriteQueue> queues =
+      new ConcurrentHashMap<HTableInterfaceReference, TableWriteQueue>();
+  private final long maxWaitNanos;
+  private final int maxBatchSize;
+
+  private final AtomicLong batchCount = new AtomicLong();
+  private final AtomicLong mutationCount = new AtomicLong();
+  private final AtomicLong writeCount = new AtomicLong();
+  private final AtomicLong queueTimeNanos = new AtomicLong();
+  private final AtomicLong maxBatchSizeWritten = new AtomicLong();
+
+  /**
+   * @param maxWaitMs latency budget for waiting for more updates to coalesce, when there is
+   *          contention for an index table
+   * @param maxBatchSize number of queued updates for which we stop waiting
+   */
+  public IndexWriteCoalescer(long maxWaitMs, int maxBatchSize) {
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Write the updates to the index table, along with any updates other threads have queued for it,
+   * returning once they have all been written.
+   * @param tableReference index table to write
+   * @param table to write through, if this thread ends up writing the batch
+   * @param mutations updates to write
+   * @throws IOException if the batch the updates were written in failed
+   * @throws InterruptedException if interrupted before the updates were written
+   */
+  public void write(HTableInterfaceReference tableReference, HTableInterface table,
+      List<Mutation> mutations) throws IOException, InterruptedException {
+    getQueue(tableReference).write(table, new PendingWrite(mutations));
+  }
+
+  private TableWriteQueue getQueue(HTableInterfaceReference tableReference) {
+    TableWriteQueue queue = queues.get(tableReference);
+    if (queue == null) {
+      queue = new TableWriteQueue();
+      TableWriteQueue existing = queues.putIfAbsent(tableReference, queue);
+      if (existing != null) {
+        queue = existing;
+      }
+    }
+    return queue;
+  }
+
+  /**
+   * @return number of {@link HTableInterface#batch(List)} calls made
+   */
+  public long getBatchCount() {
+    return batchCount.get();
+  }
+
+  /**
+   * @return number of calls to {@link #write} whose updates have been written
+   */
+  public long getWriteCount() {
+    return writeCount.get();
+  }
+
+  /**
+   * @return average number of updates written per {@link HTableInterface#batch(List)} call
+   */
+  public double getAverageBatchSize() {
+    long batches = batchCount.get();
+    return batches == 0 ? 0 : (double) mutationCount.get() / batches;
+  }
+
+  /**
+   * @return largest number of updates written by a single {@link HTableInterface#batch(List)} call
+   */
+  public long getMaxBatchSize() {
+    return maxBatchSizeWritten.get();
+  }
+
+  /**
+   * @return number of updates currently queued to be written
+   */
+  public long getQueuedMutationCount() {
+    long queued = 0;
+    for (TableWriteQueue queue : queues.values()) {
+      queued += queue.pendingSize;
+    }
+    return queued;
+  }
+
+  /**
+   * @return average time in milliseconds updates were queued before being written
+   */
+  public double getAverageQueueTimeMs() {
+    long writes = writeCount.get();
+    return writes == 0 ? 0 : (double) queueTimeNanos.get() / writes / TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public String toString() {
+    return "batches=" + getBatchCount() + ", writes=" + getWriteCount() + ", avgBatchSize="
+        + getAverageBatchSize() + ", maxBatchSize=" + getMaxBatchSize() + ", avgQueueTimeMs="
+        + getAverageQueueTimeMs();
+  }
+
+  private static class PendingWrite {
+    private final List<Mutation> mutations;
+    private final long queuedNanos = System.nanoTime();
+    private boolean done;
+    private Throwable failure;
+
+    private PendingWrite(List<Mutation> mutations) {
+      this.mutations = mutations;
+    }
+  }
+
+  private class TableWriteQueue {
+    private final ReentrantLock lock = new ReentrantLock();
+    /** Signaled when a batch has been written */
+    private final Condition written = lock.newCondition();
+    /** Signaled when there are enough queued updates to fill a batch */
+    private final Condition batchFull = lock.newCondition();
+    private final LinkedList<PendingWrite> pending = new LinkedList<PendingWrite>();
+    private volatile int pendingSize;
+    private boolean writing;
+
+    private void write(HTableInterface table, PendingWrite write) throws IOException,
+        InterruptedException {
+      lock.lock();
+      try {
+        boolean contended = writing || !pending.isEmpty();
+        pending.add(write);
+        pendingSize += write.mutations.size();
+        if (pendingSize >= maxBatchSize) {
+          batchFull.signal();
+        }
+        try {
+          while (!write.done) {
+            if (writing) {
+              written.await();
+            } else {
+              writeBatch(table, contended ? write.queuedNanos + maxWaitNanos : 0);
+            }
+          }
+        } catch (InterruptedException e) {
+          // don't leave our updates to be written by someone else
+          if (pending.remove(write)) {
+            pendingSize -= write.mutations.size();
+          }
+          throw e;
+        }
+      } finally {
+        lock.unlock();
+      }
+      if (write.failure != null) {
+        if (write.failure instanceof IOException) {
+          throw (IOException) write.failure;
+        }
+        throw new IOException(write.failure);
+      }
+    }
+
+    /**
+     * Write everything queued as a single batch. Must be called holding the lock, which is released
+     * while actually writing.
+     * @param deadlineNanos time to wait until for more updates to be queued, if positive
+     */
+    private void writeBatch(HTableInterface table, long deadlineNanos) throws InterruptedException {
+      writing = true;
+      List<PendingWrite> writes;
+      try {
+        if (deadlineNanos > 0) {
+          long remainingNanos = deadlineNanos - System.nanoTime();
+          while (pendingSize < maxBatchSize && remainingNanos > 0) {
+            remainingNanos = batchFull.awaitNanos(remainingNanos);
+          }
+        }
+        writes = new ArrayList<PendingWrite>(pending);
+        pending.clear();
+        pendingSize = 0;
+      } catch (InterruptedException e) {
+        writing = false;
+        written.signalAll();
+        throw e;
+      }
+
+      List<Mutation> batch = new ArrayList<Mutation>();
+      long now = System.nanoTime();
+      for (PendingWrite write : writes) {
+        batch.addAll(write.mutations);
+        queueTimeNanos.addAndGet(now - write.queuedNanos);
+      }
+      Throwable failure = null;
+      lock.unlock();
+      try {
+        table.batch(batch);
+      } catch (Throwable t) {
+        failure = t;
+      } finally {
+        lock.lock();
+      }
+      batchCount.incrementAndGet();
+      mutationCount.addAndGet(batch.size());
+      writeCount.addAndGet(writes.size());
+      long max;
+      while ((max = maxBatchSizeWritten.get()) < batch.size()
+          && !maxBatchSizeWritten.compareAndSet(max, batch.size())) {
+      }
+      for (PendingWrite write : writes) {
+        write.failure = failure;
+        write.done = true;
+      }
+      writing = false;
+      written.signalAll();
+      if (failure instanceof InterruptedException) {
+        throw (InterruptedException) failure;
+      }
+    }
+  }
+}
@@ -27,6 +27,7 @@
  ******************************************************************************/
 package com.salesforce.hbase.index.write;
 
+import java.io.Flushable;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
@@ -52,12 +53,14 @@ import com.salesforce.hbase.index.util.ImmutableBytesPtr;
  * index table that we cleanly kill the region/server to ensure that the region's WAL gets replayed.
  * <p>
  * We attempt to do the index updates in parallel using a backing threadpool. All threads are daemon
- * threads, so it will not block the region from shutting down.
+ * threads, so it will not block the region from shutting down. If the {@link IndexCommitter} writes
+ * the updates asynchronously, it must also be {@link Flushable}, so we can wait for the updates to
+ * be written before the WAL holding them is archived.
  */
-public class IndexWriter implements Stoppable {
+public class IndexWriter implements Stoppable, Flushable {
 
   private static final Log LOG = LogFactory.getLog(IndexWriter.class);
-  private static final String INDEX_COMMITTER_CONF_KEY = "index.writer.commiter.class";
+  public static final String INDEX_COMMITTER_CONF_KEY = "index.writer.commiter.class";
   public static final String INDEX_FAILURE_POLICY_CONF_KEY = "index.writer.failurepolicy.class";
   private AtomicBoolean stopped = new AtomicBoolean(false);
   private IndexCommitter writer;
@@ -156,7 +159,35 @@ public class IndexWriter implements Stoppable {
         LOG.trace("Done writing all index updates!\n\t" + toWrite);
       }
     } catch (Exception e) {
-      this.failurePolicy.handleFailure(toWrite, e);
+      handleFailure(toWrite, e);
+    }
+  }
+
+  /**
+   * Pass along a failure to write the given updates to the installed {@link IndexFailurePolicy}.
+   * Used by {@link IndexCommitter}s that find out about failures after their write returned.
+   */
+  void handleFailure(Multimap<HTableInterfaceReference, Mutation> attempted, Exception cause)
+      throws IOException {
+    this.failurePolicy.handleFailure(attempted, cause);
+  }
+
+  /**
+   * @return <tt>true</tt> if the {@link IndexCommitter} may still be writing the updates after
+   *         {@link #write(Multimap)} returns
+   */
+  public boolean isAsynchronous() {
+    return this.writer instanceof Flushable;
+  }
+
+  /**
+   * Wait for any index updates the {@link IndexCommitter} is still writing asynchronously.
+   * @throws IOException if any of those updates could not be written
+   */
+  @Override
+  public void flush() throws IOException {
+    if (this.writer instanceof Flushable) {
+      ((Flushable) this.writer).flush();
     }
   }
 
@@ -65,6 +65,9 @@ import com.salesforce.hbase.index.table.HTableInterfaceReference;
  * </ol>
  * We attempt to quickly determine if any write has failed and not write to the remaining indexes to
  * ensure a timely recovery of the failed index writes.
+ * <p>
+ * Writes to the same index table from concurrent batches are merged into larger batches by an
+ * {@link IndexWriteCoalescer}.
  */
 public class ParallelWriterIndexCommitter implements IndexCommitter {
 
@@ -72,11 +75,18 @@ public class ParallelWriterIndexCommitter implements IndexCommitter {
   private static final int DEFAULT_CONCURRENT_INDEX_WRITER_THREADS = 10;
   private static final String INDEX_WRITER_KEEP_ALIVE_TIME_CONF_KEY =
       "index.writer.threads.keepalivetime";
+  /** Latency budget for coalescing the writes of concurrent batches to the same index table */
+  public static final String COALESCE_MAX_WAIT_MS_CONF_KEY = "index.writer.coalesce.maxwait.ms";
+  private static final long DEFAULT_COALESCE_MAX_WAIT_MS = 2;
+  /** Number of coalesced updates for which we stop waiting for more */
+  public static final String COALESCE_MAX_BATCH_SIZE_CONF_KEY = "index.writer.coalesce.batch.size";
+  private static final int DEFAULT_COALESCE_MAX_BATCH_SIZE = 5000;
   private static final Log LOG = LogFactory.getLog(ParallelWriterIndexCommitter.class);
 
   private HTableFactory factory;
   private Stoppable stopped;
   private QuickFailingTaskRunner pool;
+  private IndexWriteCoalescer coalescer;
 
   @Override
   public void setup(IndexWriter parent, RegionCoprocessorEnvironment env, String name) {
@@ -88,6 +98,10 @@ public class ParallelWriterIndexCommitter implements IndexCommitter {
             DEFAULT_CONCURRENT_INDEX_WRITER_THREADS).
           setCoreTimeout(INDEX_WRITER_KEEP_ALIVE_TIME_CONF_KEY), env),
       env.getRegionServerServices(), parent, CachingHTableFactory.getCacheSize(conf));
+    this.coalescer =
+        new IndexWriteCoalescer(conf.getLong(COALESCE_MAX_WAIT_MS_CONF_KEY,
+          DEFAULT_COALESCE_MAX_WAIT_MS), conf.getInt(COALESCE_MAX_BATCH_SIZE_CONF_KEY,
+          DEFAULT_COALESCE_MAX_BATCH_SIZE));
   }
 
   /**
@@ -100,6 +114,8 @@ public class ParallelWriterIndexCommitter implements IndexCommitter {
     this.factory = new CachingHTableFactory(factory, cacheSize);
     this.pool = new QuickFailingTaskRunner(pool);
     this.stopped = stop;
+    this.coalescer =
+        new IndexWriteCoalescer(DEFAULT_COALESCE_MAX_WAIT_MS, DEFAULT_COALESCE_MAX_BATCH_SIZE);
   }
 
   @Override
@@ -151,7 +167,7 @@ public class ParallelWriterIndexCommitter implements IndexCommitter {
           try {
             HTableInterface table = factory.getTable(tableReference.get());
             throwFailureIfDone();
-            table.batch(mutations);
+            coalescer.write(tableReference, table, mutations);
           } catch (SingleIndexWriteFailureException e) {
             throw e;
           } catch (IOException e) {
@@ -208,7 +224,8 @@ public class ParallelWriterIndexCommitter implements IndexCommitter {
    */
   @Override
   public void stop(String why) {
-    LOG.info("Shutting down " + this.getClass().getSimpleName() + " because " + why);
+    LOG.info("Shutting down " + this.getClass().getSimpleName() + " because " + why
+        + ", coalesced index writes: " + coalescer);
     this.pool.stop(why);
     this.factory.shutdown();
   }
@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.salesforce.hbase.index.IndexLogRollSynchronizer;
+import com.salesforce.hbase.index.Indexer;
+import com.salesforce.hbase.index.exception.SingleIndexWriteFailureException;
+import com.salesforce.hbase.index.parallel.ThreadPoolBuilder;
+import com.salesforce.hbase.index.parallel.ThreadPoolManager;
+import com.salesforce.hbase.index.table.CachingHTableFactory;
+import com.salesforce.hbase.index.table.HTableFactory;
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+import com.salesforce.hbase.index.wal.IndexedKeyValue;
+
+/**
+ * Write index updates to the index tables asynchronously. Rather than blocking until every index
+ * table has been written, {@link #write(Multimap)} just adds the updates to a bounded queue per
+ * index table and returns. Each queue is drained by at most one task at a time, which writes the
+ * queued updates to the index table in batches.
+ * <p>
+ * This is only safe when the index updates are already durable in the WAL as
+ * {@link IndexedKeyValue}s, as the {@link Indexer} ensures when the WAL is enabled:
+ * <ul>
+ * <li>If a queued write fails, the {@link IndexFailurePolicy} of the parent {@link IndexWriter} is
+ * notified (by default killing the server, so the WAL gets replayed) and any further writes fail
+ * immediately.</li>
+ * <li>The {@link IndexLogRollSynchronizer} {@link #flush() flushes} the queues before the WAL is
+ * archived, so the WAL can't be lost while it still holds index updates that haven't been
+ * written.</li>
+ * <li>The {@link Indexer} flushes the queues before a memstore flush, so WAL replay can't skip
+ * edits whose index updates haven't been written.</li>
+ * </ul>
+ * When a queue is full, writers wait for it to drain, so an index table that can't keep up pushes
+ * back on the writes to the primary table instead of being queued without bound.
+ * <p>
+ * Enable by setting <tt>index.writer.commiter.class</tt> to this class.
+ */
+public class PipelinedIndexCommitter implements IndexCommitter, Flushable {
+
+  public static final String NUM_CONCURRENT_INDEX_WRITER_THREADS_CONF_KEY =
+      "index.pipelinedwriter.threads.max";
+  private static final int DEFAULT_CONCURRENT_INDEX_WRITER_THREADS = 10;
+  private static final String INDEX_WRITER_KEEP_ALIVE_TIME_CONF_KEY =
+      "index.pipelinedwriter.threads.keepalivetime";
+  /** Maximum number of index updates queued for each index table before writers have to wait */
+  public static final String QUEUE_SIZE_CONF_KEY = "index.pipelinedwriter.queue.size";
+  private static final int DEFAULT_QUEUE_SIZE = 10000;
+  /** Maximum number of queued index updates written to an index table in a single batch */
+  public static final String MAX_BATCH_SIZE_CONF_KEY = "index.pipelinedwriter.batch.size";
+  private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+  private static final long QUEUE_FULL_WAIT_MS = 100;
+  private static final Log LOG = LogFactory.getLog(PipelinedIndexCommitter.class);
+
+  private final ConcurrentMap<HTableInterfaceReference, TableQueue> queues =
+      new ConcurrentHashMap<HTableInterfaceReference, TableQueue>();
+  /** Number of updates queued, but not yet written, across all the index tables */
+  private final AtomicLong pendingCount = new AtomicLong();
+  private final Object flushMonitor = new Object();
+  private volatile SingleIndexWriteFailureException failure;
+  private HTableFactory factory;
+  private ExecutorService pool;
+  private IndexWriter parent;
+  private int queueSize;
+  private int maxBatchSize;
+
+  @Override
+  public void setup(IndexWriter parent, RegionCoprocessorEnvironment env, String name) {
+    Configuration conf = env.getConfiguration();
+    setup(IndexWriterUtils.getDefaultDelegateHTableFactory(env),
+      ThreadPoolManager.getExecutor(
+        new ThreadPoolBuilder(name, conf).
+          setMaxThread(NUM_CONCURRENT_INDEX_WRITER_THREADS_CONF_KEY,
+            DEFAULT_CONCURRENT_INDEX_WRITER_THREADS).
+          setCoreTimeout(INDEX_WRITER_KEEP_ALIVE_TIME_CONF_KEY), env),
+      parent, CachingHTableFactory.getCacheSize(conf),
+      conf.getInt(QUEUE_SIZE_CONF_KEY, DEFAULT_QUEUE_SIZE),
+      conf.getInt(MAX_BATCH_SIZE_CONF_KEY, DEFAULT_MAX_BATCH_SIZE));
+  }
+
+  /**
+   * Setup <tt>this</tt>.
+   * <p>
+   * Exposed for TESTING
+   */
+  void setup(HTableFactory factory, ExecutorService pool, IndexWriter parent, int cacheSize,
+      int queueSize, int maxBatchSize) {
+    this.factory = new CachingHTableFactory(factory, cacheSize);
+    this.pool = pool;
+    this.parent = parent;
+    this.queueSize = queueSize;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /**
+   * Queue the index updates to be written to their index tables, waiting only if the queue of an
+   * index table is full.
+   * @throws SingleIndexWriteFailureException if a previously queued write has failed, or we were
+   *           interrupted while waiting for room in a queue
+   */
+  @Override
+  public void write(Multimap<HTableInterfaceReference, Mutation> toWrite)
+      throws SingleIndexWriteFailureException {
+    throwFailureIfDone();
+    for (Entry<HTableInterfaceReference, Collection<Mutation>> entry : toWrite.asMap().entrySet()) {
+      TableQueue queue = getQueue(entry.getKey());
+      for (Mutation m : entry.getValue()) {
+        pendingCount.incrementAndGet();
+        if (!queue.mutations.offer(m)) {
+          // the index table is falling behind, so wait for it to catch up
+          queue.scheduleDrain();
+          try {
+            while (!queue.mutations.offer(m, QUEUE_FULL_WAIT_MS, TimeUnit.MILLISECONDS)) {
+              throwFailureIfDone();
+            }
+          } catch (InterruptedException e) {
+            markWritten(1);
+            Thread.currentThread().interrupt();
+            throw new SingleIndexWriteFailureException(entry.getKey().toString(),
+                new ArrayList<Mutation>(entry.getValue()), e);
+          } catch (SingleIndexWriteFailureException e) {
+            markWritten(1);
+            throw e;
+          }
+        }
+      }
+      queue.scheduleDrain();
+    }
+  }
+
+  /**
+   * Wait for all the queued index updates to be written. Returns immediately once we are stopped,
+   * as the updates still queued are dropped and will be replayed from the WAL.
+   * @throws IOException if any queued write failed
+   */
+  @Override
+  public void flush() throws IOException {
+    synchronized (flushMonitor) {
+      while (pendingCount.get() > 0) {
+        if (isStopped()) {
+          return;
+        }
+        throwFailureIfDone();
+        try {
+          flushMonitor.wait(QUEUE_FULL_WAIT_MS);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted waiting for " + pendingCount.get()
+              + " queued index updates to be written");
+        }
+      }
+    }
+    if (!isStopped()) {
+      throwFailureIfDone();
+    }
+  }
+
+  private TableQueue getQueue(HTableInterfaceReference table) {
+    TableQueue queue = queues.get(table);
+    if (queue == null) {
+      queue = new TableQueue(table);
+      TableQueue existing = queues.putIfAbsent(table, queue);
+      if (existing != null) {
+        queue = existing;
+      }
+    }
+    return queue;
+  }
+
+  private void throwFailureIfDone() throws SingleIndexWriteFailureException {
+    SingleIndexWriteFailureException e = this.failure;
+    if (e != null) {
+      throw e;
+    }
+    if (isStopped()) {
+      throw new SingleIndexWriteFailureException(
+          "Pool closed, not attempting to write to the index!", null);
+    }
+  }
+
+  private void markWritten(int count) {
+    if (pendingCount.addAndGet(-count) <= 0) {
+      synchronized (flushMonitor) {
+        flushMonitor.notifyAll();
+      }
+    }
+  }
+
+  private void fail(HTableInterfaceReference table, List<Mutation> attempted, Exception cause) {
+    LOG.error("Failed to write queued index updates to " + table, cause);
+    SingleIndexWriteFailureException e =
+        new SingleIndexWriteFailureException(table.toString(), attempted, cause);
+    if (this.failure == null) {
+      this.failure = e;
+    }
+    synchronized (flushMonitor) {
+      flushMonitor.notifyAll();
+    }
+    Multimap<HTableInterfaceReference, Mutation> failed =
+        ArrayListMultimap.<HTableInterfaceReference, Mutation> create();
+    failed.putAll(table, attempted);
+    try {
+      parent.handleFailure(failed, e);
+    } catch (IOException ioe) {
+      LOG.error("Failure policy couldn't handle the failed index write", ioe);
+    }
+  }
+
+  /**
+   * The queued updates for a single index table, drained by at most one task at a time so the
+   * updates are written in the order they were queued.
+   */
+  private class TableQueue implements Runnable {
+    private final HTableInterfaceReference table;
+    private final BlockingQueue<Mutation> mutations;
+    private final AtomicBoolean draining = new AtomicBoolean(false);
+
+    private TableQueue(HTableInterfaceReference table) {
+      this.table = table;
+      this.mutations = new ArrayBlockingQueue<Mutation>(queueSize);
+    }
+
+    private void scheduleDrain() {
+      if (draining.compareAndSet(false, true)) {
+        try {
+          pool.execute(this);
+        } catch (RejectedExecutionException e) {
+          // we're stopping, so the updates will never get written
+          draining.set(false);
+          LOG.warn("Couldn't schedule the queued index updates for " + table + " to be written", e);
+        }
+      }
+    }
+
+    @Override
+    public void run() {
+      List<Mutation> batch = new ArrayList<Mutation>(Math.min(queueSize, maxBatchSize));
+      while (true) {
+        mutations.drainTo(batch, maxBatchSize);
+        if (batch.isEmpty()) {
+          draining.set(false);
+          // an update may have been queued after we found the queue empty, but before we stopped
+          // draining it, in which case nobody else will write it
+          if (mutations.isEmpty() || !draining.compareAndSet(false, true)) {
+            return;
+          }
+          continue;
+        }
+        try {
+          writeBatch(batch);
+        } finally {
+          markWritten(batch.size());
+          batch.clear();
+        }
+      }
+    }
+
+    /**
+     * Write a batch of updates to the index table. We don't need to worry about closing the table
+     * because that is handled the {@link CachingHTableFactory}. Once any write has failed or we've
+     * been stopped, the updates are just dropped, as they will be replayed from the WAL.
+     */
+    private void writeBatch(List<Mutation> batch) {
+      if (failure != null || isStopped()) {
+        return;
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Writing " + batch.size() + " queued index updates to table: " + table);
+      }
+      try {
+        factory.getTable(table.get()).batch(batch);
+      } catch (IOException e) {
+        fail(table, new ArrayList<Mutation>(batch), e);
+      } catch (InterruptedException e) {
+        // reset the interrupt status on the thread
+        Thread.currentThread().interrupt();
+        // we get interrupted when stopping, which isn't a failure of the write
+        if (!isStopped()) {
+          fail(table, new ArrayList<Mutation>(batch), e);
+        }
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * This method should only be called <b>once</b>. Any updates still queued are dropped, as we rely
+   * on the WAL to replay them. Stopped state ({@link #isStopped()}) is managed by the parent
+   * {@link IndexWriter}.
+   * @param why the reason for stopping
+   */
+  @Override
+  public void stop(String why) {
+    LOG.info("Shutting down " + this.getClass().getSimpleName() + " because " + why);
+    this.pool.shutdownNow();
+    this.factory.shutdown();
+    synchronized (flushMonitor) {
+      flushMonitor.notifyAll();
+    }
+  }
+
+  @Override
+  public boolean isStopped() {
+    return this.parent.isStopped();
+  }
+}
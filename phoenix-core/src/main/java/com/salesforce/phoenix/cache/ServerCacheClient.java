@@ -31,6 +31,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -155,10 +156,11 @@ public class ServerCacheClient {
         ExecutorService executor = services.getExecutor();
         List<Future<Boolean>> futures = Collections.emptyList();
         try {
-            List<HRegionLocation> locations = services.getAllTableRegions(cacheUsingTableRef.getTable().getPhysicalName().getBytes());
+            final byte[] tableName = cacheUsingTableRef.getTable().getPhysicalName().getBytes();
+            List<HRegionLocation> locations = services.getAllTableRegions(tableName);
             int nRegions = locations.size();
             // Size these based on worst case
-            futures = new ArrayList<Future<Boolean>>(nRegions);
+            List<byte[]> keys = new ArrayList<byte[]>(nRegions);
             Set<HRegionLocation> servers = new HashSet<HRegionLocation>(nRegions);
             for (HRegionLocation entry : locations) {
                 // Keep track of servers we've sent to and only send once
@@ -166,31 +168,58 @@ public class ServerCacheClient {
                         keyRanges.intersect(entry.getRegionInfo().getStartKey(), entry.getRegionInfo().getEndKey())) {  // Call RPC once per server
                     servers.add(entry);
                     if (LOG.isDebugEnabled()) {LOG.debug("Adding cache entry to be sent for " + entry);}
-                    final byte[] key = entry.getRegionInfo().getStartKey();
-                    final HTableInterface htable = services.getTable(cacheUsingTableRef.getTable().getPhysicalName().getBytes());
-                    closeables.add(htable);
-                    futures.add(executor.submit(new JobCallable<Boolean>() {
-                        
-                        @Override
-                        public Boolean call() throws Exception {
-                            ServerCachingProtocol protocol = htable.coprocessorProxy(ServerCachingProtocol.class, key);
-                            return protocol.addServerCache(connection.getTenantId() == null ? null : connection.getTenantId().getBytes(), cacheId, cachePtr, cacheFactory);
-                        }
-
-                        /**
-                         * Defines the grouping for round robin behavior.  All threads spawned to process
-                         * this scan will be grouped together and time sliced with other simultaneously
-                         * executing parallel scans.
-                         */
-                        @Override
-                        public Object getJobId() {
-                            return ServerCacheClient.this;
-                        }
-                    }));
+                    keys.add(entry.getRegionInfo().getStartKey());
                 } else {
                     if (LOG.isDebugEnabled()) {LOG.debug("NOT adding cache entry to be sent for " + entry + " since one already exists for that entry");}
                 }
             }
+            /*
+             * Past the fan out or the chunk size, the cache is sent in chunks to a bounded number of
+             * region servers, each of which relays every chunk on to a group of the remaining ones
+             * while the next chunk is on its way. This keeps the outbound bandwidth of the client
+             * independent of the cluster size.
+             */
+            int fanout = services.getProps().getInt(QueryServices.SERVER_CACHE_RELAY_FANOUT_ATTRIB, QueryServicesOptions.DEFAULT_SERVER_CACHE_RELAY_FANOUT);
+            final int chunkSize = services.getProps().getInt(QueryServices.SERVER_CACHE_CHUNK_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_SERVER_CACHE_CHUNK_SIZE);
+            final boolean isChunked = keys.size() > fanout || cachePtr.getLength() > chunkSize;
+            byte[][][] groups = getRelayGroups(keys.toArray(new byte[keys.size()][]), isChunked ? fanout : keys.size());
+            futures = new ArrayList<Future<Boolean>>(groups.length);
+            for (byte[][] group : groups) {
+                final byte[] key = group[0];
+                final byte[][] relayKeys = Arrays.copyOfRange(group, 1, group.length);
+                final HTableInterface htable = services.getTable(tableName);
+                closeables.add(htable);
+                futures.add(executor.submit(new JobCallable<Boolean>() {
+                    
+                    @Override
+                    public Boolean call() throws Exception {
+                        ServerCachingProtocol protocol = htable.coprocessorProxy(ServerCachingProtocol.class, key);
+                        byte[] tenantId = connection.getTenantId() == null ? null : connection.getTenantId().getBytes();
+                        if (!isChunked) {
+                            return protocol.addServerCache(tenantId, cacheId, cachePtr, cacheFactory);
+                        }
+                        int length = cachePtr.getLength();
+                        // Send at least one chunk, as that is what creates the cache
+                        int offset = 0;
+                        do {
+                            ImmutableBytesWritable chunkPtr = new ImmutableBytesWritable(cachePtr.get(), cachePtr.getOffset() + offset, Math.min(chunkSize, length - offset));
+                            protocol.addServerCacheChunk(tenantId, cacheId, chunkPtr, offset, length, cacheFactory, tableName, relayKeys);
+                            offset += chunkSize;
+                        } while (offset < length);
+                        return true;
+                    }
+
+                    /**
+                     * Defines the grouping for round robin behavior.  All threads spawned to process
+                     * this scan will be grouped together and time sliced with other simultaneously
+                     * executing parallel scans.
+                     */
+                    @Override
+                    public Object getJobId() {
+                        return ServerCacheClient.this;
+                    }
+                }));
+            }
             
             hashCacheSpec = new ServerCache(cacheId,servers,cachePtr.getLength());
             // Execute in parallel
@@ -230,6 +259,26 @@ public class ServerCacheClient {
         return hashCacheSpec;
     }
     
+    /**
+     * Splits the start keys of one region per region server into at most fanout groups
+     * of nearly equal size. The region server hosting the first region of a group is sent
+     * the cache and relays it on to the rest of its group, in turn split the same way.
+     * @param keys the start keys of one region per region server
+     * @param fanout the maximum number of groups
+     * @return the groups of keys
+     */
+    public static byte[][][] getRelayGroups(byte[][] keys, int fanout) {
+        int nGroups = Math.min(Math.max(fanout, 1), keys.length);
+        byte[][][] groups = new byte[nGroups][][];
+        int start = 0;
+        for (int i = 0; i < nGroups; i++) {
+            int end = start + (keys.length - start) / (nGroups - i);
+            groups[i] = Arrays.copyOfRange(keys, start, end);
+            start = end;
+        }
+        return groups;
+    }
+    
     /**
      * Remove the cached table from all region servers
      * @param cacheId unique identifier for the hash join (returned from {@link #addHashCache(HTable, Scan, Set)})
@@ -0,0 +1,367 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.cache.aggcache;
+
+import static com.salesforce.phoenix.query.QueryConstants.AGG_TIMESTAMP;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static com.salesforce.phoenix.query.QueryServices.GROUPBY_MAX_CACHE_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.GROUPBY_SPILL_FILES_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.SPOOL_DIRECTORIES_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_MAX_CACHE_MAX;
+import static com.salesforce.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_SPILL_FILES;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.io.WritableUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.cache.GlobalCache;
+import com.salesforce.phoenix.cache.TenantCache;
+import com.salesforce.phoenix.coprocessor.BaseRegionScanner;
+import com.salesforce.phoenix.coprocessor.GroupByCache;
+import com.salesforce.phoenix.coprocessor.GroupedAggregateRegionObserver;
+import com.salesforce.phoenix.expression.aggregator.Aggregator;
+import com.salesforce.phoenix.expression.aggregator.ServerAggregators;
+import com.salesforce.phoenix.iterate.SpoolingResultIterator;
+import com.salesforce.phoenix.memory.InsufficientMemoryException;
+import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
+import com.salesforce.phoenix.schema.tuple.MultiKeyValueTuple;
+import com.salesforce.phoenix.util.ByteUtil;
+import com.salesforce.phoenix.util.KeyValueUtil;
+
+/**
+ * 
+ * Group by cache that falls back to a hybrid hash aggregation once the groups no longer
+ * fit in memory. Groups that are already in memory keep being aggregated in place, while
+ * the rows of any new group are appended, hash partitioned by their group key, to one of
+ * {@link com.salesforce.phoenix.query.QueryServices#GROUPBY_SPILL_FILES_ATTRIB} spill runs.
+ * Once the in-memory groups have been returned, each run is read back sequentially and
+ * aggregated on its own, being partitioned again if it still doesn't fit. Unlike
+ * {@link SpillableGroupByCache}, spilled groups are never paged back in at random.
+ *
+ * @since 3.0.0
+ */
+public class HybridHashGroupByCache implements GroupByCache {
+    private static final Logger logger = LoggerFactory.getLogger(HybridHashGroupByCache.class);
+    // Min size of the in-memory groups in bytes
+    private static final int MIN_CACHE_SIZE = 4096;
+    // Past this depth, a spill run is aggregated in memory regardless of its size
+    private static final int MAX_SPILL_DEPTH = 4;
+
+    private final ImmutableBytesPtr tempPtr = new ImmutableBytesPtr();
+    private final RegionCoprocessorEnvironment env;
+    private final ServerAggregators aggregators;
+    private final MemoryChunk chunk;
+    private final int numPartitions;
+    private final int maxCacheSize;
+    private final String spoolDirectories;
+    private final LinkedList<SpillRun> pendingRuns = Lists.newLinkedList();
+    private Map<ImmutableBytesPtr, Aggregator[]> groups;
+    private SpillRun[] runs;
+    private int cacheSize;
+    private boolean isFull;
+
+    public HybridHashGroupByCache(RegionCoprocessorEnvironment env, ImmutableBytesWritable tenantId,
+            ServerAggregators aggregators, int estDistVals) {
+        this.env = env;
+        this.aggregators = aggregators;
+        Configuration conf = env.getConfiguration();
+        int estValueSize = aggregators.getEstimatedByteSize();
+        long maxCacheSizeConf = conf.getLong(GROUPBY_MAX_CACHE_SIZE_ATTRIB, DEFAULT_GROUPBY_MAX_CACHE_MAX);
+        this.numPartitions = Math.max(2, conf.getInt(GROUPBY_SPILL_FILES_ATTRIB, DEFAULT_GROUPBY_SPILL_FILES));
+        this.maxCacheSize = Math.max(Math.max(1, MIN_CACHE_SIZE / estValueSize), (int)Math.min(Integer.MAX_VALUE, maxCacheSizeConf / estValueSize));
+        this.spoolDirectories = conf.get(SPOOL_DIRECTORIES_ATTRIB);
+        this.cacheSize = Math.min(maxCacheSize, estDistVals);
+        this.groups = Maps.newHashMapWithExpectedSize(cacheSize);
+        TenantCache tenantCache = GlobalCache.getTenantCache(env, tenantId);
+        this.chunk = tenantCache.getMemoryManager().allocate(GroupedAggregateRegionObserver.sizeOfUnorderedGroupByMap(cacheSize, estValueSize));
+    }
+
+    /**
+     * Rows of the groups that didn't fit in memory, all hashing to the same partition,
+     * written sequentially as they arrive
+     */
+    private static class SpillRun {
+        private final int depth;
+        private final File file;
+        private DataOutputStream out;
+        private int rowCount;
+
+        private SpillRun(int depth, File spoolDirectory) throws IOException {
+            this.depth = depth;
+            this.file = File.createTempFile("GroupBySpillRun", ".bin", spoolDirectory);
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        }
+
+        private void write(ImmutableBytesWritable key, List<KeyValue> row) throws IOException {
+            WritableUtils.writeVInt(out, key.getLength());
+            out.write(key.get(), key.getOffset(), key.getLength());
+            WritableUtils.writeVInt(out, row.size());
+            for (KeyValue kv : row) {
+                WritableUtils.writeVInt(out, kv.getLength());
+                out.write(kv.getBuffer(), kv.getOffset(), kv.getLength());
+            }
+            rowCount++;
+        }
+
+        private void delete() {
+            try {
+                out.close();
+            } catch (IOException e) {
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    private SpillRun newSpillRun(int depth) throws IOException {
+        return new SpillRun(depth, SpoolingResultIterator.getSpoolDirectory(spoolDirectories));
+    }
+
+    // Grows the memory allocated to the groups up to the configured max, if needed
+    private boolean hasRoom(Map<ImmutableBytesPtr, Aggregator[]> groups) {
+        if (groups.size() < cacheSize) {
+            return true;
+        }
+        if (!isFull) {
+            int newCacheSize = Math.min(maxCacheSize, Math.max(cacheSize + 1, (int)(cacheSize * 1.5f)));
+            if (newCacheSize > cacheSize) {
+                try {
+                    chunk.resize(GroupedAggregateRegionObserver.sizeOfUnorderedGroupByMap(newCacheSize, aggregators.getEstimatedByteSize()));
+                    cacheSize = newCacheSize;
+                    return true;
+                } catch (InsufficientMemoryException e) {
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Hybrid hash groupby cache full at " + groups.size() + " groups, partitioning remaining rows");
+            }
+            isFull = true;
+        }
+        return false;
+    }
+
+    private Aggregator[] newGroup(Map<ImmutableBytesPtr, Aggregator[]> groups, ImmutableBytesPtr key) {
+        Aggregator[] rowAggregators = aggregators.newAggregators(env.getConfiguration());
+        groups.put(key, rowAggregators);
+        return rowAggregators;
+    }
+
+    /**
+     * Spills a row to its partition if its group is not in memory and there is no room
+     * left to add it.
+     * @param key the group key of the row
+     * @param row the key values of the row
+     * @return true if the row was spilled, and false if it should be aggregated into the
+     * aggregators returned by {@link #cache(ImmutableBytesWritable)}
+     * @throws IOException
+     */
+    public boolean spill(ImmutableBytesWritable key, List<KeyValue> row) throws IOException {
+        tempPtr.set(key.get(), key.getOffset(), key.getLength());
+        if (groups.containsKey(tempPtr) || hasRoom(groups)) {
+            return false;
+        }
+        if (runs == null) {
+            runs = new SpillRun[numPartitions];
+        }
+        int i = ByteUtil.getPartition(tempPtr, 0, numPartitions);
+        if (runs[i] == null) {
+            runs[i] = newSpillRun(1);
+        }
+        runs[i].write(key, row);
+        return true;
+    }
+
+    @Override
+    public Aggregator[] cache(ImmutableBytesWritable cacheKey) {
+        ImmutableBytesPtr key = new ImmutableBytesPtr(cacheKey);
+        Aggregator[] rowAggregators = groups.get(key);
+        if (rowAggregators == null) {
+            rowAggregators = newGroup(groups, key);
+        }
+        return rowAggregators;
+    }
+
+    @Override
+    public int size() {
+        return groups.size();
+    }
+
+    private static void finish(SpillRun[] runs, List<SpillRun> pendingRuns) throws IOException {
+        for (int i = 0; i < runs.length; i++) {
+            if (runs[i] != null) {
+                runs[i].out.close();
+                pendingRuns.add(runs[i]);
+                runs[i] = null;
+            }
+        }
+    }
+
+    // Aggregates the rows of a run into a fresh set of groups, partitioning the rows of the groups
+    // that don't fit into runs of their own
+    private Map<ImmutableBytesPtr, Aggregator[]> aggregate(SpillRun run) throws IOException {
+        Map<ImmutableBytesPtr, Aggregator[]> groups = Maps.newHashMapWithExpectedSize(cacheSize);
+        SpillRun[] subRuns = null;
+        MultiKeyValueTuple result = new MultiKeyValueTuple();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(run.file)));
+        try {
+            for (int i = 0; i < run.rowCount; i++) {
+                byte[] keyBytes = new byte[WritableUtils.readVInt(in)];
+                in.readFully(keyBytes);
+                ImmutableBytesPtr key = new ImmutableBytesPtr(keyBytes);
+                int nKeyValues = WritableUtils.readVInt(in);
+                List<KeyValue> row = new ArrayList<KeyValue>(nKeyValues);
+                for (int j = 0; j < nKeyValues; j++) {
+                    byte[] kvBytes = new byte[WritableUtils.readVInt(in)];
+                    in.readFully(kvBytes);
+                    row.add(new KeyValue(kvBytes));
+                }
+                Aggregator[] rowAggregators = groups.get(key);
+                if (rowAggregators == null) {
+                    if (run.depth < MAX_SPILL_DEPTH && !hasRoom(groups)) {
+                        if (subRuns == null) {
+                            subRuns = new SpillRun[numPartitions];
+                        }
+                        int partition = ByteUtil.getPartition(key, run.depth, numPartitions);
+                        if (subRuns[partition] == null) {
+                            subRuns[partition] = newSpillRun(run.depth + 1);
+                        }
+                        subRuns[partition].write(key, row);
+                        continue;
+                    }
+                    rowAggregators = newGroup(groups, key);
+                }
+                result.setKeyValues(row);
+                aggregators.aggregate(rowAggregators, result);
+            }
+            if (subRuns != null) {
+                finish(subRuns, pendingRuns);
+            }
+            return groups;
+        } finally {
+            try {
+                in.close();
+            } finally {
+                run.delete();
+                if (subRuns != null) {
+                    for (SpillRun subRun : subRuns) {
+                        if (subRun != null) {
+                            subRun.delete();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public RegionScanner getScanner(final RegionScanner s) throws IOException {
+        if (runs != null) {
+            finish(runs, pendingRuns);
+        }
+        return new BaseRegionScanner() {
+            private Iterator<Map.Entry<ImmutableBytesPtr, Aggregator[]>> groupIter = groups.entrySet().iterator();
+
+            @Override
+            public HRegionInfo getRegionInfo() {
+                return s.getRegionInfo();
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    s.close();
+                } finally {
+                    HybridHashGroupByCache.this.close();
+                }
+            }
+
+            @Override
+            public boolean next(List<KeyValue> results) throws IOException {
+                while (!groupIter.hasNext()) {
+                    if (pendingRuns.isEmpty()) {
+                        return false;
+                    }
+                    // Free up the groups already returned before aggregating the next run
+                    groups.clear();
+                    groups = aggregate(pendingRuns.removeFirst());
+                    groupIter = groups.entrySet().iterator();
+                }
+                Map.Entry<ImmutableBytesPtr, Aggregator[]> entry = groupIter.next();
+                ImmutableBytesPtr key = entry.getKey();
+                byte[] value = aggregators.toBytes(entry.getValue());
+                results.add(KeyValueUtil.newKeyValue(key.get(), key.getOffset(), key.getLength(), SINGLE_COLUMN_FAMILY,
+                        SINGLE_COLUMN, AGG_TIMESTAMP, value, 0, value.length));
+                return groupIter.hasNext() || !pendingRuns.isEmpty();
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (runs != null) {
+                for (SpillRun run : runs) {
+                    if (run != null) {
+                        run.delete();
+                    }
+                }
+                runs = null;
+            }
+            for (SpillRun run : pendingRuns) {
+                run.delete();
+            }
+            pendingRuns.clear();
+        } finally {
+            chunk.close();
+        }
+    }
+}
@@ -18,18 +18,13 @@
  ******************************************************************************/
 package com.salesforce.phoenix.cache.aggcache;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.io.WritableUtils;
 
@@ -40,13 +35,9 @@ import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.expression.aggregator.Aggregator;
 import com.salesforce.phoenix.expression.aggregator.ServerAggregators;
 import com.salesforce.phoenix.expression.function.SingleAggregateFunction;
-import com.salesforce.phoenix.query.QueryConstants;
 import com.salesforce.phoenix.schema.KeyValueSchema;
 import com.salesforce.phoenix.schema.ValueBitSet;
-import com.salesforce.phoenix.schema.tuple.SingleKeyValueTuple;
-import com.salesforce.phoenix.schema.tuple.Tuple;
-import com.salesforce.phoenix.util.KeyValueUtil;
-import com.salesforce.phoenix.util.TupleUtil;
+import com.salesforce.phoenix.util.ByteUtil;
 
 /**
  * Class servers as an adapter between the in-memory LRU cache and the Spill data structures. It
@@ -98,6 +89,8 @@ public class SpillManager implements Closeable {
 
     private final ServerAggregators aggregators;
     private final Configuration conf;
+    // Reused across deserializations, since a SpillManager is only used by a single scan
+    private final ValueBitSet tempValueSet;
 
     /**
      * SpillManager takes care of spilling and loading tuples from spilled data structs
@@ -112,6 +105,7 @@ public class SpillManager implements Closeable {
             this.numSpillFiles = numSpillFiles;
             this.aggregators = serverAggregators;
             this.conf = conf;
+            this.tempValueSet = ValueBitSet.newInstance(serverAggregators.getValueSchema());
             
             // Ensure that a single element fits onto a page!!!
             Preconditions.checkArgument(SpillFile.DEFAULT_PAGE_SIZE > estValueSize);
@@ -127,115 +121,68 @@ public class SpillManager implements Closeable {
         }
     }
 
-    // serialize a key/value tuple into a byte array
-    // WARNING: expensive
-    private byte[] serialize(ImmutableBytesPtr key, Aggregator[] aggs,
-            ServerAggregators serverAggs) throws IOException {
-
-        DataOutputStream output = null;
-        ByteArrayOutputStream bai = null;
-        try {
-            bai = new ByteArrayOutputStream();
-            output = new DataOutputStream(bai);
-            // key length
-            WritableUtils.writeVInt(output, key.getLength());
-            // key
-            output.write(key.get(), key.getOffset(), key.getLength());
-            byte[] aggsByte = serverAggs.toBytes(aggs);
-            // aggs length
-            WritableUtils.writeVInt(output, aggsByte.length);
-            // aggs
-            output.write(aggsByte);
-            return bai.toByteArray();
-        } finally {
-
-            if (bai != null) {
-                bai.close();
-                bai = null;
-            }
-            if (output != null) {
-                output.close();
-                output = null;
-            }
-        }
+    // serialize a key/value tuple into a single, exactly sized byte array laid out as
+    // <vint key length><key><vint value length><value>
+    private static byte[] serialize(ImmutableBytesPtr key, Aggregator[] aggs,
+            ServerAggregators serverAggs) {
+        byte[] aggsByte = serverAggs.toBytes(aggs);
+        int keyLength = key.getLength();
+        int valueLength = aggsByte.length;
+        byte[] data = new byte[WritableUtils.getVIntSize(keyLength) + keyLength
+                + WritableUtils.getVIntSize(valueLength) + valueLength];
+        int offset = ByteUtil.vintToBytes(data, 0, keyLength);
+        System.arraycopy(key.get(), key.getOffset(), data, offset, keyLength);
+        offset += keyLength;
+        offset += ByteUtil.vintToBytes(data, offset, valueLength);
+        System.arraycopy(aggsByte, 0, data, offset, valueLength);
+        return data;
     }
 
     /**
      * Helper method to deserialize the key part from a serialized byte array
      * @param data
      * @return
-     * @throws IOException
      */
-    static ImmutableBytesPtr getKey(byte[] data) throws IOException {
-        DataInputStream input = null;
-        try {
-            input = new DataInputStream(new ByteArrayInputStream(data));
-            // key length
-            int keyLength = WritableUtils.readVInt(input);
-            int offset = WritableUtils.getVIntSize(keyLength);
-            // key
-            return new ImmutableBytesPtr(data, offset, keyLength);
-        } finally {
-            if (input != null) {
-                input.close();
-                input = null;
-            }
-        }
+    static ImmutableBytesPtr getKey(byte[] data) {
+        int keyLength = ByteUtil.vintFromBytes(data, 0);
+        int offset = WritableUtils.decodeVIntSize(data[0]);
+        return new ImmutableBytesPtr(data, offset, keyLength);
     }
 
-    
-    // Instantiate Aggregators form a serialized byte array
-    private Aggregator[] getAggregators(byte[] data) throws IOException {
-        DataInputStream input = null;
-        try {
-            input = new DataInputStream(new ByteArrayInputStream(data));
-            // key length
-            int keyLength = WritableUtils.readVInt(input);
-            int vIntKeyLength = WritableUtils.getVIntSize(keyLength);
-            ImmutableBytesPtr ptr = new ImmutableBytesPtr(data, vIntKeyLength, keyLength);
-
-            // value length
-            input.skip(keyLength);
-            int valueLength = WritableUtils.readVInt(input);
-            int vIntValLength = WritableUtils.getVIntSize(keyLength);
-            KeyValue keyValue =
-                    KeyValueUtil.newKeyValue(ptr.get(), ptr.getOffset(), ptr.getLength(),
-                        QueryConstants.SINGLE_COLUMN_FAMILY, QueryConstants.SINGLE_COLUMN,
-                        QueryConstants.AGG_TIMESTAMP, data, vIntKeyLength + keyLength + vIntValLength, valueLength);
-            Tuple result = new SingleKeyValueTuple(keyValue);
-            TupleUtil.getAggregateValue(result, ptr);
-            KeyValueSchema schema = aggregators.getValueSchema();
-            ValueBitSet tempValueSet = ValueBitSet.newInstance(schema);
-            tempValueSet.clear();
-            tempValueSet.or(ptr);
-
-            int i = 0, maxOffset = ptr.getOffset() + ptr.getLength();
-            SingleAggregateFunction[] funcArray = aggregators.getFunctions();
-            Aggregator[] sAggs = new Aggregator[funcArray.length];
-            Boolean hasValue;
-            schema.iterator(ptr);
-            while ((hasValue = schema.next(ptr, i, maxOffset, tempValueSet)) != null) {
-                SingleAggregateFunction func = funcArray[i];
-                sAggs[i++] =
-                        hasValue ? func.newServerAggregator(conf, ptr) : func
-                                .newServerAggregator(conf);
-            }
-            return sAggs;
-
-        } finally {
-            Closeables.closeQuietly(input);
+    // Instantiate Aggregators form a serialized byte array, reading the aggregate
+    // value in place rather than wrapping it in a KeyValue first
+    private Aggregator[] getAggregators(byte[] data) {
+        int keyLength = ByteUtil.vintFromBytes(data, 0);
+        int valueOffset = WritableUtils.decodeVIntSize(data[0]) + keyLength;
+        int valueLength = ByteUtil.vintFromBytes(data, valueOffset);
+        valueOffset += WritableUtils.decodeVIntSize(data[valueOffset]);
+        ImmutableBytesPtr ptr = new ImmutableBytesPtr(data, valueOffset, valueLength);
+
+        KeyValueSchema schema = aggregators.getValueSchema();
+        tempValueSet.clear();
+        tempValueSet.or(ptr);
+
+        int i = 0, maxOffset = ptr.getOffset() + ptr.getLength();
+        SingleAggregateFunction[] funcArray = aggregators.getFunctions();
+        Aggregator[] sAggs = new Aggregator[funcArray.length];
+        Boolean hasValue;
+        schema.iterator(ptr);
+        while ((hasValue = schema.next(ptr, i, maxOffset, tempValueSet)) != null) {
+            SingleAggregateFunction func = funcArray[i];
+            sAggs[i++] =
+                    hasValue ? func.newServerAggregator(conf, ptr) : func
+                            .newServerAggregator(conf);
         }
+        return sAggs;
     }
 
     /**
      * Helper function to deserialize a byte array into a CacheEntry
      * @param <K>
      * @param bytes
-     * @throws IOException
      */
     @SuppressWarnings("unchecked")
-    public <K extends ImmutableBytesWritable> CacheEntry<K> toCacheEntry(byte[] bytes)
-            throws IOException {
+    public <K extends ImmutableBytesWritable> CacheEntry<K> toCacheEntry(byte[] bytes) {
         ImmutableBytesPtr key = SpillManager.getKey(bytes);
         Aggregator[] aggs = getAggregators(bytes);
 
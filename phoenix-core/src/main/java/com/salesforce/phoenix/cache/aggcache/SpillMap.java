@@ -380,14 +380,8 @@ public class SpillMap extends AbstractMap<ImmutableBytesPtr, byte[]> implements
                     int kvSize = buffer.getInt();
                     byte[] data = new byte[kvSize];
                     buffer.get(data, 0, kvSize);
-                    try {
-                        pageMap.put(SpillManager.getKey(data), data);
-                        totalResultSize += (data.length + Bytes.SIZEOF_INT);
-                    } catch (IOException ioe) {
-                        // Error during key access on spilled resource
-                        // TODO rework error handling
-                        throw new RuntimeException(ioe);
-                    }
+                    pageMap.put(SpillManager.getKey(data), data);
+                    totalResultSize += (data.length + Bytes.SIZEOF_INT);
                 }
                 pagedIn = true;
                 dirtyPage = false;
@@ -83,6 +83,9 @@ public class SpillableGroupByCache implements GroupByCache {
 
     // TODO Generally better to use Collection API with generics instead of
     // array types
+    // TODO Keep fixed width aggregator state (COUNT, SUM, MIN/MAX of fixed width types) in a
+    // contiguous buffer addressed by an open addressing table and update it in place, so that
+    // spilling becomes a page write instead of serializing each evicted entry
     private final LinkedHashMap<ImmutableBytesWritable, Aggregator[]> cache;
     private SpillManager spillManager = null;
     private int curNumCacheElements;
@@ -262,34 +265,13 @@ public class SpillableGroupByCache implements GroupByCache {
 
         @Override
         public Map.Entry<ImmutableBytesWritable, Aggregator[]> next() {
-            if (spilledCacheIter != null && spilledCacheIter.hasNext()) {
-                try {
-                    byte[] value = spilledCacheIter.next();
-                    // Deserialize into a CacheEntry
-                    Map.Entry<ImmutableBytesWritable, Aggregator[]> spilledEntry = spillManager.toCacheEntry(value);
-
-                    boolean notFound = false;
-                    // check against map and return only if not present
-                    while (cache.containsKey(spilledEntry.getKey())) {
-                        // LRU Cache entries always take precedence,
-                        // since they are more up to date
-                        if (spilledCacheIter.hasNext()) {
-                            value = spilledCacheIter.next();
-                            spilledEntry = spillManager.toCacheEntry(value);
-                        } else {
-                            notFound = true;
-                            break;
-                        }
-                    }
-                    if (!notFound) {
-                        // Return a spilled entry, this only happens if the
-                        // entry was not
-                        // found in the LRU cache
-                        return spilledEntry;
-                    }
-                } catch (IOException ioe) {
-                    // TODO rework error handling
-                    throw new RuntimeException(ioe);
+            while (spilledCacheIter != null && spilledCacheIter.hasNext()) {
+                byte[] value = spilledCacheIter.next();
+                // LRU Cache entries always take precedence, since they are more up to date,
+                // so only deserialize the aggregators of a spilled entry if its key is not
+                // present in the LRU cache
+                if (!cache.containsKey(SpillManager.getKey(value))) {
+                    return spillManager.toCacheEntry(value);
                 }
             }
             // Spilled elements exhausted
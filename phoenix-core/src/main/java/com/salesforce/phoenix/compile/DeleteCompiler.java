@@ -56,7 +56,6 @@ import com.salesforce.phoenix.iterate.ResultIterator;
 import com.salesforce.phoenix.jdbc.PhoenixConnection;
 import com.salesforce.phoenix.jdbc.PhoenixResultSet;
 import com.salesforce.phoenix.jdbc.PhoenixStatement;
-import com.salesforce.phoenix.optimize.QueryOptimizer;
 import com.salesforce.phoenix.parse.AliasedNode;
 import com.salesforce.phoenix.parse.DeleteStatement;
 import com.salesforce.phoenix.parse.HintNode;
@@ -206,7 +205,7 @@ public class DeleteCompiler {
                 delete.getOrderBy(), delete.getLimit(),
                 delete.getBindCount(), false);
         DeletingParallelIteratorFactory parallelIteratorFactory = hasLimit ? null : new DeletingParallelIteratorFactory(connection, tableRef);
-        final QueryPlan plan = new QueryOptimizer(services).optimize(select, statement, Collections.<PColumn>emptyList(), parallelIteratorFactory);
+        final QueryPlan plan = services.getOptimizer().optimize(select, statement, Collections.<PColumn>emptyList(), parallelIteratorFactory);
         if (!plan.getTableRef().equals(tableRef)) {
             runOnServer = false;
             noQueryReqd = false;
@@ -514,6 +514,16 @@ public class JoinCompiler {
         }
         
         public Pair<List<Expression>, List<Expression>> compileJoinConditions(StatementContext context, ColumnResolver leftResolver, ColumnResolver rightResolver) throws SQLException {
+            return compileJoinConditions(context, leftResolver, rightResolver, true);
+        }
+        
+        /**
+         * Compiles the equi-join conditions into LHS and RHS key expressions.
+         * @param sortKeys if true, the key expressions are reordered to put the fixed width
+         * ones first for a more compact hash key; otherwise they are kept in the order of the
+         * ON clause, which is what a sort-merge join needs to line up with the ORDER BY it adds.
+         */
+        public Pair<List<Expression>, List<Expression>> compileJoinConditions(StatementContext context, ColumnResolver leftResolver, ColumnResolver rightResolver, boolean sortKeys) throws SQLException {
         	ColumnResolver resolver = context.getResolver();
             List<Pair<Expression, Expression>> compiled = new ArrayList<Pair<Expression, Expression>>(conditions.size());
         	context.setResolver(leftResolver);
@@ -545,30 +555,32 @@ public class JoinCompiler {
                 p.setSecond(right);
             }
             context.setResolver(resolver); // recover the resolver
-            Collections.sort(compiled, new Comparator<Pair<Expression, Expression>>() {
-                @Override
-                public int compare(Pair<Expression, Expression> o1, Pair<Expression, Expression> o2) {
-                    Expression e1 = o1.getFirst();
-                    Expression e2 = o2.getFirst();
-                    boolean isFixed1 = e1.getDataType().isFixedWidth();
-                    boolean isFixed2 = e2.getDataType().isFixedWidth();
-                    boolean isFixedNullable1 = e1.isNullable() &&isFixed1;
-                    boolean isFixedNullable2 = e2.isNullable() && isFixed2;
-                    if (isFixedNullable1 == isFixedNullable2) {
-                        if (isFixed1 == isFixed2) {
-                            return 0;
-                        } else if (isFixed1) {
-                            return -1;
-                        } else {
+            if (sortKeys) {
+                Collections.sort(compiled, new Comparator<Pair<Expression, Expression>>() {
+                    @Override
+                    public int compare(Pair<Expression, Expression> o1, Pair<Expression, Expression> o2) {
+                        Expression e1 = o1.getFirst();
+                        Expression e2 = o2.getFirst();
+                        boolean isFixed1 = e1.getDataType().isFixedWidth();
+                        boolean isFixed2 = e2.getDataType().isFixedWidth();
+                        boolean isFixedNullable1 = e1.isNullable() &&isFixed1;
+                        boolean isFixedNullable2 = e2.isNullable() && isFixed2;
+                        if (isFixedNullable1 == isFixedNullable2) {
+                            if (isFixed1 == isFixed2) {
+                                return 0;
+                            } else if (isFixed1) {
+                                return -1;
+                            } else {
+                                return 1;
+                            }
+                        } else if (isFixedNullable1) {
                             return 1;
+                        } else {
+                            return -1;
                         }
-                    } else if (isFixedNullable1) {
-                        return 1;
-                    } else {
-                        return -1;
                     }
-                }
-            });
+                });
+            }
             List<Expression> lConditions = new ArrayList<Expression>(compiled.size());
             List<Expression> rConditions = new ArrayList<Expression>(compiled.size());
             for (Pair<Expression, Expression> pair : compiled) {
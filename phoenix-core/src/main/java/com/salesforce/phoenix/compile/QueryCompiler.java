@@ -29,11 +29,14 @@ package com.salesforce.phoenix.compile;
 
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.compile.GroupByCompiler.GroupBy;
@@ -48,6 +51,8 @@ import com.salesforce.phoenix.execute.BasicQueryPlan;
 import com.salesforce.phoenix.execute.DegenerateQueryPlan;
 import com.salesforce.phoenix.execute.HashJoinPlan;
 import com.salesforce.phoenix.execute.ScanPlan;
+import com.salesforce.phoenix.execute.SortMergeJoinPlan;
+import com.salesforce.phoenix.expression.CoerceExpression;
 import com.salesforce.phoenix.expression.Expression;
 import com.salesforce.phoenix.iterate.ParallelIterators.ParallelIteratorFactory;
 import com.salesforce.phoenix.jdbc.PhoenixConnection;
@@ -55,8 +60,12 @@ import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
 import com.salesforce.phoenix.jdbc.PhoenixStatement;
 import com.salesforce.phoenix.join.HashJoinInfo;
 import com.salesforce.phoenix.join.ScanProjector;
+import com.salesforce.phoenix.parse.EqualParseNode;
+import com.salesforce.phoenix.parse.HintNode.Hint;
 import com.salesforce.phoenix.parse.JoinTableNode.JoinType;
+import com.salesforce.phoenix.parse.OrderByNode;
 import com.salesforce.phoenix.parse.ParseNode;
+import com.salesforce.phoenix.parse.ParseNodeFactory;
 import com.salesforce.phoenix.parse.SQLParser;
 import com.salesforce.phoenix.parse.SelectStatement;
 import com.salesforce.phoenix.query.QueryConstants;
@@ -79,6 +88,8 @@ import com.salesforce.phoenix.util.ScanUtil;
  * @since 0.1
  */
 public class QueryCompiler {
+    private static final Logger logger = LoggerFactory.getLogger(QueryCompiler.class);
+    private static final ParseNodeFactory NODE_FACTORY = new ParseNodeFactory();
     /* 
      * Not using Scan.setLoadColumnFamiliesOnDemand(true) because we don't 
      * want to introduce a dependency on 0.94.5 (where this feature was
@@ -161,6 +172,15 @@ public class QueryCompiler {
         }
         
         boolean[] starJoinVector = JoinCompiler.getStarJoinVector(join);
+        if (starJoinVector != null && !asSubquery && select.getHint().hasHint(Hint.USE_SORT_MERGE_JOIN)) {
+            QueryPlan plan = compileSortMergeJoinQuery(context, select, binds, join);
+            if (plan != null) {
+                return plan;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("Using a hash join instead of the hinted sort-merge join for " + select);
+            }
+        }
         if (starJoinVector != null) {
             ProjectedPTableWrapper initialProjectedTable = join.createProjectedTable(join.getMainTable(), !asSubquery);
             PTableWrapper projectedTable = initialProjectedTable;
@@ -249,6 +269,85 @@ public class QueryCompiler {
         throw new SQLFeatureNotSupportedException("Joins with pattern 'A right join B left join C' not supported.");
     }
     
+    /**
+     * Compiles a join of the main table with a single other table into a {@link SortMergeJoinPlan}.
+     * Both sides are compiled with an ORDER BY on their join keys, which is optimized out when
+     * the keys lead the row key and otherwise sorted on the server, spilling to disk as needed.
+     * A key that is coerced to the type of the other side is sorted on the coerced value.
+     * @return the sort-merge join plan, or null if the query cannot be executed this way, in
+     * which case a hash join should be used instead. This is the case for a join of more than
+     * one table, or when the query or the joined table has an aggregation, ORDER BY or LIMIT.
+     */
+    @SuppressWarnings("unchecked")
+    protected QueryPlan compileSortMergeJoinQuery(StatementContext context, SelectStatement select, List<Object> binds, JoinSpec join) throws SQLException {
+        List<JoinTable> joinTables = join.getJoinTables();
+        // The main plan would otherwise apply these before the join rather than after it
+        if (joinTables.size() != 1 || select.isAggregate() || select.isDistinct() || !select.getGroupBy().isEmpty()
+                || !select.getOrderBy().isEmpty() || select.getLimit() != null) {
+            return null;
+        }
+        JoinTable joinTable = joinTables.get(0);
+        JoinType type = joinTable.getType();
+        SelectStatement subStatement = joinTable.getAsSubquery();
+        if (subStatement.getFrom().size() > 1)
+            throw new SQLFeatureNotSupportedException("Sub queries not supported.");
+        if (!subStatement.getOrderBy().isEmpty() || subStatement.getLimit() != null) {
+            return null;
+        }
+        ProjectedPTableWrapper initialProjectedTable = join.createProjectedTable(join.getMainTable(), true);
+        ProjectedPTableWrapper subProjTable = join.createProjectedTable(joinTable.getTable(), false);
+        ColumnResolver resolver = JoinCompiler.getColumnResolver(subProjTable);
+        Pair<List<Expression>, List<Expression>> joinConditions = joinTable.compileJoinConditions(context, JoinCompiler.getColumnResolver(initialProjectedTable), resolver, false);
+        List<Expression> joinExpressions = joinConditions.getFirst();
+        List<Expression> rhsKeyExpressions = joinConditions.getSecond();
+        // Sort each side on the key it is merged by, so that a coerced key is in the
+        // order of its coerced value rather than of the value it was coerced from.
+        List<OrderByNode> lhsOrderBy = new ArrayList<OrderByNode>(joinExpressions.size());
+        List<OrderByNode> rhsOrderBy = new ArrayList<OrderByNode>(joinExpressions.size());
+        List<ParseNode> conditions = joinTable.getJoinConditions();
+        for (int i = 0; i < conditions.size(); i++) {
+            EqualParseNode equalNode = (EqualParseNode) conditions.get(i);
+            lhsOrderBy.add(NODE_FACTORY.orderBy(getSortKey(equalNode.getLHS(), joinExpressions.get(i)), false, true));
+            rhsOrderBy.add(NODE_FACTORY.orderBy(getSortKey(equalNode.getRHS(), rhsKeyExpressions.get(i)), false, true));
+        }
+        
+        Scan subScan = ScanUtil.newScan(scanCopy);
+        ScanProjector.serializeProjectorIntoScan(subScan, JoinCompiler.getScanProjector(subProjTable));
+        StatementContext subContext = new StatementContext(statement, resolver, binds, subScan);
+        subContext.setCurrentTable(joinTable.getTable());
+        join.projectColumns(subScan, joinTable.getTable());
+        QueryPlan rhsPlan = compileSingleQuery(subContext, withOrderBy(subStatement, rhsOrderBy), binds);
+        
+        PTableWrapper projectedTable = initialProjectedTable;
+        PTable table = null;
+        if (join.hasPostReference(joinTable.getTable())) {
+            table = subProjTable.getTable();
+            projectedTable = JoinCompiler.mergeProjectedTables(projectedTable, subProjTable, type == JoinType.Inner);
+        }
+        ScanProjector.serializeProjectorIntoScan(context.getScan(), JoinCompiler.getScanProjector(initialProjectedTable));
+        // A join info without any joins has the server encode the projected LHS rows with the
+        // value bit set of the joined schema, so that the client can merge RHS rows into them.
+        HashJoinInfo.serializeHashJoinIntoScan(context.getScan(), new HashJoinInfo(projectedTable.getTable(), new ImmutableBytesPtr[0], new List[0], new JoinType[0], new boolean[0], new PTable[0], new int[0], null));
+        context.setCurrentTable(join.getMainTable());
+        context.setResolver(JoinCompiler.getColumnResolver(projectedTable));
+        join.projectColumns(context.getScan(), join.getMainTable());
+        BasicQueryPlan plan = compileSingleQuery(context, withOrderBy(JoinCompiler.getSubqueryWithoutJoin(select, join), lhsOrderBy), binds);
+        Expression postJoinFilterExpression = join.compilePostFilterExpression(context);
+        HashJoinInfo joinInfo = new HashJoinInfo(projectedTable.getTable(), new ImmutableBytesPtr[] {new ImmutableBytesPtr(new byte[0])}, new List[] {joinExpressions}, new JoinType[] {type}, new boolean[] {true}, new PTable[] {table}, new int[] {initialProjectedTable.getTable().getColumns().size() - initialProjectedTable.getTable().getPKColumns().size()}, postJoinFilterExpression);
+        return new SortMergeJoinPlan(plan, joinInfo, rhsKeyExpressions, rhsPlan);
+    }
+    
+    private static ParseNode getSortKey(ParseNode node, Expression keyExpression) {
+        if (keyExpression instanceof CoerceExpression) {
+            return NODE_FACTORY.cast(node, keyExpression.getDataType());
+        }
+        return node;
+    }
+    
+    private static SelectStatement withOrderBy(SelectStatement select, List<OrderByNode> orderBy) {
+        return NODE_FACTORY.select(select.getFrom(), select.getHint(), select.isDistinct(), select.getSelect(), select.getWhere(), select.getGroupBy(), select.getHaving(), orderBy, select.getLimit(), select.getBindCount(), select.isAggregate());
+    }
+    
     protected BasicQueryPlan compileSingleQuery(StatementContext context, SelectStatement select, List<Object> binds) throws SQLException{
         PhoenixConnection connection = statement.getConnection();
         ColumnResolver resolver = context.getResolver();
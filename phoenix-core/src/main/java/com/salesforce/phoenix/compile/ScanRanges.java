@@ -140,6 +140,24 @@ public class ScanRanges {
         return isSingleKey;
     }
 
+    /**
+     * @return true if this represents the full keys to a set of rows, so that
+     * at most a single row is read per key
+     */
+    public boolean isPointLookup() {
+        if (schema == null || ranges.size() < schema.getMaxFields()) {
+            return false;
+        }
+        for (List<KeyRange> orRanges : ranges) {
+            for (KeyRange range : orRanges) {
+                if (!range.isSingleKey()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
     public void setScanStartStopRow(Scan scan) {
         if (isEverything()) {
             return;
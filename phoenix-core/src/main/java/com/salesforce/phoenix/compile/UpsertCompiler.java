@@ -63,7 +63,6 @@ import com.salesforce.phoenix.iterate.ResultIterator;
 import com.salesforce.phoenix.jdbc.PhoenixConnection;
 import com.salesforce.phoenix.jdbc.PhoenixResultSet;
 import com.salesforce.phoenix.jdbc.PhoenixStatement;
-import com.salesforce.phoenix.optimize.QueryOptimizer;
 import com.salesforce.phoenix.parse.AliasedNode;
 import com.salesforce.phoenix.parse.BindParseNode;
 import com.salesforce.phoenix.parse.ColumnName;
@@ -374,7 +373,7 @@ public class UpsertCompiler {
             select = SelectStatement.create(select, hint);
             // Pass scan through if same table in upsert and select so that projection is computed correctly
             // Use optimizer to choose the best plan 
-            plan = new QueryOptimizer(services).optimize(select, statement, targetColumns, parallelIteratorFactory);
+            plan = services.getOptimizer().optimize(select, statement, targetColumns, parallelIteratorFactory);
             runOnServer &= plan.getTableRef().equals(tableRef);
             rowProjectorToBe = plan.getProjector();
             nValuesToSet = rowProjectorToBe.getColumnCount();
@@ -624,8 +623,109 @@ public class UpsertCompiler {
         final SequenceManager sequenceManager = context.getSequenceManager();
         sequenceManager.initSequences();
         // Next evaluate all the expressions
-        nodeIndex = 0;
-        final byte[][] values = new byte[nValuesToSet][];
+        final Map<PColumn, byte[]> viewColumnValues = overlapViewColumns;
+        final Map<ColumnRef, byte[]> addViewColumnValues = addViewColumns;
+        final byte[] tenantIdBytes = isTenantSpecific ? connection.getTenantId().getBytes() : null;
+        final byte[][] values = evaluateValues(constantExpressions, allColumns, columnIndexes, viewColumnValues, addViewColumnValues, tenantIdBytes, nValuesToSet, ptr);
+        final MutationPlan plan = new MutationPlan() {
+
+            @Override
+            public PhoenixConnection getConnection() {
+                return connection;
+            }
+
+            @Override
+            public ParameterMetaData getParameterMetaData() {
+                return context.getBindManager().getParameterMetaData();
+            }
+
+            @Override
+            public MutationState execute() { // TODO: add throws SQLException
+                try {
+                    sequenceManager.incrementSequenceValues();
+                } catch (SQLException e) {
+                    throw new RuntimeException(e); // Will get unwrapped
+                }
+                Map<ImmutableBytesPtr, Map<PColumn, byte[]>> mutation = Maps.newHashMapWithExpectedSize(1);
+                setValues(values, pkSlotIndexes, columnIndexes, tableRef.getTable(), mutation);
+                return new MutationState(tableRef, mutation, 0, maxSize, connection);
+            }
+
+            @Override
+            public ExplainPlan getExplainPlan() throws SQLException {
+                List<String> planSteps = Lists.newArrayListWithExpectedSize(2);
+                if (context.getSequenceManager().getSequenceCount() > 0) {
+                    planSteps.add("CLIENT RESERVE " + context.getSequenceManager().getSequenceCount() + " SEQUENCES");
+                }
+                planSteps.add("PUT SINGLE ROW");
+                return new ExplainPlan(planSteps);
+            }
+
+        };
+        // Binds that directly supply a value may be rebound for each execution of a batch
+        // without compiling the statement again, provided they are the only binds and there
+        // are no sequences that would need to be reserved for each execution.
+        final int[] bindIndexes = new int[valueNodes.size()];
+        int nTopLevelBinds = 0;
+        for (int i = 0; i < valueNodes.size(); i++) {
+            ParseNode valueNode = valueNodes.get(i);
+            bindIndexes[i] = valueNode instanceof BindParseNode ? ((BindParseNode)valueNode).getIndex() : -1;
+            nTopLevelBinds += bindIndexes[i] >= 0 ? 1 : 0;
+        }
+        if (nTopLevelBinds < upsert.getBindCount() || sequenceManager.getSequenceCount() > 0) {
+            return plan;
+        }
+        final List<Expression> rowExpressions = constantExpressions;
+        final List<PColumn> columns = allColumns;
+        final int nValues = nValuesToSet;
+        return new BatchMutationPlan() {
+
+            @Override
+            public PhoenixConnection getConnection() {
+                return connection;
+            }
+
+            @Override
+            public ParameterMetaData getParameterMetaData() {
+                return plan.getParameterMetaData();
+            }
+
+            @Override
+            public MutationState execute() throws SQLException {
+                return plan.execute();
+            }
+
+            @Override
+            public MutationState execute(List<List<Object>> batch) throws SQLException {
+                ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+                List<Expression> expressions = Lists.newArrayList(rowExpressions);
+                Map<ImmutableBytesPtr, Map<PColumn, byte[]>> mutation = Maps.newHashMapWithExpectedSize(batch.size());
+                for (List<Object> binds : batch) {
+                    // Only the bound values need to be turned into new literals
+                    for (int i = 0; i < bindIndexes.length; i++) {
+                        if (bindIndexes[i] >= 0) {
+                            PColumn column = columns.get(columnIndexes[i]);
+                            expressions.set(i, LiteralExpression.newConstant(binds.get(bindIndexes[i]), column.getDataType(), column.getColumnModifier(), true));
+                        }
+                    }
+                    byte[][] rowValues = evaluateValues(expressions, columns, columnIndexes, viewColumnValues, addViewColumnValues, tenantIdBytes, nValues, ptr);
+                    setValues(rowValues, pkSlotIndexes, columnIndexes, tableRef.getTable(), mutation);
+                }
+                return new MutationState(tableRef, mutation, 0, maxSize, connection);
+            }
+
+            @Override
+            public ExplainPlan getExplainPlan() throws SQLException {
+                return plan.getExplainPlan();
+            }
+        };
+    }
+    
+    private static byte[][] evaluateValues(List<Expression> constantExpressions, List<PColumn> allColumns, int[] columnIndexes,
+            Map<PColumn, byte[]> overlapViewColumns, Map<ColumnRef, byte[]> addViewColumns, byte[] tenantId,
+            int nValuesToSet, ImmutableBytesWritable ptr) throws SQLException {
+        int nodeIndex = 0;
+        byte[][] values = new byte[nValuesToSet][];
         for (Expression constantExpression : constantExpressions) {
             PColumn column = allColumns.get(columnIndexes[nodeIndex]);
             constantExpression.evaluate(null, ptr);
@@ -669,44 +769,10 @@ public class UpsertCompiler {
         for (byte[] value : addViewColumns.values()) {
             values[nodeIndex++] = value;
         }
-        if (isTenantSpecific) {
-            values[nodeIndex++] = connection.getTenantId().getBytes();
+        if (tenantId != null) {
+            values[nodeIndex++] = tenantId;
         }
-        return new MutationPlan() {
-
-            @Override
-            public PhoenixConnection getConnection() {
-                return connection;
-            }
-
-            @Override
-            public ParameterMetaData getParameterMetaData() {
-                return context.getBindManager().getParameterMetaData();
-            }
-
-            @Override
-            public MutationState execute() { // TODO: add throws SQLException
-                try {
-                    sequenceManager.incrementSequenceValues();
-                } catch (SQLException e) {
-                    throw new RuntimeException(e); // Will get unwrapped
-                }
-                Map<ImmutableBytesPtr, Map<PColumn, byte[]>> mutation = Maps.newHashMapWithExpectedSize(1);
-                setValues(values, pkSlotIndexes, columnIndexes, tableRef.getTable(), mutation);
-                return new MutationState(tableRef, mutation, 0, maxSize, connection);
-            }
-
-            @Override
-            public ExplainPlan getExplainPlan() throws SQLException {
-                List<String> planSteps = Lists.newArrayListWithExpectedSize(2);
-                if (context.getSequenceManager().getSequenceCount() > 0) {
-                    planSteps.add("CLIENT RESERVE " + context.getSequenceManager().getSequenceCount() + " SEQUENCES");
-                }
-                planSteps.add("PUT SINGLE ROW");
-                return new ExplainPlan(planSteps);
-            }
-
-        };
+        return values;
     }
     
     private static final class UpsertValuesCompiler extends ExpressionCompiler {
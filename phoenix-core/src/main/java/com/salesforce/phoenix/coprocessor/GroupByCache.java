@@ -19,6 +19,7 @@
 package com.salesforce.phoenix.coprocessor;
 
 import java.io.Closeable;
+import java.io.IOException;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
@@ -36,5 +37,5 @@ import com.salesforce.phoenix.expression.aggregator.Aggregator;
 public interface GroupByCache extends Closeable {
     int size();
     Aggregator[] cache(ImmutableBytesWritable key);
-    RegionScanner getScanner(RegionScanner s);
+    RegionScanner getScanner(RegionScanner s) throws IOException;
 }
@@ -21,7 +21,11 @@ package com.salesforce.phoenix.coprocessor;
 import static com.salesforce.phoenix.query.QueryConstants.AGG_TIMESTAMP;
 import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
 import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static com.salesforce.phoenix.query.QueryServices.AGGREGATE_BATCH_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.GROUPBY_HYBRID_HASH_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.GROUPBY_SPILLABLE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServicesOptions.DEFAULT_AGGREGATE_BATCH_SIZE;
+import static com.salesforce.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_HYBRID_HASH;
 import static com.salesforce.phoenix.query.QueryServicesOptions.DEFAULT_GROUPBY_SPILLABLE;
 
 import java.io.ByteArrayInputStream;
@@ -56,6 +60,7 @@ import com.google.common.io.Closeables;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.cache.GlobalCache;
 import com.salesforce.phoenix.cache.TenantCache;
+import com.salesforce.phoenix.cache.aggcache.HybridHashGroupByCache;
 import com.salesforce.phoenix.cache.aggcache.SpillableGroupByCache;
 import com.salesforce.phoenix.expression.Expression;
 import com.salesforce.phoenix.expression.ExpressionType;
@@ -66,6 +71,7 @@ import com.salesforce.phoenix.join.ScanProjector;
 import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
 import com.salesforce.phoenix.query.QueryConstants;
 import com.salesforce.phoenix.schema.tuple.MultiKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.KeyValueUtil;
 import com.salesforce.phoenix.util.ScanUtil;
 import com.salesforce.phoenix.util.SizedUtil;
@@ -321,6 +327,9 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
             boolean spillableEnabled =
                     conf.getBoolean(GROUPBY_SPILLABLE_ATTRIB, DEFAULT_GROUPBY_SPILLABLE);
             if (spillableEnabled) {
+                if (conf.getBoolean(GROUPBY_HYBRID_HASH_ATTRIB, DEFAULT_GROUPBY_HYBRID_HASH)) {
+                    return new HybridHashGroupByCache(env, tenantId, aggregators, estDistVals);
+                }
                 return new SpillableGroupByCache(env, tenantId, aggregators, estDistVals);
             } 
             
@@ -356,12 +365,16 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
                 GroupByCacheFactory.INSTANCE.newCache(
                         env, ScanUtil.getTenantId(scan), 
                         aggregators, estDistVals);
+        // Rows of groups that don't fit are partitioned to disk rather than aggregated right away
+        HybridHashGroupByCache hybridHashCache = groupByCache instanceof HybridHashGroupByCache ? (HybridHashGroupByCache)groupByCache : null;
 
+        // Rows are buffered, so that the aggregated expressions are evaluated a batch at a time
+        Tuple[] batch = new Tuple[Math.max(1, conf.getInt(AGGREGATE_BATCH_SIZE_ATTRIB, DEFAULT_AGGREGATE_BATCH_SIZE))];
+        List<List<KeyValue>> batchResults = new ArrayList<List<KeyValue>>(batch.length);
         boolean success = false;
         try {
             boolean hasMore;
 
-            MultiKeyValueTuple result = new MultiKeyValueTuple();
             if (logger.isDebugEnabled()) {
                 logger.debug("Spillable groupby enabled: " + spillableEnabled);
             }
@@ -379,12 +392,21 @@ public class GroupedAggregateRegionObserver extends BaseScannerRegionObserver {
                     // ones returned
                     hasMore = s.nextRaw(results, null);
                     if (!results.isEmpty()) {
-                        result.setKeyValues(results);
-                        ImmutableBytesWritable key =
-                                TupleUtil.getConcatenatedValue(result, expressions);
-                        Aggregator[] rowAggregators = groupByCache.cache(key);
-                        // Aggregate values here
-                        aggregators.aggregate(rowAggregators, result);
+                        batch[batchResults.size()] = new MultiKeyValueTuple(results);
+                        batchResults.add(results);
+                    }
+                    if (batchResults.size() == batch.length || (!hasMore && !batchResults.isEmpty())) {
+                        aggregators.evaluate(batch, batchResults.size());
+                        for (int i = 0; i < batchResults.size(); i++) {
+                            ImmutableBytesWritable key =
+                                    TupleUtil.getConcatenatedValue(batch[i], expressions);
+                            if (hybridHashCache == null || !hybridHashCache.spill(key, batchResults.get(i))) {
+                                Aggregator[] rowAggregators = groupByCache.cache(key);
+                                // Aggregate values here
+                                aggregators.aggregate(rowAggregators, batch[i], i);
+                            }
+                        }
+                        batchResults.clear();
                     }
                 } while (hasMore);
             } finally {
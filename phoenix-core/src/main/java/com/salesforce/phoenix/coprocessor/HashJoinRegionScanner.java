@@ -28,6 +28,7 @@
 package com.salesforce.phoenix.coprocessor;
 
 import java.io.IOException;
+import java.sql.SQLException;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -55,6 +56,7 @@ import com.salesforce.phoenix.schema.KeyValueSchema;
 import com.salesforce.phoenix.schema.ValueBitSet;
 import com.salesforce.phoenix.schema.tuple.ResultTuple;
 import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.ServerUtil;
 import com.salesforce.phoenix.util.TupleUtil;
 
 public class HashJoinRegionScanner implements RegionScanner {
@@ -90,7 +92,12 @@ public class HashJoinRegionScanner implements RegionScanner {
             TenantCache cache = GlobalCache.getTenantCache(env, tenantId);
             for (int i = 0; i < count; i++) {
                 ImmutableBytesPtr joinId = joinInfo.getJoinIds()[i];
-                HashCache hashCache = (HashCache)cache.getServerCache(joinId);
+                HashCache hashCache = null;
+                try {
+                    hashCache = (HashCache)ServerCachingEndpointImpl.getServerCache(env, cache, joinId);
+                } catch (SQLException e) {
+                    ServerUtil.throwIOException("Unable to get hash cache", e);
+                }
                 if (hashCache == null)
                     throw new IOException("Could not find hash cache for joinId: " + Bytes.toString(joinId.get(), joinId.getOffset(), joinId.getLength()));
                 hashCaches[i] = hashCache;
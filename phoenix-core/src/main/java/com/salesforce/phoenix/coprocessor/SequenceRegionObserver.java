@@ -111,6 +111,14 @@ public class SequenceRegionObserver extends BaseRegionObserver {
                 long value = PDataType.LONG.getCodec().decodeLong(currentValueKV.getBuffer(), currentValueKV.getValueOffset(), null);
                 long incrementBy = PDataType.LONG.getCodec().decodeLong(incrementByKV.getBuffer(), incrementByKV.getValueOffset(), null);
                 int cacheSize = PDataType.INTEGER.getCodec().decodeInt(cacheSizeKV.getBuffer(), cacheSizeKV.getValueOffset(), null);
+                // The client may ask for a block of a different size than the CACHE the sequence
+                // was declared with, based on how quickly it is consuming values. The size of the
+                // block actually allocated is returned in place of the declared size.
+                int requestedCacheSize = getRequestedCacheSize(increment);
+                if (requestedCacheSize > 0 && requestedCacheSize != cacheSize) {
+                    cacheSize = requestedCacheSize;
+                    result = Sequence.replaceCacheSizeKV(result, KeyValueUtil.newKeyValue(row, cacheSizeKV.getFamily(), cacheSizeKV.getQualifier(), cacheSizeKV.getTimestamp(), PDataType.INTEGER.toBytes(cacheSize)));
+                }
                 value += incrementBy * cacheSize;
                 byte[] valueBuffer = new byte[PDataType.LONG.getByteSize()];
                 PDataType.LONG.getCodec().encodeLong(value, valueBuffer, 0);
@@ -135,6 +143,15 @@ public class SequenceRegionObserver extends BaseRegionObserver {
         }
     }
 
+    private static int getRequestedCacheSize(Increment increment) {
+        NavigableMap<byte[], Long> amounts = increment.getFamilyMap().get(PhoenixDatabaseMetaData.SEQUENCE_FAMILY_BYTES);
+        Long amount = amounts == null ? null : amounts.get(PhoenixDatabaseMetaData.CACHE_SIZE_BYTES);
+        if (amount == null || amount <= 0) {
+            return 0;
+        }
+        return (int)Math.min(Integer.MAX_VALUE, amount);
+    }
+
     /**
      * Override the preAppend for checkAndPut and checkAndDelete, as we need the ability to
      * a) set the TimeRange for the Get being done and
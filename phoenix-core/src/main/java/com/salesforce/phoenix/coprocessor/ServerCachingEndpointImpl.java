@@ -27,15 +27,47 @@
  ******************************************************************************/
 package com.salesforce.phoenix.coprocessor;
 
+import java.io.Closeable;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.coprocessor.BaseEndpointCoprocessor;
 import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.cache.GlobalCache;
+import com.salesforce.phoenix.cache.ServerCacheClient;
 import com.salesforce.phoenix.cache.TenantCache;
+import com.salesforce.phoenix.memory.MemoryManager;
+import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.util.ServerUtil;
 
 
 
@@ -48,6 +80,205 @@ import com.salesforce.phoenix.cache.TenantCache;
  * @since 0.1
  */
 public class ServerCachingEndpointImpl extends BaseEndpointCoprocessor implements ServerCachingProtocol {
+    private static final Logger logger = LoggerFactory.getLogger(ServerCachingEndpointImpl.class);
+    // Relays chunks of caches to other region servers, shared by all the regions of this region server
+    private static volatile ExecutorService relayExecutor;
+    // Caches being received in chunks, shared by all the regions of this region server
+    private static volatile Cache<ImmutableBytesPtr, PartialServerCache> partialCaches;
+
+    /**
+     * A cache being received in chunks. The buffer is charged to the memory manager of
+     * the region server until the cache is complete or removed. Chunks may arrive in any
+     * order and may be sent more than once, for example when a call is retried, so the
+     * range of each chunk is tracked to only count it once. Once complete, the buffer is
+     * released, but the ranges are kept, so that a chunk sent again is still ignored.
+     * Scans that need the cache while it's being received wait for it to be done.
+     */
+    static class PartialServerCache {
+        private final int length;
+        private byte[] bytes;
+        private final MemoryChunk memoryChunk;
+        // Maps the offset of each chunk received to its end
+        private final SortedMap<Integer,Integer> chunkEnds = new TreeMap<Integer,Integer>();
+        private final CountDownLatch done = new CountDownLatch(1);
+        private int remaining;
+        
+        PartialServerCache(int length, MemoryManager memoryManager) {
+            this.memoryChunk = memoryManager.allocate(length);
+            this.length = length;
+            this.bytes = new byte[length];
+            this.remaining = length;
+        }
+        
+        /**
+         * Claim the range of a chunk before copying it with {@link #copy(ImmutableBytesWritable, int)}
+         * @return true if the chunk is new and false if it was already received
+         * @throws SQLException if the chunk overlaps a different chunk or lies outside of the cache
+         */
+        synchronized boolean claim(int offset, int length) throws SQLException {
+            if (remaining == 0) {
+                return false;
+            }
+            int end = offset + length;
+            if (offset < 0 || length <= 0 || end > this.length) {
+                throw new SQLException("Chunk [" + offset + "," + end + ") is outside of server cache of " + this.length + " bytes");
+            }
+            Integer previousEnd = chunkEnds.get(offset);
+            if (previousEnd != null && previousEnd == end) {
+                return false;
+            }
+            SortedMap<Integer,Integer> before = chunkEnds.headMap(offset);
+            SortedMap<Integer,Integer> after = chunkEnds.tailMap(offset);
+            if (previousEnd != null || (!before.isEmpty() && before.get(before.lastKey()) > offset) || (!after.isEmpty() && after.firstKey() < end)) {
+                throw new SQLException("Chunk [" + offset + "," + end + ") overlaps another chunk of server cache");
+            }
+            chunkEnds.put(offset, end);
+            return true;
+        }
+        
+        /**
+         * Copy a chunk claimed through {@link #claim(int, int)}
+         * @return true if every chunk of the cache has now been copied
+         * @throws SQLException if the cache expired or was removed in the meantime
+         */
+        boolean copy(ImmutableBytesWritable chunkPtr, int offset) throws SQLException {
+            byte[] buffer = getBytes();
+            if (buffer == null) {
+                throw new SQLException("Server cache was removed before all of its chunks were received");
+            }
+            // Claimed chunks don't overlap, so they may be copied concurrently
+            System.arraycopy(chunkPtr.get(), chunkPtr.getOffset(), buffer, offset, chunkPtr.getLength());
+            synchronized (this) {
+                remaining -= chunkPtr.getLength();
+                return remaining == 0 && bytes != null;
+            }
+        }
+        
+        /**
+         * @return the buffer of the cache or null once it has been released
+         */
+        synchronized byte[] getBytes() {
+            return bytes;
+        }
+        
+        /**
+         * Release the buffer and the memory charged for it
+         */
+        void release() {
+            synchronized (this) {
+                bytes = null;
+            }
+            memoryChunk.close();
+        }
+        
+        /**
+         * Wake up the scans waiting for the cache, once it was created or will never be
+         */
+        void done() {
+            done.countDown();
+        }
+        
+        /**
+         * Wait for {@link #done()}
+         * @return false if we timed out
+         */
+        boolean await(long timeoutMs) throws InterruptedException {
+            return done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        }
+        
+        void close() {
+            release();
+            done();
+        }
+    }
+    
+    /**
+     * Get the executor relaying chunks of caches. Its queue is bounded, so that a region server
+     * can't pile up relays faster than the region servers it relays to accept them.
+     */
+    private static ExecutorService getRelayExecutor(Configuration config) {
+        if (relayExecutor == null) {
+            synchronized (ServerCachingEndpointImpl.class) {
+                if (relayExecutor == null) {
+                    int nThreads = config.getInt(QueryServices.SERVER_CACHE_RELAY_THREADS_ATTRIB, QueryServicesOptions.DEFAULT_SERVER_CACHE_RELAY_THREADS);
+                    int queueSize = config.getInt(QueryServices.SERVER_CACHE_RELAY_QUEUE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_SERVER_CACHE_RELAY_QUEUE_SIZE);
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(nThreads, nThreads, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<Runnable>(queueSize),
+                            new ThreadFactoryBuilder().setNameFormat("phoenix-cache-relay-%s").setDaemon(true).build());
+                    executor.allowCoreThreadTimeOut(true);
+                    relayExecutor = executor;
+                }
+            }
+        }
+        return relayExecutor;
+    }
+    
+    /**
+     * Get a server cache, waiting for it if its chunks are still being received. Only the last
+     * chunk relayed to a region server may still be on its way once the client is told the cache
+     * was added, as the first chunk waits for the region servers it's relayed to.
+     * @return the cache or null if it's not found
+     * @throws SQLException if interrupted while waiting
+     */
+    public static Closeable getServerCache(RegionCoprocessorEnvironment env, TenantCache tenantCache, ImmutableBytesPtr cacheId) throws SQLException {
+        Closeable cache = tenantCache.getServerCache(cacheId);
+        if (cache != null || partialCaches == null) {
+            return cache;
+        }
+        PartialServerCache partialCache = partialCaches.getIfPresent(cacheId);
+        if (partialCache == null) {
+            return null;
+        }
+        long timeoutMs = env.getConfiguration().getLong(QueryServices.SERVER_CACHE_RELAY_TIMEOUT_MS_ATTRIB, QueryServicesOptions.DEFAULT_SERVER_CACHE_RELAY_TIMEOUT_MS);
+        try {
+            partialCache.await(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for server cache", e);
+        }
+        return tenantCache.getServerCache(cacheId);
+    }
+    
+    /**
+     * Get the caches being received in chunks. A cache expires when no chunk has arrived for
+     * as long as a completed server cache is kept without being used, for example because the
+     * client died while sending it. A completed cache is kept until then too, so that its chunks
+     * can't start a new cache when they're sent again.
+     */
+    private static Cache<ImmutableBytesPtr, PartialServerCache> getPartialCaches(Configuration config) {
+        if (partialCaches == null) {
+            synchronized (ServerCachingEndpointImpl.class) {
+                if (partialCaches == null) {
+                    int maxTimeToLiveMs = config.getInt(QueryServices.MAX_SERVER_CACHE_TIME_TO_LIVE_MS, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_TIME_TO_LIVE_MS);
+                    partialCaches = CacheBuilder.newBuilder()
+                        .expireAfterAccess(maxTimeToLiveMs, TimeUnit.MILLISECONDS)
+                        .removalListener(new RemovalListener<ImmutableBytesPtr, PartialServerCache>() {
+                            @Override
+                            public void onRemoval(RemovalNotification<ImmutableBytesPtr, PartialServerCache> notification) {
+                                notification.getValue().close();
+                            }
+                        })
+                        .build();
+                }
+            }
+        }
+        return partialCaches;
+    }
+    
+    /**
+     * Get the number of levels of relays below a region server relaying a cache to the given
+     * number of region servers, each level waiting on the one below it.
+     */
+    static int getRelayDepth(int nRelayKeys, int fanout) {
+        int depth = 0;
+        int nKeys = nRelayKeys;
+        while (nKeys > 0) {
+            depth++;
+            // The largest group relayed to keeps its first region server and relays to the rest
+            nKeys = (nKeys + Math.max(fanout, 1) - 1) / Math.max(fanout, 1) - 1;
+        }
+        return depth;
+    }
 
     @Override
     public boolean addServerCache(byte[] tenantId, byte[] cacheId, ImmutableBytesWritable cachePtr, ServerCacheFactory cacheFactory) throws SQLException {
@@ -56,10 +287,113 @@ public class ServerCachingEndpointImpl extends BaseEndpointCoprocessor implement
         return true;
     }
 
+    @Override
+    public boolean addServerCacheChunk(final byte[] tenantId, final byte[] cacheId, final ImmutableBytesWritable chunkPtr, final int offset, final int cacheLength, 
+            final ServerCacheFactory cacheFactory, final byte[] tableName, byte[][] relayKeys) throws SQLException {
+        final RegionCoprocessorEnvironment env = (RegionCoprocessorEnvironment)this.getEnvironment();
+        TenantCache tenantCache = GlobalCache.getTenantCache(env, tenantId == null ? null : new ImmutableBytesPtr(tenantId));
+        ImmutableBytesPtr key = new ImmutableBytesPtr(cacheId);
+        Cache<ImmutableBytesPtr, PartialServerCache> partialCaches = getPartialCaches(env.getConfiguration());
+        PartialServerCache partialCache = partialCaches.getIfPresent(key);
+        if (partialCache == null) {
+            // A chunk sent again after the cache was completed and its partial cache expired
+            if (tenantCache.getServerCache(key) != null) {
+                return true;
+            }
+            PartialServerCache newPartialCache = new PartialServerCache(cacheLength, tenantCache.getMemoryManager());
+            partialCache = partialCaches.asMap().putIfAbsent(key, newPartialCache);
+            if (partialCache == null) {
+                partialCache = newPartialCache;
+            } else {
+                newPartialCache.close();
+            }
+        }
+        if (!partialCache.claim(offset, chunkPtr.getLength())) {
+            return true;
+        }
+        int fanout = env.getConfiguration().getInt(QueryServices.SERVER_CACHE_RELAY_FANOUT_ATTRIB, QueryServicesOptions.DEFAULT_SERVER_CACHE_RELAY_FANOUT);
+        // Only the first chunk waits for the region servers it's relayed to, so that they all have
+        // the partial cache before the client is done sending it. The other chunks are relayed
+        // without tying up this RPC handler, and scans wait for the last of them to arrive.
+        final boolean isFirstChunk = offset == 0;
+        List<Future<Boolean>> relays = Lists.newArrayList();
+        // Relay the chunk before copying it, so that the next hop can start on it right away
+        if (relayKeys != null && relayKeys.length > 0) {
+            ExecutorService executor = getRelayExecutor(env.getConfiguration());
+            for (final byte[][] group : ServerCacheClient.getRelayGroups(relayKeys, fanout)) {
+                try {
+                    relays.add(executor.submit(new Callable<Boolean>() {
+                        @Override
+                        public Boolean call() throws Exception {
+                            HTableInterface htable = env.getTable(tableName);
+                            try {
+                                ServerCachingProtocol protocol = htable.coprocessorProxy(ServerCachingProtocol.class, group[0]);
+                                return protocol.addServerCacheChunk(tenantId, cacheId, chunkPtr, offset, cacheLength, cacheFactory, tableName, Arrays.copyOfRange(group, 1, group.length));
+                            } catch (Exception e) {
+                                if (!isFirstChunk) {
+                                    // Nobody waits on this relay, and the scans waiting for the cache will time out
+                                    logger.warn("Unable to relay server cache chunk at offset " + offset, e);
+                                }
+                                throw e;
+                            } finally {
+                                htable.close();
+                            }
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    throw new SQLException("Too many server cache chunks waiting to be relayed", e);
+                }
+            }
+        }
+        if (partialCache.copy(chunkPtr, offset)) {
+            // All chunks are in: create the cache. The partial cache stays until it expires, to ignore
+            // chunks sent again.
+            byte[] bytes = partialCache.getBytes();
+            // The memory for the cache is allocated when it's created, so stop charging for the buffer
+            partialCache.release();
+            try {
+                if (bytes == null) {
+                    throw new SQLException("Server cache was removed before all of its chunks were received");
+                }
+                addServerCache(tenantId, cacheId, new ImmutableBytesWritable(bytes), cacheFactory);
+            } finally {
+                partialCache.done();
+            }
+        }
+        if (!isFirstChunk || relays.isEmpty()) {
+            return true;
+        }
+        // Bound how long this RPC handler waits by the levels of relays below it, as each of
+        // them waits on the one below. The caller gives up after the RPC timeout anyway.
+        long relayTimeoutMs = env.getConfiguration().getLong(QueryServices.SERVER_CACHE_RELAY_TIMEOUT_MS_ATTRIB, QueryServicesOptions.DEFAULT_SERVER_CACHE_RELAY_TIMEOUT_MS);
+        long timeoutMs = Math.min(relayTimeoutMs * getRelayDepth(relayKeys.length, fanout),
+                env.getConfiguration().getLong(HConstants.HBASE_RPC_TIMEOUT_KEY, HConstants.DEFAULT_HBASE_RPC_TIMEOUT));
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        try {
+            for (Future<Boolean> relay : relays) {
+                relay.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while relaying server cache", e);
+        } catch (ExecutionException e) {
+            throw ServerUtil.parseServerException(e.getCause());
+        } catch (TimeoutException e) {
+            for (Future<Boolean> relay : relays) {
+                relay.cancel(true);
+            }
+            throw new SQLException("Timed out after " + timeoutMs + " ms relaying server cache", e);
+        }
+        return true;
+    }
+
     @Override
     public boolean removeServerCache(byte[] tenantId, byte[] cacheId) throws SQLException {
         TenantCache tenantCache = GlobalCache.getTenantCache((RegionCoprocessorEnvironment)this.getEnvironment(), tenantId == null ? null : new ImmutableBytesPtr(tenantId));
-        tenantCache.removeServerCache(new ImmutableBytesPtr(cacheId));
+        ImmutableBytesPtr key = new ImmutableBytesPtr(cacheId);
+        // The cache may be removed before all of its chunks arrived if sending it failed
+        getPartialCaches(this.getEnvironment().getConfiguration()).invalidate(key);
+        tenantCache.removeServerCache(key);
         return true;
     }
 }
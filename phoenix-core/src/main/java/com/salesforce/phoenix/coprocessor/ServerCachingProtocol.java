@@ -59,6 +59,23 @@ public interface ServerCachingProtocol extends CoprocessorProtocol {
      * @throws SQLException 
      */
     public boolean addServerCache(byte[] tenantId, byte[] cacheId, ImmutableBytesWritable cachePtr, ServerCacheFactory cacheFactory) throws SQLException;
+    /**
+     * Add one chunk of a cache to the region server cache, relaying it on to the region servers
+     * hosting relayKeys. The cache is created once all of its chunks have been received, and
+     * the call that completes it only returns once the cache exists on every region server it
+     * was relayed to.
+     * @param tenantId the tenantId or null if not applicable
+     * @param cacheId unique identifier of the cache
+     * @param chunkPtr pointer to the bytes of this chunk
+     * @param offset offset of this chunk within the cache
+     * @param cacheLength total length of the cache
+     * @param cacheFactory factory that converts from byte array to object representation on the server side
+     * @param tableName physical name of the table whose regions are listed in relayKeys
+     * @param relayKeys start keys of one region for each region server this one should relay the cache to
+     * @return true on success and otherwise throws
+     * @throws SQLException
+     */
+    public boolean addServerCacheChunk(byte[] tenantId, byte[] cacheId, ImmutableBytesWritable chunkPtr, int offset, int cacheLength, ServerCacheFactory cacheFactory, byte[] tableName, byte[][] relayKeys) throws SQLException;
     /**
      * Remove the cache from the region server cache.  Called upon completion of
      * the operation when cache is no longer needed.
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.coprocessor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.InternalScanner;
+import org.apache.hadoop.hbase.regionserver.KeyValueScanner;
+import org.apache.hadoop.hbase.regionserver.ScanType;
+import org.apache.hadoop.hbase.regionserver.Store;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
+import com.salesforce.phoenix.query.QueryConstants;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.schema.stat.StatisticsCollector;
+import com.salesforce.phoenix.schema.stat.StatisticsUtil;
+import com.salesforce.phoenix.util.ByteUtil;
+
+/**
+ * 
+ * Region observer coprocessor that collects guide posts for a region while it is major
+ * compacted and persists them in SYSTEM.STATS, along with the number of bytes of the
+ * chunks between them, keyed by the physical table name, the region name and the column
+ * family, since each store is compacted on its own. The guide posts of a region are
+ * deleted when it is split. The guide posts are used by the client to split a region
+ * into evenly sized chunks when scanning in parallel and to estimate the number of bytes
+ * a query scans. A major compaction may be requested through
+ * {@link org.apache.hadoop.hbase.client.HBaseAdmin#majorCompact(byte[])} to update the
+ * guide posts on demand.
+ *
+ * @since 3.0.0
+ */
+public class StatisticsCollectorRegionObserver extends BaseRegionObserver {
+    private static final Logger logger = LoggerFactory.getLogger(StatisticsCollectorRegionObserver.class);
+    // Compaction type of the store being compacted, as it's only available when the scanner is opened
+    private final ConcurrentMap<Store,ScanType> compactionScanTypes = new ConcurrentHashMap<Store,ScanType>();
+
+    @Override
+    public InternalScanner preCompactScannerOpen(ObserverContext<RegionCoprocessorEnvironment> c,
+            Store store, List<? extends KeyValueScanner> scanners, ScanType scanType, long earliestPutTs,
+            InternalScanner s) throws IOException {
+        compactionScanTypes.put(store, scanType);
+        return super.preCompactScannerOpen(c, store, scanners, scanType, earliestPutTs, s);
+    }
+
+    @Override
+    public InternalScanner preCompact(ObserverContext<RegionCoprocessorEnvironment> c, Store store,
+            InternalScanner scanner) {
+        ScanType scanType = compactionScanTypes.remove(store);
+        // Only a major compaction sees all of the data of the region
+        if (scanType != ScanType.MAJOR_COMPACT) {
+            return scanner;
+        }
+        RegionCoprocessorEnvironment env = c.getEnvironment();
+        long guidePostWidth = env.getConfiguration().getLong(QueryServices.STATS_GUIDEPOST_WIDTH_BYTES_ATTRIB,
+                QueryServicesOptions.DEFAULT_STATS_GUIDEPOST_WIDTH_BYTES);
+        return new StatisticsScanner(env, store.getFamily().getName(), scanner, new StatisticsCollector(guidePostWidth));
+    }
+
+    @Override
+    public void postSplit(ObserverContext<RegionCoprocessorEnvironment> c, HRegion l, HRegion r) throws IOException {
+        // The daughters collect their own guide posts when they're compacted, so drop the ones of the parent
+        HRegion parent = c.getEnvironment().getRegion();
+        HRegionInfo regionInfo = parent.getRegionInfo();
+        List<Delete> deletes = Lists.newArrayList();
+        for (HColumnDescriptor family : parent.getTableDesc().getFamilies()) {
+            deletes.add(new Delete(StatisticsUtil.getRowKey(regionInfo.getTableName(), regionInfo.getRegionNameAsString(), family.getName())));
+        }
+        try {
+            HTableInterface statsTable = c.getEnvironment().getTable(PhoenixDatabaseMetaData.STATS_TABLE_NAME_BYTES);
+            try {
+                statsTable.delete(deletes);
+            } finally {
+                statsTable.close();
+            }
+        } catch (IOException e) {
+            // Guide posts of a region that no longer exists are never used, so don't fail the split
+            logger.warn("Unable to delete guide posts for split region " + regionInfo.getRegionNameAsString(), e);
+        }
+    }
+
+    private static class StatisticsScanner implements InternalScanner {
+        private final RegionCoprocessorEnvironment env;
+        private final byte[] family;
+        private final InternalScanner delegate;
+        private final StatisticsCollector collector;
+
+        private StatisticsScanner(RegionCoprocessorEnvironment env, byte[] family, InternalScanner delegate, StatisticsCollector collector) {
+            this.env = env;
+            this.family = family;
+            this.delegate = delegate;
+            this.collector = collector;
+        }
+
+        @Override
+        public boolean next(List<KeyValue> results) throws IOException {
+            int size = results.size();
+            boolean hasMore = delegate.next(results);
+            collector.collect(results.subList(size, results.size()));
+            return hasMore;
+        }
+
+        @Override
+        public boolean next(List<KeyValue> results, String metric) throws IOException {
+            int size = results.size();
+            boolean hasMore = delegate.next(results, metric);
+            collector.collect(results.subList(size, results.size()));
+            return hasMore;
+        }
+
+        @Override
+        public boolean next(List<KeyValue> results, int limit) throws IOException {
+            int size = results.size();
+            boolean hasMore = delegate.next(results, limit);
+            collector.collect(results.subList(size, results.size()));
+            return hasMore;
+        }
+
+        @Override
+        public boolean next(List<KeyValue> results, int limit, String metric) throws IOException {
+            int size = results.size();
+            boolean hasMore = delegate.next(results, limit, metric);
+            collector.collect(results.subList(size, results.size()));
+            return hasMore;
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+            // Only replace the guide posts once the compaction that collected them has succeeded
+            writeGuidePosts();
+        }
+
+        private void writeGuidePosts() {
+            HRegionInfo regionInfo = env.getRegion().getRegionInfo();
+            byte[] rowKey = StatisticsUtil.getRowKey(regionInfo.getTableName(), regionInfo.getRegionNameAsString(), family);
+            Put put = new Put(rowKey);
+            put.add(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, QueryConstants.EMPTY_COLUMN_BYTES, ByteUtil.EMPTY_BYTE_ARRAY);
+            put.add(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.GUIDE_POSTS_BYTES, StatisticsUtil.toBytes(collector.getGuidePosts()));
+            put.add(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.CHUNK_BYTE_COUNTS_BYTES, StatisticsUtil.toBytes(collector.getChunkByteCounts()));
+            try {
+                HTableInterface statsTable = env.getTable(PhoenixDatabaseMetaData.STATS_TABLE_NAME_BYTES);
+                try {
+                    statsTable.put(put);
+                } finally {
+                    statsTable.close();
+                }
+            } catch (IOException e) {
+                // Stale guide posts only lead to less balanced parallel scans, so don't fail the compaction
+                logger.warn("Unable to update guide posts for region " + regionInfo.getRegionNameAsString(), e);
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ import static com.salesforce.phoenix.query.QueryConstants.AGG_TIMESTAMP;
 import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
 import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
 import static com.salesforce.phoenix.query.QueryConstants.UNGROUPED_AGG_ROW_KEY;
+import static com.salesforce.phoenix.query.QueryServices.AGGREGATE_BATCH_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MUTATE_BATCH_SIZE_ATTRIB;
 
 import java.io.ByteArrayInputStream;
@@ -70,7 +71,6 @@ import com.salesforce.phoenix.exception.ValueTypeIncompatibleException;
 import com.salesforce.phoenix.expression.Expression;
 import com.salesforce.phoenix.expression.ExpressionType;
 import com.salesforce.phoenix.expression.aggregator.Aggregator;
-import com.salesforce.phoenix.expression.aggregator.Aggregators;
 import com.salesforce.phoenix.expression.aggregator.ServerAggregators;
 import com.salesforce.phoenix.index.PhoenixIndexCodec;
 import com.salesforce.phoenix.join.HashJoinInfo;
@@ -85,6 +85,7 @@ import com.salesforce.phoenix.schema.PRow;
 import com.salesforce.phoenix.schema.PTable;
 import com.salesforce.phoenix.schema.PTableImpl;
 import com.salesforce.phoenix.schema.tuple.MultiKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.ByteUtil;
 import com.salesforce.phoenix.util.KeyValueUtil;
 import com.salesforce.phoenix.util.ScanUtil;
@@ -177,14 +178,21 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
         long ts = scan.getTimeRange().getMax();
         HRegion region = c.getEnvironment().getRegion();
         List<Pair<Mutation,Integer>> mutations = Collections.emptyList();
-        if (isDelete || isUpsert || (deleteCQ != null && deleteCF != null) || emptyCF != null) {
+        boolean isMutation = isDelete || isUpsert || (deleteCQ != null && deleteCF != null) || emptyCF != null;
+        if (isMutation) {
             // TODO: size better
             mutations = Lists.newArrayListWithExpectedSize(1024);
             batchSize = c.getEnvironment().getConfiguration().getInt(MUTATE_BATCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MUTATE_BATCH_SIZE);
         }
-        Aggregators aggregators = ServerAggregators.deserialize(
+        ServerAggregators aggregators = ServerAggregators.deserialize(
                 scan.getAttribute(GroupedAggregateRegionObserver.AGGREGATORS), c.getEnvironment().getConfiguration());
         Aggregator[] rowAggregators = aggregators.getAggregators();
+        // Rows that are only aggregated are buffered, so that the aggregated expressions are evaluated a batch at a time
+        Tuple[] batch = null;
+        int batchCount = 0;
+        if (!isMutation) {
+            batch = new Tuple[Math.max(1, c.getEnvironment().getConfiguration().getInt(AGGREGATE_BATCH_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_AGGREGATE_BATCH_SIZE))];
+        }
         boolean hasMore;
         boolean hasAny = false;
         MultiKeyValueTuple result = new MultiKeyValueTuple();
@@ -203,6 +211,15 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
                 hasMore = innerScanner.nextRaw(results, null);
                 if (!results.isEmpty()) {
                 	rowCount++;
+                    if (batch != null) {
+                        batch[batchCount++] = new MultiKeyValueTuple(results);
+                        if (batchCount == batch.length) {
+                            aggregators.aggregate(rowAggregators, batch, batchCount);
+                            batchCount = 0;
+                        }
+                        hasAny = true;
+                        continue;
+                    }
                     result.setKeyValues(results);
                     try {
                         if (isDelete) {
@@ -298,6 +315,9 @@ public class UngroupedAggregateRegionObserver extends BaseScannerRegionObserver
                     hasAny = true;
                 }
             } while (hasMore);
+            if (batchCount > 0) {
+                aggregators.aggregate(rowAggregators, batch, batchCount);
+            }
         } finally {
             innerScanner.close();
             region.closeRegionOperation();
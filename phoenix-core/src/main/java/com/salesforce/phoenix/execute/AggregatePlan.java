@@ -29,7 +29,6 @@ package com.salesforce.phoenix.execute;
 
 
 import java.sql.SQLException;
-import java.util.Collections;
 import java.util.List;
 
 import com.salesforce.phoenix.compile.GroupByCompiler.GroupBy;
@@ -38,18 +37,16 @@ import com.salesforce.phoenix.compile.RowProjector;
 import com.salesforce.phoenix.compile.StatementContext;
 import com.salesforce.phoenix.coprocessor.UngroupedAggregateRegionObserver;
 import com.salesforce.phoenix.expression.Expression;
-import com.salesforce.phoenix.expression.OrderByExpression;
-import com.salesforce.phoenix.expression.RowKeyExpression;
 import com.salesforce.phoenix.expression.aggregator.Aggregators;
 import com.salesforce.phoenix.iterate.AggregatingResultIterator;
 import com.salesforce.phoenix.iterate.ConcatResultIterator;
 import com.salesforce.phoenix.iterate.DistinctAggregatingResultIterator;
 import com.salesforce.phoenix.iterate.FilterAggregatingResultIterator;
 import com.salesforce.phoenix.iterate.GroupedAggregatingResultIterator;
+import com.salesforce.phoenix.iterate.HashAggregatingResultIterator;
 import com.salesforce.phoenix.iterate.LimitingResultIterator;
 import com.salesforce.phoenix.iterate.MergeSortRowKeyResultIterator;
 import com.salesforce.phoenix.iterate.OrderedAggregatingResultIterator;
-import com.salesforce.phoenix.iterate.OrderedResultIterator;
 import com.salesforce.phoenix.iterate.ParallelIterators;
 import com.salesforce.phoenix.iterate.ParallelIterators.ParallelIteratorFactory;
 import com.salesforce.phoenix.iterate.PeekingResultIterator;
@@ -91,21 +88,6 @@ public class AggregatePlan extends BasicQueryPlan {
         return splits;
     }
 
-    private static class OrderingResultIteratorFactory implements ParallelIteratorFactory {
-        private final QueryServices services;
-        
-        public OrderingResultIteratorFactory(QueryServices services) {
-            this.services = services;
-        }
-        @Override
-        public PeekingResultIterator newIterator(ResultIterator scanner) throws SQLException {
-            Expression expression = RowKeyExpression.INSTANCE;
-            OrderByExpression orderByExpression = new OrderByExpression(expression, false, true);
-            int threshold = services.getProps().getInt(QueryServices.SPOOL_THRESHOLD_BYTES_ATTRIB, QueryServicesOptions.DEFAULT_SPOOL_THRESHOLD_BYTES);
-            return new OrderedResultIterator(scanner, Collections.<OrderByExpression>singletonList(orderByExpression), threshold);
-        }
-    }
-
     private static class WrappingResultIteratorFactory implements ParallelIteratorFactory {
         private final ParallelIteratorFactory innerFactory;
         private final ParallelIteratorFactory outerFactory;
@@ -122,13 +104,9 @@ public class AggregatePlan extends BasicQueryPlan {
     }
 
     private ParallelIteratorFactory wrapParallelIteratorFactory () {
-        ParallelIteratorFactory innerFactory;
+        // The partial aggregates of unordered groups are merged by hash on the client, so they don't need sorting here
         QueryServices services = context.getConnection().getQueryServices();
-        if (groupBy.isEmpty() || groupBy.isOrderPreserving()) {
-            innerFactory = new SpoolingResultIterator.SpoolingResultIteratorFactory(services);
-        } else {
-            innerFactory = new OrderingResultIteratorFactory(services);
-        }
+        ParallelIteratorFactory innerFactory = new SpoolingResultIterator.SpoolingResultIteratorFactory(services);
         if (parallelIteratorFactory == null) {
             return innerFactory;
         }
@@ -145,11 +123,16 @@ public class AggregatePlan extends BasicQueryPlan {
         splits = parallelIterators.getSplits();
 
         AggregatingResultIterator aggResultIterator;
-        // No need to merge sort for ungrouped aggregation
+        // No need to merge sort for ungrouped aggregation, so consume the scans as they complete
         if (groupBy.isEmpty()) {
-            aggResultIterator = new UngroupedAggregatingResultIterator(new ConcatResultIterator(parallelIterators), aggregators);
-        } else {
+            aggResultIterator = new UngroupedAggregatingResultIterator(new ConcatResultIterator(parallelIterators.getCompletionOrderedIterators()), aggregators);
+        } else if (groupBy.isOrderPreserving()) {
             aggResultIterator = new GroupedAggregatingResultIterator(new MergeSortRowKeyResultIterator(parallelIterators), aggregators);
+        } else {
+            // Merge the partial aggregates as the scans complete. The groups only need to be put in key order
+            // when there's no ORDER BY, as otherwise they're sorted again below.
+            QueryServices services = getConnectionQueryServices(context.getConnection().getQueryServices());
+            aggResultIterator = new HashAggregatingResultIterator(new ConcatResultIterator(parallelIterators.getCompletionOrderedIterators()), aggregators, services, orderBy.getOrderByExpressions().isEmpty());
         }
 
         if (having != null) {
@@ -30,11 +30,14 @@ package com.salesforce.phoenix.execute;
 import java.sql.ParameterMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
 
 import com.google.common.collect.Lists;
 import com.salesforce.hbase.index.util.ImmutableBytesPtr;
@@ -47,15 +50,20 @@ import com.salesforce.phoenix.compile.StatementContext;
 import com.salesforce.phoenix.compile.GroupByCompiler.GroupBy;
 import com.salesforce.phoenix.compile.OrderByCompiler.OrderBy;
 import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.filter.JoinKeyBloomFilter;
 import com.salesforce.phoenix.iterate.ResultIterator;
 import com.salesforce.phoenix.job.JobManager.JobCallable;
 import com.salesforce.phoenix.join.HashCacheClient;
 import com.salesforce.phoenix.join.HashJoinInfo;
 import com.salesforce.phoenix.parse.FilterableStatement;
+import com.salesforce.phoenix.parse.JoinTableNode.JoinType;
 import com.salesforce.phoenix.query.ConnectionQueryServices;
 import com.salesforce.phoenix.query.KeyRange;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.TableRef;
 import com.salesforce.phoenix.util.SQLCloseable;
+import com.salesforce.phoenix.util.ScanUtil;
 
 public class HashJoinPlan implements QueryPlan {
     
@@ -63,6 +71,8 @@ public class HashJoinPlan implements QueryPlan {
     private HashJoinInfo joinInfo;
     private List<Expression>[] hashExpressions;
     private QueryPlan[] hashPlans;
+    // Scan filter before any bloom filter is added, as the scan is reused across executions
+    private final Filter baseFilter;
     
     public HashJoinPlan(BasicQueryPlan plan, HashJoinInfo joinInfo,
             List<Expression>[] hashExpressions, QueryPlan[] hashPlans) {
@@ -70,6 +80,7 @@ public class HashJoinPlan implements QueryPlan {
         this.joinInfo = joinInfo;
         this.hashExpressions = hashExpressions;
         this.hashPlans = hashPlans;
+        this.baseFilter = plan.getContext().getScan().getFilter();
     }
 
     @Override
@@ -99,17 +110,29 @@ public class HashJoinPlan implements QueryPlan {
         int count = joinIds.length;
         ConnectionQueryServices services = getContext().getConnection().getQueryServices();
         ExecutorService executor = services.getExecutor();
+        final int maxBloomFilterKeys = services.getProps().getInt(QueryServices.JOIN_BLOOM_FILTER_MAX_KEYS_ATTRIB, QueryServicesOptions.DEFAULT_JOIN_BLOOM_FILTER_MAX_KEYS);
         List<Future<ServerCache>> futures = new ArrayList<Future<ServerCache>>(count);
         List<SQLCloseable> dependencies = new ArrayList<SQLCloseable>(count);
+        @SuppressWarnings("unchecked")
+        final Set<ImmutableBytesPtr>[] hashKeys = new Set[count];
         for (int i = 0; i < count; i++) {
             final int index = i;
+            /*
+             * Rows of the main table that find no match in an inner join hash table get dropped,
+             * so when their join key comes from the row key alone, a bloom filter of the hash keys
+             * lets the scan skip most of them before any of their key values are read.
+             */
+            if (maxBloomFilterKeys > 0 && joinInfo.getJoinTypes()[i] == JoinType.Inner && joinInfo.earlyEvaluation()[i]
+                    && JoinKeyBloomFilter.isRowKeyOnly(joinInfo.getJoinExpressions()[i])) {
+                hashKeys[i] = new HashSet<ImmutableBytesPtr>();
+            }
             futures.add(executor.submit(new JobCallable<ServerCache>() {
 
                 @Override
                 public ServerCache call() throws Exception {
                     QueryPlan hashPlan = hashPlans[index];
                     return hashClient.addHashCache(ranges, hashPlan.iterator(), 
-                            hashPlan.getEstimatedSize(), hashExpressions[index], plan.getTableRef());
+                            hashPlan.getEstimatedSize(), hashExpressions[index], plan.getTableRef(), hashKeys[index], maxBloomFilterKeys);
                 }
 
                 @Override
@@ -130,6 +153,12 @@ public class HashJoinPlan implements QueryPlan {
                         e.getCause());
             }
         }
+        scan.setFilter(baseFilter);
+        for (int i = 0; i < count; i++) {
+            if (hashKeys[i] != null && hashKeys[i].size() <= maxBloomFilterKeys) {
+                ScanUtil.andFilterAtEnd(scan, new JoinKeyBloomFilter(joinInfo.getJoinExpressions()[i], hashKeys[i]));
+            }
+        }
         HashJoinInfo.serializeHashJoinIntoScan(scan, joinInfo);
         
         return plan.iterator(dependencies);
@@ -0,0 +1,376 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.execute;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.client.KeyValueBuilder;
+import com.salesforce.phoenix.schema.PColumn;
+import com.salesforce.phoenix.schema.PRow;
+import com.salesforce.phoenix.schema.PTable;
+
+/**
+ * 
+ * Compact buffer of the uncommitted rows of a table. Instead of a map per row and a byte array
+ * per cell, the row keys and cell values are appended to contiguous arenas and referenced by
+ * offset, with an open addressing hash table over the row keys to find a row again when it's
+ * upserted or deleted again. The cells set for a row are chained, with one cell per column. A new
+ * value for a column is written over the old one when it fits, and otherwise appended as a new
+ * cell that replaces the old one in the chain.
+ * 
+ * The values of replaced cells and deleted rows are dead bytes in the arena. Once they make up
+ * more than half of it, the live cells are copied into new, smaller arrays.
+ *
+ * @since 3.0.0
+ */
+final class MutationBuffer {
+    private static final int NO_CELL = -1;
+    private static final int INITIAL_KEY_BYTES = 16;
+    private static final int INITIAL_VALUE_BYTES = 64;
+    // Bytes taken by the array entries of a cell
+    private static final int CELL_OVERHEAD_BYTES = 4 * 4;
+    private static final int MIN_COMPACTION_BYTES = 4096;
+    
+    // Row keys, indexed by row number
+    private byte[] keys;
+    private int keysLength;
+    private int[] keyOffsets;
+    private int[] keyLengths;
+    private int[] keyHashes;
+    private int[] newestCells;
+    private final BitSet deletedRows = new BitSet();
+    private int rowCount;
+    // Open addressing hash table of row number + 1, with zero for an empty slot
+    private int[] slots;
+    
+    // Cell values, indexed by cell number
+    private byte[] values;
+    private int valuesLength;
+    private int[] cellColumns;
+    private int[] cellOffsets;
+    private int[] cellLengths;
+    private int[] previousCells;
+    private int cellCount;
+    // Bytes taken up by values and cells that are no longer referenced
+    private int deadBytes;
+    
+    private final List<PColumn> columns = Lists.newArrayList();
+    private final Map<PColumn,Integer> columnIndexes = Maps.newHashMap();
+
+    MutationBuffer(int expectedRowCount) {
+        int capacity = Math.max(expectedRowCount, 4);
+        keys = new byte[capacity * INITIAL_KEY_BYTES];
+        keyOffsets = new int[capacity];
+        keyLengths = new int[capacity];
+        keyHashes = new int[capacity];
+        newestCells = new int[capacity];
+        slots = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];
+        values = new byte[capacity * INITIAL_VALUE_BYTES];
+        cellColumns = new int[capacity];
+        cellOffsets = new int[capacity];
+        cellLengths = new int[capacity];
+        previousCells = new int[capacity];
+    }
+    
+    MutationBuffer(Map<ImmutableBytesPtr,Map<PColumn,byte[]>> rows) {
+        this(rows.size());
+        for (Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>> rowEntry : rows.entrySet()) {
+            put(rowEntry.getKey(), rowEntry.getValue());
+        }
+    }
+    
+    /**
+     * @return the number of distinct rows
+     */
+    int size() {
+        return rowCount;
+    }
+    
+    /**
+     * @return an estimate of the heap used by the buffer
+     */
+    long getByteSize() {
+        return keys.length + values.length + (keyOffsets.length * 4L + slots.length) * 4L + cellColumns.length * 4L * 4L;
+    }
+    
+    /**
+     * @return the columns for which values have been set
+     */
+    List<PColumn> getColumns() {
+        return Collections.unmodifiableList(columns);
+    }
+    
+    /**
+     * Set the values of a row, overriding any existing values for the same columns.
+     * @param key the row key
+     * @param rowValues the column values, or {@link PRow#DELETE_MARKER} to delete the row
+     */
+    void put(ImmutableBytesWritable key, Map<PColumn,byte[]> rowValues) {
+        int row = getOrAddRow(key.get(), key.getOffset(), key.getLength(), hash(key.get(), key.getOffset(), key.getLength()));
+        if (rowValues == PRow.DELETE_MARKER) {
+            delete(row);
+        } else {
+            undelete(row);
+            for (Map.Entry<PColumn,byte[]> valueEntry : rowValues.entrySet()) {
+                byte[] value = valueEntry.getValue();
+                setCell(row, getColumnIndex(valueEntry.getKey()), value, 0, value == null ? 0 : value.length);
+            }
+        }
+        compactIfNeeded();
+    }
+    
+    /**
+     * Add all the rows of a newer buffer, where the newer rows and values take precedence.
+     */
+    void putAll(MutationBuffer newer) {
+        for (int newerRow = 0; newerRow < newer.rowCount; newerRow++) {
+            int row = getOrAddRow(newer.keys, newer.keyOffsets[newerRow], newer.keyLengths[newerRow], newer.keyHashes[newerRow]);
+            if (newer.deletedRows.get(newerRow)) {
+                delete(row);
+                continue;
+            }
+            undelete(row);
+            for (int cell = newer.newestCells[newerRow]; cell != NO_CELL; cell = newer.previousCells[cell]) {
+                setCell(row, getColumnIndex(newer.columns.get(newer.cellColumns[cell])), newer.values, newer.cellOffsets[cell], newer.cellLengths[cell]);
+            }
+        }
+        compactIfNeeded();
+    }
+    
+    /**
+     * Add the HBase mutations for all the rows to the given list
+     */
+    void addRowMutations(PTable table, KeyValueBuilder builder, long timestamp, List<Mutation> mutations) {
+        ImmutableBytesPtr key = new ImmutableBytesPtr();
+        for (int row = 0; row < rowCount; row++) {
+            key.set(keys, keyOffsets[row], keyLengths[row]);
+            PRow pRow = table.newRow(builder, timestamp, key);
+            if (deletedRows.get(row)) {
+                pRow.delete();
+            } else {
+                for (int cell = newestCells[row]; cell != NO_CELL; cell = previousCells[cell]) {
+                    pRow.setValue(columns.get(cellColumns[cell]), Arrays.copyOfRange(values, cellOffsets[cell], cellOffsets[cell] + cellLengths[cell]));
+                }
+            }
+            mutations.addAll(pRow.toRowMutations());
+        }
+    }
+    
+    private void delete(int row) {
+        for (int cell = newestCells[row]; cell != NO_CELL; cell = previousCells[cell]) {
+            deadBytes += cellLengths[cell] + CELL_OVERHEAD_BYTES;
+        }
+        deletedRows.set(row);
+        newestCells[row] = NO_CELL;
+    }
+    
+    private void undelete(int row) {
+        // An upsert replaces a delete rather than being merged with it
+        if (deletedRows.get(row)) {
+            deletedRows.clear(row);
+            newestCells[row] = NO_CELL;
+        }
+    }
+    
+    private int getColumnIndex(PColumn column) {
+        Integer index = columnIndexes.get(column);
+        if (index == null) {
+            index = columns.size();
+            columns.add(column);
+            columnIndexes.put(column, index);
+        }
+        return index;
+    }
+    
+    private static int hash(byte[] b, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + b[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+    
+    private int getOrAddRow(byte[] b, int offset, int length, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int row = slots[slot] - 1;
+            if (keyHashes[row] == hash && Bytes.compareTo(keys, keyOffsets[row], keyLengths[row], b, offset, length) == 0) {
+                return row;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int row = rowCount++;
+        if (row == keyOffsets.length) {
+            int capacity = keyOffsets.length * 2;
+            keyOffsets = Arrays.copyOf(keyOffsets, capacity);
+            keyLengths = Arrays.copyOf(keyLengths, capacity);
+            keyHashes = Arrays.copyOf(keyHashes, capacity);
+            newestCells = Arrays.copyOf(newestCells, capacity);
+        }
+        keys = ensureCapacity(keys, keysLength + length);
+        System.arraycopy(b, offset, keys, keysLength, length);
+        keyOffsets[row] = keysLength;
+        keyLengths[row] = length;
+        keyHashes[row] = hash;
+        newestCells[row] = NO_CELL;
+        keysLength += length;
+        slots[slot] = row + 1;
+        if (rowCount * 2 > slots.length) {
+            rehash();
+        }
+        return row;
+    }
+    
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        int mask = slots.length - 1;
+        for (int row = 0; row < rowCount; row++) {
+            int slot = keyHashes[row] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = row + 1;
+        }
+    }
+    
+    private void setCell(int row, int column, byte[] b, int offset, int length) {
+        int newer = NO_CELL;
+        for (int cell = newestCells[row]; cell != NO_CELL; newer = cell, cell = previousCells[cell]) {
+            if (cellColumns[cell] != column) {
+                continue;
+            }
+            if (length <= cellLengths[cell]) {
+                // Reuse the slot of the old value
+                if (length > 0) {
+                    System.arraycopy(b, offset, values, cellOffsets[cell], length);
+                }
+                deadBytes += cellLengths[cell] - length;
+                cellLengths[cell] = length;
+                return;
+            }
+            // Unlink the old cell, as the new value doesn't fit in its slot
+            if (newer == NO_CELL) {
+                newestCells[row] = previousCells[cell];
+            } else {
+                previousCells[newer] = previousCells[cell];
+            }
+            deadBytes += cellLengths[cell] + CELL_OVERHEAD_BYTES;
+            break;
+        }
+        addCell(row, column, b, offset, length);
+    }
+    
+    private void addCell(int row, int column, byte[] b, int offset, int length) {
+        int cell = cellCount++;
+        if (cell == cellColumns.length) {
+            int capacity = cellColumns.length * 2;
+            cellColumns = Arrays.copyOf(cellColumns, capacity);
+            cellOffsets = Arrays.copyOf(cellOffsets, capacity);
+            cellLengths = Arrays.copyOf(cellLengths, capacity);
+            previousCells = Arrays.copyOf(previousCells, capacity);
+        }
+        values = ensureCapacity(values, valuesLength + length);
+        if (length > 0) {
+            System.arraycopy(b, offset, values, valuesLength, length);
+        }
+        cellColumns[cell] = column;
+        cellOffsets[cell] = valuesLength;
+        cellLengths[cell] = length;
+        previousCells[cell] = newestCells[row];
+        newestCells[row] = cell;
+        valuesLength += length;
+    }
+    
+    private void compactIfNeeded() {
+        if (deadBytes < MIN_COMPACTION_BYTES || deadBytes * 2L < valuesLength + (long)cellCount * CELL_OVERHEAD_BYTES) {
+            return;
+        }
+        int liveCells = 0;
+        int liveBytes = 0;
+        for (int row = 0; row < rowCount; row++) {
+            for (int cell = newestCells[row]; cell != NO_CELL; cell = previousCells[cell]) {
+                liveCells++;
+                liveBytes += cellLengths[cell];
+            }
+        }
+        byte[] newValues = new byte[Math.max(liveBytes * 2, INITIAL_VALUE_BYTES)];
+        int capacity = Math.max(liveCells * 2, 4);
+        int[] newCellColumns = new int[capacity];
+        int[] newCellOffsets = new int[capacity];
+        int[] newCellLengths = new int[capacity];
+        int[] newPreviousCells = new int[capacity];
+        int newValuesLength = 0;
+        int newCellCount = 0;
+        for (int row = 0; row < rowCount; row++) {
+            // Copy the chain of the row in the same order
+            int newer = NO_CELL;
+            for (int cell = newestCells[row]; cell != NO_CELL; cell = previousCells[cell]) {
+                int newCell = newCellCount++;
+                System.arraycopy(values, cellOffsets[cell], newValues, newValuesLength, cellLengths[cell]);
+                newCellColumns[newCell] = cellColumns[cell];
+                newCellOffsets[newCell] = newValuesLength;
+                newCellLengths[newCell] = cellLengths[cell];
+                newPreviousCells[newCell] = NO_CELL;
+                if (newer == NO_CELL) {
+                    newestCells[row] = newCell;
+                } else {
+                    newPreviousCells[newer] = newCell;
+                }
+                newer = newCell;
+                newValuesLength += cellLengths[cell];
+            }
+        }
+        values = newValues;
+        valuesLength = newValuesLength;
+        cellColumns = newCellColumns;
+        cellOffsets = newCellOffsets;
+        cellLengths = newCellLengths;
+        previousCells = newPreviousCells;
+        cellCount = newCellCount;
+        deadBytes = 0;
+    }
+    
+    private static byte[] ensureCapacity(byte[] arena, int length) {
+        if (length <= arena.length) {
+            return arena;
+        }
+        return Arrays.copyOf(arena, Math.max(length, arena.length * 2));
+    }
+}
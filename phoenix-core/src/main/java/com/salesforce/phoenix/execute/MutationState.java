@@ -30,9 +30,16 @@ package com.salesforce.phoenix.execute;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.hadoop.hbase.HConstants;
 import org.apache.hadoop.hbase.KeyValue;
@@ -51,15 +58,17 @@ import com.salesforce.phoenix.cache.ServerCacheClient;
 import com.salesforce.phoenix.cache.ServerCacheClient.ServerCache;
 import com.salesforce.phoenix.coprocessor.MetaDataProtocol.MetaDataMutationResult;
 import com.salesforce.phoenix.exception.SQLExceptionCode;
+import com.salesforce.phoenix.exception.SQLExceptionInfo;
 import com.salesforce.phoenix.index.IndexMaintainer;
 import com.salesforce.phoenix.index.IndexMetaDataCacheClient;
 import com.salesforce.phoenix.index.PhoenixIndexCodec;
 import com.salesforce.phoenix.jdbc.PhoenixConnection;
 import com.salesforce.phoenix.query.QueryConstants;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.IllegalDataException;
 import com.salesforce.phoenix.schema.MetaDataClient;
 import com.salesforce.phoenix.schema.PColumn;
-import com.salesforce.phoenix.schema.PRow;
 import com.salesforce.phoenix.schema.PTable;
 import com.salesforce.phoenix.schema.TableRef;
 import com.salesforce.phoenix.util.ByteUtil;
@@ -70,7 +79,7 @@ import com.salesforce.phoenix.util.ServerUtil;
 
 /**
  * 
- * Tracks the uncommitted state
+ * Tracks the uncommitted state, buffering the rows of each table in a compact {@link MutationBuffer}
  *
  * @author jtaylor
  * @since 0.1
@@ -81,9 +90,12 @@ public class MutationState implements SQLCloseable {
     private PhoenixConnection connection;
     private final long maxSize;
     private final ImmutableBytesPtr tempPtr = new ImmutableBytesPtr();
-    private final Map<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> mutations = Maps.newHashMapWithExpectedSize(3); // TODO: Sizing?
+    private final Map<TableRef, MutationBuffer> mutations = Maps.newHashMapWithExpectedSize(3); // TODO: Sizing?
     private final long sizeOffset;
     private int numRows = 0;
+    // Commits started by commitAsync that haven't finished, the first of which is being sent
+    private final LinkedList<FutureTask<Void>> asyncCommits = Lists.newLinkedList();
+    private long inFlightBytes = 0;
 
     public MutationState(int maxSize, PhoenixConnection connection) {
         this(maxSize,connection,0);
@@ -98,17 +110,17 @@ public class MutationState implements SQLCloseable {
     public MutationState(TableRef table, Map<ImmutableBytesPtr,Map<PColumn,byte[]>> mutations, long sizeOffset, long maxSize, PhoenixConnection connection) {
         this.maxSize = maxSize;
         this.connection = connection;
-        this.mutations.put(table, mutations);
+        this.mutations.put(table, new MutationBuffer(mutations));
         this.sizeOffset = sizeOffset;
         this.numRows = mutations.size();
         throwIfTooBig();
     }
     
-    private MutationState(List<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> entries, long sizeOffset, long maxSize, PhoenixConnection connection) {
+    private MutationState(List<Map.Entry<TableRef, MutationBuffer>> entries, long sizeOffset, long maxSize, PhoenixConnection connection) {
         this.maxSize = maxSize;
         this.connection = connection;
         this.sizeOffset = sizeOffset;
-        for (Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry : entries) {
+        for (Map.Entry<TableRef, MutationBuffer> entry : entries) {
             numRows += entry.getValue().size();
             this.mutations.put(entry.getKey(), entry.getValue());
         }
@@ -135,57 +147,23 @@ public class MutationState implements SQLCloseable {
             return;
         }
         // Merge newMutation with this one, keeping state from newMutation for any overlaps
-        for (Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry : newMutation.mutations.entrySet()) {
-            // Replace existing entries for the table with new entries
-            Map<ImmutableBytesPtr,Map<PColumn,byte[]>> existingRows = this.mutations.put(entry.getKey(), entry.getValue());
+        for (Map.Entry<TableRef, MutationBuffer> entry : newMutation.mutations.entrySet()) {
+            MutationBuffer existingRows = this.mutations.get(entry.getKey());
             if (existingRows != null) { // Rows for that table already exist
-                // Loop through new rows and replace existing with new
-                for (Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>> rowEntry : entry.getValue().entrySet()) {
-                    // Replace existing row with new row
-                    Map<PColumn,byte[]> existingValues = existingRows.put(rowEntry.getKey(), rowEntry.getValue());
-                    if (existingValues != null) {
-                        if (existingValues != PRow.DELETE_MARKER) {
-                            Map<PColumn,byte[]> newRow = rowEntry.getValue();
-                            // if new row is PRow.DELETE_MARKER, it means delete, and we don't need to merge it with existing row. 
-                            if (newRow != PRow.DELETE_MARKER) {
-                                // Replace existing column values with new column values
-                                for (Map.Entry<PColumn,byte[]> valueEntry : newRow.entrySet()) {
-                                    existingValues.put(valueEntry.getKey(), valueEntry.getValue());
-                                }
-                                // Now that the existing row has been merged with the new row, replace it back
-                                // again (since it was replaced with the new one above).
-                                existingRows.put(rowEntry.getKey(), existingValues);
-                            }
-                        }
-                    } else {
-                        numRows++;
-                    }
-                }
-                // Put the existing one back now that it's merged
-                this.mutations.put(entry.getKey(), existingRows);
+                int existingSize = existingRows.size();
+                existingRows.putAll(entry.getValue());
+                numRows += existingRows.size() - existingSize;
             } else {
+                this.mutations.put(entry.getKey(), entry.getValue());
                 numRows += entry.getValue().size();
             }
         }
         throwIfTooBig();
     }
     
-    private Iterator<Pair<byte[],List<Mutation>>> addRowMutations(final TableRef tableRef, final Map<ImmutableBytesPtr, Map<PColumn, byte[]>> values, long timestamp, boolean includeMutableIndexes) {
+    private Iterator<Pair<byte[],List<Mutation>>> addRowMutations(final TableRef tableRef, final MutationBuffer values, long timestamp, boolean includeMutableIndexes) {
         final List<Mutation> mutations = Lists.newArrayListWithExpectedSize(values.size());
-        Iterator<Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>>> iterator = values.entrySet().iterator();
-        while (iterator.hasNext()) {
-            Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>> rowEntry = iterator.next();
-            ImmutableBytesPtr key = rowEntry.getKey();
-            PRow row = tableRef.getTable().newRow(connection.getKeyValueBuilder(), timestamp, key);
-            if (rowEntry.getValue() == PRow.DELETE_MARKER) { // means delete
-                row.delete();
-            } else {
-                for (Map.Entry<PColumn,byte[]> valueEntry : rowEntry.getValue().entrySet()) {
-                    row.setValue(valueEntry.getKey(), valueEntry.getValue());
-                }
-            }
-            mutations.addAll(row.toRowMutations());
-        }
+        values.addRowMutations(tableRef.getTable(), connection.getKeyValueBuilder(), timestamp, mutations);
         final Iterator<PTable> indexes = // Only maintain tables with immutable rows through this client-side mechanism
                 (tableRef.getTable().isImmutableRows() || includeMutableIndexes) ? 
                         IndexMaintainer.nonDisabledIndexIterator(tableRef.getTable().getIndexes().iterator()) : 
@@ -233,14 +211,14 @@ public class MutationState implements SQLCloseable {
     }
     
     public Iterator<Pair<byte[],List<Mutation>>> toMutations(final boolean includeMutableIndexes) {
-        final Iterator<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> iterator = this.mutations.entrySet().iterator();
+        final Iterator<Map.Entry<TableRef, MutationBuffer>> iterator = this.mutations.entrySet().iterator();
         if (!iterator.hasNext()) {
             return Iterators.emptyIterator();
         }
         Long scn = connection.getSCN();
         final long timestamp = scn == null ? HConstants.LATEST_TIMESTAMP : scn;
         return new Iterator<Pair<byte[],List<Mutation>>>() {
-            private Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> current = iterator.next();
+            private Map.Entry<TableRef, MutationBuffer> current = iterator.next();
             private Iterator<Pair<byte[],List<Mutation>>> innerIterator = init();
                     
             private Iterator<Pair<byte[],List<Mutation>>> init() {
@@ -280,7 +258,7 @@ public class MutationState implements SQLCloseable {
         Long scn = connection.getSCN();
         MetaDataClient client = new MetaDataClient(connection);
         long[] timeStamps = new long[this.mutations.size()];
-        for (Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry : mutations.entrySet()) {
+        for (Map.Entry<TableRef, MutationBuffer> entry : mutations.entrySet()) {
             TableRef tableRef = entry.getKey();
             long serverTimeStamp = tableRef.getTimeStamp();
             PTable table = tableRef.getTable();
@@ -290,21 +268,9 @@ public class MutationState implements SQLCloseable {
                 if (timestamp != QueryConstants.UNSET_TIMESTAMP) {
                     serverTimeStamp = timestamp;
                     if (result.wasUpdated()) {
-                        // TODO: use bitset?
-                        PColumn[] columns = new PColumn[table.getColumns().size()];
-                        for (Map.Entry<ImmutableBytesPtr,Map<PColumn,byte[]>> rowEntry : entry.getValue().entrySet()) {
-                            Map<PColumn,byte[]> valueEntry = rowEntry.getValue();
-                            if (valueEntry != PRow.DELETE_MARKER) {
-                                for (PColumn column : valueEntry.keySet()) {
-                                    columns[column.getPosition()] = column;
-                                }
-                            }
-                        }
                         table = connection.getPMetaData().getTable(tableRef.getTable().getName().getString());
-                        for (PColumn column : columns) {
-                            if (column != null) {
-                                table.getColumnFamily(column.getFamilyName().getString()).getColumn(column.getName().getString());
-                            }
+                        for (PColumn column : entry.getValue().getColumns()) {
+                            table.getColumnFamily(column.getFamilyName().getString()).getColumn(column.getName().getString());
                         }
                     }
                 }
@@ -332,23 +298,140 @@ public class MutationState implements SQLCloseable {
         logger.debug("Sending " + mutations.size() + " mutations for " + Bytes.toString(htable.getTableName()) + " with " + keyValueCount + " key values of total size " + byteSize + " bytes");
     }
     
+    /**
+     * Commit the uncommitted state, first waiting for any commits started by {@link #commitAsync()}
+     * to finish so that the commits are applied in order. The batch for each data table is sent
+     * in parallel with the batches for its immutable indexes.
+     * @throws CommitException if any batch fails, with the state that was committed so far
+     */
     public void commit() throws SQLException {
+        waitForAsyncCommits();
+        send(validate());
+    }
+    
+    /**
+     * Start committing the uncommitted state in the background, returning immediately with a future
+     * for the result of the commit. The state is validated in the calling thread and then handed
+     * off, so that this {@link MutationState} may be used to build up the next commit while the
+     * batches are being sent. Commits started this way are sent in the order they were started,
+     * and finish before any later {@link #commit()} begins.
+     * <p>
+     * To bound the memory held by commits in flight, the calling thread waits while the estimated
+     * size of the commits in flight would exceed {@link QueryServices#MAX_IN_FLIGHT_COMMIT_BYTES_ATTRIB}.
+     * @return a future whose {@link Future#get()} throws an {@link ExecutionException} caused
+     * by a {@link CommitException} if the commit fails
+     * @throws SQLException if the state could not be validated, in which case it remains uncommitted
+     */
+    public Future<Void> commitAsync() throws SQLException {
+        final MutationState toCommit = new MutationState(Lists.newArrayList(Maps.newHashMap(this.mutations).entrySet()), 0, this.maxSize, this.connection);
+        this.mutations.clear();
+        this.numRows = 0;
+        final long[] serverTimeStamps;
+        try {
+            serverTimeStamps = toCommit.validate();
+        } catch (SQLException e) {
+            this.join(toCommit);
+            throw e;
+        }
+        final long byteSize = toCommit.estimateByteSize();
+        long maxInFlightBytes = connection.getQueryServices().getProps().getLong(QueryServices.MAX_IN_FLIGHT_COMMIT_BYTES_ATTRIB, QueryServicesOptions.DEFAULT_MAX_IN_FLIGHT_COMMIT_BYTES);
+        synchronized (asyncCommits) {
+            try {
+                // Always let at least one commit through, however big it is
+                while (inFlightBytes > 0 && inFlightBytes + byteSize > maxInFlightBytes) {
+                    asyncCommits.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.join(toCommit);
+                throw new SQLExceptionInfo.Builder(SQLExceptionCode.INTERRUPTED_EXCEPTION).setRootCause(e).build().buildException();
+            }
+            inFlightBytes += byteSize;
+        }
+        FutureTask<Void> commit = new FutureTask<Void>(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                try {
+                    toCommit.send(serverTimeStamps);
+                } finally {
+                    synchronized (asyncCommits) {
+                        inFlightBytes -= byteSize;
+                        asyncCommits.notifyAll();
+                    }
+                }
+                return null;
+            }
+        });
+        boolean isFirst;
+        synchronized (asyncCommits) {
+            asyncCommits.add(commit);
+            // Otherwise the runner sending the commits ahead of this one will get to it
+            isFirst = asyncCommits.size() == 1;
+        }
+        if (isFirst) {
+            Runnable runner = new Runnable() {
+                @Override
+                public void run() {
+                    FutureTask<Void> next;
+                    synchronized (asyncCommits) {
+                        next = asyncCommits.peek();
+                    }
+                    while (next != null) {
+                        next.run();
+                        synchronized (asyncCommits) {
+                            asyncCommits.remove();
+                            next = asyncCommits.peek();
+                            asyncCommits.notifyAll();
+                        }
+                    }
+                }
+            };
+            try {
+                connection.getQueryServices().getExecutor().execute(runner);
+            } catch (RejectedExecutionException e) {
+                runner.run();
+            }
+        }
+        return commit;
+    }
+    
+    private void waitForAsyncCommits() throws SQLException {
+        synchronized (asyncCommits) {
+            try {
+                while (!asyncCommits.isEmpty()) {
+                    asyncCommits.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLExceptionInfo.Builder(SQLExceptionCode.INTERRUPTED_EXCEPTION).setRootCause(e).build().buildException();
+            }
+        }
+    }
+    
+    private long estimateByteSize() {
+        long byteSize = 0;
+        for (MutationBuffer rows : mutations.values()) {
+            byteSize += rows.getByteSize();
+        }
+        return byteSize;
+    }
+    
+    private void send(long[] serverTimeStamps) throws SQLException {
         int i = 0;
         byte[] tenantId = connection.getTenantId() == null ? null : connection.getTenantId().getBytes();
-        long[] serverTimeStamps = validate();
-        Iterator<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> iterator = this.mutations.entrySet().iterator();
-        List<Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>>> committedList = Lists.newArrayListWithCapacity(this.mutations.size());
+        Iterator<Map.Entry<TableRef, MutationBuffer>> iterator = this.mutations.entrySet().iterator();
+        List<Map.Entry<TableRef, MutationBuffer>> committedList = Lists.newArrayListWithCapacity(this.mutations.size());
         while (iterator.hasNext()) {
-            Map.Entry<TableRef, Map<ImmutableBytesPtr,Map<PColumn,byte[]>>> entry = iterator.next();
-            Map<ImmutableBytesPtr,Map<PColumn,byte[]>> valuesMap = entry.getValue();
+            Map.Entry<TableRef, MutationBuffer> entry = iterator.next();
+            MutationBuffer valuesMap = entry.getValue();
             TableRef tableRef = entry.getKey();
             PTable table = tableRef.getTable();
             table.getIndexMaintainers(tempPtr);
             boolean hasIndexMaintainers = tempPtr.getLength() > 0;
-            boolean isDataTable = true;
             long serverTimestamp = serverTimeStamps[i++];
             Iterator<Pair<byte[],List<Mutation>>> mutationsIterator = addRowMutations(tableRef, valuesMap, serverTimestamp, false);
-            while (mutationsIterator.hasNext()) {
+            if (hasIndexMaintainers) {
+                // Mutable indexes are maintained on the server, so there's just the data table batch
                 Pair<byte[],List<Mutation>> pair = mutationsIterator.next();
                 byte[] htableName = pair.getFirst();
                 List<Mutation> mutations = pair.getSecond();
@@ -357,43 +440,36 @@ public class MutationState implements SQLCloseable {
                 boolean shouldRetry = false;
                 do {
                     ServerCache cache = null;
-                    if (hasIndexMaintainers && isDataTable) {
-                        byte[] attribValue = null;
-                        byte[] uuidValue;
-                        if (IndexMetaDataCacheClient.useIndexMetadataCache(connection, mutations, tempPtr.getLength())) {
-                            IndexMetaDataCacheClient client = new IndexMetaDataCacheClient(connection, tableRef);
-                            cache = client.addIndexMetadataCache(mutations, tempPtr);
-                            uuidValue = cache.getId();
-                            // If we haven't retried yet, retry for this case only, as it's possible that
-                            // a split will occur after we send the index metadata cache to all known
-                            // region servers.
-                            shouldRetry = true;
-                        } else {
-                            attribValue = ByteUtil.copyKeyBytesIfNecessary(tempPtr);
-                            uuidValue = ServerCacheClient.generateId();
+                    byte[] attribValue = null;
+                    byte[] uuidValue;
+                    if (IndexMetaDataCacheClient.useIndexMetadataCache(connection, mutations, tempPtr.getLength())) {
+                        IndexMetaDataCacheClient client = new IndexMetaDataCacheClient(connection, tableRef);
+                        cache = client.addIndexMetadataCache(mutations, tempPtr);
+                        uuidValue = cache.getId();
+                        // If we haven't retried yet, retry for this case only, as it's possible that
+                        // a split will occur after we send the index metadata cache to all known
+                        // region servers.
+                        shouldRetry = true;
+                    } else {
+                        attribValue = ByteUtil.copyKeyBytesIfNecessary(tempPtr);
+                        uuidValue = ServerCacheClient.generateId();
+                    }
+                    // Either set the UUID to be able to access the index metadata from the cache
+                    // or set the index metadata directly on the Mutation
+                    for (Mutation mutation : mutations) {
+                        if (tenantId != null) {
+                            mutation.setAttribute(PhoenixRuntime.TENANT_ID_ATTRIB, tenantId);
                         }
-                        // Either set the UUID to be able to access the index metadata from the cache
-                        // or set the index metadata directly on the Mutation
-                        for (Mutation mutation : mutations) {
-                            if (tenantId != null) {
-                                mutation.setAttribute(PhoenixRuntime.TENANT_ID_ATTRIB, tenantId);
-                            }
-                            mutation.setAttribute(PhoenixIndexCodec.INDEX_UUID, uuidValue);
-                            if (attribValue != null) {
-                                mutation.setAttribute(PhoenixIndexCodec.INDEX_MD, attribValue);
-                            }
+                        mutation.setAttribute(PhoenixIndexCodec.INDEX_UUID, uuidValue);
+                        if (attribValue != null) {
+                            mutation.setAttribute(PhoenixIndexCodec.INDEX_MD, attribValue);
                         }
                     }
                     
                     SQLException sqlE = null;
-                    HTableInterface hTable = connection.getQueryServices().getTable(htableName);
                     try {
-                        if (logger.isDebugEnabled()) logMutationSize(hTable, mutations);
-                        long startTime = System.currentTimeMillis();
-                        hTable.batch(mutations);
+                        sendBatch(table, htableName, mutations);
                         shouldRetry = false;
-                        if (logger.isDebugEnabled()) logger.debug("Total time for batch call of  " + mutations.size() + " mutations into " + table.getName().getString() + ": " + (System.currentTimeMillis() - startTime) + " ms");
-                        committedList.add(entry);
                     } catch (Exception e) {
                         SQLException inferredE = ServerUtil.parseServerExceptionOrNull(e);
                         if (inferredE != null) {
@@ -412,28 +488,26 @@ public class MutationState implements SQLCloseable {
                         sqlE = new CommitException(e, this, new MutationState(committedList, this.sizeOffset, this.maxSize, this.connection));
                     } finally {
                         try {
-                            hTable.close();
-                        } catch (IOException e) {
-                            if (sqlE != null) {
-                                sqlE.setNextException(ServerUtil.parseServerException(e));
-                            } else {
-                                sqlE = ServerUtil.parseServerException(e);
+                            if (cache != null) {
+                                cache.close();
                             }
                         } finally {
-                            try {
-                                if (cache != null) {
-                                    cache.close();
-                                }
-                            } finally {
-                                if (sqlE != null) {
-                                    throw sqlE;
-                                }
+                            if (sqlE != null) {
+                                throw sqlE;
                             }
                         }
                     }
                 } while (shouldRetry && retryCount++ < 1);
-                isDataTable = false;
+            } else {
+                // The data table batch and the batches for its immutable indexes are independent of each other
+                try {
+                    sendBatches(table, Lists.newArrayList(mutationsIterator));
+                } catch (Exception e) {
+                    SQLException inferredE = ServerUtil.parseServerExceptionOrNull(e);
+                    throw new CommitException(inferredE == null ? e : inferredE, this, new MutationState(committedList, this.sizeOffset, this.maxSize, this.connection));
+                }
             }
+            committedList.add(entry);
             numRows -= entry.getValue().size();
             iterator.remove(); // Remove batches as we process them
         }
@@ -441,12 +515,72 @@ public class MutationState implements SQLCloseable {
         assert(this.mutations.isEmpty());
     }
     
+    /**
+     * Send the batches in parallel, running any that the executor hasn't gotten to yet in this
+     * thread, so that we can't deadlock waiting for the executor when sending from one of its threads.
+     * @throws Exception the first failure of any of the batches, once they've all finished
+     */
+    private void sendBatches(final PTable table, List<Pair<byte[],List<Mutation>>> batches) throws Exception {
+        List<FutureTask<Void>> tasks = Lists.newArrayListWithExpectedSize(batches.size());
+        ExecutorService executor = connection.getQueryServices().getExecutor();
+        for (final Pair<byte[],List<Mutation>> batch : batches.subList(1, batches.size())) {
+            FutureTask<Void> task = new FutureTask<Void>(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    sendBatch(table, batch.getFirst(), batch.getSecond());
+                    return null;
+                }
+            });
+            tasks.add(task);
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // Run below in this thread instead
+            }
+        }
+        Exception failure = null;
+        try {
+            sendBatch(table, batches.get(0).getFirst(), batches.get(0).getSecond());
+        } catch (Exception e) {
+            failure = e;
+        }
+        for (FutureTask<Void> task : tasks) {
+            task.run(); // No-op if already started
+            try {
+                task.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof Exception ? (Exception)e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+    
+    private void sendBatch(PTable table, byte[] htableName, List<Mutation> mutations) throws Exception {
+        HTableInterface hTable = connection.getQueryServices().getTable(htableName);
+        try {
+            if (logger.isDebugEnabled()) logMutationSize(hTable, mutations);
+            long startTime = System.currentTimeMillis();
+            hTable.batch(mutations);
+            if (logger.isDebugEnabled()) logger.debug("Total time for batch call of  " + mutations.size() + " mutations into " + table.getName().getString() + ": " + (System.currentTimeMillis() - startTime) + " ms");
+        } finally {
+            hTable.close();
+        }
+    }
+    
     public void rollback(PhoenixConnection connection) throws SQLException {
         this.mutations.clear();
         numRows = 0;
     }
     
+    /**
+     * Waits for any commits started by {@link #commitAsync()} to finish
+     */
     @Override
     public void close() throws SQLException {
+        waitForAsyncCommits();
     }
 }
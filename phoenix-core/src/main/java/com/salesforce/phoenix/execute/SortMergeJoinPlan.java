@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may
+ *     be used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.execute;
+
+import java.io.IOException;
+import java.sql.ParameterMetaData;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.compile.ExplainPlan;
+import com.salesforce.phoenix.compile.GroupByCompiler.GroupBy;
+import com.salesforce.phoenix.compile.OrderByCompiler.OrderBy;
+import com.salesforce.phoenix.compile.QueryPlan;
+import com.salesforce.phoenix.compile.RowProjector;
+import com.salesforce.phoenix.compile.StatementContext;
+import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.iterate.ResultIterator;
+import com.salesforce.phoenix.join.HashJoinInfo;
+import com.salesforce.phoenix.join.ScanProjector;
+import com.salesforce.phoenix.join.ScanProjector.ProjectedValueTuple;
+import com.salesforce.phoenix.parse.FilterableStatement;
+import com.salesforce.phoenix.parse.JoinTableNode.JoinType;
+import com.salesforce.phoenix.query.KeyRange;
+import com.salesforce.phoenix.schema.ColumnModifier;
+import com.salesforce.phoenix.schema.IllegalDataException;
+import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.ValueBitSet;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+/**
+ *
+ * Query plan for a join of two tables that does not need to hold either side in
+ * memory. Both plans are compiled to return rows ordered by their join keys, either
+ * because the keys lead the row key or through a server-side sort that spills to disk,
+ * and the two streams are then merged on the client.
+ *
+ * Unlike {@link HashJoinPlan}, the post-join filter is evaluated on the client.
+ */
+public class SortMergeJoinPlan implements QueryPlan {
+
+    private final BasicQueryPlan plan;
+    private final HashJoinInfo joinInfo;
+    private final List<Expression> rhsKeyExpressions;
+    private final QueryPlan rhsPlan;
+
+    /**
+     * @param plan the plan for the LHS, ordered by the join key expressions of joinInfo
+     * @param joinInfo the join of a single table
+     * @param rhsKeyExpressions the join key expressions of the RHS, in the same order as
+     * the LHS ones
+     * @param rhsPlan the plan for the RHS, ordered by rhsKeyExpressions
+     */
+    public SortMergeJoinPlan(BasicQueryPlan plan, HashJoinInfo joinInfo,
+            List<Expression> rhsKeyExpressions, QueryPlan rhsPlan) {
+        assert (joinInfo.getJoinIds().length == 1);
+        this.plan = plan;
+        this.joinInfo = joinInfo;
+        this.rhsKeyExpressions = rhsKeyExpressions;
+        this.rhsPlan = rhsPlan;
+    }
+
+    @Override
+    public Integer getLimit() {
+        return null;
+    }
+
+    @Override
+    public OrderBy getOrderBy() {
+        return OrderBy.EMPTY_ORDER_BY;
+    }
+
+    @Override
+    public RowProjector getProjector() {
+        return plan.getProjector();
+    }
+
+    @Override
+    public ResultIterator iterator() throws SQLException {
+        ResultIterator lhsIterator = plan.iterator();
+        try {
+            return new SortMergeJoinIterator(lhsIterator, rhsPlan.iterator());
+        } catch (SQLException e) {
+            lhsIterator.close();
+            throw e;
+        } catch (RuntimeException e) {
+            lhsIterator.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public long getEstimatedSize() {
+        return plan.getEstimatedSize() + rhsPlan.getEstimatedSize();
+    }
+
+    @Override
+    public List<KeyRange> getSplits() {
+        return plan.getSplits();
+    }
+
+    @Override
+    public ExplainPlan getExplainPlan() throws SQLException {
+        List<String> planSteps = Lists.newArrayList(plan.getExplainPlan().getPlanSteps());
+        boolean skipMerge = joinInfo.getSchemas()[0].getFieldCount() == 0;
+        planSteps.add("    SORT-MERGE-JOIN " + joinInfo.getJoinTypes()[0].toString().toUpperCase() + " TABLE" + (skipMerge ? " (SKIP MERGE)" : ""));
+        for (String step : rhsPlan.getExplainPlan().getPlanSteps()) {
+            planSteps.add("        " + step);
+        }
+        if (joinInfo.getPostJoinFilterExpression() != null) {
+            planSteps.add("    AFTER-JOIN CLIENT FILTER BY " + joinInfo.getPostJoinFilterExpression().toString());
+        }
+
+        return new ExplainPlan(planSteps);
+    }
+
+    @Override
+    public ParameterMetaData getParameterMetaData() {
+        return plan.getParameterMetaData();
+    }
+
+    @Override
+    public StatementContext getContext() {
+        return plan.getContext();
+    }
+
+    @Override
+    public GroupBy getGroupBy() {
+        return plan.getGroupBy();
+    }
+
+    @Override
+    public TableRef getTableRef() {
+        return plan.getTableRef();
+    }
+
+    @Override
+    public FilterableStatement getStatement() {
+        return plan.getStatement();
+    }
+
+    /**
+     * Evaluates the join key of a tuple, returning null if any part of it is null,
+     * since a null key never matches. Inverted key parts are returned in ascending
+     * byte order, which is the order both sides are sorted in.
+     */
+    private static ImmutableBytesWritable[] evaluateKey(Tuple tuple, List<Expression> expressions) {
+        ImmutableBytesWritable[] key = new ImmutableBytesWritable[expressions.size()];
+        for (int i = 0; i < key.length; i++) {
+            Expression expression = expressions.get(i);
+            ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+            if (!expression.evaluate(tuple, ptr) || ptr.getLength() == 0) {
+                return null;
+            }
+            ColumnModifier columnModifier = expression.getColumnModifier();
+            if (columnModifier != null) {
+                ptr.set(columnModifier.apply(ptr.get(), ptr.getOffset(), ptr.getLength()));
+            }
+            key[i] = ptr;
+        }
+        return key;
+    }
+
+    private static int compareKeys(ImmutableBytesWritable[] key1, ImmutableBytesWritable[] key2) {
+        for (int i = 0; i < key1.length; i++) {
+            int c = Bytes.compareTo(key1[i].get(), key1[i].getOffset(), key1[i].getLength(),
+                    key2[i].get(), key2[i].getOffset(), key2[i].getLength());
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private class SortMergeJoinIterator implements ResultIterator {
+        private final ResultIterator lhsIterator;
+        private final ResultIterator rhsIterator;
+        private final List<Expression> lhsKeyExpressions;
+        private final boolean isInner;
+        private final ValueBitSet destBitSet;
+        private final ValueBitSet srcBitSet;
+        private final Queue<Tuple> resultQueue = new LinkedList<Tuple>();
+        // All the RHS rows sharing the lowest key not below the current LHS key
+        private final List<Tuple> rhsGroup = new ArrayList<Tuple>();
+        private ImmutableBytesWritable[] rhsGroupKey;
+        // Look-ahead RHS row, the first one past rhsGroup
+        private Tuple rhsTuple;
+        private ImmutableBytesWritable[] rhsKey;
+        private boolean rhsStarted;
+
+        private SortMergeJoinIterator(ResultIterator lhsIterator, ResultIterator rhsIterator) {
+            this.lhsIterator = lhsIterator;
+            this.rhsIterator = rhsIterator;
+            this.lhsKeyExpressions = joinInfo.getJoinExpressions()[0];
+            this.isInner = joinInfo.getJoinTypes()[0] == JoinType.Inner;
+            this.destBitSet = ValueBitSet.newInstance(joinInfo.getJoinedSchema());
+            this.srcBitSet = ValueBitSet.newInstance(joinInfo.getSchemas()[0]);
+        }
+
+        private void advanceRhs() throws SQLException {
+            rhsTuple = rhsIterator.next();
+            rhsKey = rhsTuple == null ? null : evaluateKey(rhsTuple, rhsKeyExpressions);
+        }
+
+        private void advanceRhsGroup(ImmutableBytesWritable[] lhsKey) throws SQLException {
+            rhsGroup.clear();
+            rhsGroupKey = null;
+            while (rhsTuple != null && (rhsKey == null || compareKeys(rhsKey, lhsKey) < 0)) {
+                advanceRhs();
+            }
+            if (rhsTuple == null) {
+                return;
+            }
+            rhsGroupKey = rhsKey;
+            do {
+                rhsGroup.add(rhsTuple);
+                advanceRhs();
+            } while (rhsTuple != null && rhsKey != null && compareKeys(rhsKey, rhsGroupKey) == 0);
+        }
+
+        private List<Tuple> getMatches(ImmutableBytesWritable[] lhsKey) throws SQLException {
+            if (lhsKey == null) {
+                return Collections.emptyList();
+            }
+            if (!rhsStarted) {
+                rhsStarted = true;
+                advanceRhs();
+            }
+            if (rhsGroupKey == null || compareKeys(rhsGroupKey, lhsKey) < 0) {
+                advanceRhsGroup(lhsKey);
+            }
+            if (rhsGroupKey == null || compareKeys(rhsGroupKey, lhsKey) != 0) {
+                return Collections.emptyList();
+            }
+            return rhsGroup;
+        }
+
+        private boolean isFiltered(Tuple tuple) {
+            Expression postFilter = joinInfo.getPostJoinFilterExpression();
+            if (postFilter == null) {
+                return false;
+            }
+            ImmutableBytesWritable tempPtr = new ImmutableBytesWritable();
+            try {
+                if (!postFilter.evaluate(tuple, tempPtr)) {
+                    return true;
+                }
+            } catch (IllegalDataException e) {
+                return true;
+            }
+            Boolean b = (Boolean)postFilter.getDataType().toObject(tempPtr);
+            return !b.booleanValue();
+        }
+
+        private void offer(Tuple tuple) {
+            if (!isFiltered(tuple)) {
+                resultQueue.offer(tuple);
+            }
+        }
+
+        @Override
+        public Tuple next() throws SQLException {
+            try {
+                while (resultQueue.isEmpty()) {
+                    Tuple next = lhsIterator.next();
+                    if (next == null) {
+                        return null;
+                    }
+                    ProjectedValueTuple lhs = ScanProjector.toProjectedValueTuple(next, destBitSet);
+                    List<Tuple> matches = getMatches(evaluateKey(lhs, lhsKeyExpressions));
+                    if (matches.isEmpty()) {
+                        if (!isInner) {
+                            offer(lhs);
+                        }
+                        continue;
+                    }
+                    for (Tuple t : matches) {
+                        offer(srcBitSet == ValueBitSet.EMPTY_VALUE_BITSET ?
+                                lhs : ScanProjector.mergeProjectedValue(
+                                        lhs, joinInfo.getJoinedSchema(), destBitSet,
+                                        t, joinInfo.getSchemas()[0], srcBitSet,
+                                        joinInfo.getFieldPositions()[0]));
+                    }
+                }
+            } catch (IOException e) {
+                throw new SQLException("Encountered exception in sort-merge join.", e);
+            }
+            return resultQueue.poll();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            try {
+                lhsIterator.close();
+            } finally {
+                rhsIterator.close();
+            }
+        }
+
+        @Override
+        public void explain(List<String> planSteps) {
+        }
+    }
+}
@@ -35,8 +35,11 @@ import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
 import com.salesforce.phoenix.expression.visitor.ExpressionVisitor;
 import com.salesforce.phoenix.schema.ColumnModifier;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 
 
 
@@ -49,6 +52,8 @@ import com.salesforce.phoenix.schema.ColumnModifier;
  * @since 0.1
  */
 public abstract class BaseExpression implements Expression {
+    private ExpressionVector[] childVectors;
+    
     @Override
     public boolean isNullable() {
         return false;
@@ -86,6 +91,66 @@ public abstract class BaseExpression implements Expression {
     public void reset() {
     }
     
+    /**
+     * Evaluate the expression over a batch of rows, setting the value of each
+     * row in the vector as {@link #evaluate(Tuple, ImmutableBytesWritable)}
+     * would. Subclasses that override this evaluate their children over the
+     * whole batch, without the short circuiting of the row at a time evaluation,
+     * so only expressions whose children are all evaluated for every row do so.
+     * Each row is evaluated in full, as the state of a partial evaluation is
+     * {@link #reset()} before each row.
+     * @param tuples rows being evaluated
+     * @param count number of rows from the start of tuples to evaluate
+     * @param vector reset to hold the value of each row
+     */
+    public void evaluate(Tuple[] tuples, int count, ExpressionVector vector) {
+        evaluateRows(this, tuples, count, vector);
+    }
+    
+    /**
+     * Evaluate an expression over a batch of rows, a batch at a time if it is
+     * a {@link BaseExpression} and otherwise a row at a time
+     */
+    public static void evaluate(Expression expression, Tuple[] tuples, int count, ExpressionVector vector) {
+        if (expression instanceof BaseExpression) {
+            ((BaseExpression)expression).evaluate(tuples, count, vector);
+        } else {
+            evaluateRows(expression, tuples, count, vector);
+        }
+    }
+    
+    private static void evaluateRows(Expression expression, Tuple[] tuples, int count, ExpressionVector vector) {
+        vector.reset(count);
+        ImmutableBytesWritable ptr = vector.getPtr();
+        for (int i = 0; i < count; i++) {
+            // Don't carry over the partial evaluation state (as in AND, OR and CASE) from the previous row
+            expression.reset();
+            if (expression.evaluate(tuples[i], ptr)) {
+                vector.set(i, ptr);
+            } else {
+                vector.setUnevaluated(i);
+            }
+        }
+    }
+    
+    /**
+     * Evaluates each child over a batch of rows into a vector owned by this expression
+     * @return the vectors holding the values of the children, in the order of the children
+     */
+    protected final ExpressionVector[] evaluateChildren(Tuple[] tuples, int count) {
+        List<Expression> children = getChildren();
+        if (childVectors == null) {
+            childVectors = new ExpressionVector[children.size()];
+            for (int i = 0; i < childVectors.length; i++) {
+                childVectors[i] = new ExpressionVector(count);
+            }
+        }
+        for (int i = 0; i < childVectors.length; i++) {
+            evaluate(children.get(i), tuples, count, childVectors[i]);
+        }
+        return childVectors;
+    }
+    
     protected final <T> List<T> acceptChildren(ExpressionVisitor<T> visitor, Iterator<Expression> iterator) {
         if (iterator == null) {
             iterator = visitor.defaultIterator(this);
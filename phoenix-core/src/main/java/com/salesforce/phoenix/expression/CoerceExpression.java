@@ -129,6 +129,22 @@ public class CoerceExpression extends BaseSingleExpression {
         return false;
     }
 
+    @Override
+    public void evaluate(Tuple[] tuples, int count, ExpressionVector vector) {
+        // Evaluate the child in place, as each value is only needed to compute its own row
+        Expression child = getChild();
+        evaluate(child, tuples, count, vector);
+        PDataType fromType = child.getDataType();
+        ColumnModifier fromMod = child.getColumnModifier();
+        ImmutableBytesWritable ptr = vector.getPtr();
+        for (int i = 0; i < count; i++) {
+            if (vector.get(i, ptr)) {
+                toType.coerceBytes(ptr, fromType, fromMod, toMod);
+                vector.set(i, ptr);
+            }
+        }
+    }
+
     @Override
     public PDataType getDataType() {
         return toType;
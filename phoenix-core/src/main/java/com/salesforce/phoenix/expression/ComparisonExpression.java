@@ -130,6 +130,37 @@ public class ComparisonExpression extends BaseCompoundExpression {
         return true;
     }
     
+    @Override
+    public void evaluate(Tuple[] tuples, int count, ExpressionVector vector) {
+        ExpressionVector[] childVectors = evaluateChildren(tuples, count);
+        vector.reset(count);
+        Expression lhs = children.get(0);
+        Expression rhs = children.get(1);
+        PDataType lhsDataType = lhs.getDataType();
+        PDataType rhsDataType = rhs.getDataType();
+        ColumnModifier lhsColumnModifier = lhs.getColumnModifier();
+        ColumnModifier rhsColumnModifier = rhs.getColumnModifier();
+        ImmutableBytesWritable lhsPtr = vector.getPtr();
+        ImmutableBytesWritable rhsPtr = new ImmutableBytesWritable();
+        for (int i = 0; i < count; i++) {
+            if (!childVectors[0].get(i, lhsPtr) || !childVectors[1].get(i, rhsPtr)) {
+                vector.setUnevaluated(i);
+                continue;
+            }
+            int lhsLength = lhsPtr.getLength();
+            int rhsLength = rhsPtr.getLength();
+            if (rhsDataType == PDataType.CHAR) {
+                rhsLength = StringUtil.getUnpaddedCharLength(rhsPtr.get(), rhsPtr.getOffset(), rhsLength, rhsColumnModifier);
+            }
+            if (lhsDataType == PDataType.CHAR) {
+                lhsLength = StringUtil.getUnpaddedCharLength(lhsPtr.get(), lhsPtr.getOffset(), lhsLength, lhsColumnModifier);
+            }
+            int comparisonResult = lhsDataType.compareTo(lhsPtr.get(), lhsPtr.getOffset(), lhsLength, lhsColumnModifier, 
+                    rhsPtr.get(), rhsPtr.getOffset(), rhsLength, rhsColumnModifier, rhsDataType);
+            vector.set(i, ByteUtil.compare(op, comparisonResult) ? PDataType.TRUE_BYTES : PDataType.FALSE_BYTES);
+        }
+    }
+    
     @Override
     public void readFields(DataInput input) throws IOException {
         op = CompareOp.values()[WritableUtils.readVInt(input)];
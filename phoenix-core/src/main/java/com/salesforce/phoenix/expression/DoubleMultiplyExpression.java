@@ -32,6 +32,7 @@ import java.util.List;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
 import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PDataType.PDataCodec;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 
 public class DoubleMultiplyExpression extends MultiplyExpression {
@@ -70,6 +71,39 @@ public class DoubleMultiplyExpression extends MultiplyExpression {
         return true;
     }
 
+    @Override
+    public void evaluate(Tuple[] tuples, int count, ExpressionVector vector) {
+        ExpressionVector[] childVectors = evaluateChildren(tuples, count);
+        vector.reset(count);
+        int byteSize = getDataType().getByteSize();
+        byte[] buffer = vector.getFixedWidthBuffer(byteSize);
+        PDataCodec codec = getDataType().getCodec();
+        ImmutableBytesWritable ptr = vector.getPtr();
+        rows: for (int i = 0; i < count; i++) {
+            double result = 1.0;
+            for (int j = 0; j < childVectors.length; j++) {
+                if (!childVectors[j].get(i, ptr)) {
+                    vector.setUnevaluated(i);
+                    continue rows;
+                }
+                if (ptr.getLength() == 0) {
+                    vector.set(i, ptr);
+                    continue rows;
+                }
+                Expression child = children.get(j);
+                double childvalue = child.getDataType().getCodec().decodeDouble(ptr, child.getColumnModifier());
+                if (Double.isNaN(childvalue) || Double.isInfinite(childvalue)) {
+                    vector.setUnevaluated(i);
+                    continue rows;
+                }
+                result *= childvalue;
+            }
+            int offset = i * byteSize;
+            codec.encodeDouble(result, buffer, offset);
+            vector.set(i, buffer, offset, byteSize);
+        }
+    }
+
     @Override
     public PDataType getDataType() {
         return PDataType.DOUBLE;
@@ -30,6 +30,7 @@ package com.salesforce.phoenix.expression;
 import java.util.Map;
 
 import com.google.common.collect.Maps;
+import com.salesforce.phoenix.expression.function.ApproxCountDistinctAggregateFunction;
 import com.salesforce.phoenix.expression.function.ArrayIndexFunction;
 import com.salesforce.phoenix.expression.function.ArrayLengthFunction;
 import com.salesforce.phoenix.expression.function.CeilDateExpression;
@@ -161,7 +162,8 @@ public enum ExpressionType {
     ArrayIndexFunction(ArrayIndexFunction.class),
     ArrayLengthFunction(ArrayLengthFunction.class),
     ArrayConstructorExpression(ArrayConstructorExpression.class),
-    SQLViewTypeFunction(SQLViewTypeFunction.class);
+    SQLViewTypeFunction(SQLViewTypeFunction.class),
+    ApproxCountDistinctAggregateFunction(ApproxCountDistinctAggregateFunction.class);
     ExpressionType(Class<? extends Expression> clazz) {
         this.clazz = clazz;
     }
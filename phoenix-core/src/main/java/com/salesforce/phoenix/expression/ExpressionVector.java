@@ -0,0 +1,141 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+/**
+ * 
+ * Reusable vector holding the value an expression evaluated to for each row of a batch,
+ * filled in by {@link BaseExpression#evaluate(Tuple[], int, ExpressionVector)}. A row that
+ * could not be evaluated is marked as such, while a row whose value is null has an empty
+ * value. The values of fixed width results are encoded back to back into a single buffer
+ * per batch, so that evaluating a batch doesn't allocate per row.
+ *
+ * @since 3.0.0
+ */
+public class ExpressionVector {
+    private static final int DEFAULT_CAPACITY = 64;
+    
+    private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+    private int size;
+    private boolean[] isEvaluated;
+    private byte[][] buffers;
+    private int[] offsets;
+    private int[] lengths;
+    
+    public ExpressionVector() {
+        this(DEFAULT_CAPACITY);
+    }
+    
+    public ExpressionVector(int capacity) {
+        allocate(capacity);
+    }
+    
+    private void allocate(int capacity) {
+        isEvaluated = new boolean[capacity];
+        buffers = new byte[capacity][];
+        offsets = new int[capacity];
+        lengths = new int[capacity];
+    }
+    
+    /**
+     * Clears the vector and sizes it to hold the values of a batch of rows
+     * @param size the number of rows in the batch
+     */
+    public void reset(int size) {
+        if (size > isEvaluated.length) {
+            allocate(Math.max(size, isEvaluated.length * 2));
+        }
+        for (int i = 0; i < this.size; i++) {
+            buffers[i] = null;
+        }
+        this.size = size;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEvaluated(int row) {
+        return isEvaluated[row];
+    }
+    
+    /**
+     * Gets the value of a row
+     * @param row the index of the row in the batch
+     * @param ptr set to the value of the row if it was evaluated
+     * @return true if the row could be evaluated and false otherwise
+     */
+    public boolean get(int row, ImmutableBytesWritable ptr) {
+        if (!isEvaluated[row]) {
+            return false;
+        }
+        ptr.set(buffers[row], offsets[row], lengths[row]);
+        return true;
+    }
+    
+    public void set(int row, ImmutableBytesWritable ptr) {
+        set(row, ptr.get(), ptr.getOffset(), ptr.getLength());
+    }
+    
+    public void set(int row, byte[] b) {
+        set(row, b, 0, b.length);
+    }
+    
+    public void set(int row, byte[] b, int offset, int length) {
+        isEvaluated[row] = true;
+        buffers[row] = b;
+        offsets[row] = offset;
+        lengths[row] = length;
+    }
+    
+    public void setUnevaluated(int row) {
+        isEvaluated[row] = false;
+        buffers[row] = null;
+    }
+    
+    /**
+     * @param byteSize the width of each value
+     * @return a new buffer large enough to hold a value of byteSize bytes for every row
+     * of the batch, at an offset of row * byteSize. The buffer is not reused by later
+     * batches, since aggregators such as MIN and MAX hold on to the values they are given.
+     */
+    public byte[] getFixedWidthBuffer(int byteSize) {
+        return new byte[size * byteSize];
+    }
+    
+    /**
+     * @return a scratch pointer for evaluating the rows of the batch one at a time
+     */
+    ImmutableBytesWritable getPtr() {
+        return ptr;
+    }
+}
@@ -172,6 +172,26 @@ public class InListExpression extends BaseSingleExpression {
         return true;
     }
 
+    @Override
+    public void evaluate(Tuple[] tuples, int count, ExpressionVector vector) {
+        // Evaluate the child in place, as each value is only needed to compute its own row
+        evaluate(getChild(), tuples, count, vector);
+        ImmutableBytesWritable ptr = vector.getPtr();
+        for (int i = 0; i < count; i++) {
+            if (!vector.get(i, ptr)) {
+                continue;
+            }
+            value.set(ptr);
+            if (values.contains(value)) {
+                vector.set(i, PDataType.TRUE_BYTES);
+            } else if (containsNull) { // If any null value and value not found
+                vector.set(i, ByteUtil.EMPTY_BYTE_ARRAY);
+            } else {
+                vector.set(i, PDataType.FALSE_BYTES);
+            }
+        }
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
@@ -32,6 +32,7 @@ import java.util.List;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 
 import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PDataType.PDataCodec;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 
 
@@ -62,6 +63,30 @@ public class LongAddExpression extends AddExpression {
         return true;
     }
 
+    @Override
+    public void evaluate(Tuple[] tuples, int count, ExpressionVector vector) {
+        ExpressionVector[] childVectors = evaluateChildren(tuples, count);
+        vector.reset(count);
+        int byteSize = getDataType().getByteSize();
+        byte[] buffer = vector.getFixedWidthBuffer(byteSize);
+        PDataCodec codec = getDataType().getCodec();
+        ImmutableBytesWritable ptr = vector.getPtr();
+        rows: for (int i = 0; i < count; i++) {
+            long finalResult = 0;
+            for (int j = 0; j < childVectors.length; j++) {
+                if (!childVectors[j].get(i, ptr) || ptr.getLength() == 0) {
+                    vector.setUnevaluated(i);
+                    continue rows;
+                }
+                Expression child = children.get(j);
+                finalResult += child.getDataType().getCodec().decodeLong(ptr, child.getColumnModifier());
+            }
+            int offset = i * byteSize;
+            codec.encodeLong(finalResult, buffer, offset);
+            vector.set(i, buffer, offset, byteSize);
+        }
+    }
+
     @Override
     public final PDataType getDataType() {
         return PDataType.LONG;
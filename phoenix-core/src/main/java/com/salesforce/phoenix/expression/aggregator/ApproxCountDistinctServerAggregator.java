@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression.aggregator;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.SizedUtil;
+
+/**
+ * Server side Aggregator which adds each value to a {@link HyperLogLog} sketch, so that
+ * only the sketch and not the distinct values themselves need to be returned to the client.
+ * 
+ * @since 3.0.0
+ */
+public class ApproxCountDistinctServerAggregator extends BaseAggregator {
+    private final HyperLogLog sketch = new HyperLogLog();
+
+    public ApproxCountDistinctServerAggregator() {
+        super(null);
+    }
+
+    /**
+     * @param ptr sketch serialized by a previous instance of this aggregator
+     */
+    public ApproxCountDistinctServerAggregator(ImmutableBytesWritable ptr) {
+        this();
+        sketch.merge(ptr);
+    }
+
+    @Override
+    public void aggregate(Tuple tuple, ImmutableBytesWritable ptr) {
+        // Like COUNT(DISTINCT), don't count null values
+        if (ptr.getLength() > 0) {
+            sketch.add(ptr.get(), ptr.getOffset(), ptr.getLength());
+        }
+    }
+
+    @Override
+    public boolean isNullable() {
+        return false;
+    }
+
+    @Override
+    public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+        ptr.set(sketch.toBytes());
+        return true;
+    }
+
+    @Override
+    public final PDataType getDataType() {
+        return PDataType.VARBINARY;
+    }
+
+    @Override
+    public void reset() {
+        sketch.reset();
+        super.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "APPROX COUNT DISTINCT";
+    }
+
+    @Override
+    public int getSize() {
+        return super.getSize() + SizedUtil.OBJECT_SIZE + SizedUtil.ARRAY_SIZE + HyperLogLog.REGISTER_COUNT;
+    }
+}
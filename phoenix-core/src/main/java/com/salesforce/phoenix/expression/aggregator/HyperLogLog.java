@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression.aggregator;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * 
+ * HyperLogLog sketch used to estimate the number of distinct values seen, with a
+ * standard error of around 1.6%. Sketches of different regions may be merged, and
+ * serialize to at most {@link #REGISTER_COUNT} + 1 bytes regardless of the number of
+ * values seen, or to fewer when only a few registers are set.
+ *
+ * @since 3.0.0
+ */
+public class HyperLogLog {
+    private static final int PRECISION = 12;
+    public static final int REGISTER_COUNT = 1 << PRECISION;
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / REGISTER_COUNT);
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    
+    private static final byte DENSE = 0;
+    private static final byte SPARSE = 1;
+    // Size of each register index and value when serialized sparsely
+    private static final int SPARSE_ENTRY_SIZE = Bytes.SIZEOF_SHORT + 1;
+    
+    private final byte[] registers = new byte[REGISTER_COUNT];
+    private int nonZeroCount;
+    
+    public HyperLogLog() {
+    }
+    
+    public void add(byte[] bytes, int offset, int length) {
+        long hash = HASH_FUNCTION.hashBytes(bytes, offset, length).asLong();
+        int index = (int)(hash >>> (Long.SIZE - PRECISION));
+        // Position of the first set bit in the remaining bits, capped at one past their count
+        int rank = Math.min(Long.numberOfLeadingZeros(hash << PRECISION), Long.SIZE - PRECISION) + 1;
+        setRegister(index, rank);
+    }
+    
+    private void setRegister(int index, int value) {
+        int current = registers[index];
+        if (value > current) {
+            if (current == 0) {
+                nonZeroCount++;
+            }
+            registers[index] = (byte)value;
+        }
+    }
+    
+    /**
+     * Merge in a sketch serialized by {@link #toBytes()}.
+     */
+    public void merge(ImmutableBytesWritable ptr) {
+        byte[] buf = ptr.get();
+        int offset = ptr.getOffset();
+        if (ptr.getLength() == 0) {
+            return;
+        }
+        if (buf[offset++] == DENSE) {
+            for (int i = 0; i < REGISTER_COUNT; i++) {
+                setRegister(i, buf[offset + i]);
+            }
+        } else {
+            int count = Bytes.toShort(buf, offset);
+            offset += Bytes.SIZEOF_SHORT;
+            for (int i = 0; i < count; i++, offset += SPARSE_ENTRY_SIZE) {
+                setRegister(Bytes.toShort(buf, offset), buf[offset + Bytes.SIZEOF_SHORT]);
+            }
+        }
+    }
+    
+    public byte[] toBytes() {
+        int sparseSize = Bytes.SIZEOF_SHORT + nonZeroCount * SPARSE_ENTRY_SIZE;
+        if (sparseSize >= REGISTER_COUNT) {
+            byte[] bytes = new byte[1 + REGISTER_COUNT];
+            bytes[0] = DENSE;
+            System.arraycopy(registers, 0, bytes, 1, REGISTER_COUNT);
+            return bytes;
+        }
+        byte[] bytes = new byte[1 + sparseSize];
+        bytes[0] = SPARSE;
+        int offset = Bytes.putShort(bytes, 1, (short)nonZeroCount);
+        for (int i = 0; i < REGISTER_COUNT; i++) {
+            if (registers[i] != 0) {
+                offset = Bytes.putShort(bytes, offset, (short)i);
+                bytes[offset++] = registers[i];
+            }
+        }
+        return bytes;
+    }
+    
+    /**
+     * @return the estimated number of distinct values added to this sketch
+     */
+    public long estimate() {
+        double sum = 0;
+        for (int i = 0; i < REGISTER_COUNT; i++) {
+            sum += 1.0 / (1L << registers[i]);
+        }
+        double estimate = ALPHA * REGISTER_COUNT * REGISTER_COUNT / sum;
+        int zeroCount = REGISTER_COUNT - nonZeroCount;
+        // Use linear counting for small cardinalities, where it is more accurate
+        if (estimate <= 2.5 * REGISTER_COUNT && zeroCount > 0) {
+            estimate = REGISTER_COUNT * Math.log((double)REGISTER_COUNT / zeroCount);
+        }
+        return Math.round(estimate);
+    }
+    
+    public void reset() {
+        Arrays.fill(registers, (byte)0);
+        nonZeroCount = 0;
+    }
+}
@@ -38,8 +38,10 @@ import java.util.List;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.WritableUtils;
 
+import com.salesforce.phoenix.expression.BaseExpression;
 import com.salesforce.phoenix.expression.Expression;
 import com.salesforce.phoenix.expression.ExpressionType;
+import com.salesforce.phoenix.expression.ExpressionVector;
 import com.salesforce.phoenix.expression.function.SingleAggregateFunction;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 
@@ -54,6 +56,7 @@ import com.salesforce.phoenix.schema.tuple.Tuple;
 public class ServerAggregators extends Aggregators {
     public static final ServerAggregators EMPTY_AGGREGATORS = new ServerAggregators(new SingleAggregateFunction[0], new Aggregator[0], new Expression[0], 0);
     private final Expression[] expressions;
+    private final ExpressionVector[] vectors;
     
     private ServerAggregators(SingleAggregateFunction[] functions, Aggregator[] aggregators, Expression[] expressions, int minNullableIndex) {
         super(functions, aggregators, minNullableIndex);
@@ -62,6 +65,10 @@ public class ServerAggregators extends Aggregators {
                     + ") must match the number of expressions (" + Arrays.toString(expressions) + ")");
         }
         this.expressions = expressions;
+        this.vectors = new ExpressionVector[expressions.length];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = new ExpressionVector();
+        }
     }
     
     @Override
@@ -73,6 +80,43 @@ public class ServerAggregators extends Aggregators {
         }
     }
     
+    /**
+     * Evaluate the expressions of the aggregators over a batch of rows, to be
+     * aggregated by {@link #aggregate(Aggregator[], Tuple, int)}
+     * @param results the rows of the batch
+     * @param count the number of rows from the start of results in the batch
+     */
+    public void evaluate(Tuple[] results, int count) {
+        for (int i = 0; i < expressions.length; i++) {
+            BaseExpression.evaluate(expressions[i], results, count, vectors[i]);
+        }
+    }
+    
+    /**
+     * Aggregate over aggregators a row of the batch last passed to {@link #evaluate(Tuple[], int)}
+     * @param result the row being aggregated
+     * @param row the index of the row in the batch
+     */
+    public void aggregate(Aggregator[] aggregators, Tuple result, int row) {
+        for (int i = 0; i < vectors.length; i++) {
+            if (vectors[i].get(row, ptr)) {
+                aggregators[i].aggregate(result, ptr);
+            }
+        }
+    }
+    
+    /**
+     * Aggregate a batch of rows over aggregators
+     * @param results the rows of the batch
+     * @param count the number of rows from the start of results in the batch
+     */
+    public void aggregate(Aggregator[] aggregators, Tuple[] results, int count) {
+        evaluate(results, count);
+        for (int row = 0; row < count; row++) {
+            aggregate(aggregators, results[row], row);
+        }
+    }
+    
     /**
      * Serialize an Aggregator into a byte array
      * @param aggFuncs list of aggregator to serialize
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression.function;
+
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+
+import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.expression.aggregator.Aggregator;
+import com.salesforce.phoenix.expression.aggregator.ApproxCountDistinctClientAggregator;
+import com.salesforce.phoenix.expression.aggregator.ApproxCountDistinctServerAggregator;
+import com.salesforce.phoenix.parse.FunctionParseNode.Argument;
+import com.salesforce.phoenix.parse.FunctionParseNode.BuiltInFunction;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+
+/**
+ * 
+ * Built-in function for APPROX_COUNT_DISTINCT(<expression>) aggregate function,
+ * which estimates the number of distinct values using a HyperLogLog sketch. Unlike
+ * COUNT(DISTINCT <expression>), each region only returns a sketch of a few KB instead
+ * of all of its distinct values.
+ *
+ * @since 3.0.0
+ */
+@BuiltInFunction(name=ApproxCountDistinctAggregateFunction.NAME, args= {@Argument()} )
+public class ApproxCountDistinctAggregateFunction extends SingleAggregateFunction {
+    public static final String NAME = "APPROX_COUNT_DISTINCT";
+    private final static byte[] ZERO = PDataType.LONG.toBytes(0L);
+    
+    public ApproxCountDistinctAggregateFunction() {
+    }
+
+    public ApproxCountDistinctAggregateFunction(List<Expression> childExpressions) {
+        super(childExpressions);
+    }
+    
+    /**
+     * Like COUNT, this function never returns null
+     */
+    @Override
+    public boolean isNullable() {
+        return false;
+    }
+    
+    @Override
+    public PDataType getDataType() {
+        return PDataType.LONG;
+    }
+
+    @Override 
+    public Aggregator newClientAggregator() {
+        return new ApproxCountDistinctClientAggregator(getAggregatorExpression().getColumnModifier());
+    }
+    
+    @Override 
+    public Aggregator newServerAggregator(Configuration conf) {
+        return new ApproxCountDistinctServerAggregator();
+    }
+    
+    @Override
+    public Aggregator newServerAggregator(Configuration config, ImmutableBytesWritable ptr) {
+        return new ApproxCountDistinctServerAggregator(ptr);
+    }
+    
+    @Override
+    public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+        if (!super.evaluate(tuple, ptr)) {
+            ptr.set(ZERO); // If evaluate returns false, then no rows were found, so result is 0
+        }
+        return true; // Always evaluates to a LONG value
+    }
+    
+    @Override
+    public String getName() {
+        return NAME;
+    }
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may
+ *     be used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.filter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.bloom.BloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+
+import com.google.common.collect.Iterators;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.expression.ExpressionType;
+import com.salesforce.phoenix.expression.KeyValueColumnExpression;
+import com.salesforce.phoenix.expression.ProjectedColumnExpression;
+import com.salesforce.phoenix.expression.visitor.TraverseAllExpressionVisitor;
+import com.salesforce.phoenix.util.ByteUtil;
+import com.salesforce.phoenix.util.TupleUtil;
+
+
+/**
+ *
+ * Filter that skips the rows of the probe side of a hash join whose join key
+ * cannot be in the hash cache, based on a bloom filter of the hash cache keys.
+ * Only used when the join key is computed from the row key alone, so that rows
+ * are skipped before any of their key values are read.
+ *
+ * @since 3.0.0
+ */
+public class JoinKeyBloomFilter extends FilterBase {
+    // Around a 1% false positive rate
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASH_COUNT = 7;
+
+    private List<Expression> keyExpressions;
+    private BloomFilter bloomFilter;
+    private final RowKeyComparisonFilter.RowKeyTuple inputTuple = new RowKeyComparisonFilter.RowKeyTuple();
+    private final Key key = new Key();
+    private boolean evaluate = true;
+    private boolean keepRow = false;
+
+    public JoinKeyBloomFilter() {
+    }
+
+    /**
+     * @param keyExpressions the expressions that compute the join key of a row
+     * @param keys the keys of the hash cache, as computed by the other side of the join
+     */
+    public JoinKeyBloomFilter(List<Expression> keyExpressions, Collection<ImmutableBytesPtr> keys) {
+        this.keyExpressions = keyExpressions;
+        this.bloomFilter = new BloomFilter(Math.max(keys.size() * BITS_PER_KEY, Byte.SIZE), HASH_COUNT, Hash.MURMUR_HASH);
+        for (ImmutableBytesPtr ptr : keys) {
+            bloomFilter.add(new Key(ByteUtil.copyKeyBytesIfNecessary(ptr)));
+        }
+    }
+
+    /**
+     * @return true if the expressions only reference row key columns, and may
+     * thus be used with this filter
+     */
+    public static boolean isRowKeyOnly(List<Expression> keyExpressions) {
+        final boolean[] isRowKeyOnly = new boolean[] {true};
+        TraverseAllExpressionVisitor<Void> visitor = new TraverseAllExpressionVisitor<Void>() {
+            @Override
+            public Iterator<Expression> defaultIterator(Expression node) {
+                return isRowKeyOnly[0] ? super.defaultIterator(node) : Iterators.<Expression>emptyIterator();
+            }
+
+            @Override
+            public Void visit(KeyValueColumnExpression node) {
+                isRowKeyOnly[0] = false;
+                return null;
+            }
+
+            @Override
+            public Void visit(ProjectedColumnExpression node) {
+                isRowKeyOnly[0] = false;
+                return null;
+            }
+        };
+        for (Expression expression : keyExpressions) {
+            expression.accept(visitor);
+        }
+        return isRowKeyOnly[0];
+    }
+
+    @Override
+    public void reset() {
+        this.keepRow = false;
+        this.evaluate = true;
+    }
+
+    /**
+     * Evaluate in filterKeyValue instead of filterRowKey, because HBASE-6562 causes filterRowKey
+     * to be called with deleted or partial row keys.
+     */
+    @Override
+    public ReturnCode filterKeyValue(KeyValue v) {
+        if (evaluate) {
+            inputTuple.setKey(v.getBuffer(), v.getRowOffset(), v.getRowLength());
+            try {
+                ImmutableBytesPtr ptr = TupleUtil.getConcatenatedValue(inputTuple, keyExpressions);
+                key.set(ByteUtil.copyKeyBytesIfNecessary(ptr), 1.0);
+                this.keepRow = bloomFilter.membershipTest(key);
+            } catch (IOException e) {
+                // Let the join decide what to do with a row we can't compute a key for
+                this.keepRow = true;
+            }
+            evaluate = false;
+        }
+        return keepRow ? ReturnCode.INCLUDE : ReturnCode.NEXT_ROW;
+    }
+
+    @Override
+    public boolean filterRow() {
+        return !this.keepRow;
+    }
+
+    @Override
+    public String toString() {
+        return "JoinKeyBloomFilter " + keyExpressions;
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+        int count = WritableUtils.readVInt(input);
+        keyExpressions = new ArrayList<Expression>(count);
+        for (int i = 0; i < count; i++) {
+            Expression expression = ExpressionType.values()[WritableUtils.readVInt(input)].newInstance();
+            expression.readFields(input);
+            keyExpressions.add(expression);
+        }
+        bloomFilter = new BloomFilter();
+        bloomFilter.readFields(input);
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+        WritableUtils.writeVInt(output, keyExpressions.size());
+        for (Expression expression : keyExpressions) {
+            WritableUtils.writeVInt(output, ExpressionType.valueOf(expression).ordinal());
+            expression.write(output);
+        }
+        bloomFilter.write(output);
+    }
+}
@@ -89,7 +89,7 @@ public class RowKeyComparisonFilter extends BooleanExpressionFilter {
         return keepRow ? ReturnCode.INCLUDE : ReturnCode.NEXT_ROW;
     }
 
-    private final class RowKeyTuple implements Tuple {
+    static final class RowKeyTuple implements Tuple {
         private byte[] buf;
         private int offset;
         private int length;
@@ -19,10 +19,13 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Mutation;
 import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
 import org.apache.hadoop.hbase.regionserver.HRegion;
 import org.apache.hadoop.hbase.regionserver.MiniBatchOperationInProgress;
 import org.apache.hadoop.hbase.regionserver.MultiVersionConsistencyControl;
@@ -31,27 +34,45 @@ import org.apache.hadoop.hbase.util.Pair;
 
 import com.google.common.collect.Lists;
 import com.salesforce.hbase.index.covered.CoveredColumnsIndexBuilder;
+import com.salesforce.hbase.index.covered.data.LocalTable;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.hbase.index.util.IndexManagementUtil;
 import com.salesforce.phoenix.compile.ScanRanges;
 import com.salesforce.phoenix.query.KeyRange;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.PDataType;
 import com.salesforce.phoenix.util.SchemaUtil;
 
 /**
  * Index builder for covered-columns index that ties into phoenix for faster use.
+ * <p>
+ * The current state of all the rows of a batch is read with a single skip scan when the batch
+ * starts and cached in the {@link LocalTable} until the index updates of the batch have been
+ * built, instead of being read with a point scan per row. At most
+ * {@link QueryServices#INDEX_ROW_STATE_CACHE_MAX_BYTES_ATTRIB} bytes are cached per batch; the
+ * state of any rows beyond that is read by a point scan as before.
  */
 public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
+    private long maxRowStateCacheBytes;
+
+    @Override
+    public void setup(RegionCoprocessorEnvironment env) throws IOException {
+        super.setup(env);
+        this.maxRowStateCacheBytes = env.getConfiguration().getLong(QueryServices.INDEX_ROW_STATE_CACHE_MAX_BYTES_ATTRIB,
+                QueryServicesOptions.DEFAULT_INDEX_ROW_STATE_CACHE_MAX_BYTES);
+    }
 
     @Override
     public void batchStarted(MiniBatchOperationInProgress<Pair<Mutation, Integer>> miniBatchOp) throws IOException {
-        // The entire purpose of this method impl is to get the existing rows for the
-        // table rows being indexed into the block cache, as the index maintenance code
-        // does a point scan per row
-        List<KeyRange> keys = Lists.newArrayListWithExpectedSize(miniBatchOp.size());
+        SortedSet<ImmutableBytesPtr> rows = getRows(miniBatchOp);
+        List<KeyRange> keys = Lists.newArrayListWithExpectedSize(rows.size());
+        for (ImmutableBytesPtr row : rows) {
+            keys.add(PDataType.VARBINARY.getKeyRange(row.copyBytesIfNecessary()));
+        }
         List<IndexMaintainer> maintainers = new ArrayList<IndexMaintainer>();
         for (int i = 0; i < miniBatchOp.size(); i++) {
             Mutation m = miniBatchOp.getOperation(i).getFirst();
-            keys.add(PDataType.VARBINARY.getKeyRange(m.getRow()));
             maintainers.addAll(getCodec().getIndexMaintainers(m.getAttributesMap()));
         }
         Scan scan = IndexManagementUtil.newLocalStateScan(maintainers);
@@ -63,6 +84,10 @@ public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
         // Run through the scanner using internal nextRaw method
         MultiVersionConsistencyControl.setThreadReadPoint(scanner.getMvccReadPoint());
         region.startRegionOperation();
+        // Without the phoenix local table there's nowhere to cache the rows, so the scan
+        // only serves to get them into the block cache
+        LocalTable rowStateCache = localTable instanceof LocalTable ? (LocalTable)localTable : null;
+        long remainingBytes = maxRowStateCacheBytes;
         try {
             boolean hasMore;
             do {
@@ -71,7 +96,26 @@ public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
                 // since this is an indication of whether or not there are more values after the
                 // ones returned
                 hasMore = scanner.nextRaw(results, null);
+                if (rowStateCache != null && !results.isEmpty()) {
+                    for (KeyValue kv : results) {
+                        remainingBytes -= kv.getLength();
+                    }
+                    if (remainingBytes < 0) {
+                        // Stop caching, leaving the remaining rows to be read by a point scan
+                        rowStateCache = null;
+                    } else {
+                        byte[] row = results.get(0).getRow();
+                        rowStateCache.cacheRowState(row, results);
+                        rows.remove(new ImmutableBytesPtr(row));
+                    }
+                }
             } while (hasMore);
+            if (rowStateCache != null) {
+                // The rows the scan didn't return don't exist yet
+                for (ImmutableBytesPtr row : rows) {
+                    rowStateCache.cacheRowState(row.copyBytesIfNecessary(), Collections.<KeyValue>emptyList());
+                }
+            }
         } finally {
             try {
                 scanner.close();
@@ -81,6 +125,24 @@ public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
         }
     }
 
+    @Override
+    public void batchIndexUpdatesBuilt(MiniBatchOperationInProgress<Pair<Mutation, Integer>> miniBatchOp) {
+        if (localTable instanceof LocalTable) {
+            LocalTable rowStateCache = (LocalTable)localTable;
+            for (ImmutableBytesPtr row : getRows(miniBatchOp)) {
+                rowStateCache.uncacheRowState(row.copyBytesIfNecessary());
+            }
+        }
+    }
+
+    private static SortedSet<ImmutableBytesPtr> getRows(MiniBatchOperationInProgress<Pair<Mutation, Integer>> miniBatchOp) {
+        SortedSet<ImmutableBytesPtr> rows = new TreeSet<ImmutableBytesPtr>();
+        for (int i = 0; i < miniBatchOp.size(); i++) {
+            rows.add(new ImmutableBytesPtr(miniBatchOp.getOperation(i).getFirst().getRow()));
+        }
+        return rows;
+    }
+
     private PhoenixIndexCodec getCodec() {
         return (PhoenixIndexCodec)this.codec;
     }
@@ -89,4 +151,4 @@ public class PhoenixIndexBuilder extends CoveredColumnsIndexBuilder {
     public byte[] getBatchId(Mutation m){
         return this.codec.getBatchId(m);
     }
-}
\ No newline at end of file
+}
@@ -43,6 +43,7 @@ import com.salesforce.phoenix.cache.IndexMetaDataCache;
 import com.salesforce.phoenix.cache.ServerCacheClient;
 import com.salesforce.phoenix.cache.TenantCache;
 import com.salesforce.phoenix.client.KeyValueBuilder;
+import com.salesforce.phoenix.coprocessor.ServerCachingEndpointImpl;
 import com.salesforce.phoenix.exception.SQLExceptionCode;
 import com.salesforce.phoenix.exception.SQLExceptionInfo;
 import com.salesforce.phoenix.util.PhoenixRuntime;
@@ -88,8 +89,12 @@ public class PhoenixIndexCodec extends BaseIndexCodec {
             ImmutableBytesWritable tenantId =
                 tenantIdBytes == null ? null : new ImmutableBytesWritable(tenantIdBytes);
             TenantCache cache = GlobalCache.getTenantCache(env, tenantId);
-            IndexMetaDataCache indexCache =
-                (IndexMetaDataCache) cache.getServerCache(new ImmutableBytesPtr(uuid));
+            IndexMetaDataCache indexCache = null;
+            try {
+                indexCache = (IndexMetaDataCache) ServerCachingEndpointImpl.getServerCache(env, cache, new ImmutableBytesPtr(uuid));
+            } catch (SQLException e) {
+                ServerUtil.throwIOException("Index update failed", e);
+            }
             if (indexCache == null) {
                 String msg = "key="+ServerCacheClient.idToString(uuid) + " region=" + env.getRegion();
                 SQLException e = new SQLExceptionInfo.Builder(SQLExceptionCode.INDEX_METADATA_NOT_FOUND)
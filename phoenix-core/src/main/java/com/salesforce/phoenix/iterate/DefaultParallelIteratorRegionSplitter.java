@@ -52,6 +52,7 @@ import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.query.StatsManager;
 import com.salesforce.phoenix.schema.PTable;
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.stat.PTableStats;
 import com.salesforce.phoenix.util.ReadOnlyProps;
 
 
@@ -130,6 +131,7 @@ public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRe
         }
         
         StatsManager statsManager = context.getConnection().getQueryServices().getStatsManager();
+        PTableStats tableStats = statsManager.getTableStats(tableRef);
         // the splits are computed as follows:
         //
         // let's suppose:
@@ -150,19 +152,29 @@ public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRe
         // distributed across regions, using this scheme compensates for regions that
         // have more rows than others, by applying tighter splits and therefore spawning
         // off more scans over the overloaded regions.
+        //
+        // If r < t and guide posts have been collected for a region, these are used instead
+        // to split the region into chunks of roughly equal size.
         int splitsPerRegion = regions.size() >= targetConcurrency ? 1 : (regions.size() > targetConcurrency / 2 ? maxConcurrency : targetConcurrency) / regions.size();
         splitsPerRegion = Math.min(splitsPerRegion, maxIntraRegionParallelization);
         // Create a multi-map of ServerName to List<KeyRange> which we'll use to round robin from to ensure
         // that we keep each region server busy for each query.
         ListMultimap<HRegionLocation,KeyRange> keyRangesPerRegion = ArrayListMultimap.create(regions.size(),regions.size() * splitsPerRegion);;
-        if (splitsPerRegion == 1) {
-            for (HRegionLocation region : regions) {
+        // Maintain bucket for each server and then returns KeyRanges in round-robin
+        // order to ensure all servers are utilized.
+        for (HRegionLocation region : regions) {
+            // With enough regions to reach the target concurrency, scan using regional boundaries
+            List<byte[]> guidePosts = regions.size() >= targetConcurrency ? Collections.<byte[]>emptyList() : getGuidePosts(region, tableStats);
+            if (!guidePosts.isEmpty()) {
+                byte[] lowerRange = region.getRegionInfo().getStartKey();
+                for (byte[] guidePost : guidePosts) {
+                    keyRangesPerRegion.put(region, KeyRange.getKeyRange(lowerRange, true, guidePost, false));
+                    lowerRange = guidePost;
+                }
+                keyRangesPerRegion.put(region, KeyRange.getKeyRange(lowerRange, true, region.getRegionInfo().getEndKey(), false));
+            } else if (splitsPerRegion == 1) {
                 keyRangesPerRegion.put(region, ParallelIterators.TO_KEY_RANGE.apply(region));
-            }
-        } else {
-            // Maintain bucket for each server and then returns KeyRanges in round-robin
-            // order to ensure all servers are utilized.
-            for (HRegionLocation region : regions) {
+            } else {
                 byte[] startKey = region.getRegionInfo().getStartKey();
                 byte[] stopKey = region.getRegionInfo().getEndKey();
                 boolean lowerUnbound = Bytes.compareTo(startKey, HConstants.EMPTY_START_ROW) == 0;
@@ -205,7 +217,7 @@ public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRe
                 }
             }
         }
-        List<KeyRange> splits = Lists.newArrayListWithCapacity(regions.size() * splitsPerRegion);
+        List<KeyRange> splits = Lists.newArrayListWithCapacity(keyRangesPerRegion.size());
         // as documented for ListMultimap
         Collection<Collection<KeyRange>> values = keyRangesPerRegion.asMap().values();
         List<Collection<KeyRange>> keyRangesList = Lists.newArrayList(values);
@@ -230,6 +242,40 @@ public class DefaultParallelIteratorRegionSplitter implements ParallelIteratorRe
         return splits;
     }
 
+    /**
+     * Get the guide posts of a region that fall within the scan, evenly thinned out so
+     * that the region is not split into more than maxIntraRegionParallelization chunks.
+     */
+    private List<byte[]> getGuidePosts(HRegionLocation region, PTableStats tableStats) {
+        byte[][] regionGuidePosts = tableStats.getRegionGuidePosts(region.getRegionInfo());
+        if (regionGuidePosts == null || regionGuidePosts.length == 0 || maxIntraRegionParallelization == 1) {
+            return Collections.emptyList();
+        }
+        Scan scan = context.getScan();
+        byte[] startKey = scan.getStartRow();
+        byte[] stopKey = scan.getStopRow();
+        byte[] regionStartKey = region.getRegionInfo().getStartKey();
+        byte[] regionEndKey = region.getRegionInfo().getEndKey();
+        List<byte[]> guidePosts = Lists.newArrayListWithExpectedSize(regionGuidePosts.length);
+        for (byte[] guidePost : regionGuidePosts) {
+            if (Bytes.compareTo(guidePost, startKey) > 0 && Bytes.compareTo(guidePost, regionStartKey) > 0
+                    && (stopKey.length == 0 || Bytes.compareTo(guidePost, stopKey) < 0)
+                    && (regionEndKey.length == 0 || Bytes.compareTo(guidePost, regionEndKey) < 0)) {
+                guidePosts.add(guidePost);
+            }
+        }
+        int maxGuidePosts = maxIntraRegionParallelization - 1;
+        if (guidePosts.size() <= maxGuidePosts) {
+            return guidePosts;
+        }
+        List<byte[]> thinnedGuidePosts = Lists.newArrayListWithExpectedSize(maxGuidePosts);
+        double step = (double)(guidePosts.size() + 1) / (maxGuidePosts + 1);
+        for (int i = 1; i <= maxGuidePosts; i++) {
+            thinnedGuidePosts.add(guidePosts.get((int)(i * step) - 1));
+        }
+        return thinnedGuidePosts;
+    }
+
     @Override
     public List<KeyRange> getSplits() throws SQLException {
         return genKeyRanges(getAllRegions());
@@ -0,0 +1,438 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import static com.salesforce.phoenix.query.QueryConstants.AGG_TIMESTAMP;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.expression.aggregator.Aggregator;
+import com.salesforce.phoenix.expression.aggregator.Aggregators;
+import com.salesforce.phoenix.memory.InsufficientMemoryException;
+import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.query.QueryServicesOptions;
+import com.salesforce.phoenix.schema.tuple.SingleKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.ByteUtil;
+import com.salesforce.phoenix.util.KeyValueUtil;
+import com.salesforce.phoenix.util.SQLCloseables;
+import com.salesforce.phoenix.util.ServerUtil;
+import com.salesforce.phoenix.util.SizedUtil;
+import com.salesforce.phoenix.util.TupleUtil;
+
+
+/**
+ * 
+ * Result scanner that aggregates the rows with duplicate keys, without requiring the rows
+ * from the backing result iterator to be in key sorted order. The partial aggregates are
+ * merged into a hash map as they stream in, with the memory for the map allocated from the
+ * memory manager of the {@link QueryServices}. When the map would grow beyond
+ * {@link QueryServices#GROUPBY_MAX_CACHE_SIZE_ATTRIB}, or no more memory can be allocated for
+ * it, the rows of new groups are spilled to disk, hash partitioned by their key, and each
+ * partition is aggregated in turn once the input is exhausted. The groups are only sorted by key when the caller needs them ordered.
+ *
+ * @since 3.0.0
+ */
+public class HashAggregatingResultIterator implements AggregatingResultIterator {
+    private static final int NUM_PARTITIONS = 16;
+    // Past this depth, a partition is aggregated in memory regardless of its size
+    private static final int MAX_SPILL_DEPTH = 4;
+    private static final int GROUP_OVERHEAD_SIZE = SizedUtil.MAP_ENTRY_SIZE + SizedUtil.IMMUTABLE_BYTES_PTR_SIZE + SizedUtil.ARRAY_SIZE;
+    private static final Comparator<Map.Entry<ImmutableBytesPtr,Aggregator[]>> KEY_COMPARATOR = new Comparator<Map.Entry<ImmutableBytesPtr,Aggregator[]>>() {
+        @Override
+        public int compare(Map.Entry<ImmutableBytesPtr,Aggregator[]> entry1, Map.Entry<ImmutableBytesPtr,Aggregator[]> entry2) {
+            return entry1.getKey().compareTo(entry2.getKey());
+        }
+    };
+    
+    private final ImmutableBytesPtr tempPtr = new ImmutableBytesPtr();
+    private final ImmutableBytesWritable valuePtr = new ImmutableBytesWritable();
+    private final ResultIterator resultIterator;
+    private final QueryServices services;
+    protected final Aggregators aggregators;
+    private final long maxCacheSize;
+    private final boolean isOrdered;
+    private final LinkedList<SpillPartition> pendingPartitions = Lists.newLinkedList();
+    private ResultIterator groupIterator;
+    // Memory allocated for the groups held by groupIterator, if they are not spooled
+    private MemoryChunk groupChunk;
+    private int spillPartitionCount;
+    
+    /**
+     * @param resultIterator the partial aggregates, in any order
+     * @param isOrdered true if the groups must be returned in key order
+     */
+    public HashAggregatingResultIterator(ResultIterator resultIterator, Aggregators aggregators, QueryServices services, boolean isOrdered) {
+        if (resultIterator == null) throw new NullPointerException();
+        if (aggregators == null) throw new NullPointerException();
+        this.resultIterator = resultIterator;
+        this.aggregators = aggregators;
+        this.services = services;
+        this.maxCacheSize = services.getProps().getLong(QueryServices.GROUPBY_MAX_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_GROUPBY_MAX_CACHE_MAX);
+        this.isOrdered = isOrdered;
+    }
+    
+    /**
+     * @return the number of partitions spilled to disk so far, including the ones partitioned again
+     */
+    public int getSpillPartitionCount() {
+        return spillPartitionCount;
+    }
+    
+    /**
+     * Rows of the groups that didn't fit in memory, all hashing to the same partition
+     */
+    private class SpillPartition {
+        private final int depth;
+        private final File file;
+        private DataOutputStream out;
+        private int rowCount;
+        
+        private SpillPartition(int depth) throws IOException {
+            this.depth = depth;
+            this.file = File.createTempFile("GroupBySpill", ".bin", SpoolingResultIterator.getSpoolDirectory(services.getProps().get(QueryServices.SPOOL_DIRECTORIES_ATTRIB)));
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            spillPartitionCount++;
+        }
+        
+        private void write(ImmutableBytesWritable key, ImmutableBytesWritable value) throws IOException {
+            WritableUtils.writeVInt(out, key.getLength());
+            out.write(key.get(), key.getOffset(), key.getLength());
+            WritableUtils.writeVInt(out, value.getLength());
+            out.write(value.get(), value.getOffset(), value.getLength());
+            rowCount++;
+        }
+        
+        private void finish() throws IOException {
+            out.close();
+        }
+        
+        private ResultIterator newIterator() throws IOException {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            return new ResultIterator() {
+                private int rowsLeft = rowCount;
+
+                @Override
+                public Tuple next() throws SQLException {
+                    if (rowsLeft == 0) {
+                        return null;
+                    }
+                    rowsLeft--;
+                    try {
+                        byte[] key = new byte[WritableUtils.readVInt(in)];
+                        in.readFully(key);
+                        byte[] value = new byte[WritableUtils.readVInt(in)];
+                        in.readFully(value);
+                        return new SingleKeyValueTuple(KeyValueUtil.newKeyValue(key, 0, key.length, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, AGG_TIMESTAMP, value, 0, value.length));
+                    } catch (IOException e) {
+                        throw ServerUtil.parseServerException(e);
+                    }
+                }
+
+                @Override
+                public void close() throws SQLException {
+                    try {
+                        in.close();
+                    } catch (IOException e) {
+                        throw ServerUtil.parseServerException(e);
+                    } finally {
+                        file.delete();
+                    }
+                }
+
+                @Override
+                public void explain(List<String> planSteps) {
+                }
+            };
+        }
+        
+        private void delete() {
+            try {
+                out.close();
+            } catch (IOException e) {
+            } finally {
+                file.delete();
+            }
+        }
+    }
+    
+    /**
+     * Grow the memory allocated for the groups to fit at least the given size, up to
+     * {@link #maxCacheSize}.
+     * @return false if there's no more memory to be had
+     */
+    private static boolean grow(MemoryChunk chunk, long size, long maxCacheSize) {
+        if (size > maxCacheSize) {
+            return false;
+        }
+        try {
+            chunk.resize(Math.min(maxCacheSize, Math.max(size, (long)(chunk.getSize() * 1.5f))));
+            return true;
+        } catch (InsufficientMemoryException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Aggregate the rows of the iterator into groups, spilling the rows of the groups that don't fit
+     * to new partitions.
+     * @param chunk the memory allocated for the groups, grown as they are added
+     */
+    private Map<ImmutableBytesPtr,Aggregator[]> aggregate(ResultIterator iterator, int depth, MemoryChunk chunk) throws SQLException {
+        Map<ImmutableBytesPtr,Aggregator[]> groups = Maps.newHashMap();
+        SpillPartition[] partitions = null;
+        long size = 0;
+        // Once an allocation fails, don't wait on the memory manager for every new group
+        boolean isFull = false;
+        try {
+            for (Tuple result = iterator.next(); result != null; result = iterator.next()) {
+                result.getKey(tempPtr);
+                Aggregator[] rowAggregators = groups.get(tempPtr);
+                if (rowAggregators == null) {
+                    long groupSize = GROUP_OVERHEAD_SIZE + tempPtr.getLength() + aggregators.getEstimatedByteSize();
+                    if (size + groupSize > chunk.getSize() && depth < MAX_SPILL_DEPTH && !groups.isEmpty()
+                            && (isFull || !grow(chunk, size + groupSize, maxCacheSize))) {
+                        isFull = true;
+                        if (partitions == null) {
+                            partitions = new SpillPartition[NUM_PARTITIONS];
+                        }
+                        int i = ByteUtil.getPartition(tempPtr, depth, NUM_PARTITIONS);
+                        if (partitions[i] == null) {
+                            partitions[i] = new SpillPartition(depth + 1);
+                        }
+                        TupleUtil.getAggregateValue(result, valuePtr);
+                        partitions[i].write(tempPtr, valuePtr);
+                        continue;
+                    }
+                    rowAggregators = aggregators.newAggregators();
+                    groups.put(new ImmutableBytesPtr(tempPtr.copyBytes()), rowAggregators);
+                    size += groupSize;
+                    if (size > chunk.getSize()) {
+                        // The first group and the groups past the max spill depth are kept in memory regardless
+                        chunk.resize(size);
+                    }
+                }
+                aggregators.aggregate(rowAggregators, result);
+            }
+            if (partitions != null) {
+                for (int i = 0; i < partitions.length; i++) {
+                    if (partitions[i] != null) {
+                        partitions[i].finish();
+                        pendingPartitions.add(partitions[i]);
+                        partitions[i] = null;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw ServerUtil.parseServerException(e);
+        } finally {
+            if (partitions != null) {
+                for (SpillPartition partition : partitions) {
+                    if (partition != null) {
+                        partition.delete();
+                    }
+                }
+            }
+        }
+        return groups;
+    }
+    
+    private ResultIterator newGroupIterator(Map<ImmutableBytesPtr,Aggregator[]> groups) {
+        final Iterator<Map.Entry<ImmutableBytesPtr,Aggregator[]>> iterator;
+        if (isOrdered) {
+            List<Map.Entry<ImmutableBytesPtr,Aggregator[]>> entries = Lists.newArrayList(groups.entrySet());
+            Collections.sort(entries, KEY_COMPARATOR);
+            iterator = entries.iterator();
+        } else {
+            iterator = groups.entrySet().iterator();
+        }
+        return new ResultIterator() {
+
+            @Override
+            public Tuple next() throws SQLException {
+                if (!iterator.hasNext()) {
+                    return null;
+                }
+                Map.Entry<ImmutableBytesPtr,Aggregator[]> entry = iterator.next();
+                byte[] value = aggregators.toBytes(entry.getValue());
+                return new SingleKeyValueTuple(KeyValueUtil.newKeyValue(entry.getKey(), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, AGG_TIMESTAMP, value, 0, value.length));
+            }
+
+            @Override
+            public void close() throws SQLException {
+            }
+
+            @Override
+            public void explain(List<String> planSteps) {
+            }
+        };
+    }
+    
+    private ResultIterator aggregateAll() throws SQLException {
+        MemoryChunk chunk = services.getMemoryManager().allocate(0);
+        Map<ImmutableBytesPtr,Aggregator[]> groups = null;
+        try {
+            groups = aggregate(resultIterator, 0, chunk);
+        } finally {
+            if (groups == null) {
+                chunk.close();
+            }
+        }
+        if (pendingPartitions.isEmpty()) {
+            // The groups stay in memory until we're closed
+            groupChunk = chunk;
+            return newGroupIterator(groups);
+        }
+        // Spool the groups aggregated in each pass, so that memory is freed up for the next partition
+        final List<PeekingResultIterator> runs = Lists.newArrayList();
+        boolean success = false;
+        try {
+            try {
+                runs.add(new SpoolingResultIterator(newGroupIterator(groups), services));
+            } finally {
+                groups = null;
+                chunk.close();
+            }
+            while (!pendingPartitions.isEmpty()) {
+                SpillPartition partition = pendingPartitions.removeFirst();
+                ResultIterator iterator;
+                try {
+                    iterator = partition.newIterator();
+                } catch (IOException e) {
+                    partition.delete();
+                    throw ServerUtil.parseServerException(e);
+                }
+                chunk = services.getMemoryManager().allocate(0);
+                try {
+                    try {
+                        groups = aggregate(iterator, partition.depth, chunk);
+                    } finally {
+                        iterator.close();
+                    }
+                    runs.add(new SpoolingResultIterator(newGroupIterator(groups), services));
+                } finally {
+                    groups = null;
+                    chunk.close();
+                }
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                for (SpillPartition partition : pendingPartitions) {
+                    partition.delete();
+                }
+                pendingPartitions.clear();
+                SQLCloseables.closeAllQuietly(runs);
+            }
+        }
+        ResultIterators iterators = new ResultIterators() {
+
+            @Override
+            public List<PeekingResultIterator> getIterators() throws SQLException {
+                return runs;
+            }
+
+            @Override
+            public int size() {
+                return runs.size();
+            }
+
+            @Override
+            public void explain(List<String> planSteps) {
+            }
+        };
+        // Each partition holds distinct groups, so the runs only need to be merged to keep them in key order
+        return isOrdered ? new MergeSortRowKeyResultIterator(iterators) : new ConcatResultIterator(iterators);
+    }
+    
+    @Override
+    public Tuple next() throws SQLException {
+        if (groupIterator == null) {
+            groupIterator = aggregateAll();
+        }
+        return groupIterator.next();
+    }
+    
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (groupIterator != null) {
+                groupIterator.close();
+            }
+        } finally {
+            if (groupChunk != null) {
+                groupChunk.close();
+                groupChunk = null;
+            }
+            try {
+                resultIterator.close();
+            } finally {
+                for (SpillPartition partition : pendingPartitions) {
+                    partition.delete();
+                }
+                pendingPartitions.clear();
+            }
+        }
+    }
+    
+    @Override
+    public void aggregate(Tuple result) {
+        Aggregator[] rowAggregators = aggregators.getAggregators();
+        aggregators.reset(rowAggregators);
+        aggregators.aggregate(rowAggregators, result);
+    }
+
+    @Override
+    public void explain(List<String> planSteps) {
+        resultIterator.explain(planSteps);
+        planSteps.add("CLIENT HASH AGGREGATE");
+    }
+}
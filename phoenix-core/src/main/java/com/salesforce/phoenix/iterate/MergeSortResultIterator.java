@@ -39,7 +39,8 @@ import com.salesforce.phoenix.util.SQLCloseables;
 /**
  * 
  * Base class for a ResultIterator that does a merge sort on the list of iterators
- * provided.
+ * provided. The iterators are kept in a binary min heap ordered by their next row,
+ * so that each row returned only costs O(log k) comparisons for k iterators.
  *
  * @author jtaylor
  * @since 1.2
@@ -48,6 +49,23 @@ public abstract class MergeSortResultIterator implements PeekingResultIterator {
     protected final ResultIterators resultIterators;
     protected final ImmutableBytesWritable tempPtr = new ImmutableBytesWritable();
     private List<PeekingResultIterator> iterators;
+    private HeapEntry[] heap;
+    private int heapSize;
+    // True if a row was returned from the iterator at the top of the heap, so that
+    // its next row must be peeked and the heap reordered before the next call.
+    private boolean isTopAdvanced;
+    
+    private static class HeapEntry {
+        private final PeekingResultIterator iterator;
+        private final int position;
+        private Tuple next;
+        
+        private HeapEntry(PeekingResultIterator iterator, int position, Tuple next) {
+            this.iterator = iterator;
+            this.position = position;
+            this.next = next;
+        }
+    }
     
     public MergeSortResultIterator(ResultIterators iterators) {
         this.resultIterators = iterators;
@@ -69,35 +87,82 @@ public abstract class MergeSortResultIterator implements PeekingResultIterator {
 
     abstract protected int compare(Tuple t1, Tuple t2);
     
-    private PeekingResultIterator minIterator() throws SQLException {
-        List<PeekingResultIterator> iterators = getIterators();
-        Tuple minResult = null;
-        PeekingResultIterator minIterator = EMPTY_ITERATOR;
-        for (int i = iterators.size()-1; i >= 0; i--) {
-            PeekingResultIterator iterator = iterators.get(i);
-            Tuple r = iterator.peek();
-            if (r != null) {
-                if (minResult == null || compare(r, minResult) < 0) {
-                    minResult = r;
-                    minIterator = iterator;
+    /**
+     * Rows that compare equal are returned from the iterator furthest down the list first.
+     */
+    private boolean isLess(HeapEntry entry1, HeapEntry entry2) {
+        int c = compare(entry1.next, entry2.next);
+        return c < 0 || (c == 0 && entry1.position > entry2.position);
+    }
+    
+    private void siftDown(int i) {
+        HeapEntry entry = heap[i];
+        int half = heapSize >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < heapSize && isLess(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!isLess(heap[child], entry)) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = entry;
+    }
+    
+    private void closeIterator(PeekingResultIterator iterator) throws SQLException {
+        iterator.close();
+        iterators.remove(iterator);
+    }
+    
+    private HeapEntry minEntry() throws SQLException {
+        if (heap == null) {
+            List<PeekingResultIterator> iterators = getIterators();
+            heap = new HeapEntry[iterators.size()];
+            for (int i = iterators.size()-1; i >= 0; i--) {
+                PeekingResultIterator iterator = iterators.get(i);
+                Tuple r = iterator.peek();
+                if (r != null) {
+                    heap[heapSize++] = new HeapEntry(iterator, i, r);
+                    continue;
                 }
-                continue;
+                iterator.close();
+                iterators.remove(i);
+            }
+            for (int i = (heapSize >>> 1) - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        } else if (isTopAdvanced) {
+            isTopAdvanced = false;
+            HeapEntry top = heap[0];
+            top.next = top.iterator.peek();
+            if (top.next == null) {
+                closeIterator(top.iterator);
+                heap[0] = heap[--heapSize];
+                heap[heapSize] = null;
+            }
+            if (heapSize > 0) {
+                siftDown(0);
             }
-            iterator.close();
-            iterators.remove(i);
         }
-        return minIterator;
+        return heapSize == 0 ? null : heap[0];
     }
     
     @Override
     public Tuple peek() throws SQLException {
-        PeekingResultIterator iterator = minIterator();
-        return iterator.peek();
+        HeapEntry entry = minEntry();
+        return entry == null ? null : entry.next;
     }
 
     @Override
     public Tuple next() throws SQLException {
-        PeekingResultIterator iterator = minIterator();
-        return iterator.next();
+        HeapEntry entry = minEntry();
+        if (entry == null) {
+            return null;
+        }
+        isTopAdvanced = true;
+        return entry.iterator.next();
     }
 }
@@ -29,15 +29,19 @@ package com.salesforce.phoenix.iterate;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.hadoop.hbase.HRegionLocation;
 import org.apache.hadoop.hbase.client.Scan;
@@ -62,8 +66,8 @@ import com.salesforce.phoenix.query.QueryServices;
 import com.salesforce.phoenix.schema.PTable;
 import com.salesforce.phoenix.schema.SaltingUtil;
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.ReadOnlyProps;
-import com.salesforce.phoenix.util.SQLCloseables;
 import com.salesforce.phoenix.util.ScanUtil;
 import com.salesforce.phoenix.util.SchemaUtil;
 import com.salesforce.phoenix.util.ServerUtil;
@@ -141,17 +145,50 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
     }
 
     /**
-     * Executes the scan in parallel across all regions, blocking until all scans are complete.
-     * @return the result iterators for the scan of each region
+     * Executes the scan in parallel across all regions without waiting for the scans to complete.
+     * Each returned iterator only blocks on the scan of its region when a row is first requested
+     * from it, so consumers may start returning rows as soon as the scan they need next is ready.
+     * @return the result iterators for the scan of each region, in row key order
      */
     @Override
     public List<PeekingResultIterator> getIterators() throws SQLException {
+        return getIterators(false);
+    }
+
+    /**
+     * Returns a view of the parallel scans whose iterators are handed out in the order in which
+     * the scans complete rather than in row key order. Only appropriate for consumers that do
+     * not depend on the order of the rows, for example an ungrouped aggregation.
+     */
+    public ResultIterators getCompletionOrderedIterators() {
+        return new ResultIterators() {
+
+            @Override
+            public List<PeekingResultIterator> getIterators() throws SQLException {
+                return ParallelIterators.this.getIterators(true);
+            }
+
+            @Override
+            public int size() {
+                return ParallelIterators.this.size();
+            }
+
+            @Override
+            public void explain(List<String> planSteps) {
+                ParallelIterators.this.explain(planSteps);
+            }
+        };
+    }
+
+    private List<PeekingResultIterator> getIterators(boolean inCompletionOrder) throws SQLException {
         boolean success = false;
         final ConnectionQueryServices services = context.getConnection().getQueryServices();
         ReadOnlyProps props = services.getProps();
         int numSplits = splits.size();
+        final int timeoutMs = props.getInt(QueryServices.THREAD_TIMEOUT_MS_ATTRIB, DEFAULT_THREAD_TIMEOUT_MS);
         List<PeekingResultIterator> iterators = new ArrayList<PeekingResultIterator>(numSplits);
-        List<Pair<byte[],Future<PeekingResultIterator>>> futures = new ArrayList<Pair<byte[],Future<PeekingResultIterator>>>(numSplits);
+        List<Pair<byte[],Integer>> scanIndexes = new ArrayList<Pair<byte[],Integer>>(numSplits);
+        final ParallelScans scans = new ParallelScans(numSplits, timeoutMs);
         final UUID scanId = UUID.randomUUID();
         try {
             ExecutorService executor = services.getExecutor();
@@ -172,18 +209,25 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
                 if (ScanUtil.intersectScanRange(splitScan, split.getLowerRange(), split.getUpperRange(), this.context.getScanRanges().useSkipScanFilter())) {
                     // Delay the swapping of start/stop row until row so we don't muck with the intersect logic
                     ScanUtil.swapStartStopRowIfReversed(splitScan);
+                    final int scanIndex = scans.size();
                     Future<PeekingResultIterator> future =
                         executor.submit(new JobCallable<PeekingResultIterator>() {
 
                         @Override
                         public PeekingResultIterator call() throws Exception {
-                            // TODO: different HTableInterfaces for each thread or the same is better?
-                        	long startTime = System.currentTimeMillis();
-                            ResultIterator scanner = new TableResultIterator(context, tableRef, splitScan);
-                            if (logger.isDebugEnabled()) {
-                            	logger.debug("Id: " + scanId + ", Time: " + (System.currentTimeMillis() - startTime) + "ms, Scan: " + splitScan);
+                            PeekingResultIterator iterator = null;
+                            try {
+                                // TODO: different HTableInterfaces for each thread or the same is better?
+                                long startTime = System.currentTimeMillis();
+                                ResultIterator scanner = new TableResultIterator(context, tableRef, splitScan);
+                                if (logger.isDebugEnabled()) {
+                                    logger.debug("Id: " + scanId + ", Time: " + (System.currentTimeMillis() - startTime) + "ms, Scan: " + splitScan);
+                                }
+                                iterator = iteratorFactory.newIterator(scanner);
+                                return iterator;
+                            } finally {
+                                scans.scanCompleted(scanIndex, iterator);
                             }
-                            return iteratorFactory.newIterator(scanner);
                         }
 
                         /**
@@ -196,22 +240,28 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
                             return ParallelIterators.this;
                         }
                     });
-                    futures.add(new Pair<byte[],Future<PeekingResultIterator>>(split.getLowerRange(),future));
+                    scans.add(future);
+                    scanIndexes.add(new Pair<byte[],Integer>(split.getLowerRange(),scanIndex));
                 }
             }
 
-            int timeoutMs = props.getInt(QueryServices.THREAD_TIMEOUT_MS_ATTRIB, DEFAULT_THREAD_TIMEOUT_MS);
-            final int factor = ScanUtil.isReversed(this.context.getScan()) ? -1 : 1;
-            // Sort futures by row key so that we have a predicatble order we're getting rows back for scans.
-            // We're going to wait here until they're finished anyway and this makes testing much easier.
-            Collections.sort(futures, new Comparator<Pair<byte[],Future<PeekingResultIterator>>>() {
-                @Override
-                public int compare(Pair<byte[], Future<PeekingResultIterator>> o1, Pair<byte[], Future<PeekingResultIterator>> o2) {
-                    return factor * Bytes.compareTo(o1.getFirst(), o2.getFirst());
+            if (inCompletionOrder) {
+                for (int i = 0; i < scans.size(); i++) {
+                    iterators.add(scans.newCompletionOrderedIterator());
+                }
+            } else {
+                final int factor = ScanUtil.isReversed(this.context.getScan()) ? -1 : 1;
+                // Sort scans by row key so that we have a predicatble order we're getting rows back for scans.
+                // Consumers wait on each scan only once they get to it, so scans further along may complete in the meantime.
+                Collections.sort(scanIndexes, new Comparator<Pair<byte[],Integer>>() {
+                    @Override
+                    public int compare(Pair<byte[],Integer> o1, Pair<byte[],Integer> o2) {
+                        return factor * Bytes.compareTo(o1.getFirst(), o2.getFirst());
+                    }
+                });
+                for (Pair<byte[],Integer> pair : scanIndexes) {
+                    iterators.add(scans.newIterator(pair.getSecond()));
                 }
-            });
-            for (Pair<byte[],Future<PeekingResultIterator>> future : futures) {
-                iterators.add(future.getSecond().get(timeoutMs, TimeUnit.MILLISECONDS));
             }
 
             success = true;
@@ -220,11 +270,240 @@ public class ParallelIterators extends ExplainTable implements ResultIterators {
             throw ServerUtil.parseServerException(e);
         } finally {
             if (!success) {
-                SQLCloseables.closeAllQuietly(iterators);
+                // Close the scans already submitted once they complete, without waiting for them.
                 // Don't call cancel, as it causes the HConnection to get into a funk
-//                for (Pair<byte[],Future<PeekingResultIterator>> future : futures) {
-//                    future.getSecond().cancel(true);
-//                }
+                scans.close();
+            }
+        }
+    }
+
+    /**
+     * The scans submitted in parallel for a query. Each scan is handed out as an iterator that only
+     * waits for the scan when a row is first requested from it, either for a given scan or for the
+     * next scan to complete. All waits share a single deadline, set when the scans are submitted,
+     * so that consuming N scans doesn't wait for up to N times the timeout. Closing an iterator
+     * whose scan hasn't been waited for doesn't block: the scan is closed as soon as it completes.
+     */
+    static class ParallelScans {
+        private final long deadline;
+        private final int timeoutMs;
+        private final List<Future<PeekingResultIterator>> futures;
+        // Indexes into futures, in the order in which the scans complete
+        private final BlockingQueue<Integer> completedScans = new LinkedBlockingQueue<Integer>();
+        // Guarded by this
+        private final List<PeekingResultIterator> results;
+        private final BitSet isClaimed = new BitSet();
+        private final BitSet isAbandoned = new BitSet();
+        
+        ParallelScans(int expectedScans, int timeoutMs) {
+            this.timeoutMs = timeoutMs;
+            this.deadline = System.currentTimeMillis() + timeoutMs;
+            this.futures = new ArrayList<Future<PeekingResultIterator>>(expectedScans);
+            this.results = new ArrayList<PeekingResultIterator>(expectedScans);
+        }
+        
+        int size() {
+            return futures.size();
+        }
+        
+        /**
+         * Add the future of a scan, whose index is the number of scans added before it
+         */
+        synchronized void add(Future<PeekingResultIterator> future) {
+            futures.add(future);
+            if (results.size() < futures.size()) {
+                results.add(null);
+            }
+        }
+        
+        /**
+         * Called by the scan of the given index when it completes, with its iterator or null if it failed
+         */
+        void scanCompleted(int index, PeekingResultIterator iterator) {
+            boolean closeIterator;
+            synchronized (this) {
+                closeIterator = isAbandoned.get(index);
+                if (!closeIterator) {
+                    // The scan may complete before its future is added
+                    while (results.size() <= index) {
+                        results.add(null);
+                    }
+                    results.set(index, iterator);
+                }
+            }
+            completedScans.add(index);
+            if (closeIterator) {
+                closeQuietly(iterator);
+            }
+        }
+        
+        private long getRemainingMs() {
+            return Math.max(0, deadline - System.currentTimeMillis());
+        }
+        
+        private PeekingResultIterator waitForScan(int index) throws Exception {
+            PeekingResultIterator iterator = futures.get(index).get(getRemainingMs(), TimeUnit.MILLISECONDS);
+            synchronized (this) {
+                results.set(index, null);
+            }
+            return iterator;
+        }
+        
+        /**
+         * Close the iterator of a scan that won't be consumed, now if the scan has completed
+         * or otherwise as soon as it completes
+         */
+        private void abandon(int index) {
+            PeekingResultIterator iterator;
+            synchronized (this) {
+                isClaimed.set(index);
+                isAbandoned.set(index);
+                iterator = index < results.size() ? results.set(index, null) : null;
+            }
+            closeQuietly(iterator);
+        }
+        
+        private static void closeQuietly(PeekingResultIterator iterator) {
+            if (iterator != null) {
+                try {
+                    iterator.close();
+                } catch (Exception e) {
+                    logger.warn("Unable to close parallel scan", e);
+                }
+            }
+        }
+        
+        /**
+         * Abandon every scan that hasn't been handed out yet
+         */
+        void close() {
+            List<Integer> unclaimed = new ArrayList<Integer>();
+            synchronized (this) {
+                for (int i = isClaimed.nextClearBit(0); i < futures.size(); i = isClaimed.nextClearBit(i + 1)) {
+                    isClaimed.set(i);
+                    unclaimed.add(i);
+                }
+            }
+            for (int index : unclaimed) {
+                abandon(index);
+            }
+        }
+        
+        /**
+         * @return an iterator over the scan of the given index
+         */
+        PeekingResultIterator newIterator(final int index) {
+            synchronized (this) {
+                isClaimed.set(index);
+            }
+            return new DeferredResultIterator() {
+                @Override
+                protected PeekingResultIterator waitForIterator() throws Exception {
+                    return waitForScan(index);
+                }
+
+                @Override
+                protected void abandon() {
+                    ParallelScans.this.abandon(index);
+                }
+            };
+        }
+        
+        /**
+         * @return an iterator over whichever scan completes next among those not yet handed out
+         */
+        PeekingResultIterator newCompletionOrderedIterator() {
+            return new DeferredResultIterator() {
+                @Override
+                protected PeekingResultIterator waitForIterator() throws Exception {
+                    while (true) {
+                        Integer index = completedScans.poll(getRemainingMs(), TimeUnit.MILLISECONDS);
+                        if (index == null) {
+                            throw new TimeoutException("Timed out after " + timeoutMs + "ms waiting for parallel scan to complete");
+                        }
+                        synchronized (ParallelScans.this) {
+                            // Skip the scans abandoned by iterators closed without being consumed
+                            if (isClaimed.get(index)) {
+                                continue;
+                            }
+                            isClaimed.set(index);
+                        }
+                        return waitForScan(index);
+                    }
+                }
+
+                @Override
+                protected void abandon() {
+                    int index;
+                    synchronized (ParallelScans.this) {
+                        index = isClaimed.nextClearBit(0);
+                        if (index >= futures.size()) {
+                            return;
+                        }
+                        // Claim it here, so that no other iterator waits for it in the meantime
+                        isClaimed.set(index);
+                    }
+                    ParallelScans.this.abandon(index);
+                }
+            };
+        }
+    }
+
+    /**
+     * Iterator over the scan of a single split that only waits for the scan to be ready
+     * when a row is first requested from it.
+     */
+    private static abstract class DeferredResultIterator implements PeekingResultIterator {
+        private PeekingResultIterator delegate;
+        private boolean isClosed;
+        
+        protected abstract PeekingResultIterator waitForIterator() throws Exception;
+        
+        /**
+         * Give up on a scan that was never waited for, without blocking
+         */
+        protected abstract void abandon();
+        
+        private PeekingResultIterator getDelegate() throws SQLException {
+            if (delegate == null) {
+                try {
+                    delegate = waitForIterator();
+                } catch (Exception e) {
+                    delegate = EMPTY_ITERATOR;
+                    throw ServerUtil.parseServerException(e);
+                }
+            }
+            return delegate;
+        }
+        
+        @Override
+        public Tuple peek() throws SQLException {
+            return getDelegate().peek();
+        }
+
+        @Override
+        public Tuple next() throws SQLException {
+            return getDelegate().next();
+        }
+
+        @Override
+        public void close() throws SQLException {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            if (delegate == null) {
+                delegate = EMPTY_ITERATOR;
+                abandon();
+            } else {
+                delegate.close();
+            }
+        }
+
+        @Override
+        public void explain(List<String> planSteps) {
+            if (delegate != null) {
+                delegate.explain(planSteps);
             }
         }
     }
@@ -30,6 +30,7 @@ package com.salesforce.phoenix.iterate;
 import java.io.*;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.commons.io.output.DeferredFileOutputStream;
 import org.apache.hadoop.hbase.client.Result;
@@ -56,6 +57,9 @@ import com.salesforce.phoenix.util.*;
  * @since 0.1
  */
 public class SpoolingResultIterator implements PeekingResultIterator {
+    // Used to round robin spool files across the configured spool directories
+    private static final AtomicInteger SPOOL_FILE_COUNT = new AtomicInteger();
+    
     private final PeekingResultIterator spoolFrom;
     
     public static class SpoolingResultIteratorFactory implements ParallelIteratorFactory {
@@ -74,7 +78,26 @@ public class SpoolingResultIterator implements PeekingResultIterator {
     public SpoolingResultIterator(ResultIterator scanner, QueryServices services) throws SQLException {
         this (scanner, services.getMemoryManager(), 
         		services.getProps().getInt(QueryServices.SPOOL_THRESHOLD_BYTES_ATTRIB, QueryServicesOptions.DEFAULT_SPOOL_THRESHOLD_BYTES),
-        		services.getProps().getLong(QueryServices.MAX_SPOOL_TO_DISK_BYTES_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SPOOL_TO_DISK_BYTES));
+        		services.getProps().getLong(QueryServices.MAX_SPOOL_TO_DISK_BYTES_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SPOOL_TO_DISK_BYTES),
+        		getSpoolDirectory(services.getProps().get(QueryServices.SPOOL_DIRECTORIES_ATTRIB)));
+    }
+    
+    /**
+     * Get the directory in which to create the next spool file.
+     * @param spoolDirectories comma separated list of directories or null to use the default temp directory
+     * @return the directory or null to use the default temp directory
+     */
+    public static File getSpoolDirectory(String spoolDirectories) {
+        if (spoolDirectories == null || spoolDirectories.trim().isEmpty()) {
+            return null;
+        }
+        String[] dirs = spoolDirectories.split(",");
+        int index = (SPOOL_FILE_COUNT.getAndIncrement() & Integer.MAX_VALUE) % dirs.length;
+        return new File(dirs[index].trim());
+    }
+    
+    SpoolingResultIterator(ResultIterator scanner, MemoryManager mm, final int thresholdBytes, final long maxSpoolToDisk) throws SQLException {
+        this(scanner, mm, thresholdBytes, maxSpoolToDisk, null);
     }
     
     /**
@@ -84,9 +107,10 @@ public class SpoolingResultIterator implements PeekingResultIterator {
     * @param mm memory manager tracking memory usage across threads.
     * @param thresholdBytes the requested threshold.  Will be dialed down if memory usage (as determined by
     *  the memory manager) is exceeded.
+    * @param spoolDirectory the directory in which to spool or null to use the default temp directory
     * @throws SQLException
     */
-    SpoolingResultIterator(ResultIterator scanner, MemoryManager mm, final int thresholdBytes, final long maxSpoolToDisk) throws SQLException {
+    SpoolingResultIterator(ResultIterator scanner, MemoryManager mm, final int thresholdBytes, final long maxSpoolToDisk, File spoolDirectory) throws SQLException {
         boolean success = false;
         boolean usedOnDiskIterator = false;
         final MemoryChunk chunk = mm.allocate(0, thresholdBytes);
@@ -94,7 +118,7 @@ public class SpoolingResultIterator implements PeekingResultIterator {
         try {
             // Can't be bigger than int, since it's the max of the above allocation
             int size = (int)chunk.getSize();
-            tempFile = File.createTempFile("ResultSpooler",".bin");
+            tempFile = File.createTempFile("ResultSpooler",".bin",spoolDirectory);
             DeferredFileOutputStream spoolTo = new DeferredFileOutputStream(size, tempFile) {
                 @Override
                 protected void thresholdReached() throws IOException {
@@ -102,7 +126,7 @@ public class SpoolingResultIterator implements PeekingResultIterator {
                     chunk.close();
                 }
             };
-            DataOutputStream out = new DataOutputStream(spoolTo);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(spoolTo));
             final long maxBytesAllowed = maxSpoolToDisk == -1 ? 
             		Long.MAX_VALUE : thresholdBytes + maxSpoolToDisk;
             long bytesWritten = 0L;
@@ -115,7 +139,7 @@ public class SpoolingResultIterator implements PeekingResultIterator {
                 }
                 maxSize = Math.max(length, maxSize);
             }
-            spoolTo.close();
+            out.close();
             if (spoolTo.isInMemory()) {
                 byte[] data = spoolTo.getData();
                 chunk.resize(data.length);
@@ -266,20 +290,10 @@ public class SpoolingResultIterator implements PeekingResultIterator {
                 reachedEnd();
                 return next;
             }
-            int totalBytesRead = 0;
-            int offset = 0;
             // Alternate between buffers so that the current one is not affected by advancing
             bufferIndex = (bufferIndex + 1) % 2;
             byte[] buffer = buffers [bufferIndex];
-            while(totalBytesRead < length) {
-                int bytesRead = spoolFrom.read(buffer, offset, length);
-                if (bytesRead == -1) {
-                    reachedEnd();
-                    return next;
-                }
-                offset += bytesRead;
-                totalBytesRead += bytesRead;
-            }
+            spoolFrom.readFully(buffer, 0, length);
             next = new ResultTuple(new Result(new ImmutableBytesWritable(buffer,0,length)));
             return next;
         }
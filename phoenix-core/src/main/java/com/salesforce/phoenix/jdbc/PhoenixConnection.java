@@ -57,6 +57,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
 
 import javax.annotation.Nullable;
 
@@ -68,6 +69,7 @@ import com.salesforce.phoenix.exception.SQLExceptionCode;
 import com.salesforce.phoenix.exception.SQLExceptionInfo;
 import com.salesforce.phoenix.execute.MutationState;
 import com.salesforce.phoenix.jdbc.PhoenixStatement.PhoenixStatementParser;
+import com.salesforce.phoenix.optimize.QueryPlanCache;
 import com.salesforce.phoenix.query.ConnectionQueryServices;
 import com.salesforce.phoenix.query.DelegateConnectionQueryServices;
 import com.salesforce.phoenix.query.MetaDataMutated;
@@ -81,6 +83,7 @@ import com.salesforce.phoenix.schema.PMetaData;
 import com.salesforce.phoenix.schema.PMetaDataImpl;
 import com.salesforce.phoenix.schema.PName;
 import com.salesforce.phoenix.schema.PTable;
+import com.salesforce.phoenix.schema.TableNotFoundException;
 import com.salesforce.phoenix.util.DateUtil;
 import com.salesforce.phoenix.util.JDBCUtil;
 import com.salesforce.phoenix.util.PhoenixRuntime;
@@ -115,6 +118,7 @@ public class PhoenixConnection implements Connection, com.salesforce.phoenix.jdb
     private PMetaData metaData;
     private final PName tenantId;
     private final String datePattern;
+    private final QueryPlanCache queryPlanCache;
     
     private boolean isClosed = false;
     
@@ -169,6 +173,8 @@ public class PhoenixConnection implements Connection, com.salesforce.phoenix.jdb
         formatters[PDataType.TIME.ordinal()] = dateTimeFormat;
         this.metaData = PMetaDataImpl.pruneMultiTenant(metaData);
         this.mutationState = new MutationState(maxSize, this);
+        int queryPlanCacheSize = this.services.getProps().getInt(QueryServices.QUERY_PLAN_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_QUERY_PLAN_CACHE_SIZE);
+        this.queryPlanCache = queryPlanCacheSize <= 0 ? null : new QueryPlanCache(queryPlanCacheSize);
         services.addConnection(this);
     }
 
@@ -265,6 +271,14 @@ public class PhoenixConnection implements Connection, com.salesforce.phoenix.jdb
         return metaData;
     }
 
+    /**
+     * @return the cache of the tables chosen by the optimizer for the queries of this
+     * connection or null if the cache is disabled.
+     */
+    public @Nullable QueryPlanCache getQueryPlanCache() {
+        return queryPlanCache;
+    }
+
     public MutationState getMutationState() {
         return mutationState;
     }
@@ -312,7 +326,11 @@ public class PhoenixConnection implements Connection, com.salesforce.phoenix.jdb
         }
         try {
             try {
-                closeStatements();
+                try {
+                    closeStatements();
+                } finally {
+                    mutationState.close();
+                }
             } finally {
                 services.removeConnection(this);
             }
@@ -326,6 +344,15 @@ public class PhoenixConnection implements Connection, com.salesforce.phoenix.jdb
         mutationState.commit();
     }
 
+    /**
+     * Start committing the uncommitted state of the connection in the background, so that the
+     * connection may be used to build up the next commit while this one is sent.
+     * @see MutationState#commitAsync()
+     */
+    public Future<Void> commitAsync() throws SQLException {
+        return mutationState.commitAsync();
+    }
+
     @Override
     public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
     	PDataType arrayPrimitiveType = PDataType.fromSqlTypeName(typeName);
@@ -654,7 +681,11 @@ public class PhoenixConnection implements Connection, com.salesforce.phoenix.jdb
 
     @Override
     public PMetaData removeTable(String tableName) throws SQLException {
-        metaData = metaData.removeTable(tableName);
+        try {
+            metaData = metaData.removeTable(tableName);
+        } catch (TableNotFoundException e) {
+            // Not cached (for example, evicted), but it may still be cached by connectionQueryServices
+        }
         //Cascade through to connectionQueryServices too
         getQueryServices().removeTable(tableName);
         return metaData;
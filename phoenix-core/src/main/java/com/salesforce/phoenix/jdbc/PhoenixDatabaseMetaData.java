@@ -202,6 +202,18 @@ public class PhoenixDatabaseMetaData implements DatabaseMetaData, com.salesforce
     public static final String CACHE_SIZE = "CACHE_SIZE";
     public static final byte[] CACHE_SIZE_BYTES = Bytes.toBytes(CACHE_SIZE);
     
+    public static final String TYPE_STATS = "STATS";
+    public static final byte[] STATS_FAMILY_BYTES = QueryConstants.DEFAULT_COLUMN_FAMILY_BYTES;
+    public static final String STATS_TABLE_NAME = TYPE_SCHEMA + ".\"" + TYPE_STATS + "\"";
+    public static final byte[] STATS_TABLE_NAME_BYTES = SchemaUtil.getTableNameAsBytes(TYPE_SCHEMA, TYPE_STATS);
+    public static final String PHYSICAL_NAME = "PHYSICAL_NAME";
+    public static final String REGION_NAME = "REGION_NAME";
+    public static final String STATS_COLUMN_FAMILY = "COLUMN_FAMILY";
+    public static final String GUIDE_POSTS = "GUIDE_POSTS";
+    public static final byte[] GUIDE_POSTS_BYTES = Bytes.toBytes(GUIDE_POSTS);
+    public static final String CHUNK_BYTE_COUNTS = "CHUNK_BYTE_COUNTS";
+    public static final byte[] CHUNK_BYTE_COUNTS_BYTES = Bytes.toBytes(CHUNK_BYTE_COUNTS);
+    
     private final PhoenixConnection connection;
     private final ResultSet emptyResultSet;
 
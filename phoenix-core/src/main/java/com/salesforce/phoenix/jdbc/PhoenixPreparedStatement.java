@@ -37,13 +37,17 @@ import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.List;
 
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.compile.BatchMutationPlan;
 import com.salesforce.phoenix.compile.BindManager;
+import com.salesforce.phoenix.compile.MutationPlan;
 import com.salesforce.phoenix.compile.QueryPlan;
 import com.salesforce.phoenix.compile.StatementPlan;
 import com.salesforce.phoenix.exception.SQLExceptionCode;
@@ -67,6 +71,7 @@ import com.salesforce.phoenix.util.SQLCloseable;
  */
 public class PhoenixPreparedStatement extends PhoenixStatement implements PreparedStatement, SQLCloseable {
     private final List<Object> parameters;
+    private final List<List<Object>> batch = Lists.newArrayList();
     private final ExecutableStatement statement;
 
     private final String query;
@@ -91,9 +96,64 @@ public class PhoenixPreparedStatement extends PhoenixStatement implements Prepar
 
     @Override
     public void addBatch() throws SQLException {
+        throwIfUnboundParameters();
+        batch.add(new ArrayList<Object>(parameters));
+    }
+
+    @Override
+    public void addBatch(String sql) throws SQLException {
         throw new SQLFeatureNotSupportedException();
     }
 
+    @Override
+    public void clearBatch() throws SQLException {
+        batch.clear();
+    }
+
+    /**
+     * Execute the batched sets of parameters. For an UPSERT VALUES whose binds each supply a
+     * value, the statement is compiled only once, and all rows are joined into the connection's
+     * mutation state at the same time. Otherwise, the statement is executed once per set.
+     */
+    @Override
+    public int[] executeBatch() throws SQLException {
+        if (batch.isEmpty()) {
+            return new int[0];
+        }
+        int[] updateCounts = new int[batch.size()];
+        List<Object> currentParameters = new ArrayList<Object>(parameters);
+        int i = 0;
+        try {
+            if (statement instanceof MutatableStatement) {
+                // Compile with the first set of parameters, so that they may be type checked
+                Collections.copy(parameters, batch.get(0));
+                MutationPlan plan = ((MutatableStatement)statement).compilePlan();
+                if (plan instanceof BatchMutationPlan) {
+                    executeMutation(((BatchMutationPlan)plan).execute(batch));
+                    Arrays.fill(updateCounts, 1);
+                    return updateCounts;
+                }
+            }
+            for (List<Object> batchParameters : batch) {
+                Collections.copy(parameters, batchParameters);
+                updateCounts[i] = executeUpdate();
+                i++;
+            }
+            return updateCounts;
+        } catch (SQLException e) {
+            throw newBatchUpdateException(e, Arrays.copyOf(updateCounts, i));
+        } catch (RuntimeException e) {
+            // Expression.evaluate can't throw SQLException, so a failure evaluating a batched value is wrapped
+            if (e.getCause() instanceof SQLException) {
+                throw newBatchUpdateException((SQLException) e.getCause(), Arrays.copyOf(updateCounts, i));
+            }
+            throw e;
+        } finally {
+            Collections.copy(parameters, currentParameters);
+            batch.clear();
+        }
+    }
+
     @Override
     public void clearParameters() throws SQLException {
         Collections.fill(parameters, BindManager.UNBOUND_PARAMETER);
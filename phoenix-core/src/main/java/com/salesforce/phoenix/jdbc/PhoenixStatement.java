@@ -29,6 +29,7 @@ package com.salesforce.phoenix.jdbc;
 
 import java.io.IOException;
 import java.io.Reader;
+import java.sql.BatchUpdateException;
 import java.sql.ParameterMetaData;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -68,6 +69,7 @@ import com.salesforce.phoenix.execute.MutationState;
 import com.salesforce.phoenix.expression.RowKeyColumnExpression;
 import com.salesforce.phoenix.iterate.MaterializedResultIterator;
 import com.salesforce.phoenix.iterate.ResultIterator;
+import com.salesforce.phoenix.optimize.QueryPlanCache;
 import com.salesforce.phoenix.parse.AddColumnStatement;
 import com.salesforce.phoenix.parse.AliasedNode;
 import com.salesforce.phoenix.parse.AlterIndexStatement;
@@ -161,6 +163,7 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
     private boolean isClosed = false;
     private ResultSetMetaData resultSetMetaData;
     private int maxRows;
+    private final List<String> batch = Lists.newArrayList();
     
     
     public PhoenixStatement(PhoenixConnection connection) {
@@ -190,6 +193,8 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
     }
     
     private class ExecutableSelectStatement extends SelectStatement implements ExecutableStatement {
+        private String sql; // Text of the statement, used to look up the plan choice cached on the connection
+        
         private ExecutableSelectStatement(List<? extends TableNode> from, HintNode hint, boolean isDistinct, List<AliasedNode> select, ParseNode where,
                 List<ParseNode> groupBy, ParseNode having, List<OrderByNode> orderBy, LimitNode limit, int bindCount, boolean isAggregate) {
             super(from, hint, isDistinct, select, where, groupBy, having, orderBy, limit, bindCount, isAggregate);
@@ -219,7 +224,8 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
 
         @Override
         public QueryPlan optimizePlan() throws SQLException {
-            return lastQueryPlan = connection.getQueryServices().getOptimizer().optimize(this, PhoenixStatement.this);
+            String planCacheKey = sql == null ? null : QueryPlanCache.newKey(sql, getParameters(), getMaxRows());
+            return lastQueryPlan = connection.getQueryServices().getOptimizer().optimize(this, PhoenixStatement.this, planCacheKey);
         }
         
         @Override
@@ -242,7 +248,10 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
         // Note that the upsert select statements will need to commit any open transaction here,
         // since they'd update data directly from coprocessors, and should thus operate on
         // the latest state
-        MutationState state = plan.execute();
+        return executeMutation(plan.execute());
+    }
+    
+    protected int executeMutation(MutationState state) throws SQLException {
         connection.getMutationState().join(state);
         if (connection.getAutoCommit()) {
             connection.commit();
@@ -982,7 +991,7 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
     
     @Override
     public void addBatch(String sql) throws SQLException {
-        throw new SQLFeatureNotSupportedException();
+        batch.add(sql);
     }
 
     @Override
@@ -992,7 +1001,7 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
 
     @Override
     public void clearBatch() throws SQLException {
-        throw new SQLFeatureNotSupportedException();
+        batch.clear();
     }
 
     @Override
@@ -1029,6 +1038,9 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
             throw ServerUtil.parseServerException(e);
         }
         ExecutableStatement statement = parser.parseStatement();
+        if (statement instanceof ExecutableSelectStatement) {
+            ((ExecutableSelectStatement)statement).sql = sql;
+        }
         return statement;
     }
     
@@ -1072,7 +1084,25 @@ public class PhoenixStatement implements Statement, SQLCloseable, com.salesforce
 
     @Override
     public int[] executeBatch() throws SQLException {
-        throw new SQLFeatureNotSupportedException();
+        int[] updateCounts = new int[batch.size()];
+        int i = 0;
+        try {
+            for (String sql : batch) {
+                updateCounts[i] = executeUpdate(sql);
+                i++;
+            }
+            return updateCounts;
+        } catch (SQLException e) {
+            throw newBatchUpdateException(e, Arrays.copyOf(updateCounts, i));
+        } finally {
+            batch.clear();
+        }
+    }
+    
+    protected static BatchUpdateException newBatchUpdateException(SQLException e, int[] updateCounts) {
+        BatchUpdateException batchException = new BatchUpdateException(e.getMessage(), e.getSQLState(), e.getErrorCode(), updateCounts);
+        batchException.initCause(e);
+        return batchException;
     }
 
     @Override
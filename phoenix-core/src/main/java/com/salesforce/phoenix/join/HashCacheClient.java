@@ -31,12 +31,14 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.WritableUtils;
 import org.xerial.snappy.Snappy;
 
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
 import com.salesforce.phoenix.cache.ServerCacheClient;
 import com.salesforce.phoenix.cache.ServerCacheClient.ServerCache;
 import com.salesforce.phoenix.compile.ScanRanges;
@@ -48,6 +50,7 @@ import com.salesforce.phoenix.query.QueryServices;
 import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.TableRef;
 import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.ByteUtil;
 import com.salesforce.phoenix.util.ServerUtil;
 import com.salesforce.phoenix.util.TrustedByteArrayOutputStream;
 import com.salesforce.phoenix.util.TupleUtil;
@@ -81,15 +84,29 @@ public class HashCacheClient  {
      * size
      */
     public ServerCache addHashCache(ScanRanges keyRanges, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions, TableRef cacheUsingTableRef) throws SQLException {
+        return addHashCache(keyRanges, iterator, estimatedSize, onExpressions, cacheUsingTableRef, null, 0);
+    }
+    
+    /**
+     * Send the results of scanning through the scanner to all region servers, as above,
+     * while collecting the distinct hash keys of the cache.
+     * @param hashKeys set to which the hash keys are added, or null if they are not needed.
+     * No more than maxHashKeys + 1 keys are added, so that the caller can tell whether the
+     * collected keys are complete.
+     * @param maxHashKeys the maximum number of hash keys to collect
+     */
+    public ServerCache addHashCache(ScanRanges keyRanges, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions, TableRef cacheUsingTableRef,
+            Set<ImmutableBytesPtr> hashKeys, int maxHashKeys) throws SQLException {
         /**
          * Serialize and compress hashCacheTable
          */
         ImmutableBytesWritable ptr = new ImmutableBytesWritable();
-        serialize(ptr, iterator, estimatedSize, onExpressions);
+        serialize(ptr, iterator, estimatedSize, onExpressions, hashKeys, maxHashKeys);
         return serverCache.addServerCache(keyRanges, ptr, new HashCacheFactory(), cacheUsingTableRef);
     }
     
-    private void serialize(ImmutableBytesWritable ptr, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions) throws SQLException {
+    private void serialize(ImmutableBytesWritable ptr, ResultIterator iterator, long estimatedSize, List<Expression> onExpressions,
+            Set<ImmutableBytesPtr> hashKeys, int maxHashKeys) throws SQLException {
         long maxSize = serverCache.getConnection().getQueryServices().getProps().getLong(QueryServices.MAX_SERVER_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_SERVER_CACHE_SIZE);
         estimatedSize = Math.min(estimatedSize, maxSize);
         if (estimatedSize > Integer.MAX_VALUE) {
@@ -110,6 +127,10 @@ public class HashCacheClient  {
             out.writeInt(nRows); // In the end will be replaced with total number of rows            
             for (Tuple result = iterator.next(); result != null; result = iterator.next()) {
                 TupleUtil.write(result, out);
+                if (hashKeys != null && hashKeys.size() <= maxHashKeys) {
+                    ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(result, onExpressions);
+                    hashKeys.add(new ImmutableBytesPtr(ByteUtil.copyKeyBytesIfNecessary(key)));
+                }
                 if (baOut.size() > maxSize) {
                     throw new MaxServerCacheSizeExceededException("Size of hash cache (" + baOut.size() + " bytes) exceeds the maximum allowed size (" + maxSize + " bytes)");
                 }
@@ -74,10 +74,28 @@ public class HashCacheFactory implements ServerCacheFactory {
         }
     }
 
+    /**
+     * Hash cache based on open addressing over primitive arrays. The serialized rows are kept in
+     * the uncompressed cache bytes, grouped by join key, and are only wrapped in a {@link Tuple}
+     * when they're looked up. This keeps the heap usage close to the size of the cache bytes
+     * instead of allocating several objects per row.
+     */
     @Immutable
-    private class HashCacheImpl implements HashCache {
-        private final Map<ImmutableBytesPtr,List<Tuple>> hashCache;
+    private static class HashCacheImpl implements HashCache {
+        private static final int EMPTY_SLOT = -1;
         private final MemoryChunk memoryChunk;
+        private final byte[] rowBytes;
+        // Offset and length of each row into rowBytes, ordered by join key
+        private final int[] rowOffsets;
+        private final int[] rowLengths;
+        // Index into rowOffsets of the first row of each join key, plus one entry for the end
+        private final int[] keyRowStarts;
+        // Concatenated join key bytes, with the start offset of each join key, plus one entry for the end
+        private final byte[] keyBytes;
+        private final int[] keyOffsets;
+        private final int[] keyHashes;
+        // Open addressing table with linear probing, containing the index of the join key in each slot
+        private final int[] slots;
         
         private HashCacheImpl(byte[] hashCacheBytes, MemoryChunk memoryChunk) {
             try {
@@ -97,30 +115,93 @@ public class HashCacheFactory implements ServerCacheFactory {
                 int exprSize = dataInput.readInt();
                 offset += exprSize;
                 int nRows = dataInput.readInt();
-                int estimatedSize = SizedUtil.sizeOfMap(nRows, SizedUtil.IMMUTABLE_BYTES_WRITABLE_SIZE, SizedUtil.RESULT_SIZE) + hashCacheBytes.length;
+                int capacity = Integer.highestOneBit(Math.max(1, nRows * 2 - 1)) << 1;
+                // Nine int arrays sized by the number of rows are live at once while building
+                long estimatedSize = hashCacheBytes.length + ((long)nRows * 9 + capacity + 2) * Bytes.SIZEOF_INT;
                 this.memoryChunk.resize(estimatedSize);
-                HashMap<ImmutableBytesPtr,List<Tuple>> hashCacheMap = new HashMap<ImmutableBytesPtr,List<Tuple>>(nRows * 5 / 4);
                 offset += Bytes.SIZEOF_INT;
-                // Build Map with evaluated hash key as key and row as value
+                int[] slots = new int[capacity];
+                Arrays.fill(slots, EMPTY_SLOT);
+                int[] unsortedRowOffsets = new int[nRows];
+                int[] unsortedRowLengths = new int[nRows];
+                int[] rowKeys = new int[nRows];
+                int[] keyRowCounts = new int[nRows];
+                int[] keyHashes = new int[nRows];
+                int[] keyOffsets = new int[nRows + 1];
+                TrustedByteArrayOutputStream keyOutput = new TrustedByteArrayOutputStream(nRows * Bytes.SIZEOF_LONG);
+                int nKeys = 0;
+                // Assign each row to its join key, adding the join key to the table if it's new
                 for (int i = 0; i < nRows; i++) {
                     int resultSize = (int)Bytes.readVLong(hashCacheByteArray, offset);
                     offset += WritableUtils.decodeVIntSize(hashCacheByteArray[offset]);
                     ImmutableBytesWritable value = new ImmutableBytesWritable(hashCacheByteArray,offset,resultSize);
                     Tuple result = new ResultTuple(new Result(value));
                     ImmutableBytesPtr key = TupleUtil.getConcatenatedValue(result, onExpressions);
-                    List<Tuple> tuples = hashCacheMap.get(key);
-                    if (tuples == null) {
-                        tuples = new ArrayList<Tuple>(1);
-                        hashCacheMap.put(key, tuples);
+                    int hash = key.hashCode();
+                    int slot = probe(slots, keyHashes, keyOffsets, keyOutput.getBuffer(), key, hash);
+                    int keyIndex = slots[slot];
+                    if (keyIndex == EMPTY_SLOT) {
+                        keyIndex = nKeys++;
+                        slots[slot] = keyIndex;
+                        keyHashes[keyIndex] = hash;
+                        keyOutput.write(key.get(), key.getOffset(), key.getLength());
+                        keyOffsets[keyIndex + 1] = keyOutput.size();
                     }
-                    tuples.add(result);
+                    unsortedRowOffsets[i] = offset;
+                    unsortedRowLengths[i] = resultSize;
+                    rowKeys[i] = keyIndex;
+                    keyRowCounts[keyIndex]++;
                     offset += resultSize;
                 }
-                this.hashCache = Collections.unmodifiableMap(hashCacheMap);
+                // Group the rows by join key using a counting sort
+                int[] keyRowStarts = new int[nKeys + 1];
+                for (int i = 0; i < nKeys; i++) {
+                    keyRowStarts[i + 1] = keyRowStarts[i] + keyRowCounts[i];
+                }
+                int[] rowOffsets = new int[nRows];
+                int[] rowLengths = new int[nRows];
+                int[] nextRow = keyRowCounts; // Reuse as the next position for each join key
+                System.arraycopy(keyRowStarts, 0, nextRow, 0, nKeys);
+                for (int i = 0; i < nRows; i++) {
+                    int pos = nextRow[rowKeys[i]]++;
+                    rowOffsets[pos] = unsortedRowOffsets[i];
+                    rowLengths[pos] = unsortedRowLengths[i];
+                }
+                this.rowBytes = hashCacheByteArray;
+                this.rowOffsets = rowOffsets;
+                this.rowLengths = rowLengths;
+                this.keyRowStarts = keyRowStarts;
+                this.keyBytes = keyOutput.toByteArray();
+                this.keyOffsets = Arrays.copyOf(keyOffsets, nKeys + 1);
+                this.keyHashes = Arrays.copyOf(keyHashes, nKeys);
+                this.slots = slots;
+                this.memoryChunk.resize(hashCacheBytes.length + this.keyBytes.length
+                        + ((long)nRows * 2 + (long)nKeys * 3 + capacity + 3) * Bytes.SIZEOF_INT);
             } catch (IOException e) { // Not possible with ByteArrayInputStream
                 throw new RuntimeException(e);
             }
         }
+        
+        /**
+         * Find the slot containing the given join key or, if the join key is not present,
+         * the empty slot at which it would be inserted.
+         */
+        private static int probe(int[] slots, int[] keyHashes, int[] keyOffsets, byte[] keyBytes, ImmutableBytesPtr key, int hash) {
+            int mask = slots.length - 1;
+            int slot = hash & mask;
+            while (true) {
+                int keyIndex = slots[slot];
+                if (keyIndex == EMPTY_SLOT) {
+                    return slot;
+                }
+                if (keyHashes[keyIndex] == hash
+                        && Bytes.equals(keyBytes, keyOffsets[keyIndex], keyOffsets[keyIndex + 1] - keyOffsets[keyIndex],
+                                key.get(), key.getOffset(), key.getLength())) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
 
         @Override
         public void close() {
@@ -129,7 +210,38 @@ public class HashCacheFactory implements ServerCacheFactory {
         
         @Override
         public List<Tuple> get(ImmutableBytesPtr hashKey) {
-            return hashCache.get(hashKey);
+            int keyIndex = slots[probe(slots, keyHashes, keyOffsets, keyBytes, hashKey, hashKey.hashCode())];
+            if (keyIndex == EMPTY_SLOT) {
+                return null;
+            }
+            return new TupleList(keyRowStarts[keyIndex], keyRowStarts[keyIndex + 1]);
+        }
+        
+        /**
+         * List over the rows of a join key that creates each {@link Tuple} when it's accessed
+         */
+        private class TupleList extends AbstractList<Tuple> implements RandomAccess {
+            private final int start;
+            private final int end;
+            
+            private TupleList(int start, int end) {
+                this.start = start;
+                this.end = end;
+            }
+
+            @Override
+            public Tuple get(int index) {
+                int pos = start + index;
+                if (index < 0 || pos >= end) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+                }
+                return new ResultTuple(new Result(new ImmutableBytesWritable(rowBytes, rowOffsets[pos], rowLengths[pos])));
+            }
+
+            @Override
+            public int size() {
+                return end - start;
+            }
         }
     }
 }
@@ -48,6 +48,7 @@ import com.salesforce.phoenix.schema.PColumn;
 import com.salesforce.phoenix.schema.ValueBitSet;
 import com.salesforce.phoenix.schema.KeyValueSchema.KeyValueSchemaBuilder;
 import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.ByteUtil;
 import com.salesforce.phoenix.util.KeyValueUtil;
 import com.salesforce.phoenix.util.SchemaUtil;
 
@@ -223,6 +224,20 @@ public class ScanProjector {
             throw new IOException("Trying to decode a non-projected value.");
     }
     
+    /**
+     * Wraps a tuple returned by a scan that was run with a projector as a
+     * {@link ProjectedValueTuple}, so that it can be the destination of
+     * {@link #mergeProjectedValue} on the client side.
+     */
+    public static ProjectedValueTuple toProjectedValueTuple(Tuple tuple, ValueBitSet bitSet) throws IOException {
+        ImmutableBytesWritable value = new ImmutableBytesWritable();
+        decodeProjectedValue(tuple, value);
+        bitSet.clear();
+        bitSet.or(value);
+        KeyValue base = tuple.getValue(0);
+        return new ProjectedValueTuple(base.getBuffer(), base.getRowOffset(), base.getRowLength(), base.getTimestamp(), ByteUtil.copyKeyBytesIfNecessary(value), bitSet.getEstimatedLength());
+    }
+    
     public static ProjectedValueTuple mergeProjectedValue(ProjectedValueTuple dest, KeyValueSchema destSchema, ValueBitSet destBitSet,
     		Tuple src, KeyValueSchema srcSchema, ValueBitSet srcBitSet, int offset) throws IOException {
     	ImmutableBytesWritable destValue = new ImmutableBytesWritable(dest.getProjectedValue());
@@ -27,6 +27,20 @@
  ******************************************************************************/
 package com.salesforce.phoenix.memory;
 
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.apache.http.annotation.GuardedBy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +49,11 @@ import org.slf4j.LoggerFactory;
 /**
  * 
  * Global memory manager to track course grained memory usage across all requests.
+ * Allocations are accounted for with a compare-and-set on the used byte count, so
+ * they only contend on a lock when memory is short and they need to wait for it.
+ * Waiters that fit may pass one another, until the longest waiting one has used up
+ * half of its wait time, after which it is served first. This keeps one big request
+ * from being starved by a stream of smaller ones.
  *
  * @author jtaylor
  * @since 0.1
@@ -42,11 +61,22 @@ import org.slf4j.LoggerFactory;
 public class GlobalMemoryManager implements MemoryManager {
     private static final Logger logger = LoggerFactory.getLogger(GlobalMemoryManager.class);
     
-    private final Object sync = new Object();
     private final long maxMemoryBytes;
     private final int maxWaitMs;
-    @GuardedBy("sync")
-    private volatile long usedMemoryBytes;
+    private final AtomicLong usedMemoryBytes = new AtomicLong();
+    // Metrics
+    private final AtomicLong waitingMemoryBytes = new AtomicLong();
+    private final AtomicLong deniedMemoryBytes = new AtomicLong();
+    
+    private final ReentrantLock waitLock = new ReentrantLock();
+    private final Condition memoryFreed = waitLock.newCondition();
+    @GuardedBy("waitLock")
+    private final Queue<Waiter> waiters = new LinkedList<Waiter>();
+    private final AtomicInteger waiterCount = new AtomicInteger();
+    
+    // Chunks that were never closed are reclaimed when they are garbage collected
+    private final ReferenceQueue<GlobalMemoryChunk> orphanedChunks = new ReferenceQueue<GlobalMemoryChunk>();
+    private final Set<ChunkReference> chunkReferences = Collections.newSetFromMap(new ConcurrentHashMap<ChunkReference,Boolean>());
     
     public GlobalMemoryManager(long maxBytes, int maxWaitMs) {
         if (maxBytes <= 0) {
@@ -57,14 +87,11 @@ public class GlobalMemoryManager implements MemoryManager {
         }
         this.maxMemoryBytes = maxBytes;
         this.maxWaitMs = maxWaitMs;
-        this.usedMemoryBytes = 0;
     }
     
     @Override
     public long getAvailableMemory() {
-        synchronized(sync) {
-            return maxMemoryBytes - usedMemoryBytes;
-        }
+        return maxMemoryBytes - usedMemoryBytes.get();
     }
 
     @Override
@@ -72,37 +99,131 @@ public class GlobalMemoryManager implements MemoryManager {
         return maxMemoryBytes;
     }
 
-
-    // TODO: Work on fairness: One big memory request can cause all others to block here.
+    /**
+     * Get the amount of memory (in bytes) currently allocated.
+     */
+    public long getUsedMemory() {
+        return usedMemoryBytes.get();
+    }
+    
+    /**
+     * Get the minimum amount of memory (in bytes) requested by allocations
+     * currently blocked waiting for memory to be freed.
+     */
+    public long getWaitingMemory() {
+        return waitingMemoryBytes.get();
+    }
+    
+    /**
+     * Get the total amount of memory (in bytes) that has been requested by
+     * allocations that failed with an {@link InsufficientMemoryException}.
+     */
+    public long getDeniedMemory() {
+        return deniedMemoryBytes.get();
+    }
+    
+    /**
+     * Allocate between minBytes and reqBytes without blocking.
+     * @return the number of bytes allocated or -1 if minBytes are not available
+     */
+    private long tryAllocateBytes(long minBytes, long reqBytes) {
+        while (true) {
+            long usedBytes = usedMemoryBytes.get();
+            long availBytes = maxMemoryBytes - usedBytes;
+            if (availBytes < minBytes) {
+                return -1;
+            }
+            // Allocate at most reqBytes, but at least minBytes
+            long nBytes = Math.min(reqBytes, availBytes);
+            if (usedMemoryBytes.compareAndSet(usedBytes, usedBytes + nBytes)) {
+                return nBytes;
+            }
+        }
+    }
+    
     private long allocateBytes(long minBytes, long reqBytes) {
         if (minBytes < 0 || reqBytes < 0) {
             throw new IllegalStateException("Minimum requested bytes (" + minBytes + ") and requested bytes (" + reqBytes + ") must be greater than zero");
         }
         if (minBytes > maxMemoryBytes) { // No need to wait, since we'll never have this much available
+            deniedMemoryBytes.addAndGet(minBytes);
             throw new InsufficientMemoryException("Requested memory of " + minBytes + " bytes is larger than global pool of " + maxMemoryBytes + " bytes.");
         }
-        long startTimeMs = System.currentTimeMillis(); // Get time outside of sync block to account for waiting for lock
-        long nBytes;
-        synchronized(sync) {
-            while (usedMemoryBytes + minBytes > maxMemoryBytes) { // Only wait if minBytes not available
-                try {
+        reclaimOrphanedChunks();
+        // Don't barge ahead of threads already waiting for memory
+        if (waiterCount.get() == 0) {
+            long nBytes = tryAllocateBytes(minBytes, reqBytes);
+            if (nBytes >= 0) {
+                return nBytes;
+            }
+        }
+        return waitAndAllocateBytes(minBytes, reqBytes);
+    }
+    
+    private long waitAndAllocateBytes(long minBytes, long reqBytes) {
+        long startTimeMs = System.currentTimeMillis(); // Get time before locking to account for waiting for lock
+        Waiter waiter = new Waiter(startTimeMs);
+        waitLock.lock();
+        try {
+            waiters.add(waiter);
+            waiterCount.incrementAndGet();
+            waitingMemoryBytes.addAndGet(minBytes);
+            try {
+                while (true) { // Only wait if minBytes not available or the first waiter has priority
+                    Waiter first = waiters.peek();
+                    if (first == waiter || System.currentTimeMillis() - first.startTimeMs < maxWaitMs / 2) {
+                        long nBytes = tryAllocateBytes(minBytes, reqBytes);
+                        if (nBytes >= 0) {
+                            return nBytes;
+                        }
+                    }
                     long remainingWaitTimeMs = maxWaitMs - (System.currentTimeMillis() - startTimeMs);
                     if (remainingWaitTimeMs <= 0) { // Ran out of time waiting for some memory to get freed up
-                        throw new InsufficientMemoryException("Requested memory of " + minBytes + " bytes could not be allocated from remaining memory of " + usedMemoryBytes + " bytes from global pool of " + maxMemoryBytes + " bytes after waiting for " + maxWaitMs + "ms.");
+                        deniedMemoryBytes.addAndGet(minBytes);
+                        throw new InsufficientMemoryException("Requested memory of " + minBytes + " bytes could not be allocated from remaining memory of " + getAvailableMemory() + " bytes from global pool of " + maxMemoryBytes + " bytes after waiting for " + maxWaitMs + "ms.");
                     }
-                    sync.wait(remainingWaitTimeMs);
-                } catch (InterruptedException ie) {
-                    throw new RuntimeException("Interrupted allocation of " + minBytes + " bytes", ie);
+                    memoryFreed.await(remainingWaitTimeMs, TimeUnit.MILLISECONDS);
                 }
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted allocation of " + minBytes + " bytes", ie);
+            } finally {
+                waiters.remove(waiter);
+                waiterCount.decrementAndGet();
+                waitingMemoryBytes.addAndGet(-minBytes);
+                // Let the next waiter in line try its luck
+                memoryFreed.signalAll();
             }
-            // Allocate at most reqBytes, but at least minBytes
-            nBytes = Math.min(reqBytes, maxMemoryBytes - usedMemoryBytes);
-            if (nBytes < minBytes) {
-                throw new IllegalStateException("Allocated bytes (" + nBytes + ") should be at least the minimum requested bytes (" + minBytes + ")");
+        } finally {
+            waitLock.unlock();
+        }
+    }
+    
+    private void freeBytes(long nBytes) {
+        if (nBytes == 0) {
+            return;
+        }
+        usedMemoryBytes.addAndGet(-nBytes);
+        // Only take the lock if someone may be waiting for the memory
+        if (waiterCount.get() > 0) {
+            waitLock.lock();
+            try {
+                memoryFreed.signalAll();
+            } finally {
+                waitLock.unlock();
+            }
+        }
+    }
+    
+    private void reclaimOrphanedChunks() {
+        Reference<? extends GlobalMemoryChunk> ref;
+        while ((ref = orphanedChunks.poll()) != null) {
+            ChunkReference chunkRef = (ChunkReference)ref;
+            long size = chunkRef.release();
+            if (size > 0) {
+                logger.warn("Orphaned chunk of " + size + " bytes found after garbage collection");
             }
-            usedMemoryBytes += nBytes;
         }
-        return nBytes;
     }
 
     @Override
@@ -120,21 +241,83 @@ public class GlobalMemoryManager implements MemoryManager {
         return new GlobalMemoryChunk(sizeBytes);
     }
     
+    private static class Waiter {
+        private final long startTimeMs;
+        
+        private Waiter(long startTimeMs) {
+            this.startTimeMs = startTimeMs;
+        }
+    }
+    
+    /**
+     * Tracks the size of a chunk apart from the chunk itself, so that the memory
+     * of a chunk that is garbage collected without being closed can still be freed.
+     * Resizing and releasing are synchronized on the reference, so that a chunk
+     * can't be resized once its memory has been released.
+     */
+    private class ChunkReference extends PhantomReference<GlobalMemoryChunk> {
+        @GuardedBy("this")
+        private long size;
+        @GuardedBy("this")
+        private boolean isReleased;
+        
+        private ChunkReference(GlobalMemoryChunk chunk, long size) {
+            super(chunk, orphanedChunks);
+            this.size = size;
+            chunkReferences.add(this);
+        }
+        
+        private synchronized long getSize() {
+            return size;
+        }
+        
+        private synchronized void resize(long nBytes) {
+            if (isReleased) {
+                throw new IllegalStateException("Cannot resize a memory chunk that has been closed");
+            }
+            long nAdditionalBytes = nBytes - size;
+            if (nAdditionalBytes < 0) {
+                size = nBytes;
+                freeBytes(-nAdditionalBytes);
+            } else if (nAdditionalBytes > 0) {
+                allocateBytes(nAdditionalBytes, nAdditionalBytes);
+                size = nBytes;
+            }
+        }
+        
+        /**
+         * Free the memory of the chunk
+         * @return the number of bytes freed
+         */
+        private long release() {
+            long nBytes;
+            synchronized (this) {
+                if (isReleased) {
+                    return 0;
+                }
+                isReleased = true;
+                nBytes = size;
+                size = 0;
+            }
+            chunkReferences.remove(this);
+            freeBytes(nBytes);
+            return nBytes;
+        }
+    }
+    
     private class GlobalMemoryChunk implements MemoryChunk {
-        private volatile long size;
+        private final ChunkReference ref;
 
         private GlobalMemoryChunk(long size) {
             if (size < 0) {
                 throw new IllegalStateException("Size of memory chunk must be greater than zero, but instead is " + size);
             }
-            this.size = size;
+            this.ref = new ChunkReference(this, size);
         }
 
         @Override
         public long getSize() {
-            synchronized(sync) {
-                return size; // TODO: does this need to be synchronized?
-            }
+            return ref.getSize();
         }
         
         @Override
@@ -142,45 +325,12 @@ public class GlobalMemoryManager implements MemoryManager {
             if (nBytes < 0) {
                 throw new IllegalStateException("Number of bytes to resize to must be greater than zero, but instead is " + nBytes);
             }
-            synchronized(sync) {
-                long nAdditionalBytes = (nBytes - size);
-                if (nAdditionalBytes < 0) {
-                    usedMemoryBytes += nAdditionalBytes;
-                    size = nBytes;
-                    sync.notifyAll();
-                } else {
-                    allocateBytes(nAdditionalBytes, nAdditionalBytes);
-                    size = nBytes;
-                }
-            }
-        }
-        
-        /**
-         * Check that MemoryChunk has previously been closed.
-         */
-        @Override
-        protected void finalize() throws Throwable {
-            try {
-                close();
-                if (size > 0) {
-                    logger.warn("Orphaned chunk of " + size + " bytes found during finalize");
-                }
-                // TODO: log error here, but we can't use SFDC logging
-                // because this runs in an hbase coprocessor.
-                // Create a gack-like API (talk with GridForce or HBase folks)
-            } finally {
-                super.finalize();
-            }
+            ref.resize(nBytes);
         }
         
         @Override
         public void close() {
-            synchronized(sync) {
-                usedMemoryBytes -= size;
-                size = 0;
-                sync.notifyAll();
-            }
+            ref.release();
         }
     }
 }
- 
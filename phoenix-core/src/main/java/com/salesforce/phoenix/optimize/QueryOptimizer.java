@@ -4,19 +4,28 @@ import java.sql.SQLException;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.salesforce.phoenix.compile.ColumnProjector;
+import com.salesforce.phoenix.compile.ColumnResolver;
+import com.salesforce.phoenix.compile.FromCompiler;
 import com.salesforce.phoenix.compile.IndexStatementRewriter;
 import com.salesforce.phoenix.compile.QueryCompiler;
 import com.salesforce.phoenix.compile.QueryPlan;
+import com.salesforce.phoenix.compile.StatementNormalizer;
 import com.salesforce.phoenix.iterate.ParallelIterators.ParallelIteratorFactory;
 import com.salesforce.phoenix.jdbc.PhoenixStatement;
 import com.salesforce.phoenix.parse.HintNode;
 import com.salesforce.phoenix.parse.HintNode.Hint;
 import com.salesforce.phoenix.parse.ParseNodeFactory;
+import com.salesforce.phoenix.parse.SQLParser;
 import com.salesforce.phoenix.parse.SelectStatement;
 import com.salesforce.phoenix.parse.TableNode;
+import com.salesforce.phoenix.query.ConnectionQueryServices;
 import com.salesforce.phoenix.query.QueryServices;
 import com.salesforce.phoenix.query.QueryServicesOptions;
 import com.salesforce.phoenix.schema.ColumnNotFoundException;
@@ -25,12 +34,16 @@ import com.salesforce.phoenix.schema.PDatum;
 import com.salesforce.phoenix.schema.PIndexState;
 import com.salesforce.phoenix.schema.PTable;
 import com.salesforce.phoenix.schema.PTableType;
+import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.stat.PTableStats;
 
 public class QueryOptimizer {
     private static final ParseNodeFactory FACTORY = new ParseNodeFactory();
 
     private final QueryServices services;
     private final boolean useIndexes;
+    // The chunk sizes of each physical table, replaced when the stats of the table are refreshed
+    private final Cache<String,TableChunkSizes> chunkSizesCache = CacheBuilder.newBuilder().build();
 
     public QueryOptimizer(QueryServices services) {
         this.services = services;
@@ -41,18 +54,54 @@ public class QueryOptimizer {
         return optimize(select, statement, Collections.<PColumn>emptyList(), null);
     }
 
+    /**
+     * Optimize a query, reusing the choice of table made the last time the same query was optimized
+     * on the connection of the statement.
+     * @param planCacheKey the key of the query in the {@link QueryPlanCache} of the connection
+     * or null if the query should not be cached.
+     */
+    public QueryPlan optimize(SelectStatement select, PhoenixStatement statement, String planCacheKey) throws SQLException {
+        return optimize(select, statement, Collections.<PColumn>emptyList(), null, planCacheKey);
+    }
+
     public QueryPlan optimize(SelectStatement select, PhoenixStatement statement, List<? extends PDatum> targetColumns, ParallelIteratorFactory parallelIteratorFactory) throws SQLException {
+        return optimize(select, statement, targetColumns, parallelIteratorFactory, null);
+    }
+
+    private QueryPlan optimize(SelectStatement select, PhoenixStatement statement, List<? extends PDatum> targetColumns, ParallelIteratorFactory parallelIteratorFactory, String planCacheKey) throws SQLException {
+        QueryPlanCache planCache = planCacheKey == null || !useIndexes || select.getFrom().size() > 1 ? null : statement.getConnection().getQueryPlanCache();
+        QueryPlanCache.Entry entry = planCache == null ? null : planCache.get(planCacheKey);
+        if (entry != null && !entry.isDataTable()) {
+            // Only compile the plan of the index chosen last time, skipping the compilation of the data plan
+            QueryPlan indexPlan = compileCachedIndexPlan(select, statement, entry, parallelIteratorFactory);
+            if (indexPlan != null) {
+                planCache.recordHit();
+                return indexPlan;
+            }
+            planCache.remove(planCacheKey);
+            entry = null;
+        }
         QueryCompiler compiler = new QueryCompiler(statement, targetColumns, parallelIteratorFactory);
         QueryPlan dataPlan = compiler.compile(select);
         if (!useIndexes || select.getFrom().size() > 1) {
             return dataPlan;
         }
+        PTable dataTable = dataPlan.getTableRef().getTable();
+        if (entry != null) {
+            if (entry.isValid(dataTable)) {
+                planCache.recordHit();
+                return dataPlan;
+            }
+            planCache.remove(planCacheKey);
+        }
         // Get the statement as it's been normalized now
         // TODO: the recompile for the index tables could skip the normalize step
         select = (SelectStatement)dataPlan.getStatement();
-        PTable dataTable = dataPlan.getTableRef().getTable();
         List<PTable>indexes = Lists.newArrayList(dataTable.getIndexes());
         if (indexes.isEmpty() || dataPlan.getTableRef().hasDynamicCols() || select.getHint().hasHint(Hint.NO_INDEX)) {
+            if (planCache != null) {
+                planCache.put(planCacheKey, new QueryPlanCache.Entry(dataTable, dataTable, targetColumns, dataPlan.getProjector().getColumnCount()));
+            }
             return dataPlan;
         }
         
@@ -76,11 +125,44 @@ public class QueryOptimizer {
         if (hintedPlan != null) {
             return hintedPlan;
         }
+        int nColumns = dataPlan.getProjector().getColumnCount();
         for (PTable index : indexes) {
-            addPlan(statement, translatedIndexSelect, index, targetColumns, parallelIteratorFactory, plans);
+            addPlan(statement, translatedIndexSelect, dataPlan.getTableRef(), nColumns, index, targetColumns, parallelIteratorFactory, plans);
         }
         
-        return chooseBestPlan(select, plans);
+        Map<QueryPlan,Long> estimatedBytes = Maps.newIdentityHashMap();
+        QueryPlan bestPlan = chooseBestPlan(select, plans, estimatedBytes);
+        // The estimates depend on the scan ranges and thus on the bind values, which aren't part
+        // of the key, so the choice is only cached if the estimates couldn't have influenced it.
+        if (planCache != null && (estimatedBytes.isEmpty() || statement.getParameters().isEmpty())) {
+            planCache.put(planCacheKey, new QueryPlanCache.Entry(dataTable, bestPlan.getTableRef().getTable(), targetColumns, nColumns));
+        }
+        return bestPlan;
+    }
+    
+    /**
+     * Compile the plan of the index chosen the last time the query was optimized, going through the
+     * same steps as the compilation of the data plan up to the translation into the index columns.
+     * @return the index plan or null if the cache entry is no longer valid or the index can't be used
+     */
+    private static QueryPlan compileCachedIndexPlan(SelectStatement select, PhoenixStatement statement, QueryPlanCache.Entry entry, ParallelIteratorFactory parallelIteratorFactory) throws SQLException {
+        ColumnResolver resolver = FromCompiler.getMultiTableResolver(select, statement.getConnection());
+        TableRef dataTableRef = resolver.getTables().get(0);
+        PTable dataTable = dataTableRef.getTable();
+        PTable index = entry.isValid(dataTable) ? entry.getIndex(dataTable.getIndexes()) : null;
+        if (index == null) {
+            return null;
+        }
+        select = StatementNormalizer.normalize(select, resolver);
+        // Push VIEW expression into select, as it would have been when compiling the data plan
+        select = SelectStatement.create(select, SQLParser.parseCondition(dataTable.getViewExpression()));
+        SelectStatement translatedIndexSelect = IndexStatementRewriter.translate(select, resolver);
+        List<PDatum> targetColumns = entry.getTargetColumns();
+        List<QueryPlan> plans = Lists.newArrayListWithExpectedSize(1);
+        if (addPlan(statement, translatedIndexSelect, dataTableRef, entry.getColumnCount(), index, targetColumns, parallelIteratorFactory, plans)) {
+            return plans.get(0);
+        }
+        return null;
     }
     
     private static QueryPlan getHintedQueryPlan(PhoenixStatement statement, SelectStatement select, List<PTable> indexes, List<? extends PDatum> targetColumns, ParallelIteratorFactory parallelIteratorFactory, List<QueryPlan> plans) throws SQLException {
@@ -118,7 +200,7 @@ public class QueryOptimizer {
                 int indexPos = getIndexPosition(indexes, indexName);
                 if (indexPos >= 0) {
                     // Hinted index is applicable, so return it. It'll be the plan at position 1, after the data plan
-                    if (addPlan(statement, select, indexes.get(indexPos), targetColumns, parallelIteratorFactory, plans)) {
+                    if (addPlan(statement, select, dataPlan.getTableRef(), dataPlan.getProjector().getColumnCount(), indexes.get(indexPos), targetColumns, parallelIteratorFactory, plans)) {
                         return plans.get(1);
                     }
                     indexes.remove(indexPos);
@@ -138,11 +220,9 @@ public class QueryOptimizer {
         return -1;
     }
     
-    private static boolean addPlan(PhoenixStatement statement, SelectStatement select, PTable index, List<? extends PDatum> targetColumns, ParallelIteratorFactory parallelIteratorFactory, List<QueryPlan> plans) throws SQLException {
-        QueryPlan dataPlan = plans.get(0);
-        int nColumns = dataPlan.getProjector().getColumnCount();
-        String alias = '"' + dataPlan.getTableRef().getTableAlias() + '"'; // double quote in case it's case sensitive
-        String schemaName = dataPlan.getTableRef().getTable().getSchemaName().getString();
+    private static boolean addPlan(PhoenixStatement statement, SelectStatement select, TableRef dataTableRef, int nColumns, PTable index, List<? extends PDatum> targetColumns, ParallelIteratorFactory parallelIteratorFactory, List<QueryPlan> plans) throws SQLException {
+        String alias = '"' + dataTableRef.getTableAlias() + '"'; // double quote in case it's case sensitive
+        String schemaName = dataTableRef.getTable().getSchemaName().getString();
         schemaName = schemaName.length() == 0 ? null :  '"' + schemaName + '"';
 
         String tableName = '"' + index.getTableName().getString() + '"';
@@ -159,7 +239,6 @@ public class QueryOptimizer {
             }
         } catch (ColumnNotFoundException e) {
             /* Means that a column is being used that's not in our index.
-             * Since we currently don't keep stats, we don't know the selectivity of the index.
              * For now, we just don't use this index (as opposed to trying to join back from
              * the index table to the data table.
              */
@@ -168,18 +247,19 @@ public class QueryOptimizer {
     }
     
     /**
-     * Choose the best plan among all the possible ones.
-     * Since we don't keep stats yet, we use the following simple algorithm:
+     * Choose the best plan among all the possible ones, using the following algorithm:
      * 1) If the query has an ORDER BY and a LIMIT, choose the plan that has all the ORDER BY expression
      * in the same order as the row key columns.
      * 2) If there are more than one plan that meets (1), choose the plan with:
-     *    a) the most row key columns that may be used to form the start/stop scan key.
-     *    b) the plan that preserves ordering for a group by.
-     *    c) the data table plan
+     *    a) the fewest estimated bytes scanned, if guide posts have been collected for all tables.
+     *    b) the most row key columns that may be used to form the start/stop scan key.
+     *    c) the plan that preserves ordering for a group by.
+     *    d) the data table plan
      * @param plans the list of candidate plans
+     * @param estimatedBytes filled with the estimated bytes scanned by each candidate, if they were compared
      * @return
      */
-    private QueryPlan chooseBestPlan(SelectStatement select, List<QueryPlan> plans) {
+    private QueryPlan chooseBestPlan(SelectStatement select, List<QueryPlan> plans, final Map<QueryPlan,Long> estimatedBytes) throws SQLException {
         QueryPlan firstPlan = plans.get(0);
         if (plans.size() == 1) {
             return firstPlan;
@@ -200,10 +280,25 @@ public class QueryOptimizer {
             }
         }
         final int comparisonOfDataVersusIndexTable = select.getHint().hasHint(Hint.USE_DATA_OVER_INDEX_TABLE) ? -1 : 1;
+        // Only compare estimates if they're available for every candidate, to keep the ordering consistent
+        for (QueryPlan plan : candidates) {
+            Long bytes = estimateBytesScanned(plan);
+            if (bytes == null) {
+                estimatedBytes.clear();
+                break;
+            }
+            estimatedBytes.put(plan, bytes);
+        }
         Collections.sort(candidates, new Comparator<QueryPlan>() {
 
             @Override
             public int compare(QueryPlan plan1, QueryPlan plan2) {
+                Long bytes1 = estimatedBytes.get(plan1);
+                Long bytes2 = estimatedBytes.get(plan2);
+                if (bytes1 != null && bytes2 != null) {
+                    int c = bytes1.compareTo(bytes2);
+                    if (c != 0) return c;
+                }
                 int c = plan2.getContext().getScanRanges().getRanges().size() - plan1.getContext().getScanRanges().getRanges().size();
                 if (c != 0) return c;
                 if (plan1.getGroupBy()!=null && plan2.getGroupBy()!=null) {
@@ -234,6 +329,25 @@ public class QueryOptimizer {
         return candidates.get(0);
         
     }
-
     
+    /**
+     * Estimate the number of bytes a plan will scan, based on the number of bytes of the chunks
+     * between the guide posts collected for its table that intersect the scan ranges of the plan.
+     * The chunks of a table are cached until its stats are refreshed, so that the regions of the
+     * table aren't looked up each time a query is compiled.
+     * @return the estimated number of bytes or null if there are no guide posts or chunk byte counts
+     * for a region of the table.
+     */
+    private Long estimateBytesScanned(QueryPlan plan) throws SQLException {
+        ConnectionQueryServices connectionServices = plan.getContext().getConnection().getQueryServices();
+        TableRef tableRef = plan.getTableRef();
+        PTableStats tableStats = connectionServices.getStatsManager().getTableStats(tableRef);
+        String physicalName = tableRef.getTable().getPhysicalName().getString();
+        TableChunkSizes chunkSizes = chunkSizesCache.getIfPresent(physicalName);
+        if (chunkSizes == null || chunkSizes.getTimestamp() != tableStats.getTimestamp()) {
+            chunkSizes = TableChunkSizes.create(connectionServices.getAllTableRegions(tableRef.getTable().getPhysicalName().getBytes()), tableStats);
+            chunkSizesCache.put(physicalName, chunkSizes);
+        }
+        return chunkSizes.estimateBytesScanned(plan.getContext().getScanRanges());
+    }
 }
@@ -0,0 +1,250 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.optimize;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.schema.ColumnModifier;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PDatum;
+import com.salesforce.phoenix.schema.PTable;
+
+/**
+ * 
+ * Per connection LRU cache of the table chosen by the {@link QueryOptimizer} for a query,
+ * keyed by the text of the query and the types of its bind variables. The compiled plans
+ * themselves cannot be reused, since they have the bind values and the time stamp of the
+ * table baked in. Instead, the optimizer uses the cached choice to only compile the plan
+ * of the chosen table, skipping the compilation of the data table when an index was chosen
+ * and of all the other index tables. A choice that was made by comparing the estimated
+ * bytes scanned of a query with bind values is only cached if the chosen plan is a point
+ * lookup, as otherwise the estimates depend on the bind values. An entry becomes invalid as soon as the data table or the set of its indexes
+ * (or their state) changes.
+ *
+ * @since 3.0.0
+ */
+public class QueryPlanCache {
+    private final Map<String,Entry> entries;
+    private long hitCount;
+    
+    public QueryPlanCache(final int maxSize) {
+        this.entries = new LinkedHashMap<String,Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String,Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+    
+    /**
+     * Build the key of a query from its text, the types of its bind values and the
+     * max rows of the statement, since all of them may influence the choice of plan.
+     */
+    public static String newKey(String sql, List<Object> binds, int maxRows) {
+        StringBuilder buf = new StringBuilder(sql.length() + 16 * binds.size() + 8);
+        buf.append(sql.trim());
+        for (Object bind : binds) {
+            buf.append('\0');
+            buf.append(bind == null ? "" : bind.getClass().getName());
+        }
+        buf.append('\0');
+        buf.append(maxRows);
+        return buf.toString();
+    }
+    
+    public synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+    
+    public synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+    }
+    
+    public synchronized void remove(String key) {
+        entries.remove(key);
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    public synchronized void clear() {
+        entries.clear();
+    }
+    
+    /**
+     * Count a query that was compiled using a cached choice, skipping the compilation of the other plans
+     */
+    public synchronized void recordHit() {
+        hitCount++;
+    }
+    
+    /**
+     * @return the number of queries compiled using a cached choice
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+    
+    /**
+     * The table chosen for a query, together with the state of the data table at the
+     * time the choice was made.
+     */
+    public static class Entry {
+        private final long dataTableTimeStamp;
+        private final long dataTableSequenceNumber;
+        private final String indexStates;
+        private final String indexName;
+        private final List<PDatum> targetColumns;
+        private final int columnCount;
+        
+        /**
+         * @param dataTable the data table of the query
+         * @param chosenTable the table of the chosen plan: either the data table or one of its indexes
+         * @param targetColumns the columns projected by the data plan, which an index plan must match
+         * @param columnCount the number of columns projected by the data plan
+         */
+        public Entry(PTable dataTable, PTable chosenTable, List<? extends PDatum> targetColumns, int columnCount) {
+            this.dataTableTimeStamp = dataTable.getTimeStamp();
+            this.dataTableSequenceNumber = dataTable.getSequenceNumber();
+            this.indexStates = getIndexStates(dataTable);
+            this.indexName = chosenTable == dataTable ? null : chosenTable.getName().getString();
+            // Copy the metadata, so that the expressions of the compiled plan aren't held onto
+            List<PDatum> datums = Lists.newArrayListWithExpectedSize(targetColumns.size());
+            for (PDatum targetColumn : targetColumns) {
+                datums.add(new TargetDatum(targetColumn));
+            }
+            this.targetColumns = Collections.unmodifiableList(datums);
+            this.columnCount = columnCount;
+        }
+        
+        private static String getIndexStates(PTable dataTable) {
+            StringBuilder buf = new StringBuilder();
+            for (PTable index : dataTable.getIndexes()) {
+                buf.append(index.getName().getString());
+                buf.append('=');
+                buf.append(index.getIndexState());
+                buf.append(',');
+            }
+            return buf.toString();
+        }
+        
+        /**
+         * @return true if the data table and its indexes are unchanged since the choice was made
+         */
+        public boolean isValid(PTable dataTable) {
+            return dataTable.getTimeStamp() == dataTableTimeStamp
+                && dataTable.getSequenceNumber() == dataTableSequenceNumber
+                && getIndexStates(dataTable).equals(indexStates);
+        }
+        
+        /**
+         * @return the chosen index or null if the data table was chosen
+         */
+        public PTable getIndex(List<PTable> indexes) {
+            if (indexName == null) {
+                return null;
+            }
+            for (PTable index : indexes) {
+                if (indexName.equals(index.getName().getString())) {
+                    return index;
+                }
+            }
+            return null;
+        }
+        
+        public boolean isDataTable() {
+            return indexName == null;
+        }
+        
+        public List<PDatum> getTargetColumns() {
+            return targetColumns;
+        }
+        
+        /**
+         * @return the number of columns projected by the data plan, which an index plan must match
+         */
+        public int getColumnCount() {
+            return columnCount;
+        }
+    }
+    
+    private static class TargetDatum implements PDatum {
+        private final boolean isNullable;
+        private final PDataType dataType;
+        private final Integer byteSize;
+        private final Integer maxLength;
+        private final Integer scale;
+        private final ColumnModifier columnModifier;
+        
+        private TargetDatum(PDatum datum) {
+            this.isNullable = datum.isNullable();
+            this.dataType = datum.getDataType();
+            this.byteSize = datum.getByteSize();
+            this.maxLength = datum.getMaxLength();
+            this.scale = datum.getScale();
+            this.columnModifier = datum.getColumnModifier();
+        }
+
+        @Override
+        public boolean isNullable() {
+            return isNullable;
+        }
+
+        @Override
+        public PDataType getDataType() {
+            return dataType;
+        }
+
+        @Override
+        public Integer getByteSize() {
+            return byteSize;
+        }
+
+        @Override
+        public Integer getMaxLength() {
+            return maxLength;
+        }
+
+        @Override
+        public Integer getScale() {
+            return scale;
+        }
+
+        @Override
+        public ColumnModifier getColumnModifier() {
+            return columnModifier;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.optimize;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Lists;
+import com.salesforce.phoenix.compile.ScanRanges;
+import com.salesforce.phoenix.query.KeyRange;
+import com.salesforce.phoenix.schema.stat.PTableStats;
+
+
+/**
+ * 
+ * The chunks of a table delimited by its region boundaries and the guide posts of its
+ * regions, together with the number of bytes of each chunk collected along with the
+ * guide posts. Used by the {@link QueryOptimizer} to estimate the number of bytes a
+ * plan scans.
+ *
+ * @since 3.0.0
+ */
+public class TableChunkSizes {
+    /**
+     * The number of bytes read by a point lookup for each key, the default size of an HFile block
+     */
+    static final long POINT_LOOKUP_BYTES = HColumnDescriptor.DEFAULT_BLOCKSIZE;
+    
+    private final long timestamp;
+    private final byte[][] lowerKeys;
+    private final byte[][] upperKeys;
+    private final long[] byteCounts;
+    
+    private TableChunkSizes(long timestamp, byte[][] lowerKeys, byte[][] upperKeys, long[] byteCounts) {
+        this.timestamp = timestamp;
+        this.lowerKeys = lowerKeys;
+        this.upperKeys = upperKeys;
+        this.byteCounts = byteCounts;
+    }
+    
+    /**
+     * Get the chunk sizes of a table
+     * @param regions the regions of the table, in row key order
+     * @param tableStats the guide posts of the table
+     * @return the chunk sizes, which are unknown if the guide posts or the chunk byte counts
+     * of a region are missing
+     */
+    public static TableChunkSizes create(List<HRegionLocation> regions, PTableStats tableStats) {
+        List<byte[]> lowerKeys = Lists.newArrayList();
+        List<byte[]> upperKeys = Lists.newArrayList();
+        List<Long> byteCounts = Lists.newArrayList();
+        for (HRegionLocation region : regions) {
+            HRegionInfo regionInfo = region.getRegionInfo();
+            byte[][] guidePosts = tableStats.getRegionGuidePosts(regionInfo);
+            long[] chunkByteCounts = tableStats.getRegionChunkByteCounts(regionInfo);
+            if (guidePosts == null || chunkByteCounts == null || chunkByteCounts.length != guidePosts.length + 1) {
+                return new TableChunkSizes(tableStats.getTimestamp(), null, null, null);
+            }
+            byte[] lowerInclusiveKey = regionInfo.getStartKey();
+            for (int i = 0; i <= guidePosts.length; i++) {
+                byte[] upperExclusiveKey = i == guidePosts.length ? regionInfo.getEndKey() : guidePosts[i];
+                lowerKeys.add(lowerInclusiveKey);
+                upperKeys.add(upperExclusiveKey);
+                byteCounts.add(chunkByteCounts[i]);
+                lowerInclusiveKey = upperExclusiveKey;
+            }
+        }
+        long[] counts = new long[byteCounts.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = byteCounts.get(i);
+        }
+        return new TableChunkSizes(tableStats.getTimestamp(), lowerKeys.toArray(new byte[lowerKeys.size()][]), upperKeys.toArray(new byte[upperKeys.size()][]), counts);
+    }
+    
+    /**
+     * @return the timestamp of the stats the chunk sizes were created from
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    /**
+     * Estimate the number of bytes scanned for the given scan ranges. A chunk that lies
+     * entirely within the scan counts with all of its bytes. A chunk that is only partially
+     * scanned, at either end of a range scan or anywhere for a skip scan, counts with half
+     * of its bytes, as nothing is known about the distribution of the keys within a chunk.
+     * Point lookups read at most a row per key, but still read at least an HFile block
+     * to find it, so they are estimated at a block per key whatever chunks the keys fall in.
+     * @return the estimated number of bytes or null if the chunk sizes are unknown
+     */
+    public Long estimateBytesScanned(ScanRanges scanRanges) {
+        if (byteCounts == null) {
+            return null;
+        }
+        if (scanRanges.isDegenerate()) {
+            return 0L;
+        }
+        if (scanRanges.isPointLookup()) {
+            return getPointLookupCount(scanRanges) * POINT_LOOKUP_BYTES;
+        }
+        byte[] startRow = null, stopRow = null;
+        if (!scanRanges.isEverything() && !scanRanges.useSkipScanFilter()) {
+            Scan scan = new Scan();
+            scanRanges.setScanStartStopRow(scan);
+            startRow = scan.getStartRow();
+            stopRow = scan.getStopRow();
+        }
+        long bytes = 0;
+        for (int i = 0; i < byteCounts.length; i++) {
+            if (!scanRanges.intersect(lowerKeys[i], upperKeys[i])) {
+                continue;
+            }
+            if (scanRanges.isEverything() || isCovered(lowerKeys[i], upperKeys[i], startRow, stopRow)) {
+                bytes += byteCounts[i];
+            } else {
+                bytes += byteCounts[i] / 2;
+            }
+        }
+        return bytes;
+    }
+    
+    private static long getPointLookupCount(ScanRanges scanRanges) {
+        long count = 1;
+        for (List<KeyRange> orRanges : scanRanges.getRanges()) {
+            count *= orRanges.size();
+            // Don't overflow on a large cross product of keys
+            if (count > Long.MAX_VALUE / POINT_LOOKUP_BYTES / Integer.MAX_VALUE) {
+                return Long.MAX_VALUE / POINT_LOOKUP_BYTES;
+            }
+        }
+        return count;
+    }
+    
+    private static boolean isCovered(byte[] lowerInclusiveKey, byte[] upperExclusiveKey, byte[] startRow, byte[] stopRow) {
+        if (startRow == null) { // Skip scan
+            return false;
+        }
+        // An empty start or stop row of the scan and an empty key of a chunk are unbound
+        return (startRow.length == 0 || (lowerInclusiveKey.length > 0 && Bytes.compareTo(lowerInclusiveKey, startRow) >= 0))
+            && (stopRow.length == 0 || (upperExclusiveKey.length > 0 && Bytes.compareTo(upperExclusiveKey, stopRow) <= 0));
+    }
+}
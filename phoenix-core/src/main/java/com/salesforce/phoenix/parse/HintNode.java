@@ -83,6 +83,11 @@ public class HintNode {
         * the data table when optimizing.
         */
        USE_INDEX_OVER_DATA_TABLE,
+       /**
+        * Use a sort-merge join instead of a hash join, so that
+        * neither side of the join needs to fit in memory.
+        */
+       USE_SORT_MERGE_JOIN,
     };
 
     private final Map<Hint,String> hints;
@@ -39,8 +39,11 @@ import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.HBaseConfiguration;
@@ -82,6 +85,7 @@ import com.salesforce.phoenix.coprocessor.MetaDataRegionObserver;
 import com.salesforce.phoenix.coprocessor.ScanRegionObserver;
 import com.salesforce.phoenix.coprocessor.SequenceRegionObserver;
 import com.salesforce.phoenix.coprocessor.ServerCachingEndpointImpl;
+import com.salesforce.phoenix.coprocessor.StatisticsCollectorRegionObserver;
 import com.salesforce.phoenix.coprocessor.UngroupedAggregateRegionObserver;
 import com.salesforce.phoenix.exception.PhoenixIOException;
 import com.salesforce.phoenix.exception.SQLExceptionCode;
@@ -124,7 +128,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     private final StatsManager statsManager;
     private final ConcurrentHashMap<ImmutableBytesWritable,ConnectionQueryServices> childServices;
     // Cache the latest meta data here for future connections
-    private volatile PMetaData latestMetaData = PMetaDataImpl.EMPTY_META_DATA;
+    private volatile PMetaData latestMetaData;
     private final Object latestMetaDataLock = new Object();
     // Lowest HBase version on the cluster.
     private int lowestClusterHBaseVersion = Integer.MAX_VALUE;
@@ -132,6 +136,9 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     private int connectionCount = 0;
     
     private ConcurrentMap<SequenceKey,Sequence> sequenceMap = Maps.newConcurrentMap();
+    private final float sequencePrefetchThreshold;
+    private final int sequenceMaxCacheSize;
+    private final long sequenceRefillIntervalMs;
     private KeyValueBuilder kvBuilder;
 
     /**
@@ -169,6 +176,11 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         int statsUpdateFrequencyMs = this.getProps().getInt(QueryServices.STATS_UPDATE_FREQ_MS_ATTRIB, QueryServicesOptions.DEFAULT_STATS_UPDATE_FREQ_MS);
         int maxStatsAgeMs = this.getProps().getInt(QueryServices.MAX_STATS_AGE_MS_ATTRIB, QueryServicesOptions.DEFAULT_MAX_STATS_AGE_MS);
         this.statsManager = new StatsManagerImpl(this, statsUpdateFrequencyMs, maxStatsAgeMs);
+        long maxMetaDataCacheSize = this.getProps().getLong(QueryServices.MAX_CLIENT_METADATA_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_MAX_CLIENT_METADATA_CACHE_SIZE);
+        this.latestMetaData = new PMetaDataImpl(maxMetaDataCacheSize);
+        this.sequencePrefetchThreshold = this.getProps().getFloat(QueryServices.SEQUENCE_PREFETCH_THRESHOLD_ATTRIB, QueryServicesOptions.DEFAULT_SEQUENCE_PREFETCH_THRESHOLD);
+        this.sequenceMaxCacheSize = this.getProps().getInt(QueryServices.SEQUENCE_MAX_CACHE_SIZE_ATTRIB, QueryServicesOptions.DEFAULT_SEQUENCE_MAX_CACHE_SIZE);
+        this.sequenceRefillIntervalMs = this.getProps().getLong(QueryServices.SEQUENCE_REFILL_INTERVAL_MS_ATTRIB, QueryServicesOptions.DEFAULT_SEQUENCE_REFILL_INTERVAL_MS);
 
         // find the HBase version and use that to determine the KeyValueBuilder that should be used
         String hbaseVersion = VersionInfo.getVersion();
@@ -350,7 +362,11 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                     // and the next time it's used it'll be pulled over from the server.
                     if (waitTime <= 0) {
                         logger.warn("Unable to update meta data repo within " + (DEFAULT_OUT_OF_ORDER_MUTATIONS_WAIT_TIME_MS/1000) + " seconds for " + tableName);
-                        metaData = metaData.removeTable(tableName);
+                        try {
+                            metaData = metaData.removeTable(tableName);
+                        } catch (TableNotFoundException e) {
+                            // Not cached (for example, evicted), so nothing to remove
+                        }
                         break;
                     }
                     latestMetaDataLock.wait(waitTime);
@@ -383,7 +399,12 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     @Override
     public PMetaData removeTable(final String tableName) throws SQLException {
         synchronized(latestMetaDataLock) {
-            latestMetaData = latestMetaData.removeTable(tableName);
+            try {
+                latestMetaData = latestMetaData.removeTable(tableName);
+            } catch (TableNotFoundException e) {
+                // Not cached (for example, evicted independently of the connection's cache), so nothing to remove
+                return latestMetaData;
+            }
             latestMetaDataLock.notifyAll();
             return latestMetaData;
         }
@@ -485,11 +506,17 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
             if (!descriptor.hasCoprocessor(ServerCachingEndpointImpl.class.getName())) {
                 descriptor.addCoprocessor(ServerCachingEndpointImpl.class.getName(), null, 1, null);
             }
+            // Collect guide posts for user tables during major compaction
+            if (!SchemaUtil.isMetaTable(tableName) && !SchemaUtil.isSequenceTable(tableName) && !SchemaUtil.isStatsTable(tableName)
+                    && !descriptor.hasCoprocessor(StatisticsCollectorRegionObserver.class.getName())) {
+                descriptor.addCoprocessor(StatisticsCollectorRegionObserver.class.getName(), null, 1, null);
+            }
             // TODO: better encapsulation for this
             // Since indexes can't have indexes, don't install our indexing coprocessor for indexes. Also,
             // don't install on the metadata table until we fix the TODO there.
             if (tableType != PTableType.INDEX && !descriptor.hasCoprocessor(Indexer.class.getName())
-                  && !SchemaUtil.isMetaTable(tableName) && !SchemaUtil.isSequenceTable(tableName)) {
+                  && !SchemaUtil.isMetaTable(tableName) && !SchemaUtil.isSequenceTable(tableName)
+                  && !SchemaUtil.isStatsTable(tableName)) {
                 Map<String, String> opts = Maps.newHashMapWithExpectedSize(1);
                 opts.put(CoveredColumnsIndexBuilder.CODEC_CLASS_NAME_KEY, PhoenixIndexCodec.class.getName());
                 Indexer.enableIndexing(descriptor, PhoenixIndexBuilder.class, opts);
@@ -1026,6 +1053,12 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                 // Ignore, as this will happen if the SYSTEM.SEQUENCE already exists at this fixed timestamp.
                 // A TableAlreadyExistsException is not thrown, since the table only exists *after* this fixed timestamp.
             }
+            try {
+                metaConnection.createStatement().executeUpdate(QueryConstants.CREATE_STATS_TABLE_METADATA);
+            } catch (NewerTableAlreadyExistsException ignore) {
+                // Ignore, as this will happen if the SYSTEM.STATS already exists at this fixed timestamp.
+                // A TableAlreadyExistsException is not thrown, since the table only exists *after* this fixed timestamp.
+            }
         } catch (SQLException e) {
             sqlE = e;
         } finally {
@@ -1123,11 +1156,15 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                 });
     }
 
+    private Sequence newSequence(SequenceKey key) {
+        return new Sequence(key, sequencePrefetchThreshold, sequenceMaxCacheSize, sequenceRefillIntervalMs);
+    }
+
     @Override
     public long createSequence(String tenantId, String schemaName, String sequenceName, long startWith, long incrementBy, int cacheSize, long timestamp) 
             throws SQLException {
         SequenceKey sequenceKey = new SequenceKey(tenantId, schemaName, sequenceName);
-        Sequence newSequences = new Sequence(sequenceKey);
+        Sequence newSequences = newSequence(sequenceKey);
         Sequence sequence = sequenceMap.putIfAbsent(sequenceKey, newSequences);
         if (sequence == null) {
             sequence = newSequences;
@@ -1151,7 +1188,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     @Override
     public long dropSequence(String tenantId, String schemaName, String sequenceName, long timestamp) throws SQLException {
         SequenceKey sequenceKey = new SequenceKey(tenantId, schemaName, sequenceName);
-        Sequence newSequences = new Sequence(sequenceKey);
+        Sequence newSequences = newSequence(sequenceKey);
         Sequence sequence = sequenceMap.putIfAbsent(sequenceKey, newSequences);
         if (sequence == null) {
             sequence = newSequences;
@@ -1233,7 +1270,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
     private void incrementSequenceValues(List<SequenceKey> keys, long timestamp, long[] values, SQLException[] exceptions, int factor) throws SQLException {
         List<Sequence> sequences = Lists.newArrayListWithExpectedSize(keys.size());
         for (SequenceKey key : keys) {
-            Sequence newSequences = new Sequence(key);
+            Sequence newSequences = newSequence(key);
             Sequence sequence = sequenceMap.putIfAbsent(key, newSequences);
             if (sequence == null) {
                 sequence = newSequences;
@@ -1260,6 +1297,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                 }
             }
             if (toIncrementList.isEmpty()) {
+                prefetchSequenceValues(sequences, timestamp);
                 return;
             }
             HTableInterface hTable = this.getTable(PhoenixDatabaseMetaData.SEQUENCE_TABLE_NAME_BYTES);
@@ -1295,6 +1333,7 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
                     exceptions[indexes[i]] = e;
                 }
             }
+            prefetchSequenceValues(sequences, timestamp);
         } finally {
             for (Sequence sequence : sequences) {
                 sequence.getLock().unlock();
@@ -1302,11 +1341,43 @@ public class ConnectionQueryServicesImpl extends DelegateQueryServices implement
         }
     }
 
+    /**
+     * Asynchronously fetches the next block of values for the sequences that are running low,
+     * so that statements don't stall on the round trip when the current block runs out.
+     * Must be called while holding the locks of the sequences.
+     */
+    private void prefetchSequenceValues(List<Sequence> sequences, long timestamp) {
+        for (Sequence sequence : sequences) {
+            final Increment inc = sequence.newPrefetch(timestamp);
+            if (inc == null) {
+                continue;
+            }
+            Future<Result> prefetch;
+            try {
+                prefetch = getExecutor().submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        HTableInterface hTable = getTable(PhoenixDatabaseMetaData.SEQUENCE_TABLE_NAME_BYTES);
+                        try {
+                            return hTable.increment(inc);
+                        } finally {
+                            hTable.close();
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Executor is saturated, so let the next block be fetched synchronously
+                return;
+            }
+            sequence.setPrefetch(timestamp, prefetch);
+        }
+    }
+
     @Override
     public void returnSequenceValues(List<SequenceKey> keys, long timestamp, SQLException[] exceptions) throws SQLException {
         List<Sequence> sequences = Lists.newArrayListWithExpectedSize(keys.size());
         for (SequenceKey key : keys) {
-            Sequence newSequences = new Sequence(key);
+            Sequence newSequences = newSequence(key);
             Sequence sequence = sequenceMap.putIfAbsent(key, newSequences);
             if (sequence == null) {
                 sequence = newSequences;
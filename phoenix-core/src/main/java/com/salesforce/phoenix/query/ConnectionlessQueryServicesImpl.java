@@ -73,6 +73,8 @@ import com.salesforce.phoenix.schema.SequenceNotFoundException;
 import com.salesforce.phoenix.schema.TableAlreadyExistsException;
 import com.salesforce.phoenix.schema.TableNotFoundException;
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.stat.PTableStats;
+import com.salesforce.phoenix.schema.stat.PTableStatsImpl;
 import com.salesforce.phoenix.util.PhoenixRuntime;
 import com.salesforce.phoenix.util.SchemaUtil;
 
@@ -88,6 +90,7 @@ import com.salesforce.phoenix.util.SchemaUtil;
 public class ConnectionlessQueryServicesImpl extends DelegateQueryServices implements ConnectionQueryServices  {
     private PMetaData metaData;
     private final Map<SequenceKey, Long> sequenceMap = Maps.newHashMap();
+    private final Map<String, PTableStats> tableStatsMap = Maps.newConcurrentMap();
     private KeyValueBuilder kvBuilder;
     
     public ConnectionlessQueryServicesImpl(QueryServices queryServices) {
@@ -122,15 +125,43 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
                 return HConstants.EMPTY_END_ROW;
             }
 
+            @Override
+            public PTableStats getTableStats(TableRef table) {
+                PTableStats stats = tableStatsMap.get(table.getTable().getPhysicalName().getString());
+                return stats == null ? new PTableStatsImpl() : stats;
+            }
+
             @Override
             public void updateStats(TableRef table) throws SQLException {
             }
         };
     }
 
+    /**
+     * Set the guide posts of a table, for testing how they are used to compile queries.
+     * @param physicalTableName the physical name of the table
+     * @param stats the guide posts, keyed by the name of the region returned by
+     * {@link #getTableRegion(byte[])}, or null to remove them
+     */
+    public void setTableStats(String physicalTableName, PTableStats stats) {
+        if (stats == null) {
+            tableStatsMap.remove(physicalTableName);
+        } else {
+            tableStatsMap.put(physicalTableName, stats);
+        }
+    }
+
+    /**
+     * @return the single region of every table
+     */
+    public static HRegionInfo getTableRegion(byte[] tableName) {
+        // Use a fixed region id, so that the name of the region stays the same
+        return new HRegionInfo(tableName, HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW, false, 0);
+    }
+
     @Override
     public List<HRegionLocation> getAllTableRegions(byte[] tableName) throws SQLException {
-        return Collections.singletonList(new HRegionLocation(new HRegionInfo(tableName, HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW),"localhost",-1));
+        return Collections.singletonList(new HRegionLocation(getTableRegion(tableName),"localhost",-1));
     }
 
     @Override
@@ -147,7 +178,12 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
     @Override
     public PMetaData removeTable(String tableName)
             throws SQLException {
-        return metaData = metaData.removeTable(tableName);
+        try {
+            metaData = metaData.removeTable(tableName);
+        } catch (TableNotFoundException e) {
+            // Not cached, so nothing to remove
+        }
+        return metaData;
     }
 
     @Override
@@ -214,6 +250,12 @@ public class ConnectionlessQueryServicesImpl extends DelegateQueryServices imple
                 // Ignore, as this will happen if the SYSTEM.SEQUENCE already exists at this fixed timestamp.
                 // A TableAlreadyExistsException is not thrown, since the table only exists *after* this fixed timestamp.
             }
+            try {
+                metaConnection.createStatement().executeUpdate(QueryConstants.CREATE_STATS_TABLE_METADATA);
+            } catch (NewerTableAlreadyExistsException ignore) {
+                // Ignore, as this will happen if the SYSTEM.STATS already exists at this fixed timestamp.
+                // A TableAlreadyExistsException is not thrown, since the table only exists *after* this fixed timestamp.
+            }
         } catch (SQLException e) {
             sqlE = e;
         } finally {
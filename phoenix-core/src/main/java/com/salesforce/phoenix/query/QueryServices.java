@@ -67,30 +67,48 @@ public interface QueryServices extends SQLCloseable {
 	 */
 	public static final String MAX_SPOOL_TO_DISK_BYTES_ATTRIB = "phoenix.query.maxSpoolToDiskBytes";
     
+    /**
+     * Comma separated list of directories in which to spool results once
+     * {@link QueryServices#SPOOL_THRESHOLD_BYTES_ATTRIB } is reached. Spool
+     * files are spread round robin across them. Defaults to ${java.io.tmpdir}.
+     */
+    public static final String SPOOL_DIRECTORIES_ATTRIB = "phoenix.query.spoolDirectories";
+    
     public static final String MAX_MEMORY_PERC_ATTRIB = "phoenix.query.maxGlobalMemoryPercentage";
     public static final String MAX_MEMORY_WAIT_MS_ATTRIB = "phoenix.query.maxGlobalMemoryWaitMs";
     public static final String MAX_TENANT_MEMORY_PERC_ATTRIB = "phoenix.query.maxTenantMemoryPercentage";
     public static final String MAX_SERVER_CACHE_SIZE_ATTRIB = "phoenix.query.maxServerCacheBytes";
+    public static final String SERVER_CACHE_CHUNK_SIZE_ATTRIB = "phoenix.query.serverCacheChunkBytes";
+    public static final String SERVER_CACHE_RELAY_FANOUT_ATTRIB = "phoenix.query.serverCacheRelayFanout";
+    public static final String JOIN_BLOOM_FILTER_MAX_KEYS_ATTRIB = "phoenix.query.joinBloomFilterMaxKeys";
     public static final String TARGET_QUERY_CONCURRENCY_ATTRIB = "phoenix.query.targetConcurrency";
     public static final String MAX_QUERY_CONCURRENCY_ATTRIB = "phoenix.query.maxConcurrency";
     public static final String DATE_FORMAT_ATTRIB = "phoenix.query.dateFormat";
     public static final String NUMBER_FORMAT_ATTRIB = "phoenix.query.numberFormat";
     public static final String STATS_UPDATE_FREQ_MS_ATTRIB = "phoenix.query.statsUpdateFrequency";
     public static final String MAX_STATS_AGE_MS_ATTRIB = "phoenix.query.maxStatsAge";
+    public static final String STATS_GUIDEPOST_WIDTH_BYTES_ATTRIB = "phoenix.stats.guidepost.width";
     public static final String CALL_QUEUE_ROUND_ROBIN_ATTRIB = "ipc.server.callqueue.roundrobin";
     public static final String SCAN_CACHE_SIZE_ATTRIB = "hbase.client.scanner.caching";
     public static final String MAX_MUTATION_SIZE_ATTRIB = "phoenix.mutate.maxSize";
     public static final String MUTATE_BATCH_SIZE_ATTRIB = "phoenix.mutate.batchSize";
+    public static final String MAX_IN_FLIGHT_COMMIT_BYTES_ATTRIB = "phoenix.mutate.maxInFlightCommitBytes";
     public static final String MAX_SERVER_CACHE_TIME_TO_LIVE_MS = "phoenix.coprocessor.maxServerCacheTimeToLiveMs";
+    public static final String SERVER_CACHE_RELAY_TIMEOUT_MS_ATTRIB = "phoenix.coprocessor.serverCacheRelayTimeoutMs";
+    public static final String SERVER_CACHE_RELAY_THREADS_ATTRIB = "phoenix.coprocessor.serverCacheRelayThreads";
+    public static final String SERVER_CACHE_RELAY_QUEUE_SIZE_ATTRIB = "phoenix.coprocessor.serverCacheRelayQueueSize";
+    public static final String AGGREGATE_BATCH_SIZE_ATTRIB = "phoenix.coprocessor.aggregateBatchSize";
     public static final String MAX_INTRA_REGION_PARALLELIZATION_ATTRIB  = "phoenix.query.maxIntraRegionParallelization";
     public static final String ROW_KEY_ORDER_SALTED_TABLE_ATTRIB  = "phoenix.query.rowKeyOrderSaltedTable";
     public static final String USE_INDEXES_ATTRIB  = "phoenix.query.useIndexes";
     public static final String IMMUTABLE_ROWS_ATTRIB  = "phoenix.mutate.immutableRows";
     public static final String INDEX_MUTATE_BATCH_SIZE_THRESHOLD_ATTRIB  = "phoenix.index.mutableBatchSizeThreshold";
+    public static final String INDEX_ROW_STATE_CACHE_MAX_BYTES_ATTRIB  = "phoenix.index.rowStateCacheMaxBytes";
     public static final String DROP_METADATA_ATTRIB  = "phoenix.schema.dropMetaData";
     public static final String GROUPBY_SPILLABLE_ATTRIB  = "phoenix.groupby.spillable";
     public static final String GROUPBY_SPILL_FILES_ATTRIB = "phoenix.groupby.spillFiles";
     public static final String GROUPBY_MAX_CACHE_SIZE_ATTRIB = "phoenix.groupby.maxCacheSize";
+    public static final String GROUPBY_HYBRID_HASH_ATTRIB = "phoenix.groupby.hybridHash";
 
     public static final String CALL_QUEUE_PRODUCER_ATTRIB_NAME = "CALL_QUEUE_PRODUCER";
     
@@ -103,6 +121,11 @@ public interface QueryServices extends SQLCloseable {
     public static final String ZOOKEEPER_ROOT_NODE_ATTRIB = "zookeeper.znode.parent";
     public static final String DISTINCT_VALUE_COMPRESS_THRESHOLD_ATTRIB = "phoenix.distinct.value.compress.threshold";
     public static final String SEQUENCE_CACHE_SIZE_ATTRIB = "phoenix.sequence.cacheSize";
+    public static final String SEQUENCE_PREFETCH_THRESHOLD_ATTRIB = "phoenix.sequence.prefetchThreshold";
+    public static final String SEQUENCE_MAX_CACHE_SIZE_ATTRIB = "phoenix.sequence.maxCacheSize";
+    public static final String SEQUENCE_REFILL_INTERVAL_MS_ATTRIB = "phoenix.sequence.refillIntervalMs";
+    public static final String QUERY_PLAN_CACHE_SIZE_ATTRIB = "phoenix.connection.queryPlanCacheSize";
+    public static final String MAX_CLIENT_METADATA_CACHE_SIZE_ATTRIB = "phoenix.client.maxMetaDataCacheSize";
 
     
     /**
@@ -31,13 +31,17 @@ import static com.salesforce.phoenix.query.QueryServices.CALL_QUEUE_PRODUCER_ATT
 import static com.salesforce.phoenix.query.QueryServices.CALL_QUEUE_ROUND_ROBIN_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.DATE_FORMAT_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.DROP_METADATA_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.GROUPBY_HYBRID_HASH_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.GROUPBY_MAX_CACHE_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.GROUPBY_SPILL_FILES_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.GROUPBY_SPILLABLE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.IMMUTABLE_ROWS_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.INDEX_MUTATE_BATCH_SIZE_THRESHOLD_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.JOIN_BLOOM_FILTER_MAX_KEYS_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.KEEP_ALIVE_MS_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MASTER_INFO_PORT_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.MAX_CLIENT_METADATA_CACHE_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.MAX_IN_FLIGHT_COMMIT_BYTES_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_INTRA_REGION_PARALLELIZATION_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_MEMORY_PERC_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_MEMORY_WAIT_MS_ATTRIB;
@@ -48,6 +52,7 @@ import static com.salesforce.phoenix.query.QueryServices.MAX_SERVER_CACHE_TIME_T
 import static com.salesforce.phoenix.query.QueryServices.MAX_SPOOL_TO_DISK_BYTES_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MAX_TENANT_MEMORY_PERC_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.MUTATE_BATCH_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.QUERY_PLAN_CACHE_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.QUEUE_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.REGIONSERVER_INFO_PORT_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.REGIONSERVER_LEASE_PERIOD_ATTRIB;
@@ -55,6 +60,11 @@ import static com.salesforce.phoenix.query.QueryServices.ROW_KEY_ORDER_SALTED_TA
 import static com.salesforce.phoenix.query.QueryServices.RPC_TIMEOUT_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.SCAN_CACHE_SIZE_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.SEQUENCE_CACHE_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.SEQUENCE_MAX_CACHE_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.SEQUENCE_PREFETCH_THRESHOLD_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.SEQUENCE_REFILL_INTERVAL_MS_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.SERVER_CACHE_CHUNK_SIZE_ATTRIB;
+import static com.salesforce.phoenix.query.QueryServices.SERVER_CACHE_RELAY_FANOUT_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.SPOOL_THRESHOLD_BYTES_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.STATS_UPDATE_FREQ_MS_ATTRIB;
 import static com.salesforce.phoenix.query.QueryServices.TARGET_QUERY_CONCURRENCY_ATTRIB;
@@ -88,11 +98,17 @@ public class QueryServicesOptions {
 	public static final int DEFAULT_MAX_MEMORY_WAIT_MS = 10000;
 	public static final int DEFAULT_MAX_TENANT_MEMORY_PERC = 100;
 	public static final long DEFAULT_MAX_SERVER_CACHE_SIZE = 1024*1024*100;  // 100 Mb
+    public static final int DEFAULT_SERVER_CACHE_CHUNK_SIZE = 1024*1024*4;  // 4 Mb
+    // Number of region servers the client, and then each relaying region server, sends a server cache to
+    public static final int DEFAULT_SERVER_CACHE_RELAY_FANOUT = 8;
+    // Largest number of distinct hash join keys to build a bloom filter for (about 10 bits per key)
+    public static final int DEFAULT_JOIN_BLOOM_FILTER_MAX_KEYS = 100000;
     public static final int DEFAULT_TARGET_QUERY_CONCURRENCY = 32;
     public static final int DEFAULT_MAX_QUERY_CONCURRENCY = 64;
     public static final String DEFAULT_DATE_FORMAT = DateUtil.DEFAULT_DATE_FORMAT;
     public static final int DEFAULT_STATS_UPDATE_FREQ_MS = 15 * 60000; // 15min
     public static final int DEFAULT_MAX_STATS_AGE_MS = 24 * 60 * 60000; // 1 day
+    public static final long DEFAULT_STATS_GUIDEPOST_WIDTH_BYTES = 1024L * 1024L * 100L; // 100 Mb
     public static final boolean DEFAULT_CALL_QUEUE_ROUND_ROBIN = true; 
     public static final int DEFAULT_MAX_MUTATION_SIZE = 500000;
     public static final boolean DEFAULT_ROW_KEY_ORDER_SALTED_TABLE = true; // Merge sort on client to ensure salted tables are row key ordered
@@ -101,12 +117,21 @@ public class QueryServicesOptions {
     public static final boolean DEFAULT_DROP_METADATA = true; // Drop meta data also.
     
     public final static int DEFAULT_MUTATE_BATCH_SIZE = 1000; // Batch size for UPSERT SELECT and DELETE
+    public final static long DEFAULT_MAX_IN_FLIGHT_COMMIT_BYTES = 1024L * 1024L * 64L; // 64 Mb of asynchronous commits
 	// The only downside of it being out-of-sync is that the parallelization of the scan won't be as balanced as it could be.
     public static final int DEFAULT_MAX_SERVER_CACHE_TIME_TO_LIVE_MS = 30000; // 30 sec (with no activity)
+    // How long a region server waits on each level of the region servers it relayed a server cache to
+    public static final int DEFAULT_SERVER_CACHE_RELAY_TIMEOUT_MS = 15000; // 15 sec
+    // Threads of a region server relaying server cache chunks, and the number of relays that may wait for one
+    public static final int DEFAULT_SERVER_CACHE_RELAY_THREADS = 10;
+    public static final int DEFAULT_SERVER_CACHE_RELAY_QUEUE_SIZE = 500;
+    // Number of rows the aggregate coprocessors buffer to evaluate the aggregated expressions a batch at a time
+    public static final int DEFAULT_AGGREGATE_BATCH_SIZE = 64;
     public static final int DEFAULT_SCAN_CACHE_SIZE = 1000;
     public static final int DEFAULT_MAX_INTRA_REGION_PARALLELIZATION = DEFAULT_MAX_QUERY_CONCURRENCY;
     public static final int DEFAULT_DISTINCT_VALUE_COMPRESS_THRESHOLD = 1024 * 1024 * 1; // 1 Mb
     public static final int DEFAULT_INDEX_MUTATE_BATCH_SIZE_THRESHOLD = 5;
+    public static final long DEFAULT_INDEX_ROW_STATE_CACHE_MAX_BYTES = 1024L * 1024L * 16L; // 16 Mb per batch
     public static final long DEFAULT_MAX_SPOOL_TO_DISK_BYTES = 1024000000;
     
     // 
@@ -119,8 +144,21 @@ public class QueryServicesOptions {
     public static final int DEFAULT_GROUPBY_SPILL_FILES = 2;
     // Max size of 1st level main memory cache in bytes --> upper bound
     public static final long DEFAULT_GROUPBY_MAX_CACHE_MAX = 1024L*1024L*100L;  // 100 Mb
+    // Partition the rows of new groups into sequential spill runs once the cache is full,
+    // instead of paging spilled groups in and out
+    public static final boolean DEFAULT_GROUPBY_HYBRID_HASH = false;
     
     public static final int DEFAULT_SEQUENCE_CACHE_SIZE = 100;  // reserve 100 sequences at a time
+    // Fetch the next block of sequence values when a quarter of the current one is left
+    public static final float DEFAULT_SEQUENCE_PREFETCH_THRESHOLD = 0.25f;
+    // Grow blocks of sequence values so that a block lasts about a second, up to 10000 values
+    public static final int DEFAULT_SEQUENCE_MAX_CACHE_SIZE = 10000;
+    public static final long DEFAULT_SEQUENCE_REFILL_INTERVAL_MS = 1000;
+    
+    // Remember the chosen table of the 100 most recently executed queries of each connection
+    public static final int DEFAULT_QUERY_PLAN_CACHE_SIZE = 100;
+    // Evict the least recently used tables when the metadata cached on the client exceeds about 50 Mb
+    public static final long DEFAULT_MAX_CLIENT_METADATA_CACHE_SIZE = 1024L * 1024L * 50L;
     
     
     private final Configuration config;
@@ -158,6 +196,9 @@ public class QueryServicesOptions {
             .setIfUnset(MAX_MEMORY_WAIT_MS_ATTRIB, DEFAULT_MAX_MEMORY_WAIT_MS)
             .setIfUnset(MAX_TENANT_MEMORY_PERC_ATTRIB, DEFAULT_MAX_TENANT_MEMORY_PERC)
             .setIfUnset(MAX_SERVER_CACHE_SIZE_ATTRIB, DEFAULT_MAX_SERVER_CACHE_SIZE)
+            .setIfUnset(SERVER_CACHE_CHUNK_SIZE_ATTRIB, DEFAULT_SERVER_CACHE_CHUNK_SIZE)
+            .setIfUnset(SERVER_CACHE_RELAY_FANOUT_ATTRIB, DEFAULT_SERVER_CACHE_RELAY_FANOUT)
+            .setIfUnset(JOIN_BLOOM_FILTER_MAX_KEYS_ATTRIB, DEFAULT_JOIN_BLOOM_FILTER_MAX_KEYS)
             .setIfUnset(SCAN_CACHE_SIZE_ATTRIB, DEFAULT_SCAN_CACHE_SIZE)
             .setIfUnset(TARGET_QUERY_CONCURRENCY_ATTRIB, DEFAULT_TARGET_QUERY_CONCURRENCY)
             .setIfUnset(MAX_QUERY_CONCURRENCY_ATTRIB, DEFAULT_MAX_QUERY_CONCURRENCY)
@@ -165,6 +206,7 @@ public class QueryServicesOptions {
             .setIfUnset(STATS_UPDATE_FREQ_MS_ATTRIB, DEFAULT_STATS_UPDATE_FREQ_MS)
             .setIfUnset(CALL_QUEUE_ROUND_ROBIN_ATTRIB, DEFAULT_CALL_QUEUE_ROUND_ROBIN)
             .setIfUnset(MAX_MUTATION_SIZE_ATTRIB, DEFAULT_MAX_MUTATION_SIZE)
+            .setIfUnset(MAX_IN_FLIGHT_COMMIT_BYTES_ATTRIB, DEFAULT_MAX_IN_FLIGHT_COMMIT_BYTES)
             .setIfUnset(MAX_INTRA_REGION_PARALLELIZATION_ATTRIB, DEFAULT_MAX_INTRA_REGION_PARALLELIZATION)
             .setIfUnset(ROW_KEY_ORDER_SALTED_TABLE_ATTRIB, DEFAULT_ROW_KEY_ORDER_SALTED_TABLE)
             .setIfUnset(USE_INDEXES_ATTRIB, DEFAULT_USE_INDEXES)
@@ -175,7 +217,13 @@ public class QueryServicesOptions {
             .setIfUnset(GROUPBY_SPILLABLE_ATTRIB, DEFAULT_GROUPBY_SPILLABLE)
             .setIfUnset(GROUPBY_MAX_CACHE_SIZE_ATTRIB, DEFAULT_GROUPBY_MAX_CACHE_MAX)
             .setIfUnset(GROUPBY_SPILL_FILES_ATTRIB, DEFAULT_GROUPBY_SPILL_FILES)
+            .setIfUnset(GROUPBY_HYBRID_HASH_ATTRIB, DEFAULT_GROUPBY_HYBRID_HASH)
             .setIfUnset(SEQUENCE_CACHE_SIZE_ATTRIB, DEFAULT_SEQUENCE_CACHE_SIZE)
+            .setIfUnset(SEQUENCE_PREFETCH_THRESHOLD_ATTRIB, DEFAULT_SEQUENCE_PREFETCH_THRESHOLD)
+            .setIfUnset(SEQUENCE_MAX_CACHE_SIZE_ATTRIB, DEFAULT_SEQUENCE_MAX_CACHE_SIZE)
+            .setIfUnset(SEQUENCE_REFILL_INTERVAL_MS_ATTRIB, DEFAULT_SEQUENCE_REFILL_INTERVAL_MS)
+            .setIfUnset(QUERY_PLAN_CACHE_SIZE_ATTRIB, DEFAULT_QUERY_PLAN_CACHE_SIZE)
+            .setIfUnset(MAX_CLIENT_METADATA_CACHE_SIZE_ATTRIB, DEFAULT_MAX_CLIENT_METADATA_CACHE_SIZE)
             ;
         // HBase sets this to 1, so we reset it to something more appropriate.
         // Hopefully HBase will change this, because we can't know if a user set
@@ -208,6 +256,11 @@ public class QueryServicesOptions {
         return this;
     }
     
+    private QueryServicesOptions setIfUnset(String name, float value) {
+        config.setIfUnset(name, Float.toString(value));
+        return this;
+    }
+    
     private QueryServicesOptions setIfUnset(String name, String value) {
         config.setIfUnset(name, value);
         return this;
@@ -305,6 +358,10 @@ public class QueryServicesOptions {
     public QueryServicesOptions setSPGBYNumSpillFiles(long num) {
         return set(GROUPBY_SPILL_FILES_ATTRIB, num);
     }
+    
+    public QueryServicesOptions setGroupByHybridHash(boolean enabled) {
+        return set(GROUPBY_HYBRID_HASH_ATTRIB, enabled);
+    }
 
     
     private QueryServicesOptions set(String name, boolean value) {
@@ -382,6 +439,10 @@ public class QueryServicesOptions {
     public int getSpillableGroupByNumSpillFiles() {
         return config.getInt(GROUPBY_SPILL_FILES_ATTRIB, DEFAULT_GROUPBY_SPILL_FILES);
     }
+    
+    public boolean isGroupByHybridHash() {
+        return config.getBoolean(GROUPBY_HYBRID_HASH_ATTRIB, DEFAULT_GROUPBY_HYBRID_HASH);
+    }
 
     public QueryServicesOptions setMaxServerCacheTTLMs(int ttl) {
         return set(MAX_SERVER_CACHE_TIME_TO_LIVE_MS, ttl);
@@ -30,6 +30,7 @@ package com.salesforce.phoenix.query;
 import java.sql.SQLException;
 
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.stat.PTableStats;
 
 
 /**
@@ -58,6 +59,13 @@ public interface StatsManager {
      */
     byte[] getMaxKey(TableRef table);
     
+    /**
+     * Get the guide posts collected on the server for the regions of the given table
+     * @param table the table
+     * @return the table stats, with no guide posts for a region if unknown
+     */
+    PTableStats getTableStats(TableRef table);
+    
     /**
      * Manually update the cached table statistics
      * @param table the table
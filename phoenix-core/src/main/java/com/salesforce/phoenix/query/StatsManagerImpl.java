@@ -30,18 +30,29 @@ package com.salesforce.phoenix.query;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
 import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
 import org.apache.hadoop.hbase.client.Scan;
 import org.apache.hadoop.hbase.filter.KeyOnlyFilter;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Maps;
+import com.salesforce.phoenix.jdbc.PhoenixDatabaseMetaData;
 import com.salesforce.phoenix.schema.TableRef;
+import com.salesforce.phoenix.schema.stat.PTableStats;
+import com.salesforce.phoenix.schema.stat.PTableStatsImpl;
+import com.salesforce.phoenix.schema.stat.StatisticsUtil;
+import com.salesforce.phoenix.util.ByteUtil;
 import com.salesforce.phoenix.util.SchemaUtil;
 import com.salesforce.phoenix.util.ServerUtil;
 
@@ -56,7 +67,8 @@ import com.salesforce.phoenix.util.ServerUtil;
  * will have it's own cache for these stats. This isn't ideal and will get reworked when
  * the schema is kept on the server side. It's ok for now because:
  * 1) we only ask the server for these stats when the start/end region is queried against
- * 2) the query to get the stats pulls a single row so it's very cheap
+ * 2) the query to get the stats pulls a single row so it's very cheap, plus the
+ *  guide posts collected on the server, one row per region, from SYSTEM.STATS
  * 3) it's async and if it takes too long it won't lead to anything except less optimal
  *  parallelization.
  *
@@ -64,11 +76,12 @@ import com.salesforce.phoenix.util.ServerUtil;
  * @since 0.1
  */
 public class StatsManagerImpl implements StatsManager {
+    private static final Logger logger = LoggerFactory.getLogger(StatsManagerImpl.class);
     private final ConnectionQueryServices services;
     private final int statsUpdateFrequencyMs;
     private final int maxStatsAgeMs;
     private final TimeKeeper timeKeeper;
-    private final ConcurrentMap<String,PTableStats> tableStatsMap = new ConcurrentHashMap<String,PTableStats>();
+    private final ConcurrentMap<String,TableStats> tableStatsMap = new ConcurrentHashMap<String,TableStats>();
 
     public StatsManagerImpl(ConnectionQueryServices services, int statsUpdateFrequencyMs, int maxStatsAgeMs) {
         this(services, statsUpdateFrequencyMs, maxStatsAgeMs, TimeKeeper.SYSTEM);
@@ -123,7 +136,18 @@ public class StatsManagerImpl implements StatsManager {
             if (r != null) {
                 maxKey = r.getRow();
             }
-            tableStatsMap.put(tableRef.getTable().getName().getString(), new PTableStats(timeKeeper.currentTimeMillis(),minKey,maxKey));
+            String tableName = tableRef.getTable().getName().getString();
+            long completedTime = timeKeeper.currentTimeMillis();
+            PTableStats guidePosts;
+            try {
+                guidePosts = getGuidePosts(tableRef.getTable().getPhysicalName().getBytes(), SchemaUtil.getEmptyColumnFamily(tableRef.getTable().getColumnFamilies()), completedTime);
+            } catch (IOException e) {
+                // Keep the previous guide posts rather than losing the min/max keys along with them
+                logger.warn("Unable to read guide posts for " + tableName, e);
+                TableStats previousStats = tableStatsMap.get(tableName);
+                guidePosts = previousStats == null ? new PTableStatsImpl() : previousStats.getGuidePosts();
+            }
+            tableStatsMap.put(tableName, new TableStats(completedTime,minKey,maxKey,guidePosts));
         } catch (IOException e) {
             sqlE = ServerUtil.parseServerException(e);
         } finally {
@@ -143,10 +167,54 @@ public class StatsManagerImpl implements StatsManager {
         }
     }
     
-    private PTableStats getStats(final TableRef table) {
-        PTableStats stats = tableStatsMap.get(table);
+    /**
+     * Read the guide posts and chunk byte counts collected for each region of the table during
+     * major compaction. Only those of the column family of the empty key value are used, as every
+     * row has a key value in that family, and it's the one scanned when no other family is needed.
+     * @param family the column family of the empty key value
+     * @param timestamp the time at which the guide posts are read
+     */
+    private PTableStats getGuidePosts(byte[] physicalName, byte[] family, long timestamp) throws IOException {
+        Map<String,byte[][]> regionGuidePosts = Maps.newHashMap();
+        Map<String,long[]> regionChunkByteCounts = Maps.newHashMap();
+        byte[] startRow = StatisticsUtil.getRowKeyPrefix(physicalName);
+        Scan scan = new Scan(startRow, ByteUtil.nextKey(startRow));
+        scan.addColumn(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.GUIDE_POSTS_BYTES);
+        scan.addColumn(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.CHUNK_BYTE_COUNTS_BYTES);
+        HTableInterface statsTable = services.getTable(PhoenixDatabaseMetaData.STATS_TABLE_NAME_BYTES);
+        try {
+            ResultScanner scanner = statsTable.getScanner(scan);
+            try {
+                for (Result r = scanner.next(); r != null; r = scanner.next()) {
+                    if (!Bytes.equals(family, StatisticsUtil.getFamily(r.getRow(), startRow.length))) {
+                        continue;
+                    }
+                    KeyValue kv = r.getColumnLatest(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.GUIDE_POSTS_BYTES);
+                    if (kv != null) {
+                        String regionName = StatisticsUtil.getRegionName(r.getRow(), startRow.length);
+                        byte[][] guidePosts = StatisticsUtil.toGuidePosts(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+                        regionGuidePosts.put(regionName, guidePosts);
+                        kv = r.getColumnLatest(PhoenixDatabaseMetaData.STATS_FAMILY_BYTES, PhoenixDatabaseMetaData.CHUNK_BYTE_COUNTS_BYTES);
+                        long[] chunkByteCounts = kv == null ? null : StatisticsUtil.toChunkByteCounts(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+                        // Don't trust byte counts that don't match the guide posts of the same row
+                        if (chunkByteCounts != null && chunkByteCounts.length == guidePosts.length + 1) {
+                            regionChunkByteCounts.put(regionName, chunkByteCounts);
+                        }
+                    }
+                }
+            } finally {
+                scanner.close();
+            }
+        } finally {
+            statsTable.close();
+        }
+        return new PTableStatsImpl(regionGuidePosts, regionChunkByteCounts, timestamp);
+    }
+    
+    private TableStats getStats(final TableRef table) {
+        TableStats stats = tableStatsMap.get(table);
         if (stats == null) {
-            PTableStats newStats = new PTableStats();
+            TableStats newStats = new TableStats();
             stats = tableStatsMap.putIfAbsent(table.getTable().getName().getString(), newStats);
             stats = stats == null ? newStats : stats;
         }
@@ -172,7 +240,7 @@ public class StatsManagerImpl implements StatsManager {
             }
             // If the stats are older than the max age, use an empty stats
             if (currentTime - stats.getCompletedTime() >= maxStatsAgeMs) {
-                return PTableStats.NO_STATS;
+                return TableStats.NO_STATS;
             }
         }
         return stats;
@@ -180,29 +248,37 @@ public class StatsManagerImpl implements StatsManager {
     
     @Override
     public byte[] getMinKey(TableRef table) {
-        PTableStats stats = getStats(table);
+        TableStats stats = getStats(table);
         return stats.getMinKey();
     }
 
     @Override
     public byte[] getMaxKey(TableRef table) {
-        PTableStats stats = getStats(table);
+        TableStats stats = getStats(table);
         return stats.getMaxKey();
     }
 
-    private static class PTableStats {
-        private static final PTableStats NO_STATS = new PTableStats();
+    @Override
+    public PTableStats getTableStats(TableRef table) {
+        TableStats stats = getStats(table);
+        return stats.getGuidePosts();
+    }
+
+    private static class TableStats {
+        private static final TableStats NO_STATS = new TableStats();
         private long initiatedTime;
         private final long completedTime;
         private final byte[] minKey;
         private final byte[] maxKey;
+        private final PTableStats guidePosts;
         
-        public PTableStats() {
-            this(-1,null,null);
+        public TableStats() {
+            this(-1,null,null,new PTableStatsImpl());
         }
-        public PTableStats(long completedTime, byte[] minKey, byte[] maxKey) {
+        public TableStats(long completedTime, byte[] minKey, byte[] maxKey, PTableStats guidePosts) {
             this.minKey = minKey;
             this.maxKey = maxKey;
+            this.guidePosts = guidePosts;
             this.completedTime = this.initiatedTime = completedTime;
         }
 
@@ -214,6 +290,10 @@ public class StatsManagerImpl implements StatsManager {
             return maxKey;
         }
 
+        private PTableStats getGuidePosts() {
+            return guidePosts;
+        }
+
         private long getCompletedTime() {
             return completedTime;
         }
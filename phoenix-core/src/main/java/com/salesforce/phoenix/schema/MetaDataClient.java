@@ -308,7 +308,9 @@ public class MetaDataClient {
                         return result;
                     }
                     if (code == MutationCode.TABLE_NOT_FOUND && tryCount + 1 == maxTryCount) {
-                        connection.removeTable(fullTableName);
+                        try {
+                            connection.removeTable(fullTableName);
+                        } catch (TableNotFoundException ignore) { } // Ignore - just means it was evicted already
                     }
                 }
             }
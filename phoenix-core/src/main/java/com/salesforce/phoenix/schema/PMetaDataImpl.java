@@ -28,45 +28,235 @@
 package com.salesforce.phoenix.schema;
 
 import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.salesforce.phoenix.util.PersistentHashMap;
+import com.salesforce.phoenix.util.SizedUtil;
 
+/**
+ * 
+ * Immutable cache of table metadata. Tables are held in a {@link PersistentHashMap}, so adding,
+ * replacing or removing a table only costs O(log n) instead of a copy of the whole cache, and
+ * readers never need to lock. The cache is bounded by an estimate of its heap size: when it
+ * grows beyond it, the least recently used tables are evicted. An evicted table is simply pulled
+ * over from the server again the next time it's resolved.
+ *
+ * @since 0.1
+ */
 public class PMetaDataImpl implements PMetaData {
-    public static final PMetaData EMPTY_META_DATA = new PMetaDataImpl(Collections.<String,PTable>emptyMap());
-    private final Map<String,PTable> metaData;
+    public static final PMetaData EMPTY_META_DATA = new PMetaDataImpl(Long.MAX_VALUE);
+    // Rough estimate of the heap used by a table without and per column
+    private static final int TABLE_SIZE = SizedUtil.OBJECT_SIZE * 4 + SizedUtil.POINTER_SIZE * 32 + 512;
+    private static final int COLUMN_SIZE = SizedUtil.OBJECT_SIZE * 6 + SizedUtil.MAP_ENTRY_SIZE * 2 + 128;
+    // Upon eviction, shrink the cache to this fraction of its max size, so that evictions are infrequent
+    private static final double EVICTION_TARGET_RATIO = 0.75;
+    
+    private static final Comparator<Map.Entry<String,PTableRef>> LEAST_RECENTLY_USED_FIRST = new Comparator<Map.Entry<String,PTableRef>>() {
+        @Override
+        public int compare(Map.Entry<String,PTableRef> entry1, Map.Entry<String,PTableRef> entry2) {
+            long time1 = entry1.getValue().lastAccessTime;
+            long time2 = entry2.getValue().lastAccessTime;
+            return time1 < time2 ? -1 : time1 == time2 ? 0 : 1;
+        }
+    };
     
-    public PMetaDataImpl(Map<String,PTable> tables) {
-        this.metaData = ImmutableMap.copyOf(tables);
+    /**
+     * Holder of a cached table, shared by all the metadata snapshots that contain the same
+     * version of the table, so that an access through any of them counts for all.
+     */
+    private static class PTableRef {
+        private final PTable table;
+        private final long estimatedSize;
+        private volatile long lastAccessTime;
+        
+        private PTableRef(PTable table, long lastAccessTime) {
+            this.table = table;
+            this.estimatedSize = TABLE_SIZE + (long)COLUMN_SIZE * table.getColumns().size();
+            this.lastAccessTime = lastAccessTime;
+        }
+    }
+    
+    private final PersistentHashMap<String,PTableRef> tables;
+    private final long maxSize;
+    private final long estimatedSize;
+    // Upper bound of the time stamps of the tables, to skip pruning when no table is newer than an SCN
+    private final long maxTimeStamp;
+    private final int multiTenantCount;
+    private final AtomicLong accessClock;
+    
+    /**
+     * Create an empty cache.
+     * @param maxSize the estimated heap size in bytes beyond which the least recently used tables are evicted
+     */
+    public PMetaDataImpl(long maxSize) {
+        this(PersistentHashMap.<String,PTableRef>emptyMap(), maxSize, 0, Long.MIN_VALUE, 0, new AtomicLong());
+    }
+    
+    private PMetaDataImpl(PersistentHashMap<String,PTableRef> tables, long maxSize, long estimatedSize, long maxTimeStamp, int multiTenantCount, AtomicLong accessClock) {
+        this.tables = tables;
+        this.maxSize = maxSize;
+        this.estimatedSize = estimatedSize;
+        this.maxTimeStamp = maxTimeStamp;
+        this.multiTenantCount = multiTenantCount;
+        this.accessClock = accessClock;
     }
     
     @Override
     public PTable getTable(String name) throws TableNotFoundException {
-        PTable table = metaData.get(name);
-        if (table == null) {
+        PTableRef ref = tables.get(name);
+        if (ref == null) {
             throw new TableNotFoundException(name);
         }
-        return table;
+        ref.lastAccessTime = accessClock.incrementAndGet();
+        return ref.table;
     }
 
+    /**
+     * @return a read-only view of the cached tables. Iterating through it takes a snapshot of the
+     * tables, so it should be avoided on hot code paths.
+     */
     @Override
     public Map<String,PTable> getTables() {
-        return metaData;
-    }
+        return new AbstractMap<String,PTable>() {
+
+            @Override
+            public PTable get(Object key) {
+                PTableRef ref = key instanceof String ? tables.get((String)key) : null;
+                return ref == null ? null : ref.table;
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
 
+            @Override
+            public int size() {
+                return tables.size();
+            }
 
+            @Override
+            public Set<Map.Entry<String,PTable>> entrySet() {
+                final List<Map.Entry<String,PTableRef>> entries = tables.entries();
+                return new AbstractSet<Map.Entry<String,PTable>>() {
+
+                    @Override
+                    public Iterator<Map.Entry<String,PTable>> iterator() {
+                        final Iterator<Map.Entry<String,PTableRef>> iterator = entries.iterator();
+                        return new Iterator<Map.Entry<String,PTable>>() {
+
+                            @Override
+                            public boolean hasNext() {
+                                return iterator.hasNext();
+                            }
+
+                            @Override
+                            public Map.Entry<String,PTable> next() {
+                                Map.Entry<String,PTableRef> entry = iterator.next();
+                                return new AbstractMap.SimpleImmutableEntry<String,PTable>(entry.getKey(), entry.getValue().table);
+                            }
+
+                            @Override
+                            public void remove() {
+                                throw new UnsupportedOperationException();
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return entries.size();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Accumulates the changes made to the cache by a single operation
+     */
+    private class Builder {
+        private PersistentHashMap<String,PTableRef> tables = PMetaDataImpl.this.tables;
+        private long estimatedSize = PMetaDataImpl.this.estimatedSize;
+        private long maxTimeStamp = PMetaDataImpl.this.maxTimeStamp;
+        private int multiTenantCount = PMetaDataImpl.this.multiTenantCount;
+        
+        private PTable get(String name) {
+            PTableRef ref = tables.get(name);
+            return ref == null ? null : ref.table;
+        }
+        
+        private PTable put(PTable table) {
+            String name = table.getName().getString();
+            PTable oldTable = remove(name);
+            PTableRef ref = new PTableRef(table, accessClock.incrementAndGet());
+            tables = tables.put(name, ref);
+            estimatedSize += ref.estimatedSize;
+            maxTimeStamp = Math.max(maxTimeStamp, table.getTimeStamp());
+            if (table.isMultiTenant()) {
+                multiTenantCount++;
+            }
+            return oldTable;
+        }
+        
+        private PTable remove(String name) {
+            PTableRef ref = tables.get(name);
+            if (ref == null) {
+                return null;
+            }
+            tables = tables.remove(name);
+            estimatedSize -= ref.estimatedSize;
+            if (ref.table.isMultiTenant()) {
+                multiTenantCount--;
+            }
+            return ref.table;
+        }
+        
+        /**
+         * Evict the least recently used tables until the cache is well below its max size.
+         * System tables are never evicted, as they're not pulled over from the server again.
+         */
+        private void evictIfFull() {
+            if (estimatedSize <= maxSize) {
+                return;
+            }
+            long targetSize = (long)(maxSize * EVICTION_TARGET_RATIO);
+            List<Map.Entry<String,PTableRef>> entries = tables.entries();
+            Collections.sort(entries, LEAST_RECENTLY_USED_FIRST);
+            for (Map.Entry<String,PTableRef> entry : entries) {
+                if (estimatedSize <= targetSize) {
+                    break;
+                }
+                if (entry.getValue().table.getType() != PTableType.SYSTEM) {
+                    remove(entry.getKey());
+                }
+            }
+        }
+        
+        private PMetaDataImpl build() {
+            if (tables == PMetaDataImpl.this.tables) {
+                return PMetaDataImpl.this;
+            }
+            return new PMetaDataImpl(tables, maxSize, estimatedSize, maxTimeStamp, multiTenantCount, accessClock);
+        }
+    }
+    
     @Override
     public PMetaData addTable(PTable table) throws SQLException {
-        Map<String,PTable> tables = Maps.newHashMap(metaData);
-        PTable oldTable = tables.put(table.getName().getString(), table);
+        Builder builder = new Builder();
+        PTable oldTable = builder.put(table);
         if (table.getParentName() != null) { // Upsert new index table into parent data table list
             String parentName = table.getParentName().getString();
-            PTable parentTable = tables.get(parentName);
+            PTable parentTable = builder.get(parentName);
             // If parentTable isn't cached, that's ok we can skip this
             if (parentTable != null) {
                 List<PTable> oldIndexes = parentTable.getIndexes();
@@ -76,19 +266,19 @@ public class PMetaDataImpl implements PMetaData {
                     newIndexes.remove(oldTable);
                 }
                 newIndexes.add(table);
-                tables.put(parentName, PTableImpl.makePTable(parentTable, table.getTimeStamp(), newIndexes));
+                builder.put(PTableImpl.makePTable(parentTable, table.getTimeStamp(), newIndexes));
             }
         }
         for (PTable index : table.getIndexes()) {
-            tables.put(index.getName().getString(), index);
+            builder.put(index);
         }
-        return new PMetaDataImpl(tables);
+        builder.evictIfFull();
+        return builder.build();
     }
 
     @Override
     public PMetaData addColumn(String tableName, List<PColumn> columnsToAdd, long tableTimeStamp, long tableSeqNum, boolean isImmutableRows) throws SQLException {
         PTable table = getTable(tableName);
-        Map<String,PTable> tables = Maps.newHashMap(metaData);
         List<PColumn> oldColumns = PTableImpl.getColumnsToClone(table);
         List<PColumn> newColumns;
         if (columnsToAdd.isEmpty()) {
@@ -99,30 +289,29 @@ public class PMetaDataImpl implements PMetaData {
             newColumns.addAll(columnsToAdd);
         }
         PTable newTable = PTableImpl.makePTable(table, tableTimeStamp, tableSeqNum, newColumns, isImmutableRows);
-        tables.put(tableName, newTable);
-        return new PMetaDataImpl(tables);
+        Builder builder = new Builder();
+        builder.put(newTable);
+        builder.evictIfFull();
+        return builder.build();
     }
 
     @Override
     public PMetaData removeTable(String tableName) throws SQLException {
-        PTable table;
-        Map<String,PTable> tables = Maps.newHashMap(metaData);
-        if ((table=tables.remove(tableName)) == null) {
+        Builder builder = new Builder();
+        PTable table = builder.remove(tableName);
+        if (table == null) {
             throw new TableNotFoundException(tableName);
-        } else {
-            for (PTable index : table.getIndexes()) {
-                if (tables.remove(index.getName().getString()) == null) {
-                    throw new TableNotFoundException(index.getName().getString());
-                }
-            }
         }
-        return new PMetaDataImpl(tables);
+        // Some of the indexes may have been evicted already, so don't insist on them being cached
+        for (PTable index : table.getIndexes()) {
+            builder.remove(index.getName().getString());
+        }
+        return builder.build();
     }
     
     @Override
     public PMetaData removeColumn(String tableName, String familyName, String columnName, long tableTimeStamp, long tableSeqNum) throws SQLException {
         PTable table = getTable(tableName);
-        Map<String,PTable> tables = Maps.newHashMap(metaData);
         PColumn column;
         if (familyName == null) {
             column = table.getPKColumn(columnName);
@@ -147,62 +336,40 @@ public class PMetaDataImpl implements PMetaData {
         }
         
         PTable newTable = PTableImpl.makePTable(table, tableTimeStamp, tableSeqNum, columns);
-        tables.put(tableName, newTable);
-        return new PMetaDataImpl(tables);
+        Builder builder = new Builder();
+        builder.put(newTable);
+        return builder.build();
     }
 
     public static PMetaData pruneNewerTables(long scn, PMetaData metaData) {
-        if (!hasNewerMetaData(scn, metaData)) {
+        PMetaDataImpl metaDataImpl = (PMetaDataImpl)metaData;
+        if (metaDataImpl.maxTimeStamp < scn) {
             return metaData;
         }
-        Map<String,PTable> newTables = Maps.newHashMap(metaData.getTables());
-        Iterator<Map.Entry<String, PTable>> tableIterator = newTables.entrySet().iterator();
-        boolean wasModified = false;
-        while (tableIterator.hasNext()) {
-            PTable table = tableIterator.next().getValue();
+        Builder builder = metaDataImpl.new Builder();
+        builder.maxTimeStamp = Long.MIN_VALUE;
+        for (Map.Entry<String,PTableRef> entry : metaDataImpl.tables.entries()) {
+            PTable table = entry.getValue().table;
             if (table.getTimeStamp() >= scn && table.getType() != PTableType.SYSTEM) {
-                tableIterator.remove();
-                wasModified = true;
+                builder.remove(entry.getKey());
+            } else {
+                builder.maxTimeStamp = Math.max(builder.maxTimeStamp, table.getTimeStamp());
             }
         }
-    
-        if (wasModified) {
-            return new PMetaDataImpl(newTables);
-        }
-        return metaData;
+        return builder.build();
     }
 
-    private static boolean hasNewerMetaData(long scn, PMetaData metaData) {
-        for (PTable table : metaData.getTables().values()) {
-            if (table.getTimeStamp() >= scn) {
-                return true;
-            }
-        }
-        return false;
-    }
-    
-    private static boolean hasMultiTenantMetaData(PMetaData metaData) {
-        for (PTable table : metaData.getTables().values()) {
-            if (table.isMultiTenant()) {
-                return true;
-            }
-        }
-        return false;
-    }
-    
     public static PMetaData pruneMultiTenant(PMetaData metaData) {
-        if (!hasMultiTenantMetaData(metaData)) {
+        PMetaDataImpl metaDataImpl = (PMetaDataImpl)metaData;
+        if (metaDataImpl.multiTenantCount == 0) {
             return metaData;
         }
-        Map<String,PTable> newTables = Maps.newHashMap(metaData.getTables());
-        Iterator<Map.Entry<String, PTable>> tableIterator = newTables.entrySet().iterator();
-        while (tableIterator.hasNext()) {
-            PTable table = tableIterator.next().getValue();
-            if (table.isMultiTenant()) {
-                tableIterator.remove();
+        Builder builder = metaDataImpl.new Builder();
+        for (Map.Entry<String,PTableRef> entry : metaDataImpl.tables.entries()) {
+            if (entry.getValue().table.isMultiTenant()) {
+                builder.remove(entry.getKey());
             }
         }
-    
-        return new PMetaDataImpl(newTables);
+        return builder.build();
     }
 }
@@ -11,6 +11,8 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.hadoop.hbase.HConstants;
@@ -58,10 +60,34 @@ public class Sequence {
     private final ReentrantLock lock;
     private List<SequenceValue> values;
     
+    // Prefetching of the next block of values and adaptive sizing of blocks
+    private final float prefetchThreshold;
+    private final int maxCacheSize;
+    private final long refillIntervalMs;
+    private long allocationTimestamp = HConstants.LATEST_TIMESTAMP;
+    private int declaredCacheSize;
+    private int cacheSize;
+    private long allocationTime;
+    
     public Sequence(SequenceKey key) {
+        this(key, 0, 0, 0);
+    }
+    
+    /**
+     * @param key the sequence key
+     * @param prefetchThreshold fraction of a block that may remain unused when the next block
+     *  is requested asynchronously. A value of 0 disables prefetching.
+     * @param maxCacheSize upper bound of the block size requested from the server as the rate
+     *  at which values are consumed goes up.
+     * @param refillIntervalMs time it should take to consume a block at the observed rate.
+     */
+    public Sequence(SequenceKey key, float prefetchThreshold, int maxCacheSize, long refillIntervalMs) {
         if (key == null) throw new NullPointerException();
         this.key = key;
         this.lock = new ReentrantLock();
+        this.prefetchThreshold = prefetchThreshold;
+        this.maxCacheSize = maxCacheSize;
+        this.refillIntervalMs = refillIntervalMs;
     }
 
     private void insertSequenceValue(SequenceValue value) {
@@ -105,7 +131,7 @@ public class Sequence {
         if (value == null) {
             throw EMPTY_SEQUENCE_CACHE_EXCEPTION;
         }
-        if (value.currentValue == value.nextValue) {
+        if (value.currentValue == value.nextValue && !addPrefetchedValues(value)) {
             throw EMPTY_SEQUENCE_CACHE_EXCEPTION;
         }
         long returnValue = value.currentValue;
@@ -119,6 +145,7 @@ public class Sequence {
         }
         List<Append> appends = Lists.newArrayListWithExpectedSize(values.size());
         for (SequenceValue value : values) {
+            addPrefetchedValues(value);
             if (value.isInitialized() && value.currentValue != value.nextValue) {
                 appends.add(newReturn(value));
             }
@@ -131,6 +158,9 @@ public class Sequence {
         if (value == null) {
             throw EMPTY_SEQUENCE_CACHE_EXCEPTION;
         }
+        // The server has handed out the prefetched block too, so it must be given back with
+        // the current one for the return to succeed.
+        addPrefetchedValues(value);
         if (value.currentValue == value.nextValue) {
             throw EMPTY_SEQUENCE_CACHE_EXCEPTION;
         }
@@ -188,12 +218,102 @@ public class Sequence {
         }
         // If we found the sequence, we update our cache with the new value
         SequenceValue value = new SequenceValue(result);
+        allocated(value);
         insertSequenceValue(value);
         long currentValue = value.currentValue;
         value.currentValue += factor * value.incrementBy;
         return currentValue;
     }
 
+    /**
+     * Adds the block of values fetched ahead of time, if any, to the given sequence value.
+     * Waits for the fetch to complete if it is still in progress. A prefetch that failed is
+     * dropped, leaving it to the synchronous allocation to report the error.
+     * @return true if values were added and false otherwise.
+     */
+    private boolean addPrefetchedValues(SequenceValue value) {
+        Future<Result> prefetch = value.prefetch;
+        if (prefetch == null) {
+            return false;
+        }
+        value.prefetch = null;
+        Result result;
+        try {
+            result = prefetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        }
+        if (result.raw().length == 1) { // Error, for example if the sequence was dropped
+            return false;
+        }
+        SequenceValue block = new SequenceValue(result);
+        if (block.timestamp != value.timestamp || block.incrementBy != value.incrementBy) {
+            return false;
+        }
+        allocated(block);
+        if (block.currentValue != value.nextValue) {
+            // Another client allocated values in between, so the values that remain in
+            // the current block can no longer be returned and are skipped.
+            value.currentValue = block.currentValue;
+        }
+        value.nextValue = block.nextValue;
+        return true;
+    }
+
+    /**
+     * Adjusts the size of the next block to request based on the rate at which the values
+     * of the previous block were consumed, aiming for a block to last refillIntervalMs. Only
+     * done for sequences declared with a cache large enough to be prefetched, and the size
+     * is at most halved or doubled at a time, staying between the declared cache size and
+     * maxCacheSize.
+     */
+    private void allocated(SequenceValue block) {
+        long now = System.currentTimeMillis();
+        if (block.timestamp != allocationTimestamp) {
+            // First block or a re-created sequence: start over from the declared cache size
+            allocationTimestamp = block.timestamp;
+            declaredCacheSize = cacheSize = block.cacheSize;
+        } else if (isPrefetchEnabled() && maxCacheSize > declaredCacheSize) {
+            long elapsedMs = Math.max(1, now - allocationTime);
+            long targetCacheSize = cacheSize * refillIntervalMs / elapsedMs;
+            targetCacheSize = Math.max(cacheSize / 2, Math.min(2L * cacheSize, targetCacheSize));
+            cacheSize = (int)Math.max(declaredCacheSize, Math.min(maxCacheSize, targetCacheSize));
+        }
+        allocationTime = now;
+    }
+
+    private boolean isPrefetchEnabled() {
+        return declaredCacheSize * prefetchThreshold >= 1;
+    }
+
+    /**
+     * Creates an Increment to asynchronously fetch the next block of values if the number of
+     * values left in the current block has dropped to the prefetch threshold. The caller must
+     * run it and hand its result over through {@link #setPrefetch(long, Future)}.
+     * @return the Increment or null if no prefetch is needed.
+     */
+    public Increment newPrefetch(long timestamp) {
+        SequenceValue value = findSequenceValue(timestamp);
+        if (value == null || !value.isInitialized() || value.prefetch != null || !isPrefetchEnabled()) {
+            return null;
+        }
+        long remaining = (value.nextValue - value.currentValue) / value.incrementBy;
+        if (remaining > cacheSize * prefetchThreshold) {
+            return null;
+        }
+        return newIncrement(timestamp);
+    }
+
+    public void setPrefetch(long timestamp, Future<Result> prefetch) {
+        SequenceValue value = findSequenceValue(timestamp);
+        if (value != null) {
+            value.prefetch = prefetch;
+        }
+    }
+
     public Increment newIncrement(long timestamp) {
         Increment inc = new Increment(SchemaUtil.getSequenceKey(key.getTenantId(), key.getSchemaName(), key.getSequenceName()));
         // It doesn't matter what we set the amount too - we always use the values we get
@@ -208,6 +328,10 @@ public class Sequence {
             // We don't care about the amount, as we'll add what gets looked up on the server-side
             inc.addColumn(kv.getFamily(), kv.getQualifier(), AMOUNT);
         }
+        // Except for the cache size, for which a non zero amount overrides the declared size
+        if (cacheSize != declaredCacheSize) {
+            inc.addColumn(SEQUENCE_FAMILY_BYTES, CACHE_SIZE_BYTES, cacheSize);
+        }
         return inc;
     }
     
@@ -251,6 +375,13 @@ public class Sequence {
         return new Result(newkvs);
     }
     
+    public static Result replaceCacheSizeKV(Result r, KeyValue cacheSizeKV) {
+        KeyValue[] kvs = r.raw();
+        List<KeyValue> newkvs = Lists.newArrayList(kvs);
+        newkvs.set(CACHE_SIZE_INDEX, cacheSizeKV);
+        return new Result(newkvs);
+    }
+    
     private static final class SequenceValue {
         public final long incrementBy;
         public final int cacheSize;
@@ -258,6 +389,7 @@ public class Sequence {
         
         public long currentValue;
         public long nextValue;
+        public Future<Result> prefetch;
         
         public SequenceValue(long timestamp) {
             this(timestamp, false);
@@ -51,5 +51,19 @@ public interface PTableStats {
      */
     byte[][] getRegionGuidePosts(HRegionInfo region);
 
+    /**
+     * Given the region info, returns the estimated number of bytes of each chunk of that region
+     * delimited by its guide posts, including the chunk after the last guide post.
+     * 
+     * @param region
+     * @return array of byte counts, one more than the number of guide posts, or null if unknown
+     */
+    long[] getRegionChunkByteCounts(HRegionInfo region);
+
+    /**
+     * @return the time at which the stats were read, or -1 if unknown
+     */
+    long getTimestamp();
+
     void write(DataOutput output) throws IOException;
 }
@@ -47,16 +47,36 @@ public class PTableStatsImpl implements PTableStats {
     // The map for guide posts should be immutable. We only take the current snapshot from outside
     // method call and store it.
     private Map<String, byte[][]> regionGuidePosts;
+    // The chunk byte counts and the timestamp are only read from SYSTEM.STATS by the StatsManager,
+    // so they are not serialized along with the PTable.
+    private Map<String, long[]> regionChunkByteCounts;
+    private long timestamp = -1;
 
     public PTableStatsImpl() { }
 
     public PTableStatsImpl(Map<String, byte[][]> stats) {
+        this(stats, ImmutableMap.<String, long[]>of(), -1);
+    }
+
+    public PTableStatsImpl(Map<String, byte[][]> stats, Map<String, long[]> chunkByteCounts, long timestamp) {
         regionGuidePosts = ImmutableMap.copyOf(stats);
+        regionChunkByteCounts = ImmutableMap.copyOf(chunkByteCounts);
+        this.timestamp = timestamp;
+    }
+
+    @Override
+    public long getTimestamp() {
+        return timestamp;
     }
 
     @Override
     public byte[][] getRegionGuidePosts(HRegionInfo region) {
-        return regionGuidePosts.get(region.getRegionNameAsString());
+        return regionGuidePosts == null ? null : regionGuidePosts.get(region.getRegionNameAsString());
+    }
+
+    @Override
+    public long[] getRegionChunkByteCounts(HRegionInfo region) {
+        return regionChunkByteCounts == null ? null : regionChunkByteCounts.get(region.getRegionNameAsString());
     }
 
     @Override
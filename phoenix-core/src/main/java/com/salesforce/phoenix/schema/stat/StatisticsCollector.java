@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.schema.stat;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.google.common.collect.Lists;
+
+
+/**
+ * 
+ * Collects equi-depth guide posts for a region as its key values are streamed
+ * through in row key order. A guide post is the first row key after at least
+ * guidePostWidth bytes have been seen since the last guide post, so that the
+ * guide posts split the region into chunks of roughly equal size. The number of
+ * bytes of each chunk is tracked as well, as the first and last chunks of a region
+ * are usually smaller than guidePostWidth.
+ *
+ * @since 3.0.0
+ */
+public class StatisticsCollector {
+    private final long guidePostWidth;
+    private final List<byte[]> guidePosts = Lists.newArrayList();
+    private final List<Long> chunkByteCounts = Lists.newArrayList();
+    private byte[] currentRow;
+    private long byteCount;
+    
+    public StatisticsCollector(long guidePostWidth) {
+        this.guidePostWidth = guidePostWidth;
+    }
+    
+    /**
+     * Track the given key value. Key values must be provided in row key order.
+     * @param kv the key value
+     */
+    public void collect(KeyValue kv) {
+        if (currentRow == null || Bytes.compareTo(currentRow, 0, currentRow.length, kv.getBuffer(), kv.getRowOffset(), kv.getRowLength()) != 0) {
+            currentRow = kv.getRow();
+            if (byteCount >= guidePostWidth) {
+                guidePosts.add(currentRow);
+                chunkByteCounts.add(byteCount);
+                byteCount = 0;
+            }
+        }
+        byteCount += kv.getLength();
+    }
+    
+    public void collect(List<KeyValue> kvs) {
+        for (int i = 0; i < kvs.size(); i++) {
+            collect(kvs.get(i));
+        }
+    }
+    
+    /**
+     * @return the guide posts collected so far, in row key order
+     */
+    public byte[][] getGuidePosts() {
+        return guidePosts.toArray(new byte[guidePosts.size()][]);
+    }
+    
+    /**
+     * @return the number of bytes of each chunk delimited by the guide posts collected so far,
+     * including the chunk after the last guide post, in row key order
+     */
+    public long[] getChunkByteCounts() {
+        long[] byteCounts = new long[chunkByteCounts.size() + 1];
+        for (int i = 0; i < chunkByteCounts.size(); i++) {
+            byteCounts[i] = chunkByteCounts.get(i);
+        }
+        byteCounts[chunkByteCounts.size()] = byteCount;
+        return byteCounts;
+    }
+}
@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.schema.stat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+
+import com.salesforce.phoenix.query.QueryConstants;
+import com.salesforce.phoenix.util.ByteUtil;
+
+
+/**
+ * 
+ * Utility methods for reading and writing the guide posts stored in SYSTEM.STATS
+ *
+ * @since 3.0.0
+ */
+public class StatisticsUtil {
+    private StatisticsUtil() {
+    }
+    
+    /**
+     * Get the row key of the SYSTEM.STATS row for the given column family of a region of a table.
+     * Each store of a region is compacted separately, so its guide posts are kept in a row of its own.
+     * @param physicalName the physical name of the table
+     * @param regionName the name of the region as returned by {@link org.apache.hadoop.hbase.HRegionInfo#getRegionNameAsString()}
+     * @param family the name of the column family
+     */
+    public static byte[] getRowKey(byte[] physicalName, String regionName, byte[] family) {
+        return ByteUtil.concat(getRowKeyPrefix(physicalName, regionName), family);
+    }
+    
+    /**
+     * Get the row key prefix shared by the SYSTEM.STATS rows of all column families of a region
+     * @param physicalName the physical name of the table
+     * @param regionName the name of the region as returned by {@link org.apache.hadoop.hbase.HRegionInfo#getRegionNameAsString()}
+     */
+    public static byte[] getRowKeyPrefix(byte[] physicalName, String regionName) {
+        return ByteUtil.concat(getRowKeyPrefix(physicalName), Bytes.toBytes(regionName), QueryConstants.SEPARATOR_BYTE_ARRAY);
+    }
+    
+    /**
+     * Get the row key prefix shared by all SYSTEM.STATS rows of a table
+     * @param physicalName the physical name of the table
+     */
+    public static byte[] getRowKeyPrefix(byte[] physicalName) {
+        return ByteUtil.concat(physicalName, QueryConstants.SEPARATOR_BYTE_ARRAY);
+    }
+    
+    /**
+     * Get the region name from a SYSTEM.STATS row key
+     * @param prefixLength the length of the row key prefix of the table
+     */
+    public static String getRegionName(byte[] rowKey, int prefixLength) {
+        return Bytes.toString(rowKey, prefixLength, Math.max(0, getFamilyOffset(rowKey, prefixLength) - 1 - prefixLength));
+    }
+    
+    /**
+     * Get the column family name from a SYSTEM.STATS row key
+     * @param prefixLength the length of the row key prefix of the table
+     */
+    public static byte[] getFamily(byte[] rowKey, int prefixLength) {
+        return Arrays.copyOfRange(rowKey, getFamilyOffset(rowKey, prefixLength), rowKey.length);
+    }
+    
+    private static int getFamilyOffset(byte[] rowKey, int prefixLength) {
+        // The region name is printable, so the last separator is the one before the column family
+        int familyOffset = rowKey.length;
+        while (familyOffset > prefixLength && rowKey[familyOffset - 1] != QueryConstants.SEPARATOR_BYTE) {
+            familyOffset--;
+        }
+        return familyOffset;
+    }
+    
+    public static byte[] toBytes(byte[][] guidePosts) {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytesOut);
+        try {
+            WritableUtils.writeVInt(output, guidePosts.length);
+            for (int i = 0; i < guidePosts.length; i++) {
+                Bytes.writeByteArray(output, guidePosts[i]);
+            }
+            output.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Impossible
+        }
+        return bytesOut.toByteArray();
+    }
+    
+    public static byte[] toBytes(long[] chunkByteCounts) {
+        ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytesOut);
+        try {
+            WritableUtils.writeVInt(output, chunkByteCounts.length);
+            for (int i = 0; i < chunkByteCounts.length; i++) {
+                WritableUtils.writeVLong(output, chunkByteCounts[i]);
+            }
+            output.close();
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Impossible
+        }
+        return bytesOut.toByteArray();
+    }
+    
+    public static byte[][] toGuidePosts(byte[] b, int offset, int length) {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(b, offset, length));
+        try {
+            int size = WritableUtils.readVInt(input);
+            byte[][] guidePosts = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                guidePosts[i] = Bytes.readByteArray(input);
+            }
+            return guidePosts;
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Impossible
+        }
+    }
+    
+    public static long[] toChunkByteCounts(byte[] b, int offset, int length) {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(b, offset, length));
+        try {
+            int size = WritableUtils.readVInt(input);
+            long[] chunkByteCounts = new long[size];
+            for (int i = 0; i < size; i++) {
+                chunkByteCounts[i] = WritableUtils.readVLong(input);
+            }
+            return chunkByteCounts;
+        } catch (IOException e) {
+            throw new RuntimeException(e); // Impossible
+        }
+    }
+}
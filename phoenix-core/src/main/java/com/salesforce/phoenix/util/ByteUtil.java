@@ -566,4 +566,20 @@ public class ByteUtil {
             throw new IllegalArgumentException("Unknown operator " + op);
         }
     }
+    
+    /**
+     * Get the partition of a key when spilling hash partitioned rows to disk.
+     * @param key the key to partition
+     * @param depth the number of times the rows were already partitioned, which is mixed into
+     * the hash so that the keys of a partition are spread again when it's partitioned further
+     * @param numPartitions the number of partitions
+     * @return the partition, between 0 and numPartitions - 1
+     */
+    public static int getPartition(ImmutableBytesPtr key, int depth, int numPartitions) {
+        int h = key.hashCode() ^ (depth * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & Integer.MAX_VALUE) % numPartitions;
+    }
 }
@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.util;
+
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+
+/**
+ * 
+ * Immutable hash map in which {@link #put(Object, Object)} and {@link #remove(Object)}
+ * return a new map that shares all but the path to the changed entry with the original
+ * one (a hash array mapped trie). Updates only copy O(log32 n) small arrays instead of
+ * the entire map, and, since a map never changes once built, it may be read concurrently
+ * without any locking.
+ *
+ * @since 3.0.0
+ */
+public class PersistentHashMap<K,V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHashMap EMPTY_MAP = new PersistentHashMap<Object,Object>(BitmapNode.EMPTY, 0);
+    
+    private final Node root;
+    private final int size;
+    
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public static <K,V> PersistentHashMap<K,V> emptyMap() {
+        return EMPTY_MAP;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        return (V)root.get(0, hash(key), key);
+    }
+    
+    public PersistentHashMap<K,V> put(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node newRoot = root.put(0, hash(key), key, value, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<K,V>(newRoot, added[0] ? size + 1 : size);
+    }
+    
+    public PersistentHashMap<K,V> remove(K key) {
+        Node newRoot = root.remove(0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<K,V>(newRoot == null ? BitmapNode.EMPTY : newRoot, size - 1);
+    }
+    
+    /**
+     * @return a snapshot of the entries of the map, in no particular order
+     */
+    @SuppressWarnings("unchecked")
+    public List<Map.Entry<K,V>> entries() {
+        List<Map.Entry<Object,Object>> entries = Lists.newArrayListWithExpectedSize(size);
+        root.addEntries(entries);
+        return (List<Map.Entry<K,V>>)(List<?>)entries;
+    }
+    
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+    
+    private static int bitpos(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+    
+    private static abstract class Node {
+        abstract Object get(int shift, int hash, Object key);
+        /**
+         * @return this if the node is unchanged
+         */
+        abstract Node put(int shift, int hash, Object key, Object value, boolean[] added);
+        /**
+         * @return this if the key was not found and null if the node became empty
+         */
+        abstract Node remove(int shift, int hash, Object key);
+        abstract void addEntries(List<Map.Entry<Object,Object>> entries);
+    }
+    
+    /**
+     * Node holding up to 32 slots, of which only the ones that are set in the bitmap are allocated.
+     * Each slot is a pair in the array: either a key and its value or null and a child node.
+     */
+    private static final class BitmapNode extends Node {
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+        
+        private final int bitmap;
+        private final Object[] array;
+        
+        private BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+        
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+        
+        @Override
+        Object get(int shift, int hash, Object key) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return null;
+            }
+            int i = 2 * index(bit);
+            Object keyOrNull = array[i];
+            if (keyOrNull == null) {
+                return ((Node)array[i+1]).get(shift + BITS, hash, key);
+            }
+            return key.equals(keyOrNull) ? array[i+1] : null;
+        }
+
+        @Override
+        Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = bitpos(hash, shift);
+            int i = 2 * index(bit);
+            if ((bitmap & bit) == 0) {
+                Object[] newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, i);
+                newArray[i] = key;
+                newArray[i+1] = value;
+                System.arraycopy(array, i, newArray, i + 2, array.length - i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, newArray);
+            }
+            Object keyOrNull = array[i];
+            Object valueOrNode = array[i+1];
+            Object[] newArray;
+            if (keyOrNull == null) {
+                Node newNode = ((Node)valueOrNode).put(shift + BITS, hash, key, value, added);
+                if (newNode == valueOrNode) {
+                    return this;
+                }
+                newArray = array.clone();
+                newArray[i+1] = newNode;
+            } else if (key.equals(keyOrNull)) {
+                if (value == valueOrNode) {
+                    return this;
+                }
+                newArray = array.clone();
+                newArray[i+1] = value;
+            } else {
+                // Push both entries down one level
+                newArray = array.clone();
+                newArray[i] = null;
+                newArray[i+1] = newNode(shift + BITS, keyOrNull, valueOrNode, hash, key, value);
+                added[0] = true;
+            }
+            return new BitmapNode(bitmap, newArray);
+        }
+        
+        private static Node newNode(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+            int hash1 = hash(key1);
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+            }
+            boolean[] added = new boolean[1];
+            return EMPTY.put(shift, hash1, key1, value1, added).put(shift, hash2, key2, value2, added);
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            int bit = bitpos(hash, shift);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = 2 * index(bit);
+            Object keyOrNull = array[i];
+            Object valueOrNode = array[i+1];
+            if (keyOrNull == null) {
+                Node newNode = ((Node)valueOrNode).remove(shift + BITS, hash, key);
+                if (newNode == valueOrNode) {
+                    return this;
+                }
+                if (newNode != null) {
+                    Object[] newArray = array.clone();
+                    newArray[i+1] = newNode;
+                    return new BitmapNode(bitmap, newArray);
+                }
+            } else if (!key.equals(keyOrNull)) {
+                return this;
+            }
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, newArray.length - i);
+            return new BitmapNode(bitmap ^ bit, newArray);
+        }
+
+        @Override
+        void addEntries(List<Map.Entry<Object,Object>> entries) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node)array[i+1]).addEntries(entries);
+                } else {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<Object,Object>(array[i], array[i+1]));
+                }
+            }
+        }
+    }
+    
+    /**
+     * Node holding the keys whose hash codes are all the same
+     */
+    private static final class CollisionNode extends Node {
+        private final int hash;
+        private final Object[] array;
+        
+        private CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+        
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        
+        @Override
+        Object get(int shift, int hash, Object key) {
+            int i = indexOf(key);
+            return i < 0 ? null : array[i+1];
+        }
+
+        @Override
+        Node put(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // Nest this node in a bitmap node so that the keys may be told apart
+                return new BitmapNode(bitpos(this.hash, shift), new Object[] {null, this}).put(shift, hash, key, value, added);
+            }
+            int i = indexOf(key);
+            Object[] newArray;
+            if (i < 0) {
+                newArray = new Object[array.length + 2];
+                System.arraycopy(array, 0, newArray, 0, array.length);
+                newArray[array.length] = key;
+                newArray[array.length+1] = value;
+                added[0] = true;
+            } else {
+                if (array[i+1] == value) {
+                    return this;
+                }
+                newArray = array.clone();
+                newArray[i+1] = value;
+            }
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        Node remove(int shift, int hash, Object key) {
+            int i = indexOf(key);
+            if (i < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] newArray = new Object[array.length - 2];
+            System.arraycopy(array, 0, newArray, 0, i);
+            System.arraycopy(array, i + 2, newArray, i, newArray.length - i);
+            return new CollisionNode(hash, newArray);
+        }
+
+        @Override
+        void addEntries(List<Map.Entry<Object,Object>> entries) {
+            for (int i = 0; i < array.length; i += 2) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<Object,Object>(array[i], array[i+1]));
+            }
+        }
+    }
+}
@@ -203,4 +203,35 @@ public class TestLocalTableState {
 
   // TODO add test here for making sure multiple column references with the same column family don't
   // cause an infinite loop
+
+  @Test
+  public void testUsesCachedRowState() throws Exception {
+    // setup mocks
+    RegionCoprocessorEnvironment env = Mockito.mock(RegionCoprocessorEnvironment.class);
+    HRegion region = Mockito.mock(HRegion.class);
+    Mockito.when(env.getRegion()).thenReturn(region);
+    RegionScanner scanner = Mockito.mock(RegionScanner.class);
+    Mockito.when(region.getScanner(Mockito.any(Scan.class))).thenReturn(scanner);
+
+    final KeyValue storedKv =
+        new KeyValue(row, fam, qual, ts, Type.Put, Bytes.toBytes("stored-value"));
+    storedKv.setMemstoreTS(2);
+    final KeyValue otherFamilyKv =
+        new KeyValue(row, Bytes.toBytes("other"), qual, ts, Type.Put, Bytes.toBytes("other-value"));
+    LocalTable state = new LocalTable(env);
+    state.cacheRowState(row, Arrays.asList(storedKv, otherFamilyKv));
+
+    Put pendingUpdate = new Put(row);
+    pendingUpdate.add(fam, qual, ts, val);
+    ColumnReference col = new ColumnReference(fam, qual);
+    // only the columns in the requested families should come back, without touching the region
+    assertEquals("Didn't get the cached keyvalue!", Arrays.asList(storedKv),
+      state.getCurrentRowState(pendingUpdate, Arrays.asList(col)).list());
+    Mockito.verify(env, Mockito.never()).getRegion();
+
+    // once uncached, the row has to be read from the region again
+    state.uncacheRowState(row);
+    state.getCurrentRowState(pendingUpdate, Arrays.asList(col));
+    Mockito.verify(region, Mockito.times(1)).getScanner(Mockito.any(Scan.class));
+  }
 }
@@ -0,0 +1,209 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may
+ *     be used to endorse or promote products derived from this software without
+ *     specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.HBaseTestingUtility;
+import org.apache.hadoop.hbase.HColumnDescriptor;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.MiniHBaseCluster;
+import org.apache.hadoop.hbase.ServerName;
+import org.apache.hadoop.hbase.client.HBaseAdmin;
+import org.apache.hadoop.hbase.client.HTable;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.coprocessor.BaseRegionObserver;
+import org.apache.hadoop.hbase.coprocessor.ObserverContext;
+import org.apache.hadoop.hbase.coprocessor.RegionCoprocessorEnvironment;
+import org.apache.hadoop.hbase.regionserver.HRegion;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+
+import com.salesforce.hbase.index.IndexTestingUtils;
+import com.salesforce.hbase.index.Indexer;
+import com.salesforce.hbase.index.TableName;
+import com.salesforce.hbase.index.covered.example.ColumnGroup;
+import com.salesforce.hbase.index.covered.example.CoveredColumn;
+import com.salesforce.hbase.index.covered.example.CoveredColumnIndexSpecifierBuilder;
+import com.salesforce.hbase.index.covered.example.CoveredColumnIndexer;
+import com.salesforce.hbase.index.util.IndexManagementUtil;
+
+/**
+ * A memstore flush of the primary table makes WAL replay skip the flushed edits, so it must not
+ * complete while the {@link PipelinedIndexCommitter} still has their index updates queued.
+ */
+public class TestFlushWithQueuedIndexUpdates {
+
+  private static final long TIMEOUT = 60000;
+  private static final HBaseTestingUtility UTIL = new HBaseTestingUtility();
+
+  @Rule
+  public TableName table = new TableName();
+
+  // -----------------------------------------------------------------------------------------------
+  // Warning! The index table observer relies on this static, so the tests here can't run
+  // concurrently.
+  // -----------------------------------------------------------------------------------------------
+  private static volatile CountDownLatch allowIndexWrites;
+
+  /**
+   * Holds up the writes to the index table, so the index updates stay queued on the primary table's
+   * server.
+   */
+  public static class BlockingIndexTableObserver extends BaseRegionObserver {
+
+    @Override
+    public void prePut(ObserverContext<RegionCoprocessorEnvironment> c, Put put, WALEdit edit,
+        boolean writeToWAL) throws IOException {
+      CountDownLatch latch = allowIndexWrites;
+      if (latch != null) {
+        try {
+          latch.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new IOException("Interrupted waiting to write to the index table", e);
+        }
+      }
+    }
+  }
+
+  private String getIndexTableName() {
+    return Bytes.toString(table.getTableName()) + "_index";
+  }
+
+  @BeforeClass
+  public static void setupCluster() throws Exception {
+    Configuration conf = UTIL.getConfiguration();
+    IndexTestingUtils.setupConfig(conf);
+    conf.setBoolean(Indexer.CHECK_VERSION_CONF_KEY, false);
+    conf.set(IndexWriter.INDEX_COMMITTER_CONF_KEY, PipelinedIndexCommitter.class.getName());
+    IndexManagementUtil.ensureMutableIndexingCorrectlyConfigured(conf);
+    // a second server to recover the regions of the one we kill
+    UTIL.startMiniCluster(2);
+  }
+
+  @AfterClass
+  public static void teardownCluster() throws Exception {
+    UTIL.shutdownMiniCluster();
+  }
+
+  @Test(timeout = 300000)
+  public void testFlushWritesQueuedIndexUpdatesBeforeRecovery() throws Exception {
+    byte[] family = Bytes.toBytes("family");
+    byte[] qual = Bytes.toBytes("qualifier");
+    ColumnGroup columns = new ColumnGroup(getIndexTableName());
+    columns.add(new CoveredColumn(family, qual));
+    CoveredColumnIndexSpecifierBuilder builder = new CoveredColumnIndexSpecifierBuilder();
+    builder.addIndexGroup(columns);
+
+    HBaseAdmin admin = UTIL.getHBaseAdmin();
+    HTableDescriptor primaryTable = new HTableDescriptor(table.getTableName());
+    primaryTable.addFamily(new HColumnDescriptor(family));
+    builder.build(primaryTable);
+    admin.createTable(primaryTable);
+    HTableDescriptor indexTable = new HTableDescriptor(Bytes.toBytes(getIndexTableName()));
+    indexTable.addCoprocessor(BlockingIndexTableObserver.class.getName());
+    CoveredColumnIndexer.createIndexTable(admin, indexTable);
+
+    // the write to the primary table returns with its index update still queued
+    allowIndexWrites = new CountDownLatch(1);
+    HTable primary = new HTable(UTIL.getConfiguration(), table.getTableName());
+    Put p = new Put(Bytes.toBytes("row"));
+    p.add(family, qual, Bytes.toBytes("value"));
+    primary.put(p);
+    primary.flushCommits();
+
+    MiniHBaseCluster cluster = UTIL.getMiniHBaseCluster();
+    final HRegion region = cluster.getRegions(table.getTableName()).get(0);
+    ExecutorService exec = Executors.newSingleThreadExecutor();
+    Future<Boolean> flush = exec.submit(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        return region.flushcache();
+      }
+    });
+    try {
+      flush.get(5, TimeUnit.SECONDS);
+      fail("Memstore was flushed while its index updates were still queued");
+    } catch (TimeoutException e) {
+      // expected
+    }
+    allowIndexWrites.countDown();
+    flush.get(TIMEOUT, TimeUnit.MILLISECONDS);
+    exec.shutdown();
+
+    // kill the primary table's server, so its regions are recovered from the flushed store files
+    // and whatever is left in the WAL
+    ServerName server = cluster.getServerHoldingRegion(region.getRegionName());
+    cluster.killRegionServer(server);
+    cluster.waitForRegionServerToStop(server, TIMEOUT);
+
+    Configuration conf = new Configuration(UTIL.getConfiguration());
+    conf.setInt(HConstants.HBASE_CLIENT_RETRIES_NUMBER, 20);
+    conf.setLong(HConstants.HBASE_CLIENT_PAUSE, 1000);
+    HTable recovered = new HTable(conf, table.getTableName());
+    assertEquals("Primary table row wasn't recovered", 1, countRows(recovered));
+    HTable index = new HTable(conf, getIndexTableName());
+    assertEquals("Index update was lost by the flush", 1, countRows(index));
+
+    recovered.close();
+    index.close();
+    primary.close();
+  }
+
+  private int countRows(HTable table) throws IOException {
+    ResultScanner scanner = table.getScanner(new Scan());
+    int count = 0;
+    for (Result r : scanner) {
+      if (!r.isEmpty()) {
+        count++;
+      }
+    }
+    scanner.close();
+    return count;
+  }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.salesforce.hbase.index.TableName;
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+
+public class TestIndexWriteCoalescer {
+
+  @Rule
+  public TableName test = new TableName();
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testCoalescesWritesQueuedBehindAWrite() throws Exception {
+    final IndexWriteCoalescer coalescer = new IndexWriteCoalescer(0, 1000);
+    final HTableInterfaceReference tableReference =
+        new HTableInterfaceReference(new ImmutableBytesPtr(test.getTableName()));
+    final HTableInterface table = Mockito.mock(HTableInterface.class);
+    final CountDownLatch firstWriteStarted = new CountDownLatch(1);
+    final CountDownLatch firstWriteAllowed = new CountDownLatch(1);
+    final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    Mockito.when(table.batch(Mockito.anyList())).thenAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        firstWriteStarted.countDown();
+        firstWriteAllowed.await();
+        batchSizes.add(((List<Mutation>) invocation.getArguments()[0]).size());
+        return null;
+      }
+    });
+
+    ExecutorService exec = Executors.newFixedThreadPool(3);
+    List<Future<Void>> writes = new ArrayList<Future<Void>>();
+    writes.add(exec.submit(newWrite(coalescer, tableReference, table, 1)));
+    firstWriteStarted.await();
+    // these get queued behind the first write, so they should be written together
+    writes.add(exec.submit(newWrite(coalescer, tableReference, table, 2)));
+    writes.add(exec.submit(newWrite(coalescer, tableReference, table, 3)));
+    while (coalescer.getQueuedMutationCount() < 5) {
+      Thread.sleep(10);
+    }
+    firstWriteAllowed.countDown();
+    for (Future<Void> write : writes) {
+      write.get();
+    }
+    exec.shutdown();
+
+    assertEquals("Queued writes weren't coalesced", 2, coalescer.getBatchCount());
+    assertEquals(3, coalescer.getWriteCount());
+    assertEquals(5, coalescer.getMaxBatchSize());
+    assertEquals(Integer.valueOf(5), batchSizes.get(1));
+    assertEquals(3.0, coalescer.getAverageBatchSize(), 0);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFailedBatchFailsEveryWrite() throws Exception {
+    final IndexWriteCoalescer coalescer = new IndexWriteCoalescer(0, 1000);
+    final HTableInterfaceReference tableReference =
+        new HTableInterfaceReference(new ImmutableBytesPtr(test.getTableName()));
+    final HTableInterface table = Mockito.mock(HTableInterface.class);
+    Mockito.when(table.batch(Mockito.anyList())).thenThrow(new IOException("Intentional failure"));
+
+    ExecutorService exec = Executors.newFixedThreadPool(1);
+    try {
+      exec.submit(newWrite(coalescer, tableReference, table, 1)).get();
+      fail("Write should have failed along with its batch");
+    } catch (ExecutionException e) {
+      assertTrue("Wrong failure: " + e.getCause(), e.getCause() instanceof IOException);
+    } finally {
+      exec.shutdown();
+    }
+    assertEquals(1, coalescer.getBatchCount());
+  }
+
+  private static Callable<Void> newWrite(final IndexWriteCoalescer coalescer,
+      final HTableInterfaceReference tableReference, final HTableInterface table, final int count) {
+    return new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        List<Mutation> mutations = new ArrayList<Mutation>(count);
+        for (int i = 0; i < count; i++) {
+          Put p = new Put(Bytes.toBytes("row" + i));
+          p.add(Bytes.toBytes("family"), Bytes.toBytes("qual"), null);
+          mutations.add(p);
+        }
+        coalescer.write(tableReference, table, mutations);
+        return null;
+      }
+    };
+  }
+}
@@ -0,0 +1,192 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.hbase.index.write;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.salesforce.hbase.index.TableName;
+import com.salesforce.hbase.index.exception.IndexWriteException;
+import com.salesforce.hbase.index.table.HTableInterfaceReference;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+
+public class TestPipelinedIndexCommitter {
+
+  @Rule
+  public TableName test = new TableName();
+  private final byte[] row = Bytes.toBytes("row");
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testWritesAsynchronouslyInBatches() throws Exception {
+    ExecutorService exec = Executors.newFixedThreadPool(1);
+    Map<ImmutableBytesPtr, HTableInterface> tables =
+        new HashMap<ImmutableBytesPtr, HTableInterface>();
+    FakeTableFactory factory = new FakeTableFactory(tables);
+    ImmutableBytesPtr tableName = new ImmutableBytesPtr(this.test.getTableName());
+    HTableInterface table = Mockito.mock(HTableInterface.class);
+    final CountDownLatch writeAllowed = new CountDownLatch(1);
+    final AtomicInteger written = new AtomicInteger();
+    final AtomicInteger batches = new AtomicInteger();
+    Mockito.when(table.batch(Mockito.anyList())).thenAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        writeAllowed.await();
+        written.addAndGet(((List<Mutation>) invocation.getArguments()[0]).size());
+        batches.incrementAndGet();
+        return null;
+      }
+    });
+    tables.put(tableName, table);
+
+    IndexFailurePolicy policy = Mockito.mock(IndexFailurePolicy.class);
+    PipelinedIndexCommitter committer = new PipelinedIndexCommitter();
+    IndexWriter parent = new IndexWriter(committer, policy);
+    committer.setup(factory, exec, parent, 1, 10, 4);
+
+    // each write returns even though the index table hasn't been written yet
+    for (int i = 0; i < 3; i++) {
+      committer.write(getUpdates(tableName, 3));
+    }
+    assertEquals("Index table was written before it was allowed", 0, written.get());
+    writeAllowed.countDown();
+    parent.flush();
+    assertEquals("Didn't write all the queued updates", 9, written.get());
+    assertTrue("Queued updates weren't batched", batches.get() < 9);
+    Mockito.verifyZeroInteractions(policy);
+
+    parent.stop(this.test.getTableNameString() + " finished");
+    assertTrue("Factory didn't get shutdown after writer#stop!", factory.shutdown);
+    assertTrue("ExectorService isn't terminated after writer#stop!", exec.isShutdown());
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testFailedWriteIsPassedToFailurePolicy() throws Exception {
+    ExecutorService exec = Executors.newFixedThreadPool(1);
+    Map<ImmutableBytesPtr, HTableInterface> tables =
+        new HashMap<ImmutableBytesPtr, HTableInterface>();
+    FakeTableFactory factory = new FakeTableFactory(tables);
+    ImmutableBytesPtr tableName = new ImmutableBytesPtr(this.test.getTableName());
+    HTableInterface table = Mockito.mock(HTableInterface.class);
+    Mockito.when(table.batch(Mockito.anyList())).thenThrow(new IOException("Intentional failure"));
+    tables.put(tableName, table);
+
+    IndexFailurePolicy policy = Mockito.mock(IndexFailurePolicy.class);
+    PipelinedIndexCommitter committer = new PipelinedIndexCommitter();
+    IndexWriter parent = new IndexWriter(committer, policy);
+    committer.setup(factory, exec, parent, 1, 10, 4);
+
+    committer.write(getUpdates(tableName, 1));
+    try {
+      parent.flush();
+      fail("Flush should have failed after the queued write failed");
+    } catch (IndexWriteException e) {
+      // expected
+    }
+    Mockito.verify(policy).handleFailure(Mockito.any(Multimap.class), Mockito.any(Exception.class));
+    // and any later writes fail right away
+    try {
+      committer.write(getUpdates(tableName, 1));
+      fail("Write should have failed after a queued write failed");
+    } catch (IndexWriteException e) {
+      // expected
+    }
+    assertFalse("Writer shouldn't be stopped by a failed write", parent.isStopped());
+    parent.stop(this.test.getTableNameString() + " finished");
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test(timeout = 10000)
+  public void testFlushReturnsOnceStopped() throws Exception {
+    ExecutorService exec = Executors.newFixedThreadPool(1);
+    Map<ImmutableBytesPtr, HTableInterface> tables =
+        new HashMap<ImmutableBytesPtr, HTableInterface>();
+    FakeTableFactory factory = new FakeTableFactory(tables);
+    ImmutableBytesPtr tableName = new ImmutableBytesPtr(this.test.getTableName());
+    HTableInterface table = Mockito.mock(HTableInterface.class);
+    final CountDownLatch writeStarted = new CountDownLatch(1);
+    // the index table never gets written, so the updates stay queued
+    Mockito.when(table.batch(Mockito.anyList())).thenAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        writeStarted.countDown();
+        new CountDownLatch(1).await();
+        return null;
+      }
+    });
+    tables.put(tableName, table);
+
+    IndexFailurePolicy policy = Mockito.mock(IndexFailurePolicy.class);
+    PipelinedIndexCommitter committer = new PipelinedIndexCommitter();
+    IndexWriter parent = new IndexWriter(committer, policy);
+    committer.setup(factory, exec, parent, 1, 10, 1);
+
+    committer.write(getUpdates(tableName, 3));
+    writeStarted.await();
+    parent.stop(this.test.getTableNameString() + " finished");
+    // the queued updates will be replayed from the WAL, so there's nothing to wait for
+    parent.flush();
+    Mockito.verifyZeroInteractions(policy);
+  }
+
+  private Multimap<HTableInterfaceReference, Mutation> getUpdates(ImmutableBytesPtr tableName,
+      int count) {
+    Multimap<HTableInterfaceReference, Mutation> updates =
+        ArrayListMultimap.<HTableInterfaceReference, Mutation> create();
+    for (int i = 0; i < count; i++) {
+      Put p = new Put(row);
+      p.add(Bytes.toBytes("family"), Bytes.toBytes("qual" + i), null);
+      updates.put(new HTableInterfaceReference(tableName), p);
+    }
+    return updates;
+  }
+}
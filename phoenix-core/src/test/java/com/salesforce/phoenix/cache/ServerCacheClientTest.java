@@ -0,0 +1,71 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+
+public class ServerCacheClientTest {
+
+    private static byte[][] newKeys(int count) {
+        byte[][] keys = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            keys[i] = Bytes.toBytes(i);
+        }
+        return keys;
+    }
+
+    @Test
+    public void testRelayGroupsCoverAllKeysOnce() {
+        byte[][] keys = newKeys(20);
+        byte[][][] groups = ServerCacheClient.getRelayGroups(keys, 8);
+        assertEquals(8, groups.length);
+        int i = 0;
+        for (byte[][] group : groups) {
+            // Groups differ in size by at most one
+            assertEquals(true, group.length == 2 || group.length == 3);
+            for (byte[] key : group) {
+                assertEquals(i++, Bytes.toInt(key));
+            }
+        }
+        assertEquals(keys.length, i);
+    }
+
+    @Test
+    public void testRelayGroupsWithFewerKeysThanFanout() {
+        byte[][][] groups = ServerCacheClient.getRelayGroups(newKeys(3), 8);
+        assertEquals(3, groups.length);
+        for (byte[][] group : groups) {
+            assertEquals(1, group.length);
+        }
+        assertEquals(0, ServerCacheClient.getRelayGroups(newKeys(0), 8).length);
+    }
+}
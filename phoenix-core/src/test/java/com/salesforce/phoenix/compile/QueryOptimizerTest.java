@@ -32,12 +32,19 @@ import static org.junit.Assert.assertFalse;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.util.Collections;
+
+import org.apache.hadoop.hbase.util.Bytes;
 
 import org.junit.Test;
 
 import com.salesforce.phoenix.compile.OrderByCompiler.OrderBy;
+import com.salesforce.phoenix.jdbc.PhoenixConnection;
 import com.salesforce.phoenix.jdbc.PhoenixStatement;
 import com.salesforce.phoenix.query.BaseConnectionlessQueryTest;
+import com.salesforce.phoenix.query.ConnectionlessQueryServicesImpl;
+import com.salesforce.phoenix.schema.stat.PTableStats;
+import com.salesforce.phoenix.schema.stat.PTableStatsImpl;
 import com.salesforce.phoenix.util.SchemaUtil;
 
 public class QueryOptimizerTest extends BaseConnectionlessQueryTest {
@@ -286,4 +293,38 @@ public class QueryOptimizerTest extends BaseConnectionlessQueryTest {
         QueryPlan plan = stmt.optimizeQuery(query);
         assertEquals("T", plan.getTableRef().getTable().getTableName().getString());
     }
+    
+    private static PTableStats newSingleChunkStats(String tableName, long byteCount) {
+        String regionName = ConnectionlessQueryServicesImpl.getTableRegion(Bytes.toBytes(tableName)).getRegionNameAsString();
+        return new PTableStatsImpl(Collections.singletonMap(regionName, new byte[0][]),
+                Collections.singletonMap(regionName, new long[] {byteCount}), System.currentTimeMillis());
+    }
+    
+    @Test
+    public void testChoosePointLookupOverSmallIndexWithStats() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        conn.createStatement().execute("CREATE TABLE t (k INTEGER NOT NULL PRIMARY KEY, v1 VARCHAR, v2 VARCHAR) IMMUTABLE_ROWS=true");
+        conn.createStatement().execute("CREATE INDEX idx ON t(v1)");
+        ConnectionlessQueryServicesImpl services = (ConnectionlessQueryServicesImpl)conn.unwrap(PhoenixConnection.class).getQueryServices();
+        services.setTableStats("T", newSingleChunkStats("T", 1000000));
+        services.setTableStats("IDX", newSingleChunkStats("IDX", 300000));
+        try {
+            PhoenixStatement stmt = conn.createStatement().unwrap(PhoenixStatement.class);
+            // The range scan of the data table reads part of its large chunk, so the full scan of the small index wins
+            QueryPlan plan = stmt.optimizeQuery("SELECT v1 FROM t WHERE k > 1");
+            assertEquals("IDX", plan.getTableRef().getTable().getTableName().getString());
+            // A point lookup reads a block per key, however large the chunk it falls into
+            plan = stmt.optimizeQuery("SELECT v1 FROM t WHERE k = 1");
+            assertEquals("T", plan.getTableRef().getTable().getTableName().getString());
+            plan = stmt.optimizeQuery("SELECT v1 FROM t WHERE k IN (1,2,3)");
+            assertEquals("T", plan.getTableRef().getTable().getTableName().getString());
+            // Enough keys cost more than a full scan of the small index
+            plan = stmt.optimizeQuery("SELECT v1 FROM t WHERE k IN (1,2,3,4,5)");
+            assertEquals("IDX", plan.getTableRef().getTable().getTableName().getString());
+        } finally {
+            services.setTableStats("T", null);
+            services.setTableStats("IDX", null);
+            conn.close();
+        }
+    }
 }
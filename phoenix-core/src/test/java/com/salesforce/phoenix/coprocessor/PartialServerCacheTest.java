@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.coprocessor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.junit.Test;
+
+import com.salesforce.phoenix.coprocessor.ServerCachingEndpointImpl.PartialServerCache;
+import com.salesforce.phoenix.memory.GlobalMemoryManager;
+import com.salesforce.phoenix.memory.MemoryManager;
+
+
+public class PartialServerCacheTest {
+    private static final byte[] CACHE = new byte[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+
+    private static boolean addChunk(PartialServerCache partialCache, int offset, int length) throws SQLException {
+        ImmutableBytesWritable chunkPtr = new ImmutableBytesWritable(CACHE, offset, length);
+        return partialCache.claim(offset, length) && partialCache.copy(chunkPtr, offset);
+    }
+
+    @Test
+    public void testOutOfOrderChunks() throws Exception {
+        PartialServerCache partialCache = new PartialServerCache(CACHE.length, new GlobalMemoryManager(100, 0));
+        assertFalse(addChunk(partialCache, 8, 2));
+        assertFalse(addChunk(partialCache, 0, 4));
+        assertTrue(addChunk(partialCache, 4, 4));
+        assertArrayEquals(CACHE, partialCache.getBytes());
+    }
+
+    @Test
+    public void testDuplicateChunksIgnored() throws Exception {
+        PartialServerCache partialCache = new PartialServerCache(CACHE.length, new GlobalMemoryManager(100, 0));
+        assertFalse(addChunk(partialCache, 0, 5));
+        assertFalse(partialCache.claim(0, 5));
+        // The cache isn't complete until the missing range arrives, however often a chunk is sent again
+        assertFalse(addChunk(partialCache, 0, 5));
+        assertTrue(addChunk(partialCache, 5, 5));
+        assertArrayEquals(CACHE, partialCache.getBytes());
+    }
+
+    @Test
+    public void testOverlappingChunkRejected() throws Exception {
+        PartialServerCache partialCache = new PartialServerCache(CACHE.length, new GlobalMemoryManager(100, 0));
+        addChunk(partialCache, 2, 4);
+        try {
+            partialCache.claim(4, 4);
+            fail();
+        } catch (SQLException e) {
+        }
+        try {
+            partialCache.claim(0, 3);
+            fail();
+        } catch (SQLException e) {
+        }
+        try {
+            partialCache.claim(8, 4);
+            fail();
+        } catch (SQLException e) {
+        }
+    }
+
+    @Test
+    public void testMemoryCharged() throws Exception {
+        MemoryManager memoryManager = new GlobalMemoryManager(100, 0);
+        PartialServerCache partialCache = new PartialServerCache(CACHE.length, memoryManager);
+        assertEquals(100 - CACHE.length, memoryManager.getAvailableMemory());
+        partialCache.close();
+        assertEquals(100, memoryManager.getAvailableMemory());
+    }
+
+    @Test
+    public void testChunksIgnoredOnceComplete() throws Exception {
+        MemoryManager memoryManager = new GlobalMemoryManager(100, 0);
+        PartialServerCache partialCache = new PartialServerCache(CACHE.length, memoryManager);
+        assertTrue(addChunk(partialCache, 0, 10));
+        partialCache.close();
+        assertEquals(100, memoryManager.getAvailableMemory());
+        // A retried chunk doesn't start over once the buffer is released
+        assertFalse(partialCache.claim(0, 10));
+        assertFalse(partialCache.claim(0, 5));
+    }
+
+    @Test
+    public void testWaitForCompleteCache() throws Exception {
+        MemoryManager memoryManager = new GlobalMemoryManager(100, 0);
+        PartialServerCache partialCache = new PartialServerCache(CACHE.length, memoryManager);
+        assertTrue(addChunk(partialCache, 0, 10));
+        // The buffer is no longer charged once it's handed over to the cache being created
+        partialCache.release();
+        assertEquals(100, memoryManager.getAvailableMemory());
+        assertFalse(partialCache.await(0));
+        partialCache.done();
+        assertTrue(partialCache.await(0));
+    }
+
+    @Test
+    public void testChunkRejectedOnceRemoved() throws Exception {
+        PartialServerCache partialCache = new PartialServerCache(CACHE.length, new GlobalMemoryManager(100, 0));
+        assertFalse(addChunk(partialCache, 0, 5));
+        partialCache.close();
+        try {
+            addChunk(partialCache, 5, 5);
+            fail();
+        } catch (SQLException e) {
+        }
+    }
+
+    @Test
+    public void testRelayDepth() throws Exception {
+        assertEquals(0, ServerCachingEndpointImpl.getRelayDepth(0, 8));
+        assertEquals(1, ServerCachingEndpointImpl.getRelayDepth(8, 8));
+        // Groups of 2, each relaying to one more region server
+        assertEquals(2, ServerCachingEndpointImpl.getRelayDepth(9, 8));
+        assertEquals(2, ServerCachingEndpointImpl.getRelayDepth(72, 8));
+        assertEquals(3, ServerCachingEndpointImpl.getRelayDepth(73, 8));
+    }
+}
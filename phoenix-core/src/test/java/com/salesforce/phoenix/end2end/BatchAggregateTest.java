@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.end2end;
+
+import static com.salesforce.phoenix.util.TestUtil.GROUPBYTEST_NAME;
+import static com.salesforce.phoenix.util.TestUtil.PHOENIX_JDBC_URL;
+import static com.salesforce.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Types;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.util.PhoenixRuntime;
+import com.salesforce.phoenix.util.ReadOnlyProps;
+
+/**
+ * Aggregates over expressions evaluated a batch at a time by the aggregate coprocessors
+ */
+public class BatchAggregateTest extends BaseConnectedQueryTest {
+
+    private static final int NUM_ROWS_INSERTED = 100;
+    private static final int NUM_GROUPS = 4;
+    private static final String AGGREGATES = "count(*), count(appcpu), sum(appcpu + 1), sum(appcpu * 2), sum(appcpu * 1.5), "
+            + "sum(case when appcpu in (1, 2) then 1 else 0 end), count(case when appcpu > 5 and appcpu < 8 then 1 end), "
+            + "min(appcpu * 2), max(appcpu + 1)";
+
+    @BeforeClass
+    public static void doSetup() throws Exception {
+        Map<String, String> props = Maps.newHashMapWithExpectedSize(1);
+        // A batch size that doesn't divide the number of rows, so that partial batches are aggregated too
+        props.put(QueryServices.AGGREGATE_BATCH_SIZE_ATTRIB, Integer.toString(7));
+        // Must update config before starting server
+        startServer(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
+    }
+
+    private static Integer getAppCpu(int i) {
+        return i % 10 == 0 ? null : i % 10;
+    }
+
+    private static long ts;
+
+    private static void loadData() throws Exception {
+        ts = nextTimestamp();
+        ensureTableCreated(getUrl(), GROUPBYTEST_NAME, null, ts - 2);
+        Properties props = new Properties(TEST_PROPERTIES);
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts));
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + GROUPBYTEST_NAME + "(id, uri, appcpu) values (?,?,?)");
+        for (int i = 0; i < NUM_ROWS_INSERTED; i++) {
+            stmt.setString(1, Integer.toString(i));
+            stmt.setString(2, Integer.toString(i % NUM_GROUPS));
+            Integer appcpu = getAppCpu(i);
+            if (appcpu == null) {
+                stmt.setNull(3, Types.INTEGER);
+            } else {
+                stmt.setInt(3, appcpu);
+            }
+            stmt.executeUpdate();
+        }
+        conn.commit();
+        conn.close();
+    }
+
+    private static Connection getConnection() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts + 1));
+        return DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+    }
+
+    /**
+     * Asserts the aggregates over the rows in the group, or over all rows if group is null
+     */
+    private static void assertAggregates(ResultSet rs, Integer group) throws Exception {
+        long count = 0, countAppCpu = 0, sumPlusOne = 0, sumTimesTwo = 0, inList = 0, between = 0;
+        long minTimesTwo = Long.MAX_VALUE, maxPlusOne = Long.MIN_VALUE;
+        BigDecimal sumTimesOneAndAHalf = BigDecimal.ZERO;
+        for (int i = 0; i < NUM_ROWS_INSERTED; i++) {
+            if (group != null && i % NUM_GROUPS != group) {
+                continue;
+            }
+            count++;
+            Integer appcpu = getAppCpu(i);
+            if (appcpu != null) {
+                countAppCpu++;
+                sumPlusOne += appcpu + 1;
+                sumTimesTwo += appcpu * 2;
+                minTimesTwo = Math.min(minTimesTwo, appcpu * 2);
+                maxPlusOne = Math.max(maxPlusOne, appcpu + 1);
+                sumTimesOneAndAHalf = sumTimesOneAndAHalf.add(BigDecimal.valueOf(appcpu).multiply(new BigDecimal("1.5")));
+                if (appcpu == 1 || appcpu == 2) {
+                    inList++;
+                }
+                if (appcpu > 5 && appcpu < 8) {
+                    between++;
+                }
+            }
+        }
+        assertEquals(count, rs.getLong(1));
+        assertEquals(countAppCpu, rs.getLong(2));
+        assertEquals(sumPlusOne, rs.getLong(3));
+        assertEquals(sumTimesTwo, rs.getLong(4));
+        assertEquals(0, sumTimesOneAndAHalf.compareTo(rs.getBigDecimal(5)));
+        assertEquals(inList, rs.getLong(6));
+        assertEquals(between, rs.getLong(7));
+        // MIN and MAX keep a value from an earlier batch while later batches are evaluated
+        assertEquals(minTimesTwo, rs.getLong(8));
+        assertEquals(maxPlusOne, rs.getLong(9));
+    }
+
+    @Test
+    public void testBatchAggregates() throws Exception {
+        loadData();
+        Connection conn = getConnection();
+        try {
+            ResultSet rs = conn.createStatement().executeQuery("select " + AGGREGATES + " from " + GROUPBYTEST_NAME);
+            assertTrue(rs.next());
+            assertAggregates(rs, null);
+            assertFalse(rs.next());
+
+            rs = conn.createStatement().executeQuery("select " + AGGREGATES + ", uri from " + GROUPBYTEST_NAME + " group by uri order by uri");
+            for (int group = 0; group < NUM_GROUPS; group++) {
+                assertTrue(rs.next());
+                assertEquals(Integer.toString(group), rs.getString(10));
+                assertAggregates(rs, group);
+            }
+            assertFalse(rs.next());
+        } finally {
+            conn.close();
+        }
+    }
+}
@@ -49,6 +49,7 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 
@@ -1443,5 +1444,96 @@ public class HashJoinTest extends BaseHBaseManagedTimeTest {
             conn.close();
         }
     }
+    
+    @Test
+    public void testSortMergeJoin() throws Exception {
+        String query[] = new String[2];
+        query[0] = "SELECT /*+ USE_SORT_MERGE_JOIN*/ item.item_id, item.name, supp.supplier_id, supp.name FROM " + JOIN_ITEM_TABLE + " item INNER JOIN " + JOIN_SUPPLIER_TABLE + " supp ON item.supplier_id = supp.supplier_id";
+        query[1] = "SELECT /*+ USE_SORT_MERGE_JOIN*/ item.item_id, item.name, supp.supplier_id, supp.name FROM " + JOIN_ITEM_TABLE + " item LEFT JOIN " + JOIN_SUPPLIER_TABLE + " supp ON item.supplier_id = supp.supplier_id";
+        List<String> expected = Lists.newArrayList(
+                "0000000001 T1 0000000001 S1",
+                "0000000002 T2 0000000001 S1",
+                "0000000003 T3 0000000002 S2",
+                "0000000004 T4 0000000002 S2",
+                "0000000005 T5 0000000005 S5",
+                "0000000006 T6 0000000006 S6");
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            for (int i = 0; i < query.length; i++) {
+                if (i == 1) {
+                    expected.add("invalid001 INVALID-1 null null");
+                }
+                // Rows come back in join key order, so compare them regardless of order
+                List<String> rows = Lists.newArrayList();
+                ResultSet rs = conn.createStatement().executeQuery(query[i]);
+                while (rs.next()) {
+                    rows.add(rs.getString(1) + " " + rs.getString(2) + " " + rs.getString(3) + " " + rs.getString(4));
+                }
+                Collections.sort(rows);
+                Collections.sort(expected);
+                assertEquals(expected, rows);
+                
+                rs = conn.createStatement().executeQuery("EXPLAIN " + query[i]);
+                assertTrue(QueryUtil.getExplainPlan(rs).contains("SORT-MERGE-JOIN " + (i == 0 ? "INNER" : "LEFT") + " TABLE"));
+            }
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testSortMergeJoinWithCoercedKey() throws Exception {
+        // The item key is coerced to the DECIMAL returned by TO_NUMBER
+        String query = "SELECT /*+ USE_SORT_MERGE_JOIN*/ item.item_id, item.name, supp.supplier_id, supp.name FROM " + JOIN_ITEM_TABLE + " item INNER JOIN " + JOIN_SUPPLIER_TABLE + " supp ON item.price / 100 = TO_NUMBER(SUBSTR(supp.supplier_id, 9, 2))";
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            ResultSet rs = conn.createStatement().executeQuery(query);
+            for (int i = 1; i <= 6; i++) {
+                assertTrue(rs.next());
+                assertEquals("000000000" + i, rs.getString(1));
+                assertEquals("T" + i, rs.getString(2));
+                assertEquals("000000000" + i, rs.getString(3));
+                assertEquals("S" + i, rs.getString(4));
+            }
+            assertFalse(rs.next());
+            
+            rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            assertTrue(QueryUtil.getExplainPlan(rs).contains("SORT-MERGE-JOIN INNER TABLE"));
+        } finally {
+            conn.close();
+        }
+    }
+    
+    @Test
+    public void testSortMergeJoinFallsBackToHashJoin() throws Exception {
+        // An ORDER BY on the joined rows cannot be applied by the sort-merge join
+        String query = "SELECT /*+ USE_SORT_MERGE_JOIN*/ item.item_id, item.name, supp.supplier_id, supp.name FROM " + JOIN_ITEM_TABLE + " item INNER JOIN " + JOIN_SUPPLIER_TABLE + " supp ON item.supplier_id = supp.supplier_id ORDER BY item.name DESC";
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            ResultSet rs = conn.createStatement().executeQuery(query);
+            String[] expected = new String[] {
+                    "0000000006 T6 0000000006 S6",
+                    "0000000005 T5 0000000005 S5",
+                    "0000000004 T4 0000000002 S2",
+                    "0000000003 T3 0000000002 S2",
+                    "0000000002 T2 0000000001 S1",
+                    "0000000001 T1 0000000001 S1"};
+            for (String row : expected) {
+                assertTrue(rs.next());
+                assertEquals(row, rs.getString(1) + " " + rs.getString(2) + " " + rs.getString(3) + " " + rs.getString(4));
+            }
+            assertFalse(rs.next());
+            
+            rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            String plan = QueryUtil.getExplainPlan(rs);
+            assertFalse(plan.contains("SORT-MERGE-JOIN"));
+            assertTrue(plan.contains("EQUI-JOIN 1 HASH TABLES"));
+        } finally {
+            conn.close();
+        }
+    }
 
 }
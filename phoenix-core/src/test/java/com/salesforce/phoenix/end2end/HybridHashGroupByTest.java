@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.end2end;
+
+import static com.salesforce.phoenix.util.TestUtil.GROUPBYTEST_NAME;
+import static com.salesforce.phoenix.util.TestUtil.PHOENIX_JDBC_URL;
+import static com.salesforce.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.salesforce.phoenix.query.QueryServices;
+import com.salesforce.phoenix.util.PhoenixRuntime;
+import com.salesforce.phoenix.util.ReadOnlyProps;
+
+public class HybridHashGroupByTest extends BaseConnectedQueryTest {
+
+    private static final int NUM_ROWS_INSERTED = 3000;
+    private static final int NUM_GROUPS = 1000;
+
+    @BeforeClass
+    public static void doSetup() throws Exception {
+        Map<String, String> props = Maps.newHashMapWithExpectedSize(4);
+        // Set a very small cache size and few partitions to force the spill runs to be partitioned again
+        props.put(QueryServices.GROUPBY_MAX_CACHE_SIZE_ATTRIB, Integer.toString(1));
+        props.put(QueryServices.GROUPBY_SPILLABLE_ATTRIB, String.valueOf(true));
+        props.put(QueryServices.GROUPBY_HYBRID_HASH_ATTRIB, String.valueOf(true));
+        props.put(QueryServices.GROUPBY_SPILL_FILES_ATTRIB, Integer.toString(2));
+        // Must update config before starting server
+        startServer(getUrl(), new ReadOnlyProps(props.entrySet().iterator()));
+    }
+
+    @Test
+    public void testSpilledGroups() throws Exception {
+        long ts = nextTimestamp();
+        ensureTableCreated(getUrl(), GROUPBYTEST_NAME, null, ts - 2);
+        Properties props = new Properties(TEST_PROPERTIES);
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts));
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + GROUPBYTEST_NAME + "(id, uri, appcpu) values (?,?,?)");
+        for (int i = 0; i < NUM_ROWS_INSERTED; i++) {
+            stmt.setString(1, Integer.toString(i));
+            stmt.setString(2, Integer.toString(i % NUM_GROUPS));
+            stmt.setInt(3, 10);
+            stmt.executeUpdate();
+        }
+        conn.commit();
+        conn.close();
+        
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts + 1));
+        conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            ResultSet rs = conn.createStatement().executeQuery("select uri, count(*), count(distinct uri), sum(appcpu) from " + GROUPBYTEST_NAME + " group by uri");
+            int count = 0;
+            while (rs.next()) {
+                assertEquals(NUM_ROWS_INSERTED / NUM_GROUPS, rs.getInt(2));
+                assertEquals(1, rs.getInt(3));
+                assertEquals(10 * NUM_ROWS_INSERTED / NUM_GROUPS, rs.getInt(4));
+                count++;
+            }
+            assertEquals(NUM_GROUPS, count);
+        } finally {
+            conn.close();
+        }
+    }
+}
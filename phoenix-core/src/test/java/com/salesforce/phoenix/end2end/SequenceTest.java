@@ -294,6 +294,35 @@ public class SequenceTest extends BaseClientManagedTimeTest {
         assertEquals(BATCH_SIZE * 2 + 1, rs.getInt(2));
     }
 
+    @Test
+    public void testSelectNextValueForWithPrefetch() throws Exception {
+        nextConnection();
+        // Large enough cache for the next block to be prefetched
+        conn.createStatement().execute("CREATE SEQUENCE foo.bar CACHE 8");
+        conn.createStatement().execute("CREATE TABLE foo (k BIGINT NOT NULL PRIMARY KEY)");
+        
+        nextConnection();
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO foo VALUES(NEXT VALUE FOR foo.bar)");
+        for (int i = 0; i < 50; i++) {
+            stmt.execute();
+        }
+        conn.commit();
+        
+        // Closing the connection returns both the current and the prefetched block
+        nextConnection();
+        stmt = conn.prepareStatement("UPSERT INTO foo VALUES(NEXT VALUE FOR foo.bar)");
+        stmt.execute();
+        conn.commit();
+        
+        nextConnection();
+        ResultSet rs = conn.createStatement().executeQuery("SELECT k FROM foo");
+        for (int i = 0; i < 51; i++) {
+            assertTrue(rs.next());
+            assertEquals(i+1, rs.getInt(1));
+        }
+        assertFalse(rs.next());
+    }
+
     @Test
     public void testSelectNextValueForGroupBy() throws Exception {
         nextConnection();
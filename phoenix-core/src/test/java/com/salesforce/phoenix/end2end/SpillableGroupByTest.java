@@ -31,6 +31,7 @@ import static com.salesforce.phoenix.util.TestUtil.GROUPBYTEST_NAME;
 import static com.salesforce.phoenix.util.TestUtil.PHOENIX_JDBC_URL;
 import static com.salesforce.phoenix.util.TestUtil.TEST_PROPERTIES;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -45,8 +46,14 @@ import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.google.common.collect.Maps;
+import com.salesforce.phoenix.compile.QueryPlan;
+import com.salesforce.phoenix.iterate.HashAggregatingResultIterator;
+import com.salesforce.phoenix.iterate.ResultIterator;
+import com.salesforce.phoenix.jdbc.PhoenixResultSet;
+import com.salesforce.phoenix.jdbc.PhoenixStatement;
 import com.salesforce.phoenix.query.QueryServices;
 import com.salesforce.phoenix.util.PhoenixRuntime;
+import com.salesforce.phoenix.util.QueryUtil;
 import com.salesforce.phoenix.util.ReadOnlyProps;
 
 public class SpillableGroupByTest extends BaseConnectedQueryTest {
@@ -141,4 +148,99 @@ public class SpillableGroupByTest extends BaseConnectedQueryTest {
         }
     }
 
+    @Test
+    public void testSpilledGroupsInKeyOrder() throws Exception {
+        SpillableGroupByTest spGpByT = new SpillableGroupByTest();
+        long ts = spGpByT.createTable();
+        spGpByT.loadData(ts);
+        Properties props = new Properties(TEST_PROPERTIES);
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB,
+                Long.toString(ts + 1));
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            String query = "select uri, count(*) from " + GROUPBYTEST_NAME + " group by uri";
+            ResultSet rs = conn.createStatement().executeQuery("explain " + query);
+            String plan = QueryUtil.getExplainPlan(rs);
+            assertTrue(plan, plan.contains("CLIENT HASH AGGREGATE"));
+            // Without an ORDER BY, the groups merged on the client still come back ordered by key
+            PhoenixStatement statement = conn.createStatement().unwrap(PhoenixStatement.class);
+            QueryPlan queryPlan = statement.optimizeQuery(query);
+            ResultIterator iterator = queryPlan.iterator();
+            assertTrue(iterator instanceof HashAggregatingResultIterator);
+            rs = new PhoenixResultSet(iterator, queryPlan.getProjector(), statement);
+            String lastUri = null;
+            int count = 0;
+            while (rs.next()) {
+                String uri = rs.getString(1);
+                assertTrue(lastUri == null || lastUri.compareTo(uri) < 0);
+                assertEquals(2, rs.getInt(2));
+                lastUri = uri;
+                count++;
+            }
+            assertEquals(NUM_ROWS_INSERTED / 2, count);
+            // The cache only fits one group, so the groups merged on the client must have been spilled
+            assertTrue(((HashAggregatingResultIterator)iterator).getSpillPartitionCount() > 0);
+            rs.close();
+            
+            rs = conn.createStatement().executeQuery("select uri, count(*) from " + GROUPBYTEST_NAME + " group by uri order by uri desc");
+            lastUri = null;
+            count = 0;
+            while (rs.next()) {
+                String uri = rs.getString(1);
+                assertTrue(lastUri == null || lastUri.compareTo(uri) > 0);
+                assertEquals(2, rs.getInt(2));
+                lastUri = uri;
+                count++;
+            }
+            assertEquals(NUM_ROWS_INSERTED / 2, count);
+        } finally {
+            conn.close();
+        }
+    }
+
+    @Test
+    public void testSpilledLargeAggregateValues() throws Exception {
+        long ts = nextTimestamp();
+        Properties props = new Properties(TEST_PROPERTIES);
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts));
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        conn.createStatement().execute("create table SPILL_LARGE_VALUE (id varchar not null primary key, uri varchar, val varchar)");
+        conn.close();
+        
+        // Group keys shorter than 128 bytes with aggregate values of 128 bytes or more, so that the
+        // vint lengths of the key and value of a spilled entry differ in size
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            padding.append('x');
+        }
+        int numGroups = 50;
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts + 1));
+        conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        PreparedStatement stmt = conn.prepareStatement("upsert into SPILL_LARGE_VALUE(id, uri, val) values (?,?,?)");
+        for (int i = 0; i < numGroups * 4; i++) {
+            stmt.setString(1, Integer.toString(i));
+            stmt.setString(2, Integer.toString(i % numGroups));
+            stmt.setString(3, String.format("%03d", i) + padding);
+            stmt.executeUpdate();
+        }
+        conn.commit();
+        conn.close();
+        
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts + 2));
+        conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        try {
+            ResultSet rs = conn.createStatement().executeQuery("select uri, count(*), min(val), max(val) from SPILL_LARGE_VALUE group by uri");
+            int count = 0;
+            while (rs.next()) {
+                int group = Integer.parseInt(rs.getString(1));
+                assertEquals(4, rs.getInt(2));
+                assertEquals(String.format("%03d", group) + padding, rs.getString(3));
+                assertEquals(String.format("%03d", group + 3 * numGroups) + padding, rs.getString(4));
+                count++;
+            }
+            assertEquals(numGroups, count);
+        } finally {
+            conn.close();
+        }
+    }
 }
@@ -42,6 +42,8 @@ import java.util.Properties;
 
 import org.junit.Test;
 
+import com.salesforce.phoenix.util.QueryUtil;
+
 public class UpsertSelectAutoCommitTest extends BaseHBaseManagedTimeTest {
 
     public UpsertSelectAutoCommitTest() {
@@ -93,4 +95,34 @@ public class UpsertSelectAutoCommitTest extends BaseHBaseManagedTimeTest {
         assertFalse(rs.next());
         
     }
+
+    @Test
+    public void testUpsertSelectIntoOtherTableRunsOnClient() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.setAutoCommit(true);
+        conn.createStatement().execute("CREATE TABLE source (k INTEGER NOT NULL PRIMARY KEY, v VARCHAR)");
+        conn.createStatement().execute("CREATE TABLE target (k BIGINT NOT NULL, v VARCHAR CONSTRAINT pk PRIMARY KEY (k DESC))");
+        PreparedStatement stmt = conn.prepareStatement("UPSERT INTO source VALUES(?, ?)");
+        for (int i = 0; i < 10; i++) {
+            stmt.setInt(1, i);
+            stmt.setString(2, "v" + i);
+            stmt.execute();
+        }
+        
+        String upsert = "UPSERT INTO target SELECT k, v FROM source WHERE k >= 2";
+        ResultSet rs = conn.createStatement().executeQuery("EXPLAIN " + upsert);
+        // Only an upsert into the table being scanned is written by the region server
+        assertTrue(QueryUtil.getExplainPlan(rs).startsWith("UPSERT SELECT"));
+        assertEquals(8, conn.createStatement().executeUpdate(upsert));
+        
+        rs = conn.createStatement().executeQuery("SELECT k, v FROM target");
+        for (int i = 9; i >= 2; i--) {
+            assertTrue(rs.next());
+            assertEquals(i, rs.getLong(1));
+            assertEquals("v" + i, rs.getString(2));
+        }
+        assertFalse(rs.next());
+        conn.close();
+    }
 }
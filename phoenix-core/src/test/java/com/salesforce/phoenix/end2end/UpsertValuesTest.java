@@ -32,6 +32,7 @@ import static com.salesforce.phoenix.util.TestUtil.closeStatement;
 import static com.salesforce.phoenix.util.TestUtil.closeStmtAndConn;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -84,6 +85,81 @@ public class UpsertValuesTest extends BaseClientManagedTimeTest {
         assertFalse(rs.next());
     }
     
+    @Test
+    public void testBatchUpsertValues() throws Exception {
+        long ts = nextTimestamp();
+        ensureTableCreated(getUrl(),"IntKeyTest",null, ts-2);
+        Properties props = new Properties();
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts + 1)); // Execute at timestamp 1
+        Connection conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        PreparedStatement upsertStmt = conn.prepareStatement("UPSERT INTO IntKeyTest VALUES(?)");
+        for (int i = 1; i <= 3; i++) {
+            upsertStmt.setInt(1, i);
+            upsertStmt.addBatch();
+        }
+        int[] updateCounts = upsertStmt.executeBatch();
+        assertEquals(3, updateCounts.length);
+        // Binds nested in an expression cause each set of parameters to be executed separately
+        upsertStmt = conn.prepareStatement("UPSERT INTO IntKeyTest VALUES(?+10)");
+        upsertStmt.setInt(1, 1);
+        upsertStmt.addBatch();
+        upsertStmt.setInt(1, 2);
+        upsertStmt.addBatch();
+        updateCounts = upsertStmt.executeBatch();
+        assertEquals(2, updateCounts.length);
+        assertEquals(1, updateCounts[0]);
+        assertEquals(1, updateCounts[1]);
+        conn.commit();
+        conn.close();
+        
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts + 2)); // Execute at timestamp 2
+        conn = DriverManager.getConnection(PHOENIX_JDBC_URL, props);
+        ResultSet rs = conn.createStatement().executeQuery("SELECT i FROM IntKeyTest");
+        for (int i : new int[] {1, 2, 3, 11, 12}) {
+            assertTrue(rs.next());
+            assertEquals(i,rs.getInt(1));
+        }
+        assertFalse(rs.next());
+        conn.close();
+    }
+    
+    @Test
+    public void testUpsertAndDeleteSameRowsBeforeCommit() throws Exception {
+        long ts = nextTimestamp();
+        Properties props = new Properties();
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts));
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.createStatement().execute("create table UpsertSameRows (k VARCHAR not null primary key, v1 VARCHAR, v2 VARCHAR)");
+        conn.close();
+
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts+5));
+        conn = DriverManager.getConnection(getUrl(), props);
+        conn.setAutoCommit(false);
+        conn.createStatement().execute("upsert into UpsertSameRows values ('a','a1','a2')");
+        conn.createStatement().execute("upsert into UpsertSameRows(k,v2) values ('a','a3')");
+        conn.createStatement().execute("upsert into UpsertSameRows values ('b','b1','b2')");
+        conn.createStatement().execute("delete from UpsertSameRows where k = 'b'");
+        conn.createStatement().execute("upsert into UpsertSameRows(k,v1) values ('b','b3')");
+        conn.createStatement().execute("upsert into UpsertSameRows values ('c','c1','c2')");
+        conn.createStatement().execute("delete from UpsertSameRows where k = 'c'");
+        conn.commit();
+        conn.close();
+
+        props.setProperty(PhoenixRuntime.CURRENT_SCN_ATTRIB, Long.toString(ts+10));
+        conn = DriverManager.getConnection(getUrl(), props);
+        ResultSet rs = conn.createStatement().executeQuery("select k, v1, v2 from UpsertSameRows");
+        assertTrue(rs.next());
+        assertEquals("a", rs.getString(1));
+        assertEquals("a1", rs.getString(2));
+        assertEquals("a3", rs.getString(3));
+        assertTrue(rs.next());
+        assertEquals("b", rs.getString(1));
+        assertEquals("b3", rs.getString(2));
+        assertNull(rs.getString(3));
+        assertFalse(rs.next());
+        conn.close();
+    }
+    
     @Test
     public void testUpsertValuesWithExpression() throws Exception {
         long ts = nextTimestamp();
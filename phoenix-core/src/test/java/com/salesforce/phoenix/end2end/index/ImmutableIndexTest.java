@@ -43,6 +43,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Future;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
@@ -530,4 +531,46 @@ public class ImmutableIndexTest extends BaseHBaseManagedTimeTest{
             }
         }
     }
+    
+    @Test
+    public void testCommitAsync() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        try {
+            conn.setAutoCommit(false);
+            conn.createStatement().execute("CREATE TABLE T (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR) IMMUTABLE_ROWS=true");
+            conn.createStatement().execute("CREATE INDEX I ON T (v)");
+            PhoenixConnection pconn = conn.unwrap(PhoenixConnection.class);
+            
+            conn.createStatement().execute("UPSERT INTO T VALUES('a','x')");
+            Future<Void> firstCommit = pconn.commitAsync();
+            // Build up the next commit while the first one is sent
+            conn.createStatement().execute("UPSERT INTO T VALUES('b','y')");
+            Future<Void> secondCommit = pconn.commitAsync();
+            conn.createStatement().execute("UPSERT INTO T VALUES('c','z')");
+            // Waits for the asynchronous commits
+            conn.commit();
+            assertTrue(firstCommit.isDone());
+            assertTrue(secondCommit.isDone());
+            firstCommit.get();
+            secondCommit.get();
+            
+            String query = "SELECT k, v FROM T WHERE v >= 'x'";
+            ResultSet rs = conn.createStatement().executeQuery("EXPLAIN " + query);
+            assertEquals("CLIENT PARALLEL 1-WAY RANGE SCAN OVER I ['x'] - [*]", QueryUtil.getExplainPlan(rs));
+            rs = conn.createStatement().executeQuery(query);
+            assertTrue(rs.next());
+            assertEquals("a", rs.getString(1));
+            assertEquals("x", rs.getString(2));
+            assertTrue(rs.next());
+            assertEquals("b", rs.getString(1));
+            assertEquals("y", rs.getString(2));
+            assertTrue(rs.next());
+            assertEquals("c", rs.getString(1));
+            assertEquals("z", rs.getString(2));
+            assertFalse(rs.next());
+        } finally {
+            conn.close();
+        }
+    }
 }
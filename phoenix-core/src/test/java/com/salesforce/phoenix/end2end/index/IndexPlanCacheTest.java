@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.end2end.index;
+
+import static com.salesforce.phoenix.util.TestUtil.TEST_PROPERTIES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.salesforce.phoenix.jdbc.PhoenixConnection;
+import com.salesforce.phoenix.jdbc.PhoenixStatement;
+import com.salesforce.phoenix.optimize.QueryPlanCache;
+
+/**
+ * Tests the reuse of the index chosen for a query by the {@link QueryPlanCache} of a connection
+ */
+public class IndexPlanCacheTest extends BaseMutableIndexTest {
+
+    @Test
+    public void testPreparedQueryReusesChosenIndex() throws Exception {
+        Properties props = new Properties(TEST_PROPERTIES);
+        Connection conn = DriverManager.getConnection(getUrl(), props);
+        conn.setAutoCommit(false);
+        try {
+            conn.createStatement().execute("CREATE TABLE " + DATA_TABLE_FULL_NAME + " (k VARCHAR NOT NULL PRIMARY KEY, v1 VARCHAR, v2 VARCHAR)");
+            conn.createStatement().execute("CREATE INDEX " + INDEX_TABLE_NAME + " ON " + DATA_TABLE_FULL_NAME + " (v1) INCLUDE (v2)");
+            // Can be used for the query too, but doesn't allow a range scan on v1
+            conn.createStatement().execute("CREATE INDEX " + INDEX_TABLE_NAME + "2 ON " + DATA_TABLE_FULL_NAME + " (v2) INCLUDE (v1)");
+            PreparedStatement stmt = conn.prepareStatement("UPSERT INTO " + DATA_TABLE_FULL_NAME + " VALUES(?,?,?)");
+            String[][] rows = {{"a","x","1"},{"b","y","2"},{"c","z","3"}};
+            for (String[] row : rows) {
+                stmt.setString(1, row[0]);
+                stmt.setString(2, row[1]);
+                stmt.setString(3, row[2]);
+                stmt.execute();
+            }
+            conn.commit();
+            
+            QueryPlanCache planCache = conn.unwrap(PhoenixConnection.class).getQueryPlanCache();
+            planCache.clear();
+            long hitCount = planCache.getHitCount();
+            PreparedStatement query = conn.prepareStatement("SELECT k, v2 FROM " + DATA_TABLE_FULL_NAME + " WHERE v1 = ?");
+            // Rebind the same statement, so that the cached choice of the index is used with new values
+            for (String[] row : rows) {
+                query.setString(1, row[1]);
+                ResultSet rs = query.executeQuery();
+                assertTrue(rs.next());
+                assertEquals(row[0], rs.getString(1));
+                assertEquals(row[2], rs.getString(2));
+                assertFalse(rs.next());
+                assertEquals(INDEX_TABLE_FULL_NAME, query.unwrap(PhoenixStatement.class).getQueryPlan().getTableRef().getTable().getName().getString());
+            }
+            assertEquals(1, planCache.size());
+            // Only the first execution compiled all the plans
+            assertEquals(hitCount + rows.length - 1, planCache.getHitCount());
+            
+            // Dropping the index invalidates the cached choice, so that the remaining index is chosen instead
+            conn.createStatement().execute("DROP INDEX " + INDEX_TABLE_NAME + " ON " + DATA_TABLE_FULL_NAME);
+            for (String[] row : rows) {
+                query.setString(1, row[1]);
+                ResultSet rs = query.executeQuery();
+                assertTrue(rs.next());
+                assertEquals(row[0], rs.getString(1));
+                assertEquals(row[2], rs.getString(2));
+                assertFalse(rs.next());
+                assertEquals(INDEX_TABLE_FULL_NAME + "2", query.unwrap(PhoenixStatement.class).getQueryPlan().getTableRef().getTable().getName().getString());
+            }
+            assertEquals(1, planCache.size());
+            assertEquals(hitCount + 2 * (rows.length - 1), planCache.getHitCount());
+        } finally {
+            conn.close();
+        }
+    }
+}
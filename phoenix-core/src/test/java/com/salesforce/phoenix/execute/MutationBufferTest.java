@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.execute;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.client.Mutation;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.client.KeyValueBuilder;
+import com.salesforce.phoenix.schema.PColumn;
+import com.salesforce.phoenix.schema.PColumnImpl;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PNameFactory;
+import com.salesforce.phoenix.schema.PRow;
+import com.salesforce.phoenix.schema.PTable;
+
+public class MutationBufferTest {
+    private static final PColumn V1 = new PColumnImpl(PNameFactory.newName("V1"), PNameFactory.newName("CF"), PDataType.VARBINARY, null, null, true, 1, null);
+    private static final PColumn V2 = new PColumnImpl(PNameFactory.newName("V2"), PNameFactory.newName("CF"), PDataType.VARBINARY, null, null, true, 2, null);
+    
+    /**
+     * Row that records the values set on it
+     */
+    private static class TestRow implements PRow {
+        private final Map<PColumn,byte[]> values = Maps.newHashMap();
+        private boolean isDeleted;
+        
+        @Override
+        public List<Mutation> toRowMutations() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public void setValue(PColumn col, Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void setValue(PColumn col, byte[] value) {
+            // Only the newest value of a column may be set
+            assertFalse(values.containsKey(col));
+            values.put(col, value);
+        }
+
+        @Override
+        public void delete() {
+            isDeleted = true;
+        }
+    }
+    
+    /**
+     * @return the rows of the buffer, by row key
+     */
+    private static Map<String,TestRow> getRows(MutationBuffer buffer) {
+        final Map<String,TestRow> rows = Maps.newHashMap();
+        PTable table = Mockito.mock(PTable.class);
+        Mockito.when(table.newRow(Mockito.any(KeyValueBuilder.class), Mockito.anyLong(), Mockito.any(ImmutableBytesWritable.class))).thenAnswer(new Answer<PRow>() {
+            @Override
+            public PRow answer(InvocationOnMock invocation) throws Throwable {
+                ImmutableBytesWritable key = (ImmutableBytesWritable)invocation.getArguments()[2];
+                TestRow row = new TestRow();
+                assertNull(rows.put(Bytes.toString(key.copyBytes()), row));
+                return row;
+            }
+        });
+        buffer.addRowMutations(table, null, 0, Lists.<Mutation>newArrayList());
+        assertEquals(buffer.size(), rows.size());
+        return rows;
+    }
+    
+    private static ImmutableBytesPtr key(String key) {
+        return new ImmutableBytesPtr(Bytes.toBytes(key));
+    }
+    
+    private static byte[] value(int length, int b) {
+        byte[] value = new byte[length];
+        Arrays.fill(value, (byte)b);
+        return value;
+    }
+    
+    private static void assertRow(TestRow row, byte[] v1, byte[] v2) {
+        assertFalse(row.isDeleted);
+        assertArrayEquals(v1, row.values.get(V1));
+        assertArrayEquals(v2, row.values.get(V2));
+    }
+    
+    @Test
+    public void testOverwrite() {
+        MutationBuffer buffer = new MutationBuffer(1);
+        buffer.put(key("a"), ImmutableMap.of(V1, value(3, 1), V2, value(3, 2)));
+        buffer.put(key("b"), ImmutableMap.of(V1, value(3, 3)));
+        // Doesn't fit in the slot of the old value
+        buffer.put(key("a"), ImmutableMap.of(V1, value(10, 4)));
+        Map<String,TestRow> rows = getRows(buffer);
+        assertRow(rows.get("a"), value(10, 4), value(3, 2));
+        assertRow(rows.get("b"), value(3, 3), null);
+        // Fits in the slot of the old value
+        buffer.put(key("a"), ImmutableMap.of(V1, value(1, 5), V2, new byte[0]));
+        rows = getRows(buffer);
+        assertRow(rows.get("a"), value(1, 5), new byte[0]);
+        assertRow(rows.get("b"), value(3, 3), null);
+    }
+    
+    @Test
+    public void testDelete() {
+        MutationBuffer buffer = new MutationBuffer(1);
+        buffer.put(key("a"), ImmutableMap.of(V1, value(3, 1), V2, value(3, 2)));
+        buffer.put(key("b"), ImmutableMap.of(V1, value(3, 3)));
+        buffer.put(key("a"), PRow.DELETE_MARKER);
+        buffer.put(key("c"), PRow.DELETE_MARKER);
+        Map<String,TestRow> rows = getRows(buffer);
+        assertTrue(rows.get("a").isDeleted);
+        assertTrue(rows.get("a").values.isEmpty());
+        assertRow(rows.get("b"), value(3, 3), null);
+        assertTrue(rows.get("c").isDeleted);
+        // An upsert replaces the delete, without bringing back the deleted values
+        buffer.put(key("a"), ImmutableMap.of(V2, value(3, 4)));
+        rows = getRows(buffer);
+        assertRow(rows.get("a"), null, value(3, 4));
+        assertTrue(rows.get("c").isDeleted);
+    }
+    
+    @Test
+    public void testPutAll() {
+        MutationBuffer buffer = new MutationBuffer(1);
+        buffer.put(key("a"), ImmutableMap.of(V1, value(3, 1), V2, value(3, 2)));
+        buffer.put(key("b"), ImmutableMap.of(V1, value(3, 3)));
+        MutationBuffer newer = new MutationBuffer(1);
+        newer.put(key("a"), ImmutableMap.of(V1, value(5, 4)));
+        newer.put(key("b"), PRow.DELETE_MARKER);
+        newer.put(key("c"), ImmutableMap.of(V2, value(3, 5)));
+        buffer.putAll(newer);
+        Map<String,TestRow> rows = getRows(buffer);
+        assertRow(rows.get("a"), value(5, 4), value(3, 2));
+        assertTrue(rows.get("b").isDeleted);
+        assertRow(rows.get("c"), null, value(3, 5));
+    }
+    
+    @Test
+    public void testOverwritesCompacted() {
+        int nRows = 10;
+        MutationBuffer buffer = new MutationBuffer(nRows);
+        for (int i = 0; i < 10000; i++) {
+            // Alternate between values that fit in the slot of the old value and ones that don't
+            buffer.put(key(Integer.toString(i % nRows)), ImmutableMap.of(V1, value(i % 20 < nRows ? 10 : 200, i)));
+        }
+        assertTrue("Expected dead bytes to be compacted, but buffer is " + buffer.getByteSize() + " bytes", buffer.getByteSize() < 64 * 1024);
+        Map<String,TestRow> rows = getRows(buffer);
+        for (int i = 10000 - nRows; i < 10000; i++) {
+            assertRow(rows.get(Integer.toString(i % nRows)), value(i % 20 < nRows ? 10 : 200, i), null);
+        }
+    }
+    
+    @Test
+    public void testDeletesCompacted() {
+        int nRows = 100;
+        MutationBuffer buffer = new MutationBuffer(nRows);
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < nRows; j++) {
+                buffer.put(key(Integer.toString(j)), ImmutableMap.of(V1, value(100, i), V2, value(100, j)));
+            }
+            for (int j = 0; j < nRows; j += 2) {
+                buffer.put(key(Integer.toString(j)), PRow.DELETE_MARKER);
+            }
+        }
+        assertTrue("Expected dead bytes to be compacted, but buffer is " + buffer.getByteSize() + " bytes", buffer.getByteSize() < 256 * 1024);
+        Map<String,TestRow> rows = getRows(buffer);
+        for (int j = 0; j < nRows; j++) {
+            TestRow row = rows.get(Integer.toString(j));
+            if (j % 2 == 0) {
+                assertTrue(row.isDeleted);
+            } else {
+                assertRow(row, value(100, 99), value(100, j));
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.CompareFilter.CompareOp;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.tuple.MultiKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.ByteUtil;
+import com.salesforce.phoenix.util.KeyValueUtil;
+
+public class BatchEvaluationTest {
+    private static final byte[] ROW = Bytes.toBytes("r");
+    private static final byte[] FAMILY = Bytes.toBytes("f");
+    private static final byte[] UNEVALUATED_FAMILY = Bytes.toBytes("u");
+    private static final byte[] QUALIFIER = Bytes.toBytes("q");
+    private static final Object UNEVALUATED = new Object();
+    
+    /**
+     * Evaluates to the value of the key value at its index in the row, or
+     * can't be evaluated if the key value is in the unevaluated family.
+     */
+    private static class IndexedValueExpression extends BaseTerminalExpression {
+        private final int index;
+        private final PDataType type;
+        
+        private IndexedValueExpression(int index, PDataType type) {
+            this.index = index;
+            this.type = type;
+        }
+        
+        @Override
+        public boolean evaluate(Tuple tuple, ImmutableBytesWritable ptr) {
+            KeyValue kv = tuple.getValue(index);
+            if (Bytes.equals(UNEVALUATED_FAMILY, kv.getFamily())) {
+                return false;
+            }
+            ptr.set(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+            return true;
+        }
+
+        @Override
+        public PDataType getDataType() {
+            return type;
+        }
+    }
+    
+    private static KeyValue newValue(PDataType type, Object value) {
+        return KeyValueUtil.newKeyValue(ROW, FAMILY, QUALIFIER, 0, value == null ? ByteUtil.EMPTY_BYTE_ARRAY : type.toBytes(value));
+    }
+    
+    private static KeyValue newUnevaluated() {
+        return KeyValueUtil.newKeyValue(ROW, UNEVALUATED_FAMILY, QUALIFIER, 0, ByteUtil.EMPTY_BYTE_ARRAY);
+    }
+    
+    private static Tuple[] newRows(PDataType type, Object[][] values) {
+        Tuple[] tuples = new Tuple[values.length];
+        for (int i = 0; i < values.length; i++) {
+            KeyValue[] kvs = new KeyValue[values[i].length];
+            for (int j = 0; j < kvs.length; j++) {
+                kvs[j] = values[i][j] == UNEVALUATED ? newUnevaluated() : newValue(type, values[i][j]);
+            }
+            tuples[i] = new MultiKeyValueTuple(Arrays.asList(kvs));
+        }
+        return tuples;
+    }
+    
+    private static void assertBatchMatchesRows(Expression expression, Tuple[] tuples) {
+        ExpressionVector vector = new ExpressionVector(1);
+        Tuple[] reversedTuples = new Tuple[tuples.length];
+        for (int i = 0; i < tuples.length; i++) {
+            reversedTuples[i] = tuples[tuples.length - i - 1];
+        }
+        ImmutableBytesWritable[] firstBatchPtrs = new ImmutableBytesWritable[tuples.length];
+        byte[][] firstBatchValues = new byte[tuples.length][];
+        // Evaluate a second batch to exercise reuse of the vectors
+        for (Tuple[] batch : new Tuple[][] {tuples, reversedTuples}) {
+            BaseExpression.evaluate(expression, batch, batch.length, vector);
+            assertEquals(batch.length, vector.size());
+            ImmutableBytesWritable rowPtr = new ImmutableBytesWritable();
+            for (int i = 0; i < batch.length; i++) {
+                ImmutableBytesWritable batchPtr = new ImmutableBytesWritable();
+                expression.reset();
+                boolean isEvaluated = expression.evaluate(batch[i], rowPtr);
+                assertEquals("Row " + i, isEvaluated, vector.get(i, batchPtr));
+                if (isEvaluated) {
+                    assertArrayEquals("Row " + i, rowPtr.copyBytes(), batchPtr.copyBytes());
+                    if (batch == tuples) {
+                        firstBatchPtrs[i] = batchPtr;
+                        firstBatchValues[i] = batchPtr.copyBytes();
+                    }
+                }
+            }
+        }
+        // Values kept from an earlier batch, as by MIN and MAX, must not be overwritten by a later one
+        for (int i = 0; i < tuples.length; i++) {
+            if (firstBatchPtrs[i] != null) {
+                assertArrayEquals("Row " + i, firstBatchValues[i], firstBatchPtrs[i].copyBytes());
+            }
+        }
+    }
+    
+    private static List<Expression> newChildren(PDataType type, int nChildren) {
+        Expression[] children = new Expression[nChildren];
+        for (int i = 0; i < nChildren; i++) {
+            children[i] = new IndexedValueExpression(i, type);
+        }
+        return Arrays.asList(children);
+    }
+    
+    @Test
+    public void testLongArithmetic() throws Exception {
+        Tuple[] tuples = newRows(PDataType.LONG, new Object[][] {
+                {1L, 2L, 3L}, {-5L, 10L, 0L}, {null, 1L, 1L}, {7L, UNEVALUATED, 1L}, {Long.MAX_VALUE, 1L, -2L}});
+        assertBatchMatchesRows(new LongAddExpression(newChildren(PDataType.LONG, 3)), tuples);
+        assertBatchMatchesRows(new LongMultiplyExpression(newChildren(PDataType.LONG, 3)), tuples);
+    }
+    
+    @Test
+    public void testDoubleArithmetic() throws Exception {
+        Tuple[] tuples = newRows(PDataType.DOUBLE, new Object[][] {
+                {1.5, 2.0}, {-0.25, 4.0}, {3.0, null}, {null, UNEVALUATED}, {UNEVALUATED, null}, {Double.NaN, 1.0}, {Double.MAX_VALUE, 2.0}});
+        assertBatchMatchesRows(new DoubleAddExpression(newChildren(PDataType.DOUBLE, 2)), tuples);
+        assertBatchMatchesRows(new DoubleMultiplyExpression(newChildren(PDataType.DOUBLE, 2)), tuples);
+    }
+    
+    @Test
+    public void testComparison() throws Exception {
+        Tuple[] tuples = newRows(PDataType.VARCHAR, new Object[][] {
+                {"a", "b"}, {"b", "a"}, {"c", "c"}, {"d", UNEVALUATED}, {UNEVALUATED, "d"}});
+        for (CompareOp op : new CompareOp[] {CompareOp.LESS, CompareOp.EQUAL, CompareOp.GREATER_OR_EQUAL}) {
+            assertBatchMatchesRows(new ComparisonExpression(op, newChildren(PDataType.VARCHAR, 2)), tuples);
+        }
+    }
+    
+    @Test
+    public void testInList() throws Exception {
+        Tuple[] tuples = newRows(PDataType.VARCHAR, new Object[][] {{"a"}, {"b"}, {"z"}, {UNEVALUATED}});
+        List<Expression> children = Arrays.<Expression>asList(new IndexedValueExpression(0, PDataType.VARCHAR),
+                LiteralExpression.newConstant("a"), LiteralExpression.newConstant("b"), LiteralExpression.newConstant("c"));
+        assertBatchMatchesRows(InListExpression.create(children, new ImmutableBytesWritable()), tuples);
+    }
+    
+    @Test
+    public void testAndOr() throws Exception {
+        Tuple[] tuples = newRows(PDataType.BOOLEAN, new Object[][] {
+                {true, true}, {true, UNEVALUATED}, {false, true}, {UNEVALUATED, false}, {true, false}, {false, UNEVALUATED}, {false, false}});
+        // Reset first to enable the partial evaluation, which must not leak from one row into the next
+        Expression and = new AndExpression(newChildren(PDataType.BOOLEAN, 2));
+        and.reset();
+        assertBatchMatchesRows(and, tuples);
+        Expression or = new OrExpression(newChildren(PDataType.BOOLEAN, 2));
+        or.reset();
+        assertBatchMatchesRows(or, tuples);
+    }
+    
+    @Test
+    public void testCase() throws Exception {
+        Tuple[] tuples = newRows(PDataType.BOOLEAN, new Object[][] {
+                {true, false}, {false, UNEVALUATED}, {true, true}, {UNEVALUATED, true}, {false, true}, {false, false}});
+        List<Expression> children = Arrays.<Expression>asList(
+                LiteralExpression.newConstant("x"), new IndexedValueExpression(0, PDataType.BOOLEAN),
+                LiteralExpression.newConstant("y"), new IndexedValueExpression(1, PDataType.BOOLEAN),
+                LiteralExpression.newConstant("z"));
+        Expression caseExpression = new CaseExpression(children);
+        caseExpression.reset();
+        assertBatchMatchesRows(caseExpression, tuples);
+    }
+    
+    @Test
+    public void testCoerce() throws Exception {
+        Tuple[] tuples = newRows(PDataType.INTEGER, new Object[][] {{1}, {-7}, {0}, {UNEVALUATED}});
+        assertBatchMatchesRows(new CoerceExpression(new IndexedValueExpression(0, PDataType.INTEGER), PDataType.DECIMAL), tuples);
+        assertBatchMatchesRows(new CoerceExpression(new IndexedValueExpression(0, PDataType.INTEGER), PDataType.LONG), tuples);
+    }
+}
@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.expression.aggregator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+public class HyperLogLogTest {
+
+    private static void add(HyperLogLog sketch, int from, int to) {
+        for (int i = from; i < to; i++) {
+            byte[] value = Bytes.toBytes("value" + i);
+            sketch.add(value, 0, value.length);
+        }
+    }
+    
+    private static void assertWithinError(long expected, long actual) {
+        // Allow for three standard errors
+        assertTrue("Estimate of " + actual + " for " + expected, Math.abs(expected - actual) <= expected * 0.05);
+    }
+    
+    @Test
+    public void testSmallCardinalityIsExact() {
+        HyperLogLog sketch = new HyperLogLog();
+        add(sketch, 0, 10);
+        add(sketch, 0, 10);
+        assertEquals(10, sketch.estimate());
+    }
+    
+    @Test
+    public void testLargeCardinality() {
+        HyperLogLog sketch = new HyperLogLog();
+        add(sketch, 0, 100000);
+        assertWithinError(100000, sketch.estimate());
+    }
+    
+    @Test
+    public void testMergeSparseAndDense() {
+        HyperLogLog sketch1 = new HyperLogLog();
+        add(sketch1, 0, 50000);
+        HyperLogLog sketch2 = new HyperLogLog();
+        add(sketch2, 40000, 40100);
+        byte[] sparse = sketch2.toBytes();
+        assertTrue(sparse.length < HyperLogLog.REGISTER_COUNT);
+        byte[] dense = sketch1.toBytes();
+        assertEquals(HyperLogLog.REGISTER_COUNT + 1, dense.length);
+        
+        HyperLogLog merged = new HyperLogLog();
+        merged.merge(new ImmutableBytesWritable(dense));
+        merged.merge(new ImmutableBytesWritable(sparse));
+        assertEquals(sketch1.estimate(), merged.estimate());
+        
+        HyperLogLog copy = new HyperLogLog();
+        copy.merge(new ImmutableBytesWritable(sparse));
+        assertEquals(sketch2.estimate(), copy.estimate());
+    }
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.filter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.expression.KeyValueColumnExpression;
+import com.salesforce.phoenix.expression.RowKeyColumnExpression;
+import com.salesforce.phoenix.query.BaseConnectionlessQueryTest;
+import com.salesforce.phoenix.schema.RowKeyValueAccessor;
+
+
+public class JoinKeyBloomFilterTest extends BaseConnectionlessQueryTest {
+    private static final byte[] FAMILY = Bytes.toBytes("0");
+    private static final byte[] QUALIFIER = Bytes.toBytes("A");
+
+    private static List<Expression> getOrgIdKey() {
+        return Arrays.<Expression>asList(new RowKeyColumnExpression(ORGANIZATION_ID, new RowKeyValueAccessor(ATABLE.getPKColumns(), 0)));
+    }
+
+    private static KeyValue newKeyValue(String orgId, String entityId) {
+        return new KeyValue(Bytes.toBytes(orgId + entityId), FAMILY, QUALIFIER, Bytes.toBytes("v"));
+    }
+
+    private static JoinKeyBloomFilter roundTrip(JoinKeyBloomFilter filter) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        filter.write(new DataOutputStream(bytes));
+        JoinKeyBloomFilter copy = new JoinKeyBloomFilter();
+        copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        return copy;
+    }
+
+    @Test
+    public void testSkipsRowsWithoutMatchingKey() throws Exception {
+        List<ImmutableBytesPtr> keys = Arrays.asList(
+                new ImmutableBytesPtr(Bytes.toBytes("000000000000001")),
+                new ImmutableBytesPtr(Bytes.toBytes("000000000000003")));
+        JoinKeyBloomFilter filter = roundTrip(new JoinKeyBloomFilter(getOrgIdKey(), keys));
+        
+        assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(newKeyValue("000000000000001", "aaaaaaaaaaaaaaa")));
+        assertFalse(filter.filterRow());
+        filter.reset();
+        assertEquals(ReturnCode.INCLUDE, filter.filterKeyValue(newKeyValue("000000000000003", "bbbbbbbbbbbbbbb")));
+        assertFalse(filter.filterRow());
+        filter.reset();
+        // With only two keys in the filter, a false positive here is all but impossible
+        assertEquals(ReturnCode.NEXT_ROW, filter.filterKeyValue(newKeyValue("000000000000002", "aaaaaaaaaaaaaaa")));
+        assertTrue(filter.filterRow());
+    }
+
+    @Test
+    public void testIsRowKeyOnly() {
+        assertTrue(JoinKeyBloomFilter.isRowKeyOnly(getOrgIdKey()));
+        assertFalse(JoinKeyBloomFilter.isRowKeyOnly(Arrays.<Expression>asList(new KeyValueColumnExpression(A_STRING))));
+    }
+}
@@ -29,17 +29,22 @@ package com.salesforce.phoenix.iterate;
 
 import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
 import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.sql.SQLException;
 import java.util.*;
 
 import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.Test;
 
 import com.salesforce.phoenix.schema.tuple.SingleKeyValueTuple;
 import com.salesforce.phoenix.schema.tuple.Tuple;
 import com.salesforce.phoenix.util.AssertResults;
+import com.salesforce.phoenix.util.TupleUtil;
 
 
 public class MergeSortResultIteratorTest {
@@ -88,4 +93,58 @@ public class MergeSortResultIteratorTest {
         AssertResults.assertResults(scanner, expectedResults);
     }
 
+    @Test
+    public void testMergeSortManyIterators() throws Throwable {
+        Random random = new Random(0);
+        List<Tuple> expected = new ArrayList<Tuple>();
+        final List<PeekingResultIterator> results = new ArrayList<PeekingResultIterator>();
+        for (int i = 0; i < 100; i++) {
+            int[] keys = new int[random.nextInt(20)];
+            for (int j = 0; j < keys.length; j++) {
+                keys[j] = random.nextInt(1000);
+            }
+            Arrays.sort(keys);
+            List<Tuple> tuples = new ArrayList<Tuple>();
+            for (int key : keys) {
+                tuples.add(new SingleKeyValueTuple(new KeyValue(Bytes.toBytes(key), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(i))));
+            }
+            expected.addAll(tuples);
+            results.add(new MaterializedResultIterator(tuples));
+        }
+        Collections.sort(expected, new Comparator<Tuple>() {
+            private final ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+            @Override
+            public int compare(Tuple t1, Tuple t2) {
+                return TupleUtil.compare(t1, t2, ptr);
+            }
+        });
+        ResultIterators iterators = new ResultIterators() {
+
+            @Override
+            public List<PeekingResultIterator> getIterators() throws SQLException {
+                return results;
+            }
+
+            @Override
+            public int size() {
+                return results.size();
+            }
+
+            @Override
+            public void explain(List<String> planSteps) {
+            }
+            
+        };
+        ResultIterator scanner = new MergeSortRowKeyResultIterator(iterators);
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        ImmutableBytesWritable expectedPtr = new ImmutableBytesWritable();
+        for (Tuple expectedTuple : expected) {
+            Tuple tuple = scanner.next();
+            tuple.getKey(ptr);
+            expectedTuple.getKey(expectedPtr);
+            assertEquals(expectedPtr, ptr);
+        }
+        assertNull(scanner.next());
+        assertTrue(results.isEmpty());
+    }
 }
@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.iterate;
+
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
+import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Test;
+
+import com.salesforce.phoenix.iterate.ParallelIterators.ParallelScans;
+import com.salesforce.phoenix.schema.tuple.SingleKeyValueTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+
+
+public class ParallelIteratorsTest {
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    
+    /**
+     * Result of a single row that counts down a latch when closed
+     */
+    private static class ScanResultIterator extends MaterializedResultIterator {
+        private final CountDownLatch closed = new CountDownLatch(1);
+        
+        private ScanResultIterator(int value) {
+            super(Collections.<Tuple>singletonList(new SingleKeyValueTuple(new KeyValue(Bytes.toBytes(value), SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(value)))));
+        }
+        
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+        
+        private boolean awaitClose() throws InterruptedException {
+            return closed.await(10, TimeUnit.SECONDS);
+        }
+    }
+    
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Submit a scan that completes with the given result once started is counted down
+     */
+    private void submit(final ParallelScans scans, final CountDownLatch started, final ScanResultIterator result) {
+        final int index = scans.size();
+        scans.add(executor.submit(new Callable<PeekingResultIterator>() {
+            @Override
+            public PeekingResultIterator call() throws Exception {
+                PeekingResultIterator iterator = null;
+                try {
+                    started.await();
+                    iterator = result;
+                    return iterator;
+                } finally {
+                    scans.scanCompleted(index, iterator);
+                }
+            }
+        }));
+    }
+    
+    private static int getValue(PeekingResultIterator iterator) throws SQLException {
+        Tuple tuple = iterator.next();
+        return Bytes.toInt(tuple.getValue(0).getBuffer(), tuple.getValue(0).getValueOffset());
+    }
+    
+    @Test
+    public void testCompletionOrder() throws Exception {
+        ParallelScans scans = new ParallelScans(3, 60000);
+        CountDownLatch[] started = {new CountDownLatch(1), new CountDownLatch(1), new CountDownLatch(1)};
+        for (int i = 0; i < started.length; i++) {
+            submit(scans, started[i], new ScanResultIterator(i));
+        }
+        PeekingResultIterator[] iterators = new PeekingResultIterator[3];
+        for (int i = 0; i < iterators.length; i++) {
+            iterators[i] = scans.newCompletionOrderedIterator();
+        }
+        started[2].countDown();
+        assertEquals(2, getValue(iterators[0]));
+        started[0].countDown();
+        assertEquals(0, getValue(iterators[1]));
+        started[1].countDown();
+        assertEquals(1, getValue(iterators[2]));
+        for (PeekingResultIterator iterator : iterators) {
+            assertNull(iterator.next());
+            iterator.close();
+        }
+    }
+    
+    @Test
+    public void testTimeoutSharedAcrossScans() throws Exception {
+        int timeoutMs = 500;
+        ParallelScans scans = new ParallelScans(3, timeoutMs);
+        CountDownLatch neverStarted = new CountDownLatch(1);
+        PeekingResultIterator[] iterators = new PeekingResultIterator[3];
+        for (int i = 0; i < iterators.length; i++) {
+            submit(scans, neverStarted, new ScanResultIterator(i));
+            iterators[i] = scans.newIterator(i);
+        }
+        long startTime = System.currentTimeMillis();
+        for (PeekingResultIterator iterator : iterators) {
+            try {
+                iterator.next();
+                fail();
+            } catch (SQLException e) {
+            }
+        }
+        // All scans time out at the same deadline rather than each after its own timeout
+        long elapsedMs = System.currentTimeMillis() - startTime;
+        assertTrue("Timed out after " + elapsedMs + "ms", elapsedMs < 2 * timeoutMs);
+        neverStarted.countDown();
+    }
+    
+    @Test
+    public void testCloseWithoutWaiting() throws Exception {
+        ParallelScans scans = new ParallelScans(3, 60000);
+        CountDownLatch completed = new CountDownLatch(0);
+        CountDownLatch blocked = new CountDownLatch(1);
+        ScanResultIterator completedResult = new ScanResultIterator(0);
+        ScanResultIterator blockedResult = new ScanResultIterator(1);
+        ScanResultIterator consumedResult = new ScanResultIterator(2);
+        submit(scans, completed, completedResult);
+        submit(scans, blocked, blockedResult);
+        submit(scans, completed, consumedResult);
+        PeekingResultIterator consumed = scans.newIterator(2);
+        assertEquals(2, getValue(consumed));
+        assertEquals(1, completedResult.closed.getCount());
+        
+        // Closing iterators whose scans weren't waited for doesn't wait for the blocked scan
+        PeekingResultIterator completedIterator = scans.newIterator(0);
+        PeekingResultIterator blockedIterator = scans.newIterator(1);
+        long startTime = System.currentTimeMillis();
+        completedIterator.close();
+        blockedIterator.close();
+        assertTrue(System.currentTimeMillis() - startTime < 1000);
+        assertTrue(completedResult.awaitClose());
+        assertEquals(1, blockedResult.closed.getCount());
+        // The blocked scan is closed as soon as it completes
+        blocked.countDown();
+        assertTrue(blockedResult.awaitClose());
+        
+        assertEquals(1, consumedResult.closed.getCount());
+        consumed.close();
+        assertEquals(0, consumedResult.closed.getCount());
+    }
+    
+    @Test
+    public void testCloseCompletionOrderedWithoutWaiting() throws Exception {
+        ParallelScans scans = new ParallelScans(2, 60000);
+        CountDownLatch blocked = new CountDownLatch(1);
+        ScanResultIterator[] results = {new ScanResultIterator(0), new ScanResultIterator(1)};
+        submit(scans, blocked, results[0]);
+        submit(scans, blocked, results[1]);
+        PeekingResultIterator first = scans.newCompletionOrderedIterator();
+        PeekingResultIterator second = scans.newCompletionOrderedIterator();
+        // Each iterator closed before any scan completes gives up one of the scans
+        first.close();
+        second.close();
+        blocked.countDown();
+        assertTrue(results[0].awaitClose());
+        assertTrue(results[1].awaitClose());
+    }
+}
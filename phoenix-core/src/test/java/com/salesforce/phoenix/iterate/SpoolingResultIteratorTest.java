@@ -30,6 +30,11 @@ package com.salesforce.phoenix.iterate;
 import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN;
 import static com.salesforce.phoenix.query.QueryConstants.SINGLE_COLUMN_FAMILY;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
 import java.util.Arrays;
 
 import org.apache.hadoop.hbase.KeyValue;
@@ -49,6 +54,10 @@ public class SpoolingResultIteratorTest {
     private final static byte[] B = Bytes.toBytes("b");
 
     private void testSpooling(int threshold, long maxSizeSpool) throws Throwable {
+        testSpooling(threshold, maxSizeSpool, null);
+    }
+    
+    private void testSpooling(int threshold, long maxSizeSpool, File spoolDirectory) throws Throwable {
         Tuple[] results = new Tuple[] {
                 new SingleKeyValueTuple(new KeyValue(A, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(1))),
                 new SingleKeyValueTuple(new KeyValue(B, SINGLE_COLUMN_FAMILY, SINGLE_COLUMN, Bytes.toBytes(1))),
@@ -61,7 +70,7 @@ public class SpoolingResultIteratorTest {
             };
 
         MemoryManager memoryManager = new DelegatingMemoryManager(new GlobalMemoryManager(threshold, 0));
-        ResultIterator scanner = new SpoolingResultIterator(iterator, memoryManager, threshold, maxSizeSpool);
+        ResultIterator scanner = new SpoolingResultIterator(iterator, memoryManager, threshold, maxSizeSpool, spoolDirectory);
         AssertResults.assertResults(scanner, expectedResults);
     }
 
@@ -74,6 +83,29 @@ public class SpoolingResultIteratorTest {
         testSpooling(1, QueryServicesOptions.DEFAULT_MAX_SPOOL_TO_DISK_BYTES);
     }
 
+    @Test
+    public void testOnDiskSpoolingToDirectory() throws Throwable {
+        File spoolDirectory = File.createTempFile("SpoolingResultIteratorTest", "");
+        spoolDirectory.delete();
+        spoolDirectory.mkdir();
+        try {
+            testSpooling(1, QueryServicesOptions.DEFAULT_MAX_SPOOL_TO_DISK_BYTES, spoolDirectory);
+            // Spool file is removed once all results have been read
+            assertEquals(0, spoolDirectory.list().length);
+        } finally {
+            spoolDirectory.delete();
+        }
+    }
+
+    @Test
+    public void testGetSpoolDirectory() {
+        assertNull(SpoolingResultIterator.getSpoolDirectory(null));
+        assertEquals(new File("/a"), SpoolingResultIterator.getSpoolDirectory(" /a "));
+        File dir1 = SpoolingResultIterator.getSpoolDirectory("/a,/b");
+        File dir2 = SpoolingResultIterator.getSpoolDirectory("/a,/b");
+        assertFalse(dir1.equals(dir2));
+    }
+
     @Test(expected = SpoolTooBigToDiskException.class)
     public void testFailToSpool() throws Throwable{
     		testSpooling(1, 0L);
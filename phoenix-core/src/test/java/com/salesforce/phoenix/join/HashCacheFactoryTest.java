@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.join;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.WritableUtils;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.xerial.snappy.Snappy;
+
+import com.google.common.collect.Lists;
+import com.salesforce.hbase.index.util.ImmutableBytesPtr;
+import com.salesforce.phoenix.cache.HashCache;
+import com.salesforce.phoenix.expression.Expression;
+import com.salesforce.phoenix.expression.ExpressionType;
+import com.salesforce.phoenix.expression.KeyValueColumnExpression;
+import com.salesforce.phoenix.memory.MemoryManager.MemoryChunk;
+import com.salesforce.phoenix.schema.PColumnImpl;
+import com.salesforce.phoenix.schema.PDataType;
+import com.salesforce.phoenix.schema.PNameFactory;
+import com.salesforce.phoenix.schema.tuple.ResultTuple;
+import com.salesforce.phoenix.schema.tuple.Tuple;
+import com.salesforce.phoenix.util.TrustedByteArrayOutputStream;
+import com.salesforce.phoenix.util.TupleUtil;
+
+public class HashCacheFactoryTest {
+    private static final byte[] FAMILY = Bytes.toBytes("F");
+    private static final byte[] JOIN_KEY = Bytes.toBytes("K");
+    private static final byte[] ROW_ID = Bytes.toBytes("V");
+    
+    /**
+     * Creates a hash cache in the format sent by {@link HashCacheClient}, over rows made of a
+     * join key column and a column identifying the row
+     */
+    private static HashCache newHashCache(String... joinKeys) throws Exception {
+        Expression onExpression = new KeyValueColumnExpression(new PColumnImpl(PNameFactory.newName("K"), PNameFactory.newName("F"), PDataType.VARCHAR, null, null, true, 0, null));
+        TrustedByteArrayOutputStream baOut = new TrustedByteArrayOutputStream(1024);
+        DataOutputStream out = new DataOutputStream(baOut);
+        out.writeInt(1);
+        WritableUtils.writeVInt(out, ExpressionType.valueOf(onExpression).ordinal());
+        onExpression.write(out);
+        out.writeInt(baOut.size() + Bytes.SIZEOF_INT);
+        out.writeInt(joinKeys.length);
+        for (int i = 0; i < joinKeys.length; i++) {
+            byte[] row = Bytes.toBytes(i);
+            List<KeyValue> kvs = Arrays.asList(
+                    new KeyValue(row, FAMILY, JOIN_KEY, Bytes.toBytes(joinKeys[i])),
+                    new KeyValue(row, FAMILY, ROW_ID, Bytes.toBytes(i)));
+            TupleUtil.write(new ResultTuple(new Result(kvs)), out);
+        }
+        out.close();
+        byte[] compressed = Snappy.compress(Arrays.copyOf(baOut.getBuffer(), baOut.size()));
+        return (HashCache)new HashCacheFactory().newCache(new ImmutableBytesWritable(compressed), Mockito.mock(MemoryChunk.class));
+    }
+    
+    /**
+     * @return the ids of the rows with the given join key, or null if there are none
+     */
+    private static List<Integer> getRowIds(HashCache cache, String joinKey) {
+        List<Tuple> tuples = cache.get(new ImmutableBytesPtr(Bytes.toBytes(joinKey)));
+        if (tuples == null) {
+            return null;
+        }
+        List<Integer> rowIds = Lists.newArrayListWithExpectedSize(tuples.size());
+        ImmutableBytesWritable ptr = new ImmutableBytesWritable();
+        for (Tuple tuple : tuples) {
+            tuple.getValue(FAMILY, ROW_ID, ptr);
+            rowIds.add(Bytes.toInt(ptr.get(), ptr.getOffset()));
+        }
+        return rowIds;
+    }
+    
+    @Test
+    public void testDuplicateKeys() throws Exception {
+        HashCache cache = newHashCache("a", "b", "a", "c", "a", "b");
+        assertEquals(Arrays.asList(0, 2, 4), getRowIds(cache, "a"));
+        assertEquals(Arrays.asList(1, 5), getRowIds(cache, "b"));
+        assertEquals(Arrays.asList(3), getRowIds(cache, "c"));
+        cache.close();
+    }
+    
+    @Test
+    public void testCollidingKeys() throws Exception {
+        // All of these have the same hash
+        assertEquals(new ImmutableBytesPtr(Bytes.toBytes("AaAa")).hashCode(), new ImmutableBytesPtr(Bytes.toBytes("BBBB")).hashCode());
+        HashCache cache = newHashCache("AaAa", "BBBB", "AaBB", "BBBB", "AaAa");
+        assertEquals(Arrays.asList(0, 4), getRowIds(cache, "AaAa"));
+        assertEquals(Arrays.asList(1, 3), getRowIds(cache, "BBBB"));
+        assertEquals(Arrays.asList(2), getRowIds(cache, "AaBB"));
+        // Absent, but probes past the colliding keys
+        assertNull(getRowIds(cache, "BBAa"));
+        cache.close();
+    }
+    
+    @Test
+    public void testManyKeys() throws Exception {
+        int nKeys = 1000;
+        String[] joinKeys = new String[nKeys * 2];
+        for (int i = 0; i < joinKeys.length; i++) {
+            joinKeys[i] = Integer.toString(i % nKeys);
+        }
+        HashCache cache = newHashCache(joinKeys);
+        for (int i = 0; i < nKeys; i++) {
+            assertEquals(Arrays.asList(i, i + nKeys), getRowIds(cache, Integer.toString(i)));
+        }
+        for (int i = nKeys; i < nKeys * 2; i++) {
+            assertNull(getRowIds(cache, Integer.toString(i)));
+        }
+        cache.close();
+    }
+    
+    @Test
+    public void testAbsentKeys() throws Exception {
+        HashCache cache = newHashCache("a");
+        assertNull(getRowIds(cache, "b"));
+        assertNull(getRowIds(cache, ""));
+        assertEquals(Collections.singletonList(0), getRowIds(cache, "a"));
+        cache.close();
+        
+        cache = newHashCache();
+        assertNull(getRowIds(cache, "a"));
+        cache.close();
+    }
+}
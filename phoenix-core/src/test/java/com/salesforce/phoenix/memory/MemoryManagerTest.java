@@ -27,6 +27,7 @@
  ******************************************************************************/
 package com.salesforce.phoenix.memory;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -69,6 +70,29 @@ public class MemoryManagerTest {
         assertTrue(rmm1.getAvailableMemory() == rmm1.getMaxMemory());
     }
 
+    @Test
+    public void testGlobalMemoryMetrics() throws Exception {
+        GlobalMemoryManager gmm = new GlobalMemoryManager(100,1);
+        MemoryChunk c1 = gmm.allocate(60);
+        MemoryChunk c2 = gmm.allocate(10,50);
+        assertEquals(40, c2.getSize());
+        assertEquals(100, gmm.getUsedMemory());
+        try {
+            gmm.allocate(30);
+            fail();
+        } catch (InsufficientMemoryException e) { // expected
+        }
+        assertEquals(30, gmm.getDeniedMemory());
+        assertEquals(0, gmm.getWaitingMemory());
+        c2.resize(20);
+        assertEquals(80, gmm.getUsedMemory());
+        c1.close();
+        c1.close(); // closing twice frees nothing more
+        c2.close();
+        assertEquals(0, gmm.getUsedMemory());
+        assertEquals(gmm.getMaxMemory(), gmm.getAvailableMemory());
+    }
+
 
     private static void sleepFor(long time) {
         try {
@@ -205,6 +229,22 @@ public class MemoryManagerTest {
         assertTrue(rmm.getAvailableMemory() == rmm.getMaxMemory());
     }
 
+    @Test
+    public void testResizeAfterClose() throws Exception {
+        GlobalMemoryManager gmm = new GlobalMemoryManager(100,1);
+        MemoryChunk c1 = gmm.allocate(20);
+        c1.close();
+        try {
+            c1.resize(50);
+            fail();
+        } catch (IllegalStateException e) { // expected
+        }
+        // Closing again doesn't free the memory twice
+        c1.close();
+        assertEquals(0, gmm.getUsedMemory());
+        assertEquals(0, c1.getSize());
+    }
+
     @Test
     public void testChildDecreaseAllocation() throws Exception {
         MemoryManager gmm = new GlobalMemoryManager(100,1);
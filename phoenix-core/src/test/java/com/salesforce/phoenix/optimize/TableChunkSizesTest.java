@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.optimize;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.util.Collections;
+
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.HRegionLocation;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.salesforce.phoenix.compile.QueryPlan;
+import com.salesforce.phoenix.compile.ScanRanges;
+import com.salesforce.phoenix.jdbc.PhoenixStatement;
+import com.salesforce.phoenix.query.BaseConnectionlessQueryTest;
+import com.salesforce.phoenix.schema.stat.PTableStats;
+import com.salesforce.phoenix.schema.stat.PTableStatsImpl;
+
+
+public class TableChunkSizesTest extends BaseConnectionlessQueryTest {
+    
+    private static HRegionInfo newRegion(String tableName) {
+        return new HRegionInfo(Bytes.toBytes(tableName), HConstants.EMPTY_START_ROW, HConstants.EMPTY_END_ROW);
+    }
+    
+    private static byte[][] toGuidePosts(String... guidePosts) {
+        byte[][] b = new byte[guidePosts.length][];
+        for (int i = 0; i < guidePosts.length; i++) {
+            b[i] = Bytes.toBytes(guidePosts[i]);
+        }
+        return b;
+    }
+    
+    private static TableChunkSizes newChunkSizes(String tableName, byte[][] guidePosts, long[] byteCounts) {
+        HRegionInfo region = newRegion(tableName);
+        PTableStats stats = new PTableStatsImpl(Collections.singletonMap(region.getRegionNameAsString(), guidePosts),
+                Collections.singletonMap(region.getRegionNameAsString(), byteCounts), 1);
+        return TableChunkSizes.create(Collections.singletonList(new HRegionLocation(region, "localhost", -1)), stats);
+    }
+    
+    private static QueryPlan optimize(Connection conn, String query) throws Exception {
+        return conn.createStatement().unwrap(PhoenixStatement.class).optimizeQuery(query);
+    }
+    
+    @Test
+    public void testUnknownWithoutChunkByteCounts() throws Exception {
+        HRegionInfo region = newRegion("T");
+        PTableStats stats = new PTableStatsImpl(Collections.singletonMap(region.getRegionNameAsString(), toGuidePosts("c")));
+        TableChunkSizes chunkSizes = TableChunkSizes.create(Collections.singletonList(new HRegionLocation(region, "localhost", -1)), stats);
+        assertNull(chunkSizes.estimateBytesScanned(ScanRanges.EVERYTHING));
+    }
+    
+    @Test
+    public void testFullAndPartialChunks() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        conn.createStatement().execute("CREATE TABLE t (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR)");
+        TableChunkSizes chunkSizes = newChunkSizes("T", toGuidePosts("c", "f"), new long[] {100, 200, 40});
+        assertEquals(340L, (long)chunkSizes.estimateBytesScanned(optimize(conn, "SELECT * FROM t").getContext().getScanRanges()));
+        assertEquals(200L, (long)chunkSizes.estimateBytesScanned(optimize(conn, "SELECT * FROM t WHERE k >= 'c' AND k < 'f'").getContext().getScanRanges()));
+        // Only part of a chunk is scanned, so half of its bytes are counted
+        assertEquals(100L, (long)chunkSizes.estimateBytesScanned(optimize(conn, "SELECT * FROM t WHERE k > 'c' AND k < 'e'").getContext().getScanRanges()));
+        // A point lookup reads a block per key, whatever the size of the chunks the keys fall in
+        assertEquals(TableChunkSizes.POINT_LOOKUP_BYTES, (long)chunkSizes.estimateBytesScanned(optimize(conn, "SELECT * FROM t WHERE k = 'd'").getContext().getScanRanges()));
+        assertEquals(2 * TableChunkSizes.POINT_LOOKUP_BYTES, (long)chunkSizes.estimateBytesScanned(optimize(conn, "SELECT * FROM t WHERE k IN ('a','d')").getContext().getScanRanges()));
+        assertEquals(20L, (long)chunkSizes.estimateBytesScanned(optimize(conn, "SELECT * FROM t WHERE k >= 'g'").getContext().getScanRanges()));
+        assertEquals(0L, (long)chunkSizes.estimateBytesScanned(optimize(conn, "SELECT * FROM t WHERE k = 'd' AND k = 'e'").getContext().getScanRanges()));
+    }
+    
+    @Test
+    public void testRankIndexOverFullScan() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        conn.createStatement().execute("CREATE TABLE t (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR) IMMUTABLE_ROWS=true");
+        conn.createStatement().execute("CREATE INDEX idx ON t(v)");
+        QueryPlan dataPlan = optimize(conn, "SELECT /*+ NO_INDEX */ k FROM t WHERE v = 'b'");
+        QueryPlan indexPlan = optimize(conn, "SELECT /*+ INDEX(t idx) */ k FROM t WHERE v = 'b'");
+        assertEquals("IDX", indexPlan.getTableRef().getTable().getTableName().getString());
+        TableChunkSizes dataChunkSizes = newChunkSizes("T", toGuidePosts("c", "f"), new long[] {1000, 1000, 1000});
+        TableChunkSizes indexChunkSizes = newChunkSizes("IDX", toGuidePosts("b", "c"), new long[] {500, 500, 500});
+        assertTrue(indexChunkSizes.estimateBytesScanned(indexPlan.getContext().getScanRanges()) < dataChunkSizes.estimateBytesScanned(dataPlan.getContext().getScanRanges()));
+    }
+    
+    @Test
+    public void testRankTableBySmallTailChunk() throws Exception {
+        Connection conn = DriverManager.getConnection(getUrl());
+        conn.createStatement().execute("CREATE TABLE t (k VARCHAR NOT NULL PRIMARY KEY, v VARCHAR) IMMUTABLE_ROWS=true");
+        conn.createStatement().execute("CREATE INDEX idx ON t(v)");
+        QueryPlan dataPlan = optimize(conn, "SELECT /*+ NO_INDEX */ k FROM t WHERE k >= 'g' AND v = 'b'");
+        QueryPlan indexPlan = optimize(conn, "SELECT /*+ INDEX(t idx) */ k FROM t WHERE k >= 'g' AND v = 'b'");
+        assertEquals("IDX", indexPlan.getTableRef().getTable().getTableName().getString());
+        // Both plans scan a single chunk, but the one of the data table is the small last chunk of its region
+        TableChunkSizes dataChunkSizes = newChunkSizes("T", toGuidePosts("c", "f"), new long[] {1000, 1000, 40});
+        TableChunkSizes indexChunkSizes = newChunkSizes("IDX", toGuidePosts("b", "c"), new long[] {500, 500, 500});
+        assertTrue(dataChunkSizes.estimateBytesScanned(dataPlan.getContext().getScanRanges()) < indexChunkSizes.estimateBytesScanned(indexPlan.getContext().getScanRanges()));
+    }
+}
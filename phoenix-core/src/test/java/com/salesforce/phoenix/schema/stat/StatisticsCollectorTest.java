@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.schema.stat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+
+public class StatisticsCollectorTest {
+    private static final byte[] FAMILY = Bytes.toBytes("0");
+    private static final byte[] VALUE = new byte[100];
+
+    private static KeyValue newKeyValue(String row, String qualifier) {
+        return new KeyValue(Bytes.toBytes(row), FAMILY, Bytes.toBytes(qualifier), VALUE);
+    }
+
+    @Test
+    public void testGuidePostsAtRowBoundaries() {
+        KeyValue kv = newKeyValue("a", "c1");
+        // Emit a guide post once two key values have been seen
+        StatisticsCollector collector = new StatisticsCollector(kv.getLength() * 2);
+        for (String row : new String[] {"a", "b", "c", "d", "e"}) {
+            collector.collect(newKeyValue(row, "c1"));
+            collector.collect(newKeyValue(row, "c2"));
+        }
+        byte[][] guidePosts = collector.getGuidePosts();
+        assertEquals(4, guidePosts.length);
+        assertArrayEquals(Bytes.toBytes("b"), guidePosts[0]);
+        assertArrayEquals(Bytes.toBytes("e"), guidePosts[3]);
+    }
+
+    @Test
+    public void testChunkByteCounts() {
+        KeyValue kv = newKeyValue("a", "c1");
+        StatisticsCollector collector = new StatisticsCollector(kv.getLength() * 3);
+        for (String row : new String[] {"a", "b", "c", "d"}) {
+            collector.collect(newKeyValue(row, "c1"));
+            collector.collect(newKeyValue(row, "c2"));
+        }
+        // The guide post is placed at the first row after the width is reached, leaving a smaller last chunk
+        assertEquals(1, collector.getGuidePosts().length);
+        assertArrayEquals(Bytes.toBytes("c"), collector.getGuidePosts()[0]);
+        assertArrayEquals(new long[] {kv.getLength() * 4, kv.getLength() * 4}, collector.getChunkByteCounts());
+        byte[] b = StatisticsUtil.toBytes(collector.getChunkByteCounts());
+        assertArrayEquals(collector.getChunkByteCounts(), StatisticsUtil.toChunkByteCounts(b, 0, b.length));
+    }
+
+    @Test
+    public void testNoGuidePostsForSmallRegion() {
+        StatisticsCollector collector = new StatisticsCollector(1024 * 1024);
+        collector.collect(newKeyValue("a", "c1"));
+        collector.collect(newKeyValue("b", "c1"));
+        assertEquals(0, collector.getGuidePosts().length);
+    }
+
+    @Test
+    public void testSerializeGuidePosts() {
+        byte[][] guidePosts = new byte[][] {Bytes.toBytes("b"), Bytes.toBytes("bb"), Bytes.toBytes("x")};
+        byte[] b = StatisticsUtil.toBytes(guidePosts);
+        byte[][] deserialized = StatisticsUtil.toGuidePosts(b, 0, b.length);
+        assertEquals(guidePosts.length, deserialized.length);
+        for (int i = 0; i < guidePosts.length; i++) {
+            assertArrayEquals(guidePosts[i], deserialized[i]);
+        }
+    }
+
+    @Test
+    public void testRowKey() {
+        byte[] physicalName = Bytes.toBytes("T");
+        byte[] rowKey = StatisticsUtil.getRowKey(physicalName, "T,,1234.abc.", Bytes.toBytes("CF"));
+        assertEquals("T,,1234.abc.", StatisticsUtil.getRegionName(rowKey, StatisticsUtil.getRowKeyPrefix(physicalName).length));
+        assertArrayEquals(Bytes.toBytes("CF"), StatisticsUtil.getFamily(rowKey, StatisticsUtil.getRowKeyPrefix(physicalName).length));
+        byte[] regionPrefix = StatisticsUtil.getRowKeyPrefix(physicalName, "T,,1234.abc.");
+        assertArrayEquals(regionPrefix, Arrays.copyOf(rowKey, regionPrefix.length));
+    }
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2013, Salesforce.com, Inc.
+ * All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ *     Redistributions of source code must retain the above copyright notice,
+ *     this list of conditions and the following disclaimer.
+ *     Redistributions in binary form must reproduce the above copyright notice,
+ *     this list of conditions and the following disclaimer in the documentation
+ *     and/or other materials provided with the distribution.
+ *     Neither the name of Salesforce.com nor the names of its contributors may 
+ *     be used to endorse or promote products derived from this software without 
+ *     specific prior written permission.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE 
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL 
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR 
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER 
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, 
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ******************************************************************************/
+package com.salesforce.phoenix.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+
+public class PersistentHashMapTest {
+
+    /**
+     * Key with a configurable hash code, to force collisions
+     */
+    private static class Key {
+        private final String name;
+        private final int hashCode;
+        
+        private Key(String name, int hashCode) {
+            this.name = name;
+            this.hashCode = hashCode;
+        }
+        
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key)o).name.equals(name);
+        }
+    }
+    
+    @Test
+    public void testPutGetRemove() {
+        Map<String,Integer> expected = Maps.newHashMap();
+        PersistentHashMap<String,Integer> map = PersistentHashMap.emptyMap();
+        for (int i = 0; i < 10000; i++) {
+            map = map.put("T" + i, i);
+            expected.put("T" + i, i);
+        }
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < 10000; i += 3) {
+            map = map.remove("T" + i);
+            expected.remove("T" + i);
+        }
+        map = map.put("T1", -1);
+        expected.put("T1", -1);
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.size(), map.entries().size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(expected.get("T" + i), map.get("T" + i));
+        }
+        for (Map.Entry<String,Integer> entry : map.entries()) {
+            assertEquals(expected.get(entry.getKey()), entry.getValue());
+        }
+        assertSame(map, map.remove("T0"));
+    }
+    
+    @Test
+    public void testUpdatesLeaveOriginalUnchanged() {
+        PersistentHashMap<String,Integer> map1 = PersistentHashMap.<String,Integer>emptyMap().put("A", 1).put("B", 2);
+        PersistentHashMap<String,Integer> map2 = map1.put("A", 3).remove("B").put("C", 4);
+        assertEquals(2, map1.size());
+        assertEquals(Integer.valueOf(1), map1.get("A"));
+        assertEquals(Integer.valueOf(2), map1.get("B"));
+        assertNull(map1.get("C"));
+        assertEquals(2, map2.size());
+        assertEquals(Integer.valueOf(3), map2.get("A"));
+        assertNull(map2.get("B"));
+        assertEquals(Integer.valueOf(4), map2.get("C"));
+    }
+    
+    @Test
+    public void testHashCollisions() {
+        PersistentHashMap<Key,Integer> map = PersistentHashMap.emptyMap();
+        Key a = new Key("A", 42);
+        Key b = new Key("B", 42);
+        Key c = new Key("C", 42 + (1 << 20));
+        map = map.put(a, 1).put(b, 2).put(c, 3);
+        assertEquals(3, map.size());
+        assertEquals(Integer.valueOf(1), map.get(a));
+        assertEquals(Integer.valueOf(2), map.get(b));
+        assertEquals(Integer.valueOf(3), map.get(c));
+        assertNull(map.get(new Key("D", 42)));
+        map = map.remove(a);
+        assertEquals(2, map.size());
+        assertNull(map.get(a));
+        assertEquals(Integer.valueOf(2), map.get(b));
+        map = map.remove(b).remove(c);
+        assertEquals(0, map.size());
+        assertNull(map.get(b));
+    }
+}